@@ -47,12 +47,15 @@ import java.awt.geom.Rectangle2D;
 import java.awt.image.BufferedImage;
 import java.awt.image.ColorModel;
 import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferInt;
 import java.awt.image.Raster;
+import java.awt.image.SinglePixelPackedSampleModel;
 import java.awt.image.VolatileImage;
 import java.awt.image.WritableRaster;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.stream.IntStream;
 
 import processing.core.PApplet;
 import processing.core.PGraphics;
@@ -135,6 +138,9 @@ public class PGraphicsJava2D extends PGraphics {
 
 	Font fontObject;
 
+	/// pixels[] is the image's own array (hint ENABLE_DIRECT_PIXELS)
+	boolean pixelsDirect;
+
 	//////////////////////////////////////////////////////////////
 
 	// INTERNAL
@@ -327,6 +333,12 @@ public class PGraphicsJava2D extends PGraphics {
 			//
 			// image = gc.createCompatibleImage(wide, high, Transparency.TRANSLUCENT);
 			this.image = new BufferedImage(wide, high, BufferedImage.TYPE_INT_ARGB);
+
+			// pixels[] belonged to the old image, loadPixels() will bind the new one
+			if (this.pixelsDirect) {
+				this.pixels = null;
+				this.pixelsDirect = false;
+			}
 		}
 		return (Graphics2D) this.image.getGraphics();
 	}
@@ -536,6 +548,14 @@ public class PGraphicsJava2D extends PGraphics {
 			this.g2.setRenderingHint(RenderingHints.KEY_STROKE_CONTROL, RenderingHints.VALUE_STROKE_PURE);
 		} else if (which == DISABLE_STROKE_PURE) {
 			this.g2.setRenderingHint(RenderingHints.KEY_STROKE_CONTROL, RenderingHints.VALUE_STROKE_DEFAULT);
+
+		} else if (which == DISABLE_DIRECT_PIXELS) {
+			// Stop writing into the image; the next loadPixels() makes a copy.
+			// The image stays unaccelerated, Java2D has no way to take it back.
+			if (this.pixelsDirect) {
+				this.pixels = null;
+				this.pixelsDirect = false;
+			}
 		}
 	}
 
@@ -838,12 +858,14 @@ public class PGraphicsJava2D extends PGraphics {
 			this.g2.setComposite(this.defaultComposite);
 
 		} else {
+			// keep the mode, contexts may be created after it has changed again
+			final int mode = this.blendMode;
 			this.g2.setComposite(new Composite() {
 
 				@Override
 				public CompositeContext createContext(ColorModel srcColorModel, ColorModel dstColorModel,
 						RenderingHints hints) {
-					return new BlendingContext(PGraphicsJava2D.this.blendMode);
+					return new BlendingContext(mode);
 				}
 			});
 		}
@@ -852,7 +874,14 @@ public class PGraphicsJava2D extends PGraphics {
 	// Blending implementation cribbed from portions of Romain Guy's
 	// demo and terrific writeup on blending modes in Java 2D.
 	// http://www.curious-creature.org/2006/09/20/new-blendings-modes-for-java2d/
+	//
+	// Rows are blended in place with PImage.blendRow(), which has a loop for
+	// each mode, reading the int arrays behind the rasters directly. Large
+	// areas are split into bands that are blended in parallel.
 	private static final class BlendingContext implements CompositeContext {
+		static final int PARALLEL_THRESHOLD = 256 * 256;
+		static final int MIN_BAND_ROWS = 16;
+
 		private int mode;
 
 		private BlendingContext(int mode) {
@@ -872,23 +901,86 @@ public class PGraphicsJava2D extends PGraphics {
 				throw new IllegalStateException("Source and destination must store pixels as INT.");
 			}
 
-			int width = Math.min(src.getWidth(), dstIn.getWidth());
-			int height = Math.min(src.getHeight(), dstIn.getHeight());
+			final int width = Math.min(src.getWidth(), dstIn.getWidth());
+			final int height = Math.min(src.getHeight(), dstIn.getHeight());
+
+			final IntRows s = IntRows.of(src);
+			final IntRows in = IntRows.of(dstIn);
+			final IntRows out = IntRows.of(dstOut);
+			if ((s == null) || (in == null) || (out == null)) {
+				this.composeCopies(src, dstIn, dstOut, width, height);
+				return;
+			}
+
+			int bands = 1;
+			if ((long) width * height >= PARALLEL_THRESHOLD) {
+				int cores = Runtime.getRuntime().availableProcessors();
+				bands = Math.max(1, Math.min(cores, height / MIN_BAND_ROWS));
+			}
+			if (bands == 1) {
+				this.composeRows(s, in, out, width, 0, height);
+			} else {
+				final int count = bands;
+				IntStream.range(0, count).parallel().forEach(band -> {
+					this.composeRows(s, in, out, width, height * band / count, height * (band + 1) / count);
+				});
+			}
+		}
+
+		private void composeRows(IntRows s, IntRows in, IntRows out, int width, int y1, int y2) {
+			boolean inPlace = (in.data == out.data) && (in.offset == out.offset) && (in.stride == out.stride);
+			for (int y = y1; y < y2; y++) {
+				int outOffset = out.offset + y * out.stride;
+				if (!inPlace) {
+					System.arraycopy(in.data, in.offset + y * in.stride, out.data, outOffset, width);
+				}
+				PImage.blendRow(this.mode, out.data, outOffset, s.data, s.offset + y * s.stride, width);
+			}
+		}
 
+		/** For rasters not backed by a single int array, go through row copies. */
+		private void composeCopies(Raster src, Raster dstIn, WritableRaster dstOut, int width, int height) {
 			int[] srcPixels = new int[width];
 			int[] dstPixels = new int[width];
 
 			for (int y = 0; y < height; y++) {
-				src.getDataElements(0, y, width, 1, srcPixels);
-				dstIn.getDataElements(0, y, width, 1, dstPixels);
-				for (int x = 0; x < width; x++) {
-					dstPixels[x] = blendColor(dstPixels[x], srcPixels[x], this.mode);
-				}
-				dstOut.setDataElements(0, y, width, 1, dstPixels);
+				src.getDataElements(src.getMinX(), src.getMinY() + y, width, 1, srcPixels);
+				dstIn.getDataElements(dstIn.getMinX(), dstIn.getMinY() + y, width, 1, dstPixels);
+				PImage.blendRow(this.mode, dstPixels, 0, srcPixels, 0, width);
+				dstOut.setDataElements(dstOut.getMinX(), dstOut.getMinY() + y, width, 1, dstPixels);
 			}
 		}
 	}
 
+	/**
+	 * The int array behind a raster of packed pixels, with the index of its
+	 * first pixel and the distance between rows.
+	 */
+	private static final class IntRows {
+		final int[] data;
+		final int offset;
+		final int stride;
+
+		private IntRows(int[] data, int offset, int stride) {
+			this.data = data;
+			this.offset = offset;
+			this.stride = stride;
+		}
+
+		static IntRows of(Raster raster) {
+			if (!(raster.getSampleModel() instanceof SinglePixelPackedSampleModel)
+					|| !(raster.getDataBuffer() instanceof DataBufferInt)
+					|| (raster.getDataBuffer().getNumBanks() != 1)) {
+				return null;
+			}
+			SinglePixelPackedSampleModel model = (SinglePixelPackedSampleModel) raster.getSampleModel();
+			DataBufferInt buffer = (DataBufferInt) raster.getDataBuffer();
+			int offset = buffer.getOffset() + model.getOffset(raster.getMinX() - raster.getSampleModelTranslateX(),
+					raster.getMinY() - raster.getSampleModelTranslateY());
+			return new IntRows(buffer.getData(), offset, model.getScanlineStride());
+		}
+	}
+
 	//////////////////////////////////////////////////////////////
 
 	// BEZIER VERTICES
@@ -1342,7 +1434,7 @@ public class PGraphicsJava2D extends PGraphics {
 		}
 
 		if (who.isModified()) {
-			if (who.pixels == null) {
+			if ((who.pixels == null) && (who.getSamples() == null)) {
 				// This might be a PGraphics that hasn't been drawn to yet.
 				// Can't just bail because the cache has been created above.
 				// https://github.com/processing/processing/issues/2208
@@ -1405,6 +1497,15 @@ public class PGraphicsJava2D extends PGraphics {
 		 * update without further checks.
 		 */
 		public void update(PImage source, boolean tint, int tintColor) {
+			// Tinted ALPHA images in compact 8-bit storage are expanded straight
+			// from their samples below, anything else compact is read through a
+			// temporary int copy.
+			byte[] samples = source.getSamples();
+			int[] pixels = source.pixels;
+			if ((samples != null) && !(tint && (source.format == ALPHA))) {
+				pixels = source.expandSamples();
+				samples = null;
+			}
 			// int bufferType = BufferedImage.TYPE_INT_ARGB;
 			int targetType = ARGB;
 			boolean opaque = (tintColor & 0xFF000000) == 0xFF000000;
@@ -1444,7 +1545,7 @@ public class PGraphicsJava2D extends PGraphics {
 					int index = 0;
 					for (int y = 0; y < source.pixelHeight; y++) {
 						for (int x = 0; x < source.pixelWidth; x++) {
-							int argb1 = source.pixels[index++];
+							int argb1 = pixels[index++];
 							int r1 = (argb1 >> 16) & 0xff;
 							int g1 = (argb1 >> 8) & 0xff;
 							int b1 = (argb1) & 0xff;
@@ -1470,7 +1571,7 @@ public class PGraphicsJava2D extends PGraphics {
 						int index = 0;
 						for (int y = 0; y < source.pixelHeight; y++) {
 							for (int x = 0; x < source.pixelWidth; x++) {
-								this.tintedTemp[x] = hi | (source.pixels[index++] & 0xFFFFFF);
+								this.tintedTemp[x] = hi | (pixels[index++] & 0xFFFFFF);
 							}
 							wr.setDataElements(0, y, source.pixelWidth, 1, this.tintedTemp);
 						}
@@ -1480,7 +1581,7 @@ public class PGraphicsJava2D extends PGraphics {
 							if (source.format == RGB) {
 								int alpha = tintColor & 0xFF000000;
 								for (int x = 0; x < source.pixelWidth; x++) {
-									int argb1 = source.pixels[index++];
+									int argb1 = pixels[index++];
 									int r1 = (argb1 >> 16) & 0xff;
 									int g1 = (argb1 >> 8) & 0xff;
 									int b1 = (argb1) & 0xff;
@@ -1489,7 +1590,7 @@ public class PGraphicsJava2D extends PGraphics {
 								}
 							} else if (source.format == ARGB) {
 								for (int x = 0; x < source.pixelWidth; x++) {
-									int argb1 = source.pixels[index++];
+									int argb1 = pixels[index++];
 									int a1 = (argb1 >> 24) & 0xff;
 									int r1 = (argb1 >> 16) & 0xff;
 									int g1 = (argb1 >> 8) & 0xff;
@@ -1499,9 +1600,16 @@ public class PGraphicsJava2D extends PGraphics {
 								}
 							} else if (source.format == ALPHA) {
 								int lower = tintColor & 0xFFFFFF;
-								for (int x = 0; x < source.pixelWidth; x++) {
-									int a1 = source.pixels[index++];
-									this.tintedTemp[x] = (((a2 * a1) & 0xff00) << 16) | lower;
+								if (samples != null) {
+									for (int x = 0; x < source.pixelWidth; x++) {
+										int a1 = samples[index++] & 0xff;
+										this.tintedTemp[x] = (((a2 * a1) & 0xff00) << 16) | lower;
+									}
+								} else {
+									for (int x = 0; x < source.pixelWidth; x++) {
+										int a1 = pixels[index++];
+										this.tintedTemp[x] = (((a2 * a1) & 0xff00) << 16) | lower;
+									}
 								}
 							}
 							wr.setDataElements(0, y, source.pixelWidth, 1, this.tintedTemp);
@@ -1514,17 +1622,18 @@ public class PGraphicsJava2D extends PGraphics {
 //          op.filter(image, image);
 				}
 			} else { // !tint
-				if ((targetType == RGB) && ((source.pixels[0] >> 24) == 0)) {
+				if ((targetType == RGB) && ((pixels[0] >> 24) == 0)) {
 					// If it's an RGB image and the high bits aren't set, need to set
 					// the high bits to opaque because we're drawing ARGB images.
 					source.filter(OPAQUE);
+					pixels = source.pixels;
 					// Opting to just manipulate the image here, since it shouldn't
 					// affect anything else (and alpha(get(x, y)) should return 0xff).
 					// Wel also make no guarantees about the values of the pixels array
 					// in a PImage and how the high bits will be set.
 				}
 				// If no tint, just shove the pixels on in there verbatim
-				wr.setDataElements(0, 0, source.pixelWidth, source.pixelHeight, source.pixels);
+				wr.setDataElements(0, 0, source.pixelWidth, source.pixelHeight, pixels);
 			}
 			this.tinted = tint;
 			this.tintedColor = tintColor;
@@ -2320,8 +2429,43 @@ public class PGraphicsJava2D extends PGraphics {
 		return raster;
 	}
 
+	/**
+	 * The array backing the image, when hint(ENABLE_DIRECT_PIXELS) is set and
+	 * the image is laid out exactly like pixels[]. Otherwise null.
+	 */
+	protected int[] getDirectPixels() {
+		if (!this.hints[ENABLE_DIRECT_PIXELS] || !(this.image instanceof BufferedImage)) {
+			return null;
+		}
+		WritableRaster raster = ((BufferedImage) this.image).getRaster();
+		if (raster.getNumBands() != 4) {
+			return null;
+		}
+		// Taking the array turns off acceleration for this image for good
+		IntRows rows = IntRows.of(raster);
+		if ((rows == null) || (rows.offset != 0) || (rows.stride != this.pixelWidth)
+				|| (rows.data.length != (this.pixelWidth * this.pixelHeight))) {
+			return null;
+		}
+		return rows.data;
+	}
+
 	@Override
 	public void loadPixels() {
+		if (this.pixelsDirect || this.hints[ENABLE_DIRECT_PIXELS]) {
+			int[] direct = this.getDirectPixels();
+			if (direct != null) {
+				// pixels[] is the image itself, nothing to copy
+				this.pixels = direct;
+				this.pixelsDirect = true;
+				return;
+			}
+			if (this.pixelsDirect) {
+				this.pixels = null;
+				this.pixelsDirect = false;
+			}
+		}
+
 		if ((this.pixels == null) || (this.pixels.length != (this.pixelWidth * this.pixelHeight))) {
 			this.pixels = new int[this.pixelWidth * this.pixelHeight];
 		}
@@ -2358,10 +2502,17 @@ public class PGraphicsJava2D extends PGraphics {
 	 * Update the pixels[] buffer to the PGraphics image.
 	 * <P>
 	 * Unlike in PImage, where updatePixels() only requests that the update happens,
-	 * in PGraphicsJava2D, this will happen immediately.
+	 * in PGraphicsJava2D, this will happen immediately. With
+	 * hint(ENABLE_DIRECT_PIXELS) there is nothing to copy, and any area can be
+	 * passed.
 	 */
 	@Override
 	public void updatePixels(int x, int y, int c, int d) {
+		if (this.pixelsDirect) {
+			// Already written to the image, only record the modified area
+			super.updatePixels(x, y, c, d);
+			return;
+		}
 		// if ((x == 0) && (y == 0) && (c == width) && (d == height)) {
 //    System.err.format("%d %d %d %d .. w/h = %d %d .. pw/ph = %d %d %n", x, y, c, d, width, height, pixelWidth, pixelHeight);
 		if ((x != 0) || (y != 0) || (c != this.pixelWidth) || (d != this.pixelHeight)) {
@@ -0,0 +1,1150 @@
+/* -*- mode: java; c-basic-offset: 2; indent-tabs-mode: nil -*- */
+
+/*
+  Part of the Processing project - http://processing.org
+
+  This library is free software; you can redistribute it and/or
+  modify it under the terms of the GNU Lesser General Public
+  License as published by the Free Software Foundation; either
+  version 2.1 of the License, or (at your option) any later version.
+
+  This library is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General
+  Public License along with this library; if not, write to the
+  Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+  Boston, MA  02111-1307  USA
+*/
+
+package processing.awt;
+
+import java.awt.AlphaComposite;
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Composite;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.Image;
+import java.awt.Paint;
+import java.awt.Polygon;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.Shape;
+import java.awt.Stroke;
+import java.awt.font.FontRenderContext;
+import java.awt.font.GlyphVector;
+import java.awt.font.TextLayout;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Arc2D;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.Line2D;
+import java.awt.geom.Path2D;
+import java.awt.geom.Rectangle2D;
+import java.awt.geom.RectangularShape;
+import java.awt.geom.RoundRectangle2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.BufferedImageOp;
+import java.awt.image.DataBufferInt;
+import java.awt.image.ImageObserver;
+import java.awt.image.RenderedImage;
+import java.awt.image.WritableRaster;
+import java.awt.image.renderable.RenderableImage;
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.text.AttributedCharacterIterator;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.IntStream;
+
+import processing.core.PImage;
+import processing.core.PNGEncoder;
+import processing.core.PSurface;
+import processing.core.PSurfaceNone;
+import processing.core.PTiledImage;
+
+/**
+ * Offscreen Java2D renderer for images too large to draw in one piece, such
+ * as posters of 20k x 20k pixels and more.
+ * <p>
+ * Nothing is drawn while the sketch draws: every Java2D call is recorded in
+ * a display list instead, along with the area it covers. The image is then
+ * rendered a band of tiles at a time, the tiles of a band in parallel, each
+ * tile replaying only the drawing that touches it with its own translation.
+ * Finished bands are handed to the output (a streaming PNG encoder, or a
+ * {@link PTiledImage}) on a separate thread while the next band renders,
+ * so memory stays at two bands no matter how large the image is.
+ * <p>
+ * Use with a path to write the image on endDraw():
+ *
+ * <pre>
+ * PGraphics poster = createGraphics(20000, 20000, TILED, "poster.png");
+ * poster.beginDraw();
+ * ...
+ * poster.endDraw();
+ * </pre>
+ *
+ * or call save() or {@link #render(PTiledImage)} after endDraw(). Pixel
+ * operations that need the whole image (loadPixels(), get(), filter(),
+ * mask(), blend() and copy() within the surface) are not available.
+ */
+public class PGraphicsTiled extends PGraphicsJava2D {
+
+	/** Default width and height of the tiles, in pixels. */
+	static public final int DEFAULT_TILE_SIZE = 512;
+
+	/** Tiles are not made narrower than this just to keep every core busy. */
+	static final int MIN_TILE_WIDTH = 64;
+
+	protected int tileSize = DEFAULT_TILE_SIZE;
+
+	protected Recorder recorder;
+
+	public PGraphicsTiled() {
+	}
+
+	/**
+	 * Set the width and height of the tiles. Larger tiles repeat less work
+	 * for drawing that spans several of them, but make for larger bands.
+	 */
+	public void setTileSize(int size) {
+		if (size <= 0) {
+			throw new IllegalArgumentException("Tile size must be > 0");
+		}
+		this.tileSize = size;
+	}
+
+	public int getTileSize() {
+		return this.tileSize;
+	}
+
+	@Override
+	public PSurface createSurface() {
+		return this.surface = new PSurfaceNone(this);
+	}
+
+	/**
+	 * Start a new display list. The image itself is never created.
+	 */
+	@Override
+	public Graphics2D checkImage() {
+		this.recorder = new Recorder(this.pixelWidth, this.pixelHeight);
+		return this.recorder;
+	}
+
+	@Override
+	public void endDraw() {
+		this.g2.dispose();
+
+		if (this.path != null) {
+			this.save(this.path);
+		}
+	}
+
+	@Override
+	public void dispose() {
+		this.recorder = null;
+		super.dispose();
+	}
+
+	//////////////////////////////////////////////////////////////
+
+	// OUTPUT
+
+	/**
+	 * Render what was drawn since beginDraw() into a file. Only .png is
+	 * supported, other formats need the whole image in memory.
+	 */
+	@Override
+	public boolean save(String filename) {
+		if (this.recorder == null) {
+			showWarning("Nothing to save, call save() after beginDraw() and endDraw()");
+			return false;
+		}
+		if (!filename.toLowerCase().endsWith(".png")) {
+			showWarning("The tiled renderer can only save .png files, or render into a PTiledImage");
+			return false;
+		}
+		if (this.parent != null) {
+			filename = this.parent.savePath(filename);
+		}
+
+		try (OutputStream output = new BufferedOutputStream(new FileOutputStream(filename), 1 << 16)) {
+			PNGEncoder encoder = new PNGEncoder(PImage.pngCompression, PImage.pngFilter);
+			PNGEncoder.Rows rows = encoder.begin(this.pixelWidth, this.pixelHeight, this.format == ARGB, output);
+			this.render((y, pixels, count) -> rows.write(pixels, count));
+			rows.finish();
+			return true;
+
+		} catch (IOException e) {
+			e.printStackTrace();
+			return false;
+		}
+	}
+
+	/**
+	 * Render what was drawn since beginDraw() into a tiled image of the same
+	 * size, which is flushed afterwards.
+	 */
+	public void render(PTiledImage target) throws IOException {
+		if ((target.width != this.pixelWidth) || (target.height != this.pixelHeight)) {
+			throw new IllegalArgumentException("The tiled image must be " + this.pixelWidth + " x " + this.pixelHeight);
+		}
+		final int wide = this.pixelWidth;
+		this.render((y, pixels, count) -> target.writeRegion(0, y, wide, count, pixels, 0, wide));
+		target.flush();
+	}
+
+	/** Receives the finished image a band of rows at a time. */
+	protected interface Bands {
+		/**
+		 * @param y      first row of the band
+		 * @param pixels the band, with pixelWidth values per row
+		 * @param count  number of rows
+		 */
+		void write(int y, int[] pixels, int count) throws IOException;
+	}
+
+	/**
+	 * Replay the display list one band of tiles at a time. Bands are handed
+	 * to the output in order from a single thread, which works on one band
+	 * while the next is being rendered.
+	 */
+	protected void render(Bands output) throws IOException {
+		final Op[] ops = this.recorder.ops.toArray(new Op[0]);
+		final int wide = this.pixelWidth;
+		final int high = this.pixelHeight;
+
+		final int bandHeight = Math.min(this.tileSize, high);
+		final int bandCount = (high + bandHeight - 1) / bandHeight;
+		int cores = Runtime.getRuntime().availableProcessors();
+		final int cols = Math.max((wide + this.tileSize - 1) / this.tileSize,
+				Math.min(cores, Math.max(1, wide / MIN_TILE_WIDTH)));
+		final int tileWidth = (wide + cols - 1) / cols;
+
+		final int[][] bandOps = this.sortIntoBands(ops, bandHeight, bandCount);
+
+		BufferedImage[] buffers = { new BufferedImage(wide, bandHeight, BufferedImage.TYPE_INT_ARGB),
+				new BufferedImage(wide, bandHeight, BufferedImage.TYPE_INT_ARGB) };
+
+		ExecutorService writer = Executors.newSingleThreadExecutor(r -> {
+			Thread thread = new Thread(r, "tiled-output");
+			thread.setDaemon(true);
+			return thread;
+		});
+		Future<?> pending = null;
+		try {
+			for (int band = 0; band < bandCount; band++) {
+				final BufferedImage buffer = buffers[band % 2];
+				final int[] pixels = ((DataBufferInt) buffer.getRaster().getDataBuffer()).getData();
+				final int y = band * bandHeight;
+				final int count = Math.min(bandHeight, high - y);
+				final int[] list = bandOps[band];
+
+				// the writer is still busy with the other buffer
+				Arrays.fill(pixels, 0);
+				IntStream.range(0, cols).parallel().forEach(col -> {
+					int x = col * tileWidth;
+					int w = Math.min(tileWidth, wide - x);
+					if (w > 0) {
+						this.renderTile(buffer.getSubimage(x, 0, w, count), ops, list, x, y);
+					}
+				});
+
+				if (pending != null) {
+					await(pending);
+				}
+				pending = writer.submit(() -> {
+					output.write(y, pixels, count);
+					return null;
+				});
+			}
+			if (pending != null) {
+				await(pending);
+			}
+		} finally {
+			writer.shutdownNow();
+		}
+	}
+
+	static private void await(Future<?> future) throws IOException {
+		try {
+			future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while writing the image", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new RuntimeException(e.getCause());
+		}
+	}
+
+	/** Indices of the drawing operations that touch each band. */
+	protected int[][] sortIntoBands(Op[] ops, int bandHeight, int bandCount) {
+		int[] counts = new int[bandCount];
+		for (Op op : ops) {
+			for (int b = op.y1 / bandHeight; b <= Math.min(bandCount - 1, (op.y2 - 1) / bandHeight); b++) {
+				counts[b]++;
+			}
+		}
+		int[][] bands = new int[bandCount][];
+		for (int b = 0; b < bandCount; b++) {
+			bands[b] = new int[counts[b]];
+			counts[b] = 0;
+		}
+		for (int i = 0; i < ops.length; i++) {
+			Op op = ops[i];
+			for (int b = op.y1 / bandHeight; b <= Math.min(bandCount - 1, (op.y2 - 1) / bandHeight); b++) {
+				bands[b][counts[b]++] = i;
+			}
+		}
+		return bands;
+	}
+
+	protected void renderTile(BufferedImage tile, Op[] ops, int[] list, int x, int y) {
+		int right = x + tile.getWidth();
+		int bottom = y + tile.getHeight();
+		AffineTransform base = AffineTransform.getTranslateInstance(-x, -y);
+
+		Graphics2D g = tile.createGraphics();
+		State current = null;
+		for (int index : list) {
+			Op op = ops[index];
+			if ((op.x2 <= x) || (op.x1 >= right) || (op.y2 <= y) || (op.y1 >= bottom)) {
+				continue;
+			}
+			if (op.state != current) {
+				op.state.apply(g, base);
+				current = op.state;
+			}
+			op.drawing.draw(g);
+		}
+		g.dispose();
+	}
+
+	//////////////////////////////////////////////////////////////
+
+	// DRAWING THAT NEEDS SPECIAL CARE
+
+	@Override
+	protected void imageImpl(PImage who, float x1, float y1, float x2, float y2, int u1, int v1, int u2, int v2) {
+		// The cache image is about to be rewritten in place, so the recorder
+		// must stop reusing its earlier copy of it.
+		ImageCache cash = (ImageCache) this.getCache(who);
+		if ((cash != null) && (cash.image != null)) {
+			if (who.isModified() || (this.tint != cash.tinted) || (this.tint && (cash.tintedColor != this.tintColor))) {
+				this.recorder.forget(cash.image);
+			}
+		}
+		super.imageImpl(who, x1, y1, x2, y2, u1, v1, u2, v2);
+	}
+
+	@Override
+	public void backgroundImpl() {
+		Composite oldComposite = this.g2.getComposite();
+		AffineTransform oldTransform = this.g2.getTransform();
+		Shape oldClip = this.g2.getClip();
+
+		// Nothing drawn before an unclipped background can show through it
+		if (oldClip == null) {
+			this.recorder.clear();
+		}
+
+		this.g2.setClip(null);
+		this.g2.setTransform(new AffineTransform());
+		this.g2.setComposite(this.backgroundAlpha ? AlphaComposite.Src : this.defaultComposite);
+		this.g2.setColor(new Color(this.backgroundColor, this.backgroundAlpha));
+		this.g2.fillRect(0, 0, this.pixelWidth, this.pixelHeight);
+
+		this.g2.setTransform(oldTransform);
+		this.g2.setClip(oldClip);
+		this.g2.setComposite(oldComposite);
+	}
+
+	@Override
+	public void set(int x, int y, int argb) {
+		if ((x < 0) || (y < 0) || (x >= this.pixelWidth) || (y >= this.pixelHeight)) {
+			return;
+		}
+		Composite oldComposite = this.g2.getComposite();
+		AffineTransform oldTransform = this.g2.getTransform();
+		this.g2.setTransform(new AffineTransform());
+		this.g2.setComposite(AlphaComposite.Src);
+		this.g2.setColor(new Color(argb, true));
+		this.g2.fillRect(x, y, 1, 1);
+		this.g2.setTransform(oldTransform);
+		this.g2.setComposite(oldComposite);
+	}
+
+	@Override
+	protected void setImpl(PImage sourceImage, int sourceX, int sourceY, int sourceWidth, int sourceHeight,
+			int targetX, int targetY) {
+		Composite oldComposite = this.g2.getComposite();
+		AffineTransform oldTransform = this.g2.getTransform();
+		this.g2.setTransform(new AffineTransform());
+		this.g2.setComposite(AlphaComposite.Src);
+		this.g2.drawImage((Image) sourceImage.getNative(), targetX, targetY, targetX + sourceWidth,
+				targetY + sourceHeight, sourceX, sourceY, sourceX + sourceWidth, sourceY + sourceHeight, null);
+		this.g2.setTransform(oldTransform);
+		this.g2.setComposite(oldComposite);
+	}
+
+	//////////////////////////////////////////////////////////////
+
+	// PIXEL OPERATIONS, NOT AVAILABLE
+
+	@Override
+	public void loadPixels() {
+		showMethodWarning("loadPixels");
+	}
+
+	@Override
+	public void updatePixels(int x, int y, int c, int d) {
+		showMethodWarning("updatePixels");
+	}
+
+	@Override
+	public int get(int x, int y) {
+		showMethodWarning("get");
+		return 0;
+	}
+
+	@Override
+	protected void getImpl(int sourceX, int sourceY, int sourceWidth, int sourceHeight, PImage target, int targetX,
+			int targetY) {
+		showMethodWarning("get");
+	}
+
+	@Override
+	public void mask(int[] alpha) {
+		showMethodWarning("mask");
+	}
+
+	@Override
+	public void mask(PImage alpha) {
+		showMethodWarning("mask");
+	}
+
+	@Override
+	public void filter(int kind) {
+		showMethodWarning("filter");
+	}
+
+	@Override
+	public void filter(int kind, float param) {
+		showMethodWarning("filter");
+	}
+
+	@Override
+	public void copy(int sx, int sy, int sw, int sh, int dx, int dy, int dw, int dh) {
+		showVariationWarning("copy(sx, sy, sw, sh, dx, dy, dw, dh)");
+	}
+
+	@Override
+	public void blend(int sx, int sy, int sw, int sh, int dx, int dy, int dw, int dh, int mode) {
+		showMethodWarning("blend");
+	}
+
+	@Override
+	public void blend(PImage src, int sx, int sy, int sw, int sh, int dx, int dy, int dw, int dh, int mode) {
+		showMethodWarning("blend");
+	}
+
+	//////////////////////////////////////////////////////////////
+
+	// DISPLAY LIST
+
+	/** A recorded drawing call, replayed with a tile's Graphics2D. */
+	protected interface Drawing {
+		void draw(Graphics2D g);
+	}
+
+	/**
+	 * A drawing call with the state it was made in, and the device area it
+	 * may touch (x2 and y2 exclusive).
+	 */
+	static protected final class Op {
+		final State state;
+		final Drawing drawing;
+		final int x1, y1, x2, y2;
+
+		Op(State state, Drawing drawing, int x1, int y1, int x2, int y2) {
+			this.state = state;
+			this.drawing = drawing;
+			this.x1 = x1;
+			this.y1 = y1;
+			this.x2 = x2;
+			this.y2 = y2;
+		}
+	}
+
+	/**
+	 * Graphics state shared by the drawing calls made between two changes.
+	 * The clip is kept in device space, so it can be set before the tile's
+	 * translation is combined with the transform.
+	 */
+	static protected final class State {
+		final AffineTransform transform;
+		final Shape clip;
+		final Paint paint;
+		final Composite composite;
+		final Stroke stroke;
+		final Font font;
+		final Color background;
+		final RenderingHints hints;
+
+		State(Graphics2D g) {
+			this.transform = g.getTransform();
+			this.clip = deviceClip(g.getClip(), this.transform);
+			this.paint = g.getPaint();
+			this.composite = g.getComposite();
+			this.stroke = g.getStroke();
+			this.font = g.getFont();
+			this.background = g.getBackground();
+			this.hints = (RenderingHints) g.getRenderingHints().clone();
+		}
+
+		/**
+		 * Rectangles stay rectangles where possible, Java2D handles those much
+		 * better than clipping with a shape.
+		 */
+		static Shape deviceClip(Shape clip, AffineTransform t) {
+			if (clip == null) {
+				return null;
+			}
+			Shape device = t.createTransformedShape(clip);
+			if ((clip instanceof Rectangle2D) && (t.getShearX() == 0) && (t.getShearY() == 0)) {
+				return device.getBounds2D();
+			}
+			return device;
+		}
+
+		void apply(Graphics2D g, AffineTransform base) {
+			g.setTransform(base);
+			g.setClip(this.clip);
+			g.transform(this.transform);
+			g.setRenderingHints(this.hints);
+			g.setPaint(this.paint);
+			g.setComposite(this.composite);
+			g.setStroke(this.stroke);
+			g.setFont(this.font);
+			g.setBackground(this.background);
+		}
+	}
+
+	/**
+	 * Graphics2D that records drawing instead of doing it. State changes go
+	 * to a Graphics2D for a 1x1 image, which answers every query about the
+	 * state (transform, clip, font metrics and so on).
+	 * <p>
+	 * Shapes are copied, since the renderer reuses them, and so are images,
+	 * once for each version of an image (see {@link #forget}). XOR mode and
+	 * copyArea() are not supported.
+	 */
+	static protected class Recorder extends Graphics2D {
+		final int width, height;
+		final List<Op> ops;
+		final Map<Image, BufferedImage> frozen;
+		final Graphics2D shadow;
+		State state;
+
+		Recorder(int width, int height) {
+			this.width = width;
+			this.height = height;
+			this.ops = new ArrayList<>();
+			this.frozen = new IdentityHashMap<>();
+			this.shadow = new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB).createGraphics();
+		}
+
+		Recorder(Recorder parent) {
+			this.width = parent.width;
+			this.height = parent.height;
+			this.ops = parent.ops;
+			this.frozen = parent.frozen;
+			this.shadow = (Graphics2D) parent.shadow.create();
+			this.state = parent.state;
+		}
+
+		/** Forget everything drawn so far. */
+		public void clear() {
+			this.ops.clear();
+			this.frozen.clear();
+		}
+
+		/** Number of drawing calls recorded. */
+		public int size() {
+			return this.ops.size();
+		}
+
+		/**
+		 * The image is about to change, copy it again the next time it's drawn.
+		 */
+		public void forget(Image image) {
+			this.frozen.remove(image);
+		}
+
+		void changed() {
+			this.state = null;
+		}
+
+		/**
+		 * Record a drawing call that stays inside the given area, in user
+		 * space, or anywhere when bounds is null.
+		 */
+		void add(Drawing drawing, Rectangle2D bounds, boolean stroked) {
+			if (this.state == null) {
+				this.state = new State(this.shadow);
+			}
+			double x1 = 0, y1 = 0, x2 = this.width, y2 = this.height;
+			if (bounds != null) {
+				AffineTransform t = this.state.transform;
+				Rectangle2D device = t.createTransformedShape(bounds).getBounds2D();
+				double pad = 2; // antialiasing, and rounding of the bounds
+				if (stroked) {
+					pad += this.strokePad(t);
+				}
+				x1 = Math.max(x1, device.getMinX() - pad);
+				y1 = Math.max(y1, device.getMinY() - pad);
+				x2 = Math.min(x2, device.getMaxX() + pad);
+				y2 = Math.min(y2, device.getMaxY() + pad);
+			}
+			if (this.state.clip != null) {
+				Rectangle2D clip = this.state.clip.getBounds2D();
+				x1 = Math.max(x1, clip.getMinX() - 1);
+				y1 = Math.max(y1, clip.getMinY() - 1);
+				x2 = Math.min(x2, clip.getMaxX() + 1);
+				y2 = Math.min(y2, clip.getMaxY() + 1);
+			}
+			if ((x1 >= x2) || (y1 >= y2)) {
+				return; // nothing to draw on the image
+			}
+			this.ops.add(new Op(this.state, drawing, (int) Math.floor(x1), (int) Math.floor(y1), (int) Math.ceil(x2),
+					(int) Math.ceil(y2)));
+		}
+
+		/** How far a stroke may reach outside the shape, in device space. */
+		double strokePad(AffineTransform t) {
+			Stroke stroke = this.state.stroke;
+			double scale = Math.max(Math.hypot(t.getScaleX(), t.getShearY()), Math.hypot(t.getShearX(), t.getScaleY()));
+			if (stroke instanceof BasicStroke) {
+				BasicStroke basic = (BasicStroke) stroke;
+				double half = Math.max(0.5, basic.getLineWidth() / 2);
+				if (basic.getLineJoin() == BasicStroke.JOIN_MITER) {
+					half *= Math.max(1, basic.getMiterLimit());
+				} else if (basic.getEndCap() == BasicStroke.CAP_SQUARE) {
+					half *= Math.sqrt(2);
+				}
+				return half * scale;
+			}
+			// unknown stroke, assume it can go anywhere
+			return this.width + this.height;
+		}
+
+		static Shape copy(Shape shape) {
+			if (shape instanceof RectangularShape) {
+				return (Shape) ((RectangularShape) shape).clone();
+			}
+			if (shape instanceof Line2D) {
+				return (Shape) ((Line2D) shape).clone();
+			}
+			if (shape instanceof Path2D) {
+				return (Shape) ((Path2D) shape).clone();
+			}
+			return new Path2D.Float(shape);
+		}
+
+		BufferedImage freeze(Image image) {
+			BufferedImage copy = this.frozen.get(image);
+			if (copy == null) {
+				int w = image.getWidth(null);
+				int h = image.getHeight(null);
+				if ((w <= 0) || (h <= 0)) {
+					return null;
+				}
+				copy = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
+				Graphics2D g = copy.createGraphics();
+				g.setComposite(AlphaComposite.Src);
+				g.drawImage(image, 0, 0, null);
+				g.dispose();
+				this.frozen.put(image, copy);
+			}
+			return copy;
+		}
+
+		// DRAWING
+
+		@Override
+		public void draw(Shape s) {
+			Shape shape = copy(s);
+			this.add(g -> g.draw(shape), shape.getBounds2D(), true);
+		}
+
+		@Override
+		public void fill(Shape s) {
+			Shape shape = copy(s);
+			this.add(g -> g.fill(shape), shape.getBounds2D(), false);
+		}
+
+		@Override
+		public void drawLine(int x1, int y1, int x2, int y2) {
+			this.draw(new Line2D.Float(x1, y1, x2, y2));
+		}
+
+		@Override
+		public void drawRect(int x, int y, int width, int height) {
+			if ((width >= 0) && (height >= 0)) {
+				this.draw(new Rectangle(x, y, width, height));
+			}
+		}
+
+		@Override
+		public void fillRect(int x, int y, int width, int height) {
+			this.fill(new Rectangle(x, y, width, height));
+		}
+
+		@Override
+		public void clearRect(int x, int y, int width, int height) {
+			Composite composite = this.getComposite();
+			Paint paint = this.getPaint();
+			this.setComposite(AlphaComposite.Src);
+			this.setPaint(this.getBackground());
+			this.fillRect(x, y, width, height);
+			this.setPaint(paint);
+			this.setComposite(composite);
+		}
+
+		@Override
+		public void drawRoundRect(int x, int y, int width, int height, int arcWidth, int arcHeight) {
+			this.draw(new RoundRectangle2D.Float(x, y, width, height, arcWidth, arcHeight));
+		}
+
+		@Override
+		public void fillRoundRect(int x, int y, int width, int height, int arcWidth, int arcHeight) {
+			this.fill(new RoundRectangle2D.Float(x, y, width, height, arcWidth, arcHeight));
+		}
+
+		@Override
+		public void drawOval(int x, int y, int width, int height) {
+			this.draw(new Ellipse2D.Float(x, y, width, height));
+		}
+
+		@Override
+		public void fillOval(int x, int y, int width, int height) {
+			this.fill(new Ellipse2D.Float(x, y, width, height));
+		}
+
+		@Override
+		public void drawArc(int x, int y, int width, int height, int startAngle, int arcAngle) {
+			this.draw(new Arc2D.Float(x, y, width, height, startAngle, arcAngle, Arc2D.OPEN));
+		}
+
+		@Override
+		public void fillArc(int x, int y, int width, int height, int startAngle, int arcAngle) {
+			this.fill(new Arc2D.Float(x, y, width, height, startAngle, arcAngle, Arc2D.PIE));
+		}
+
+		@Override
+		public void drawPolyline(int[] xPoints, int[] yPoints, int nPoints) {
+			if (nPoints > 0) {
+				Path2D.Float path = new Path2D.Float();
+				path.moveTo(xPoints[0], yPoints[0]);
+				for (int i = 1; i < nPoints; i++) {
+					path.lineTo(xPoints[i], yPoints[i]);
+				}
+				this.draw(path);
+			}
+		}
+
+		@Override
+		public void drawPolygon(int[] xPoints, int[] yPoints, int nPoints) {
+			this.draw(new Polygon(xPoints, yPoints, nPoints));
+		}
+
+		@Override
+		public void fillPolygon(int[] xPoints, int[] yPoints, int nPoints) {
+			this.fill(new Polygon(xPoints, yPoints, nPoints));
+		}
+
+		@Override
+		public void copyArea(int x, int y, int width, int height, int dx, int dy) {
+			// needs the pixels drawn so far, which don't exist yet
+		}
+
+		// TEXT
+
+		@Override
+		public void drawString(String str, int x, int y) {
+			this.drawString(str, (float) x, (float) y);
+		}
+
+		@Override
+		public void drawString(String str, float x, float y) {
+			if (str.isEmpty()) {
+				return;
+			}
+			Font font = this.getFont();
+			Rectangle2D bounds = font.getStringBounds(str, this.getFontRenderContext());
+			double pad = font.getSize2D() / 2; // italics and overhangs
+			bounds.setRect(x + bounds.getX() - pad, y + bounds.getY() - pad, bounds.getWidth() + pad * 2,
+					bounds.getHeight() + pad * 2);
+			this.add(g -> g.drawString(str, x, y), bounds, false);
+		}
+
+		@Override
+		public void drawString(AttributedCharacterIterator iterator, int x, int y) {
+			this.drawString(iterator, (float) x, (float) y);
+		}
+
+		@Override
+		public void drawString(AttributedCharacterIterator iterator, float x, float y) {
+			if (iterator.getBeginIndex() == iterator.getEndIndex()) {
+				return;
+			}
+			// the iterator may change later, the layout won't
+			TextLayout layout = new TextLayout(iterator, this.getFontRenderContext());
+			Rectangle2D bounds = layout.getBounds();
+			bounds.setRect(x + bounds.getX() - 1, y + bounds.getY() - 1, bounds.getWidth() + 2, bounds.getHeight() + 2);
+			this.add(g -> layout.draw(g, x, y), bounds, false);
+		}
+
+		@Override
+		public void drawGlyphVector(GlyphVector glyphs, float x, float y) {
+			Rectangle2D bounds = glyphs.getVisualBounds();
+			bounds.setRect(x + bounds.getX() - 1, y + bounds.getY() - 1, bounds.getWidth() + 2, bounds.getHeight() + 2);
+			this.add(g -> g.drawGlyphVector(glyphs, x, y), bounds, false);
+		}
+
+		// IMAGES
+
+		@Override
+		public boolean drawImage(Image img, AffineTransform xform, ImageObserver observer) {
+			BufferedImage image = this.freeze(img);
+			if (image != null) {
+				AffineTransform at = (xform == null) ? new AffineTransform() : new AffineTransform(xform);
+				Rectangle2D bounds = at
+						.createTransformedShape(new Rectangle(image.getWidth(), image.getHeight()))
+						.getBounds2D();
+				this.add(g -> g.drawImage(image, at, null), bounds, false);
+			}
+			return true;
+		}
+
+		@Override
+		public void drawImage(BufferedImage img, BufferedImageOp op, int x, int y) {
+			BufferedImage filtered = (op == null) ? img : op.filter(img, null);
+			this.drawImage(filtered, x, y, null);
+		}
+
+		@Override
+		public void drawRenderedImage(RenderedImage img, AffineTransform xform) {
+			if (img instanceof BufferedImage) {
+				this.drawImage((BufferedImage) img, xform, null);
+			} else {
+				WritableRaster raster = img.copyData(null);
+				BufferedImage image = new BufferedImage(img.getColorModel(), raster,
+						img.getColorModel().isAlphaPremultiplied(), null);
+				this.drawImage(image, xform, null);
+			}
+		}
+
+		@Override
+		public void drawRenderableImage(RenderableImage img, AffineTransform xform) {
+			this.drawRenderedImage(img.createDefaultRendering(), xform);
+		}
+
+		@Override
+		public boolean drawImage(Image img, int x, int y, ImageObserver observer) {
+			BufferedImage image = this.freeze(img);
+			if (image != null) {
+				Rectangle bounds = new Rectangle(x, y, image.getWidth(), image.getHeight());
+				this.add(g -> g.drawImage(image, x, y, null), bounds, false);
+			}
+			return true;
+		}
+
+		@Override
+		public boolean drawImage(Image img, int x, int y, Color bgcolor, ImageObserver observer) {
+			BufferedImage image = this.freeze(img);
+			if (image != null) {
+				Rectangle bounds = new Rectangle(x, y, image.getWidth(), image.getHeight());
+				this.add(g -> g.drawImage(image, x, y, bgcolor, null), bounds, false);
+			}
+			return true;
+		}
+
+		@Override
+		public boolean drawImage(Image img, int x, int y, int width, int height, ImageObserver observer) {
+			return this.drawImage(img, x, y, width, height, null, observer);
+		}
+
+		@Override
+		public boolean drawImage(Image img, int x, int y, int width, int height, Color bgcolor,
+				ImageObserver observer) {
+			BufferedImage image = this.freeze(img);
+			if (image != null) {
+				Rectangle2D bounds = new Rectangle2D.Float(Math.min(x, x + width), Math.min(y, y + height),
+						Math.abs(width), Math.abs(height));
+				this.add(g -> g.drawImage(image, x, y, width, height, bgcolor, null), bounds, false);
+			}
+			return true;
+		}
+
+		@Override
+		public boolean drawImage(Image img, int dx1, int dy1, int dx2, int dy2, int sx1, int sy1, int sx2, int sy2,
+				ImageObserver observer) {
+			return this.drawImage(img, dx1, dy1, dx2, dy2, sx1, sy1, sx2, sy2, null, observer);
+		}
+
+		@Override
+		public boolean drawImage(Image img, int dx1, int dy1, int dx2, int dy2, int sx1, int sy1, int sx2, int sy2,
+				Color bgcolor, ImageObserver observer) {
+			BufferedImage image = this.freeze(img);
+			if (image != null) {
+				Rectangle2D bounds = new Rectangle2D.Float(Math.min(dx1, dx2), Math.min(dy1, dy2),
+						Math.abs(dx2 - dx1), Math.abs(dy2 - dy1));
+				this.add(g -> g.drawImage(image, dx1, dy1, dx2, dy2, sx1, sy1, sx2, sy2, bgcolor, null), bounds,
+						false);
+			}
+			return true;
+		}
+
+		// STATE
+
+		@Override
+		public Graphics create() {
+			return new Recorder(this);
+		}
+
+		@Override
+		public void dispose() {
+		}
+
+		@Override
+		public boolean hit(Rectangle rect, Shape s, boolean onStroke) {
+			return this.shadow.hit(rect, s, onStroke);
+		}
+
+		@Override
+		public GraphicsConfiguration getDeviceConfiguration() {
+			return this.shadow.getDeviceConfiguration();
+		}
+
+		@Override
+		public void setComposite(Composite comp) {
+			this.shadow.setComposite(comp);
+			this.changed();
+		}
+
+		@Override
+		public void setPaint(Paint paint) {
+			this.shadow.setPaint(paint);
+			this.changed();
+		}
+
+		@Override
+		public void setStroke(Stroke s) {
+			this.shadow.setStroke(s);
+			this.changed();
+		}
+
+		@Override
+		public void setRenderingHint(RenderingHints.Key hintKey, Object hintValue) {
+			this.shadow.setRenderingHint(hintKey, hintValue);
+			this.changed();
+		}
+
+		@Override
+		public Object getRenderingHint(RenderingHints.Key hintKey) {
+			return this.shadow.getRenderingHint(hintKey);
+		}
+
+		@Override
+		public void setRenderingHints(Map<?, ?> hints) {
+			this.shadow.setRenderingHints(hints);
+			this.changed();
+		}
+
+		@Override
+		public void addRenderingHints(Map<?, ?> hints) {
+			this.shadow.addRenderingHints(hints);
+			this.changed();
+		}
+
+		@Override
+		public RenderingHints getRenderingHints() {
+			return this.shadow.getRenderingHints();
+		}
+
+		@Override
+		public void translate(int x, int y) {
+			this.shadow.translate(x, y);
+			this.changed();
+		}
+
+		@Override
+		public void translate(double tx, double ty) {
+			this.shadow.translate(tx, ty);
+			this.changed();
+		}
+
+		@Override
+		public void rotate(double theta) {
+			this.shadow.rotate(theta);
+			this.changed();
+		}
+
+		@Override
+		public void rotate(double theta, double x, double y) {
+			this.shadow.rotate(theta, x, y);
+			this.changed();
+		}
+
+		@Override
+		public void scale(double sx, double sy) {
+			this.shadow.scale(sx, sy);
+			this.changed();
+		}
+
+		@Override
+		public void shear(double shx, double shy) {
+			this.shadow.shear(shx, shy);
+			this.changed();
+		}
+
+		@Override
+		public void transform(AffineTransform tx) {
+			this.shadow.transform(tx);
+			this.changed();
+		}
+
+		@Override
+		public void setTransform(AffineTransform tx) {
+			this.shadow.setTransform(tx);
+			this.changed();
+		}
+
+		@Override
+		public AffineTransform getTransform() {
+			return this.shadow.getTransform();
+		}
+
+		@Override
+		public Paint getPaint() {
+			return this.shadow.getPaint();
+		}
+
+		@Override
+		public Composite getComposite() {
+			return this.shadow.getComposite();
+		}
+
+		@Override
+		public void setBackground(Color color) {
+			this.shadow.setBackground(color);
+			this.changed();
+		}
+
+		@Override
+		public Color getBackground() {
+			return this.shadow.getBackground();
+		}
+
+		@Override
+		public Stroke getStroke() {
+			return this.shadow.getStroke();
+		}
+
+		@Override
+		public void clip(Shape s) {
+			this.shadow.clip(s);
+			this.changed();
+		}
+
+		@Override
+		public FontRenderContext getFontRenderContext() {
+			return this.shadow.getFontRenderContext();
+		}
+
+		@Override
+		public Color getColor() {
+			return this.shadow.getColor();
+		}
+
+		@Override
+		public void setColor(Color c) {
+			this.shadow.setColor(c);
+			this.changed();
+		}
+
+		@Override
+		public void setPaintMode() {
+			this.shadow.setPaintMode();
+			this.changed();
+		}
+
+		@Override
+		public void setXORMode(Color c1) {
+			// not supported, see the class comment
+		}
+
+		@Override
+		public Font getFont() {
+			return this.shadow.getFont();
+		}
+
+		@Override
+		public void setFont(Font font) {
+			this.shadow.setFont(font);
+			this.changed();
+		}
+
+		@Override
+		public FontMetrics getFontMetrics(Font f) {
+			return this.shadow.getFontMetrics(f);
+		}
+
+		@Override
+		public Rectangle getClipBounds() {
+			return this.shadow.getClipBounds();
+		}
+
+		@Override
+		public void clipRect(int x, int y, int width, int height) {
+			this.shadow.clipRect(x, y, width, height);
+			this.changed();
+		}
+
+		@Override
+		public void setClip(int x, int y, int width, int height) {
+			this.shadow.setClip(x, y, width, height);
+			this.changed();
+		}
+
+		@Override
+		public Shape getClip() {
+			return this.shadow.getClip();
+		}
+
+		@Override
+		public void setClip(Shape clip) {
+			this.shadow.setClip(clip);
+			this.changed();
+		}
+	}
+}
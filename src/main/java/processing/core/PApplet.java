@@ -87,10 +87,7 @@ import java.util.Map;
 import java.util.Random;
 import java.util.StringTokenizer;
 import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.ThreadFactory;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.zip.GZIPInputStream;
@@ -5229,6 +5226,65 @@ public class PApplet implements PConstants {
 			this.g.awaitAsyncSaveCompletion(filename);
 		}
 
+		PImageCache cache = PImageCache.shared();
+		String cacheKey = (cache.budget() > 0) ? this.imageCacheKey(filename, extension) : null;
+		if (cacheKey != null) {
+			PImage cached = cache.get(cacheKey);
+			if (cached != null) {
+				cached.parent = this;
+				return cached;
+			}
+		}
+
+		PImage image = this.decodeImage(filename, extension);
+		if ((cacheKey != null) && (image != null)) {
+			cache.put(cacheKey, image);
+		}
+		return image;
+	}
+
+	/**
+	 * Find the key used for this image in the PImageCache. This resolves the
+	 * filename the same way as createInput(): a URL, then the data and sketch
+	 * folders, then the classpath. Returns null if the image should not be cached.
+	 */
+	protected String imageCacheKey(String filename, String extension) {
+		if ((filename == null) || (filename.length() == 0) || (this.sketchPath == null)) {
+			return null;
+		}
+
+		if (filename.contains(":")) { // at least smells like URL
+			try {
+				return PImageCache.key(new URL(filename), extension);
+			} catch (MalformedURLException mfue) {
+				// not a url, that's fine
+			}
+		}
+
+		try {
+			File file = new File(this.dataPath(filename));
+			if (!file.exists()) {
+				file = this.sketchFile(filename);
+			}
+			if (file.exists()) {
+				return PImageCache.key(file, extension);
+			}
+		} catch (SecurityException se) {
+			return null;
+		}
+
+		ClassLoader cl = this.getClass().getClassLoader();
+		URL resource = cl.getResource("data/" + filename);
+		if (resource == null) {
+			resource = cl.getResource(filename);
+		}
+		return PImageCache.key(resource, extension);
+	}
+
+	/**
+	 * Decode an image, bypassing the PImageCache.
+	 */
+	protected PImage decodeImage(String filename, String extension) {
 		if (extension == null) {
 			String lower = filename.toLowerCase();
 			int dot = filename.lastIndexOf('.');
@@ -5343,9 +5399,22 @@ public class PApplet implements PConstants {
 		return null;
 	}
 
-	static private final String REQUEST_IMAGE_THREAD_PREFIX = "requestImage";
-	// fixed-size thread pool used by requestImage()
-	ExecutorService requestImagePool;
+	static final String REQUEST_IMAGE_THREAD_PREFIX = "requestImage";
+	// background loader used by requestImage() and the other request methods
+	PAssetLoader assetLoader;
+
+	/**
+	 * Returns the loader that runs requestImage(), requestJSONObject(),
+	 * requestTable() and requestShape() in the background, creating it on first
+	 * use. Use it to change the number of threads, or to read its queue depth and
+	 * load latency.
+	 */
+	public PAssetLoader assetLoader() {
+		if (this.assetLoader == null) {
+			this.assetLoader = new PAssetLoader(this);
+		}
+		return this.assetLoader;
+	}
 
 	public PImage requestImage(String filename) {
 		return this.requestImage(filename, null);
@@ -5376,6 +5445,17 @@ public class PApplet implements PConstants {
 	 * @see PApplet#loadImage(String, String)
 	 */
 	public PImage requestImage(String filename, String extension) {
+		return this.requestImage(filename, extension, PAssetLoader.VISIBLE);
+	}
+
+	/**
+	 * The loaded image is copied into the returned placeholder on the loader
+	 * thread as soon as it is ready (so this also works from <b>setup()</b> or
+	 * with <b>noLoop()</b>). Its width is set last, once the pixels are in place.
+	 *
+	 * @param priority either PAssetLoader.VISIBLE or PAssetLoader.PREFETCH
+	 */
+	public PImage requestImage(String filename, String extension, int priority) {
 		// Make sure saving to this file completes before trying to load it
 		// Has to be called on main thread, because P2D and P3D need GL functions
 		if (this.g != null) {
@@ -5383,38 +5463,56 @@ public class PApplet implements PConstants {
 		}
 		PImage vessel = this.createImage(0, 0, ARGB);
 
-		// if the image loading thread pool hasn't been created, create it
-		if (this.requestImagePool == null) {
-			ThreadFactory factory = new ThreadFactory() {
-				@Override
-				public Thread newThread(Runnable r) {
-					return new Thread(r, REQUEST_IMAGE_THREAD_PREFIX);
-				}
-			};
-			this.requestImagePool = Executors.newFixedThreadPool(4, factory);
-		}
-		this.requestImagePool.execute(() -> {
-			PImage actual = this.loadImage(filename, extension);
-
-			// An error message should have already printed
+		this.assetLoader().loadImage(filename, extension, priority).whenComplete((actual, error) -> {
+			// An error message should have already printed (or the loader has
+			// been shut down, in which case this runs right away)
 			if (actual == null) {
 				vessel.width = -1;
 				vessel.height = -1;
 
 			} else {
-				vessel.width = actual.width;
-				vessel.height = actual.height;
 				vessel.format = actual.format;
 				vessel.pixels = actual.pixels;
 
 				vessel.pixelWidth = actual.width;
 				vessel.pixelHeight = actual.height;
 				vessel.pixelDensity = 1;
+
+				vessel.height = actual.height;
+				vessel.width = actual.width;
 			}
 		});
 		return vessel;
 	}
 
+	/**
+	 * Loads a JSONObject on a background thread. Use <b>onLoad()</b> on the result
+	 * to get the object on the animation thread once it is ready.
+	 *
+	 * @see PApplet#loadJSONObject(String)
+	 */
+	public PAssetLoader.Request<JSONObject> requestJSONObject(String filename) {
+		return this.assetLoader().loadJSONObject(filename, PAssetLoader.VISIBLE);
+	}
+
+	/**
+	 * Loads a Table on a background thread.
+	 *
+	 * @see PApplet#loadTable(String, String)
+	 */
+	public PAssetLoader.Request<Table> requestTable(String filename, String options) {
+		return this.assetLoader().loadTable(filename, options, PAssetLoader.VISIBLE);
+	}
+
+	/**
+	 * Loads a shape on a background thread.
+	 *
+	 * @see PApplet#loadShape(String, String)
+	 */
+	public PAssetLoader.Request<PShape> requestShape(String filename, String options) {
+		return this.assetLoader().loadShape(filename, options, PAssetLoader.VISIBLE);
+	}
+
 	/**
 	 * Use Java 1.4 ImageIO methods to load an image.
 	 */
@@ -5912,8 +6010,14 @@ public class PApplet implements PConstants {
 	 * can only be tab separated values (.tsv) and its extension will be ignored.
 	 * This option was added in Processing 2.0.2.
 	 *
-	 * @param options may contain "header", "tsv", "csv", or "bin" separated by
-	 *                commas
+	 * Without a dictionary, the "infer" option picks int, long, float, double,
+	 * or category types for the columns of a csv or tsv file from its first
+	 * rows, so that numbers are parsed straight into arrays of numbers. A
+	 * column that turns out to hold text further down is read as Strings,
+	 * exactly as they appear in the file.
+	 *
+	 * @param options may contain "header", "tsv", "csv", "bin", or "infer"
+	 *                separated by commas
 	 */
 	public Table loadTable(String filename, String options) {
 		try {
@@ -5927,6 +6031,18 @@ public class PApplet implements PConstants {
 					return dictionary.typedParse(this.createInput(filename), optionStr);
 				}
 			}
+			for (String opt : optionList) {
+				if (opt.equals("bin")) {
+					// a binary table on disk can be memory mapped instead of read
+					File file = new File(this.dataPath(filename));
+					if (!file.exists()) {
+						file = this.sketchFile(filename);
+					}
+					if (file.isFile()) {
+						return new Table(file, optionStr);
+					}
+				}
+			}
 			InputStream input = this.createInput(filename);
 			if (input == null) {
 				System.err.println(filename + " does not exist or could not be read");
@@ -12380,6 +12496,28 @@ public class PApplet implements PConstants {
 		this.g.image(img, a, b, c, d, u1, v1, u2, v2);
 	}
 
+	/**
+	 * Draw a PTiledImage, reading back only the tiles that are needed.
+	 *
+	 * @nowebref
+	 */
+	public void image(PTiledImage img, float a, float b) {
+		if (this.recorder != null) {
+			this.recorder.image(img, a, b);
+		}
+		this.g.image(img, a, b);
+	}
+
+	/**
+	 * @nowebref
+	 */
+	public void image(PTiledImage img, float a, float b, float c, float d) {
+		if (this.recorder != null) {
+			this.recorder.image(img, a, b, c, d);
+		}
+		this.g.image(img, a, b, c, d);
+	}
+
 	/**
 	 * ( begin auto-generated from shapeMode.xml )
 	 *
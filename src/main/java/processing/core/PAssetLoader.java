@@ -0,0 +1,431 @@
+/* -*- mode: java; c-basic-offset: 2; indent-tabs-mode: nil -*- */
+
+/*
+  Part of the Processing project - http://processing.org
+
+  This library is free software; you can redistribute it and/or
+  modify it under the terms of the GNU Lesser General Public
+  License as published by the Free Software Foundation; either
+  version 2.1 of the License, or (at your option) any later version.
+
+  This library is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General
+  Public License along with this library; if not, write to the
+  Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+  Boston, MA  02111-1307  USA
+*/
+
+package processing.core;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import processing.data.JSONObject;
+import processing.data.Table;
+
+
+/**
+ * Loads images and other assets on a pool of background threads.
+ * <p>
+ * Each load is queued as a {@link Request}, which is a
+ * <tt>CompletableFuture</tt> that can also be cancelled while it is still
+ * waiting, or moved to another priority class. Requests marked
+ * {@link #VISIBLE} are always taken before {@link #PREFETCH} requests, and
+ * requests of the same class are loaded in the order they were made.
+ * <p>
+ * Results are handed to the sketch on its animation thread: callbacks
+ * registered with {@link Request#onLoad(Consumer)} (or any of the
+ * <tt>CompletableFuture</tt> async methods using {@link #drawExecutor()})
+ * run at the start of the next frame, just before <b>draw()</b>. This is
+ * also how <b>requestImage()</b> fills in its placeholder image, so the
+ * pixels are always in place by the time its width becomes non-zero.
+ * <p>
+ * The loader registers itself for the "pre" and "dispose" events of its
+ * sketch. Use <b>assetLoader()</b> in PApplet to get the shared instance.
+ */
+public class PAssetLoader {
+
+  /** Priority class for assets that are needed for the current frame. */
+  static public final int VISIBLE = 0;
+
+  /** Priority class for assets that will likely be needed soon. */
+  static public final int PREFETCH = 1;
+
+  static final int DEFAULT_THREADS = 4;
+
+  protected PApplet parent;
+
+  protected ThreadPoolExecutor pool;
+
+  /** Callbacks waiting to be run on the animation thread. */
+  protected ConcurrentLinkedQueue<Runnable> drawQueue =
+    new ConcurrentLinkedQueue<>();
+
+  protected Executor drawExecutor = new Executor() {
+    @Override
+    public void execute(Runnable command) {
+      drawQueue.add(command);
+    }
+  };
+
+  private final AtomicLong sequence = new AtomicLong();
+
+  // metrics
+  private final AtomicLong completedCount = new AtomicLong();
+  private final AtomicLong failedCount = new AtomicLong();
+  private final AtomicLong cancelledCount = new AtomicLong();
+  private final AtomicLong totalLatency = new AtomicLong();
+  private final AtomicLong totalWait = new AtomicLong();
+  private final AtomicLong maxLatency = new AtomicLong();
+
+
+  public PAssetLoader(PApplet parent) {
+    this(parent, DEFAULT_THREADS);
+  }
+
+
+  /**
+   * @param parent the sketch that receives completion callbacks, may be null
+   * @param threads number of loader threads
+   */
+  public PAssetLoader(PApplet parent, int threads) {
+    this.parent = parent;
+
+    final AtomicInteger threadCount = new AtomicInteger();
+    ThreadFactory factory = new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable r) {
+        // the prefix tells loadImage() that it is running in the background
+        Thread thread = new Thread(r, PApplet.REQUEST_IMAGE_THREAD_PREFIX +
+                                   "-" + threadCount.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+      }
+    };
+    pool = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+                                  new PriorityBlockingQueue<Runnable>(),
+                                  factory);
+    pool.allowCoreThreadTimeOut(true);
+
+    if (parent != null) {
+      parent.registerMethod("pre", this);
+      parent.registerMethod("dispose", this);
+    }
+  }
+
+
+  /**
+   * Change the number of loader threads. Threads that are busy finish
+   * their current asset before the pool shrinks.
+   */
+  public void threads(int count) {
+    if (count < 1) {
+      throw new IllegalArgumentException("The loader needs at least one thread");
+    }
+    if (count > pool.getMaximumPoolSize()) {
+      pool.setMaximumPoolSize(count);
+      pool.setCorePoolSize(count);
+    } else {
+      pool.setCorePoolSize(count);
+      pool.setMaximumPoolSize(count);
+    }
+  }
+
+
+  public int threads() {
+    return pool.getMaximumPoolSize();
+  }
+
+
+  /**
+   * Executor that runs tasks on the animation thread, at the start of the
+   * next frame. Pass this to <tt>thenAcceptAsync()</tt> and friends.
+   */
+  public Executor drawExecutor() {
+    return drawExecutor;
+  }
+
+
+  //////////////////////////////////////////////////////////////
+
+  // SUBMITTING
+
+
+  /**
+   * Queue a task that produces an asset. After dispose(), the request
+   * that comes back has already failed.
+   *
+   * @param task the code that loads the asset, run on a loader thread
+   * @param priority either VISIBLE or PREFETCH
+   */
+  public <T> Request<T> submit(Callable<T> task, int priority) {
+    Request<T> request = new Request<>(task, priority);
+    try {
+      pool.execute(request);
+    } catch (RejectedExecutionException e) {
+      request.completeExceptionally(e);
+    }
+    return request;
+  }
+
+
+  public Request<PImage> loadImage(final String filename,
+                                   final String extension, int priority) {
+    return submit(new Callable<PImage>() {
+      @Override
+      public PImage call() {
+        return parent.loadImage(filename, extension);
+      }
+    }, priority);
+  }
+
+
+  public Request<JSONObject> loadJSONObject(final String filename,
+                                            int priority) {
+    return submit(new Callable<JSONObject>() {
+      @Override
+      public JSONObject call() {
+        return parent.loadJSONObject(filename);
+      }
+    }, priority);
+  }
+
+
+  public Request<Table> loadTable(final String filename,
+                                  final String options, int priority) {
+    return submit(new Callable<Table>() {
+      @Override
+      public Table call() {
+        return parent.loadTable(filename, options);
+      }
+    }, priority);
+  }
+
+
+  public Request<PShape> loadShape(final String filename,
+                                   final String options, int priority) {
+    return submit(new Callable<PShape>() {
+      @Override
+      public PShape call() {
+        return parent.loadShape(filename, options);
+      }
+    }, priority);
+  }
+
+
+  //////////////////////////////////////////////////////////////
+
+  // EVENTS
+
+
+  /**
+   * Runs the callbacks that arrived since the last frame. Called by the
+   * sketch right before <b>draw()</b>; not meant to be called directly.
+   */
+  public void pre() {
+    // only run what is queued now, callbacks may queue further callbacks
+    int count = drawQueue.size();
+    for (int i = 0; i < count; i++) {
+      Runnable task = drawQueue.poll();
+      if (task == null) break;
+      try {
+        task.run();
+      } catch (Exception e) {
+        e.printStackTrace();
+      }
+    }
+  }
+
+
+  /**
+   * Stops the loader threads and cancels everything that is still queued.
+   */
+  public void dispose() {
+    for (Runnable r : pool.shutdownNow()) {
+      ((Request<?>) r).cancel(false);
+    }
+    drawQueue.clear();
+  }
+
+
+  //////////////////////////////////////////////////////////////
+
+  // METRICS
+
+
+  /** Number of requests waiting for a loader thread. */
+  public int getQueueDepth() {
+    return pool.getQueue().size();
+  }
+
+
+  /** Number of requests being loaded right now. */
+  public int getActiveCount() {
+    return pool.getActiveCount();
+  }
+
+
+  public long getCompletedCount() {
+    return completedCount.get();
+  }
+
+
+  public long getFailedCount() {
+    return failedCount.get();
+  }
+
+
+  public long getCancelledCount() {
+    return cancelledCount.get();
+  }
+
+
+  /**
+   * Average time in milliseconds from a request being made to its asset
+   * being ready, over all completed and failed requests.
+   */
+  public float getAverageLatency() {
+    long count = completedCount.get() + failedCount.get();
+    return count == 0 ? 0 : (float) (totalLatency.get() / 1e6 / count);
+  }
+
+
+  /**
+   * Average time in milliseconds that requests spent in the queue
+   * before a loader thread picked them up.
+   */
+  public float getAverageWait() {
+    long count = completedCount.get() + failedCount.get();
+    return count == 0 ? 0 : (float) (totalWait.get() / 1e6 / count);
+  }
+
+
+  /** Longest time in milliseconds taken by a single request. */
+  public float getMaxLatency() {
+    return (float) (maxLatency.get() / 1e6);
+  }
+
+
+  //////////////////////////////////////////////////////////////
+
+
+  /**
+   * A queued or finished load. Ordered by priority class, then by the
+   * order in which the requests were made.
+   */
+  public class Request<T> extends CompletableFuture<T>
+  implements Runnable, Comparable<Request<?>> {
+    final Callable<T> task;
+    final long submitted;
+    volatile int priority;
+    volatile long order;
+
+
+    Request(Callable<T> task, int priority) {
+      this.task = task;
+      this.priority = priority;
+      this.order = sequence.getAndIncrement();
+      this.submitted = System.nanoTime();
+    }
+
+
+    public int priority() {
+      return priority;
+    }
+
+
+    /**
+     * Move a request that is still waiting to another priority class.
+     * It goes to the back of the line for that class. Returns false if
+     * the request is already loading or done.
+     */
+    public boolean priority(int priority) {
+      if (pool.remove(this)) {
+        this.priority = priority;
+        this.order = sequence.getAndIncrement();
+        pool.execute(this);
+        return true;
+      }
+      return false;
+    }
+
+
+    /**
+     * Cancels the request. If it is still waiting it is taken out of the
+     * queue, a load that is already running is left to finish but its
+     * result is discarded.
+     */
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+      boolean cancelled = super.cancel(mayInterruptIfRunning);
+      if (cancelled) {
+        pool.remove(this);
+        cancelledCount.incrementAndGet();
+      }
+      return cancelled;
+    }
+
+
+    /**
+     * Run an action with the loaded asset on the animation thread,
+     * at the start of the frame after loading finishes.
+     */
+    public CompletableFuture<Void> onLoad(Consumer<? super T> action) {
+      return thenAcceptAsync(action, drawExecutor);
+    }
+
+
+    @Override
+    public void run() {
+      if (isDone()) return;  // cancelled while waiting
+
+      long started = System.nanoTime();
+      try {
+        T result = task.call();
+        if (complete(result)) {
+          record(started, completedCount);
+        }
+      } catch (Throwable t) {
+        if (completeExceptionally(t)) {
+          record(started, failedCount);
+        }
+      }
+    }
+
+
+    private void record(long started, AtomicLong counter) {
+      long now = System.nanoTime();
+      long latency = now - submitted;
+      totalWait.addAndGet(started - submitted);
+      totalLatency.addAndGet(latency);
+      long max = maxLatency.get();
+      while (latency > max && !maxLatency.compareAndSet(max, latency)) {
+        max = maxLatency.get();
+      }
+      counter.incrementAndGet();
+    }
+
+
+    @Override
+    public int compareTo(Request<?> other) {
+      if (priority != other.priority) {
+        return priority < other.priority ? -1 : 1;
+      }
+      return Long.compare(order, other.order);
+    }
+  }
+}
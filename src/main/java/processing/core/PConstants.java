@@ -72,6 +72,9 @@ public interface PConstants {
   // Experimental JavaFX renderer; even better 2D performance
   static final String FX2D = "processing.javafx.PGraphicsFX2D";
 
+  // Offscreen Java 2D for huge images, rendered in tiles on all cores
+  static final String TILED = "processing.awt.PGraphicsTiled";
+
   static final String PDF = "processing.pdf.PGraphicsPDF";
   static final String SVG = "processing.svg.PGraphicsSVG";
   static final String DXF = "processing.dxf.RawDXF";
@@ -523,5 +526,11 @@ public interface PConstants {
   static final int DISABLE_ASYNC_SAVEFRAME    =  12;
   static final int ENABLE_ASYNC_SAVEFRAME     = -12;
 
-  static final int HINT_COUNT                 =  13;
+  static final int ENABLE_DIRECT_PIXELS       =  13;
+  static final int DISABLE_DIRECT_PIXELS      = -13;
+
+  static final int ENABLE_IMAGE_MIPMAPS       =  14;
+  static final int DISABLE_IMAGE_MIPMAPS      = -14;
+
+  static final int HINT_COUNT                 =  15;
 }
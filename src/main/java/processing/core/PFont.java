@@ -1029,25 +1029,25 @@ public class PFont implements PConstants {
       image = new PImage(width, height, ALPHA);
       int bitmapSize = width * height;
 
+      // Glyphs keep a regular pixels[] array (not compact samples), since
+      // sketches and libraries read glyph.image.pixels directly.
       byte[] temp = new byte[bitmapSize];
       is.readFully(temp);
 
       // convert the bitmap to an alpha channel
-      int w = width;
-      int h = height;
       int[] pixels = image.pixels;
-      for (int y = 0; y < h; y++) {
-        for (int x = 0; x < w; x++) {
-          pixels[y * width + x] = temp[y*w + x] & 0xff;
-//          System.out.print((image.pixels[y*64+x] > 128) ? "*" : ".");
-        }
-//        System.out.println();
+      for (int i = 0; i < bitmapSize; i++) {
+        pixels[i] = temp[i] & 0xff;
       }
-//      System.out.println();
     }
 
 
     protected void writeBitmap(DataOutputStream os) throws IOException {
+      byte[] samples = image.getSamples();
+      if (samples != null) {
+        os.write(samples);
+        return;
+      }
       int[] pixels  = image.pixels;
       for (int y = 0; y < height; y++) {
         for (int x = 0; x < width; x++) {
@@ -34,17 +34,21 @@ import java.awt.Image;
 
 import java.io.File;
 import java.io.InputStream;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.HashMap;
 import java.util.WeakHashMap;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import processing.opengl.PGL;
 import processing.opengl.PShader;
@@ -1147,6 +1151,18 @@ public class PGraphics extends PImage implements PConstants {
    * is written to the drive. This was the default behavior in 3.0b7 and before.
    * To enable, call hint(ENABLE_ASYNC_SAVEFRAME).
    * <br/> <br/>
+   * hint(ENABLE_DIRECT_PIXELS) - JAVA2D only - pixels[] becomes the array
+   * that backs the drawing surface, so loadPixels() and updatePixels() no
+   * longer copy anything. Java2D can't accelerate an image once its array
+   * has been handed out, so drawing this surface to the screen or into
+   * another renderer will be slower. Best for sketches that mostly work on
+   * pixels[]. Undo with hint(DISABLE_DIRECT_PIXELS).
+   * <br/> <br/>
+   * hint(ENABLE_IMAGE_MIPMAPS) - FX2D only - images drawn at half their size
+   * or less are drawn from smaller, filtered copies that are built in the
+   * background, which looks smoother and is faster for very large images.
+   * Undo with hint(DISABLE_IMAGE_MIPMAPS).
+   * <br/> <br/>
    * As of release 0149, unhint() has been removed in favor of adding
    * additional ENABLE/DISABLE constants to reset the default behavior. This
    * prevents the double negatives, and also reinforces which hints can be
@@ -3948,6 +3964,190 @@ public class PGraphics extends PImage implements PConstants {
   }
 
 
+  /**
+   * Draw a PTiledImage at its own size. Follows imageMode() like image().
+   */
+  public void image(PTiledImage img, float a, float b) {
+    if (imageMode == CENTER) {
+      image(img, a, b, img.width, img.height);
+    } else if (imageMode == CORNERS) {
+      image(img, a, b, a + img.width, b + img.height);
+    } else {
+      image(img, a, b, img.width, img.height);
+    }
+  }
+
+
+  public void image(PTiledImage img, float a, float b, float c, float d) {
+    if (imageMode == CORNER) {
+      if (c < 0) {  // reset a negative width
+        a += c; c = -c;
+      }
+      if (d < 0) {  // reset a negative height
+        b += d; d = -d;
+      }
+      tiledImageImpl(img, a, b, a + c, b + d);
+
+    } else if (imageMode == CORNERS) {
+      if (c < a) {  // reverse because x2 < x1
+        float temp = a; a = c; c = temp;
+      }
+      if (d < b) {  // reverse because y2 < y1
+        float temp = b; b = d; d = temp;
+      }
+      tiledImageImpl(img, a, b, c, d);
+
+    } else if (imageMode == CENTER) {
+      // c and d are width/height
+      if (c < 0) c = -c;
+      if (d < 0) d = -d;
+      float x1 = a - c/2;
+      float y1 = b - d/2;
+      tiledImageImpl(img, x1, y1, x1 + c, y1 + d);
+    }
+  }
+
+
+  /** Minimum number of tiles of each PTiledImage kept as PImages. */
+  static protected final int TILE_CACHE_SIZE = 64;
+
+  /** Renderer copies of the tiles of PTiledImages, least recently drawn first. */
+  protected Map<PTiledImage, LinkedHashMap<Long, TileImage>> tileImages =
+    new WeakHashMap<>();
+
+  static protected class TileImage {
+    PImage image;
+    int version = -1;
+  }
+
+
+  /**
+   * Expects x1, y1, x2, y2 coordinates where (x2 >= x1) and (y2 >= y1).
+   * <p/>
+   * Only the tiles that end up on the surface are drawn. Each one is kept
+   * as its own PImage (so that renderers which batch their drawing, like
+   * OpenGL, get a separate texture per tile) and only read back from the
+   * file again when the tile has changed.
+   */
+  protected void tiledImageImpl(PTiledImage img,
+                                float x1, float y1, float x2, float y2) {
+    if (x2 <= x1 || y2 <= y1) return;
+
+    int size = img.getTileSize();
+    float sx = (x2 - x1) / img.width;
+    float sy = (y2 - y1) / img.height;
+    int col1 = 0;
+    int row1 = 0;
+    int col2 = img.getTileCols() - 1;
+    int row2 = img.getTileRows() - 1;
+
+    if (is2D()) {
+      // Map the corners of the surface back through the current transform
+      // to find the pixels of the image that are visible.
+      float ox = screenX(0, 0);
+      float oy = screenY(0, 0);
+      float ax = screenX(1, 0) - ox;
+      float ay = screenY(1, 0) - oy;
+      float bx = screenX(0, 1) - ox;
+      float by = screenY(0, 1) - oy;
+      float det = ax*by - bx*ay;
+      if (det == 0) return;  // collapsed to nothing
+
+      float vx1 = Float.MAX_VALUE, vy1 = Float.MAX_VALUE;
+      float vx2 = -Float.MAX_VALUE, vy2 = -Float.MAX_VALUE;
+      float[][] corners = {
+        { 0, 0 }, { width, 0 }, { 0, height }, { width, height }
+      };
+      for (float[] corner : corners) {
+        float dx = corner[0] - ox;
+        float dy = corner[1] - oy;
+        float x = (by*dx - bx*dy) / det;
+        float y = (ax*dy - ay*dx) / det;
+        vx1 = Math.min(vx1, x);
+        vy1 = Math.min(vy1, y);
+        vx2 = Math.max(vx2, x);
+        vy2 = Math.max(vy2, y);
+      }
+      int u1 = Math.max(0, (int) Math.floor((vx1 - x1) / sx));
+      int v1 = Math.max(0, (int) Math.floor((vy1 - y1) / sy));
+      int u2 = Math.min(img.width, (int) Math.ceil((vx2 - x1) / sx));
+      int v2 = Math.min(img.height, (int) Math.ceil((vy2 - y1) / sy));
+      if (u1 >= u2 || v1 >= v2) return;
+      col1 = u1 / size;
+      row1 = v1 / size;
+      col2 = (u2 - 1) / size;
+      row2 = (v2 - 1) / size;
+    }
+
+    LinkedHashMap<Long, TileImage> cache = tileImages.get(img);
+    if (cache == null) {
+      cache = new LinkedHashMap<>(16, 0.75f, true);
+      tileImages.put(img, cache);
+    }
+    int capacity =
+      Math.max(TILE_CACHE_SIZE, 2 * (col2 - col1 + 1) * (row2 - row1 + 1));
+
+    for (int row = row1; row <= row2; row++) {
+      for (int col = col1; col <= col2; col++) {
+        int u = col * size;
+        int v = row * size;
+        int w = Math.min(size, img.width - u);
+        int h = Math.min(size, img.height - v);
+        float tx1 = x1 + u * sx;
+        float ty1 = y1 + v * sy;
+        float tx2 = x1 + (u + w) * sx;
+        float ty2 = y1 + (v + h) * sy;
+        if (is3D() && !tileVisible(tx1, ty1, tx2, ty2)) continue;
+
+        Long key = (long) row * img.getTileCols() + col;
+        TileImage tile = cache.get(key);
+        if (tile == null) {
+          tile = new TileImage();
+          tile.image = new PImage(size, size, img.format);
+          cache.put(key, tile);
+        }
+        int version = img.getTileVersion(col, row);
+        if (tile.version != version) {
+          img.readTile(col, row, tile.image.pixels);
+          tile.image.updatePixels();
+          tile.version = version;
+        }
+        imageImpl(tile.image, tx1, ty1, tx2, ty2, 0, 0, w, h);
+      }
+    }
+
+    // forget the tiles that were drawn the longest time ago
+    Iterator<TileImage> it = cache.values().iterator();
+    while (cache.size() > capacity && it.hasNext()) {
+      removeCache(it.next().image);
+      it.remove();
+    }
+  }
+
+
+  /**
+   * Whether a rectangle in model space may be on the surface. Only culls
+   * when all four corners are in front of the camera, otherwise the
+   * projected corners can't be trusted.
+   */
+  protected boolean tileVisible(float x1, float y1, float x2, float y2) {
+    float[][] corners = { { x1, y1 }, { x2, y1 }, { x1, y2 }, { x2, y2 } };
+    float minX = Float.MAX_VALUE, minY = Float.MAX_VALUE;
+    float maxX = -Float.MAX_VALUE, maxY = -Float.MAX_VALUE;
+    for (float[] corner : corners) {
+      float z = screenZ(corner[0], corner[1], 0);
+      if (!(z >= 0 && z <= 1)) return true;
+      float x = screenX(corner[0], corner[1], 0);
+      float y = screenY(corner[0], corner[1], 0);
+      minX = Math.min(minX, x);
+      minY = Math.min(minY, y);
+      maxX = Math.max(maxX, x);
+      maxY = Math.max(maxY, y);
+    }
+    return maxX >= 0 && maxY >= 0 && minX <= width && minY <= height;
+  }
+
+
 
   //////////////////////////////////////////////////////////////
 
@@ -5137,6 +5337,7 @@ public class PGraphics extends PImage implements PConstants {
     int fb = fillBi;
     int fa = fillAi;
 
+    glyph.loadPixels();  // the glyph may be compact
     int pixels1[] = glyph.pixels; //images[glyph].pixels;
 
     // TODO this can be optimized a bit
@@ -8429,30 +8630,100 @@ public class PGraphics extends PImage implements PConstants {
   }
 
 
+  /**
+   * Number of frames waiting to be written or being written by the
+   * background encoders used by save() and saveFrame().
+   */
+  public int getSaveQueueDepth() {
+    return asyncImageSaver == null ? 0 : asyncImageSaver.getQueueDepth();
+  }
+
+
+  /** Number of frames written by the background encoders so far. */
+  public long getSaveFramesWritten() {
+    return asyncImageSaver == null ? 0 : asyncImageSaver.getFramesWritten();
+  }
+
+
+  /**
+   * Number of frames skipped because every capture buffer was still
+   * in use. Always 0 unless asyncSaveDropFrames(true) was called.
+   */
+  public long getSaveFramesDropped() {
+    return asyncImageSaver == null ? 0 : asyncImageSaver.getFramesDropped();
+  }
+
+
+  /** Average time in milliseconds taken to encode and write a frame. */
+  public float getSaveLatency() {
+    return asyncImageSaver == null ? 0 : asyncImageSaver.getAverageLatency();
+  }
+
+
+  /**
+   * Choose what save() does when all capture buffers are waiting for the
+   * encoders: by default it waits for one to free up (so the sketch slows
+   * down to the speed of the encoders but no frame is lost), with
+   * <b>true</b> the frame is dropped instead and save() returns false.
+   */
+  public void asyncSaveDropFrames(boolean drop) {
+    if (asyncImageSaver == null) {
+      asyncImageSaver = new AsyncImageSaver();
+    }
+    asyncImageSaver.dropFrames = drop;
+  }
+
+
   protected static AsyncImageSaver asyncImageSaver;
 
+  /**
+   * Writes frames on a pool of encoder threads. Frames are copied into a
+   * ring of capture buffers that grows as needed (up to TARGET_COUNT) and
+   * is reused after that; when the ring runs out, getAvailableTarget() blocks until an encoder hands a
+   * buffer back (or drops the frame, see dropFrames), which keeps the
+   * sketch from running ahead of the encoders without having to guess
+   * at sleep times. The format is picked from the extension by
+   * PImage.save(), so png, tga and raw frames are all written in parallel.
+   */
   protected static class AsyncImageSaver {
 
-    static final int TARGET_COUNT =
+    static final int ENCODER_COUNT =
         Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
 
+    /** One buffer per encoder, plus two that can be filled meanwhile. */
+    static final int TARGET_COUNT = ENCODER_COUNT + 2;
+
     BlockingQueue<PImage> targetPool = new ArrayBlockingQueue<>(TARGET_COUNT);
-    ExecutorService saveExecutor = Executors.newFixedThreadPool(TARGET_COUNT);
+    ThreadPoolExecutor saveExecutor;
 
     int targetsCreated = 0;
+    volatile boolean dropFrames;
 
     Map<File, Future<?>> runningTasks = new HashMap<>();
     final Object runningTasksLock = new Object();
 
+    // metrics
+    final AtomicInteger queueDepth = new AtomicInteger();
+    final AtomicLong framesWritten = new AtomicLong();
+    final AtomicLong framesFailed = new AtomicLong();
+    final AtomicLong framesDropped = new AtomicLong();
+    final AtomicLong totalNanos = new AtomicLong();
+    final AtomicLong maxNanos = new AtomicLong();
+    final AtomicLong stallNanos = new AtomicLong();
 
-    static final int TIME_AVG_FACTOR = 32;
 
-    volatile long avgNanos = 0;
-    long lastTime = 0;
-    int lastFrameCount = 0;
-
-
-    public AsyncImageSaver() { } // ignore
+    public AsyncImageSaver() { // ignore
+      final AtomicInteger threadCount = new AtomicInteger();
+      ThreadFactory factory =
+        r -> new Thread(r, "saveFrame-" + threadCount.incrementAndGet());
+      // never fills up, there can't be more tasks than targets
+      saveExecutor =
+        new ThreadPoolExecutor(ENCODER_COUNT, ENCODER_COUNT,
+                               10, TimeUnit.SECONDS,
+                               new ArrayBlockingQueue<Runnable>(TARGET_COUNT),
+                               factory);
+      saveExecutor.allowCoreThreadTimeOut(true);
+    }
 
 
     public void dispose() { // ignore
@@ -8464,28 +8735,41 @@ public class PGraphics extends PImage implements PConstants {
 
 
     public boolean hasAvailableTarget() { // ignore
-      return targetsCreated < TARGET_COUNT || targetPool.isEmpty();
+      return targetsCreated < TARGET_COUNT || !targetPool.isEmpty();
     }
 
 
     /**
      * After taking a target, you must call saveTargetAsync() or
-     * returnUnusedTarget(), otherwise one thread won't be able to run
+     * returnUnusedTarget(), otherwise one thread won't be able to run.
+     * Returns null if dropFrames is set and no target is free.
      */
     public PImage getAvailableTarget(int requestedWidth, int requestedHeight, // ignore
                                      int format) {
       try {
-        PImage target;
-        if (targetsCreated < TARGET_COUNT && targetPool.isEmpty()) {
+        PImage target = targetPool.poll();
+        if (target == null && targetsCreated < TARGET_COUNT) {
+          // only allocate another buffer when all the others are busy
           target = new PImage(requestedWidth, requestedHeight);
           targetsCreated++;
-        } else {
+        }
+        if (target == null) {
+          if (dropFrames) {
+            framesDropped.incrementAndGet();
+            return null;
+          }
+          long started = System.nanoTime();
           target = targetPool.take();
-          if (target.pixelWidth != requestedWidth ||
-              target.pixelHeight != requestedHeight) {
-            // TODO: this kills performance when saving different sizes
-            target = new PImage(requestedWidth, requestedHeight);
+          stallNanos.addAndGet(System.nanoTime() - started);
+        }
+        if (target.pixelWidth != requestedWidth ||
+            target.pixelHeight != requestedHeight) {
+          // keep the array when only the shape changed
+          if (target.pixels.length != requestedWidth * requestedHeight) {
+            target.pixels = new int[requestedWidth * requestedHeight];
           }
+          target.width = target.pixelWidth = requestedWidth;
+          target.height = target.pixelHeight = requestedHeight;
         }
         target.format = format;
         return target;
@@ -8504,47 +8788,24 @@ public class PGraphics extends PImage implements PConstants {
                                 final File file) {
       target.parent = renderer.parent;
 
-      // if running every frame, smooth the framerate
-      if (target.parent.frameCount - 1 == lastFrameCount && TARGET_COUNT > 1) {
-
-        // count with one less thread to reduce jitter
-        // 2 cores - 1 save thread - no wait
-        // 4 cores - 3 save threads - wait 1/2 of save time
-        // 8 cores - 7 save threads - wait 1/6 of save time
-        long avgTimePerFrame = avgNanos / (Math.max(1, TARGET_COUNT - 1));
-        long now = System.nanoTime();
-        long delay = PApplet.round((lastTime + avgTimePerFrame - now) / 1e6f);
-        try {
-          if (delay > 0) Thread.sleep(delay);
-        } catch (InterruptedException e) { }
-      }
-
-      lastFrameCount = target.parent.frameCount;
-      lastTime = System.nanoTime();
-
       awaitAsyncSaveCompletion(file);
 
       // Explicit lock, because submitting a task and putting it into map
       // has to be atomic (and happen before task tries to remove itself)
       synchronized (runningTasksLock) {
         try {
+          queueDepth.incrementAndGet();
           Future<?> task = saveExecutor.submit(() -> {
             try {
               long startTime = System.nanoTime();
               renderer.processImageBeforeAsyncSave(target);
-              target.save(file.getAbsolutePath());
-              long saveNanos = System.nanoTime() - startTime;
-              synchronized (AsyncImageSaver.this) {
-                if (avgNanos == 0) {
-                  avgNanos = saveNanos;
-                } else if (saveNanos < avgNanos) {
-                  avgNanos = (avgNanos * (TIME_AVG_FACTOR - 1) + saveNanos) /
-                      (TIME_AVG_FACTOR);
-                } else {
-                  avgNanos = saveNanos;
-                }
+              if (target.save(file.getAbsolutePath())) {
+                record(System.nanoTime() - startTime);
+              } else {
+                framesFailed.incrementAndGet();
               }
             } finally {
+              queueDepth.decrementAndGet();
               targetPool.offer(target);
               synchronized (runningTasksLock) {
                 runningTasks.remove(file);
@@ -8554,6 +8815,8 @@ public class PGraphics extends PImage implements PConstants {
           runningTasks.put(file, task);
         } catch (RejectedExecutionException e) {
           // the executor service was probably shut down, no more saving for us
+          queueDepth.decrementAndGet();
+          targetPool.offer(target);
         }
       }
     }
@@ -8572,6 +8835,58 @@ public class PGraphics extends PImage implements PConstants {
       }
     }
 
+
+    private void record(long nanos) {
+      totalNanos.addAndGet(nanos);
+      long max = maxNanos.get();
+      while (nanos > max && !maxNanos.compareAndSet(max, nanos)) {
+        max = maxNanos.get();
+      }
+      framesWritten.incrementAndGet();
+    }
+
+
+    /** Frames captured but not written yet. */
+    public int getQueueDepth() { // ignore
+      return queueDepth.get();
+    }
+
+
+    public long getFramesWritten() { // ignore
+      return framesWritten.get();
+    }
+
+
+    public long getFramesFailed() { // ignore
+      return framesFailed.get();
+    }
+
+
+    public long getFramesDropped() { // ignore
+      return framesDropped.get();
+    }
+
+
+    /** Average encode and write time per frame, in milliseconds. */
+    public float getAverageLatency() { // ignore
+      long count = framesWritten.get();
+      return count == 0 ? 0 : (float) (totalNanos.get() / 1e6 / count);
+    }
+
+
+    /** Longest encode and write time of a single frame, in milliseconds. */
+    public float getMaxLatency() { // ignore
+      return (float) (maxNanos.get() / 1e6);
+    }
+
+
+    /**
+     * Total time in milliseconds that save() spent waiting
+     * for a capture buffer to come back from the encoders.
+     */
+    public float getStallTime() { // ignore
+      return (float) (stallNanos.get() / 1e6);
+    }
   }
 
 }
@@ -28,6 +28,7 @@ import java.awt.*;
 import java.awt.image.*;
 import java.io.*;
 import java.util.Iterator;
+import java.util.stream.IntStream;
 
 import javax.imageio.*;
 import javax.imageio.metadata.*;
@@ -142,15 +143,16 @@ public class PImage implements PConstants, Cloneable {
   /** Loaded pixels flag */
   public boolean loaded = false;
 
-  // . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . .
+  /**
+   * Compact storage for ALPHA images and grayscale RGB images, one byte
+   * per pixel instead of four. While it is in use pixels[] is null;
+   * loadPixels() expands the samples into pixels[] and drops them, so code
+   * written against pixels[] keeps working. See compact().
+   */
+  protected byte[] samples;
 
+  // . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . .
 
-  // private fields
-  private int fracU, ifU, fracV, ifV, u1, u2, v1, v2, sX, sY, iw, iw1, ih1;
-  private int ul, ll, ur, lr, cUL, cLL, cUR, cLR;
-  private int srcXOffset, srcYOffset;
-  private int r, g, b, a;
-  private int[] srcBuffer;
 
   // fixed point precision is limited to 15 bits!!
   static final int PRECISIONB = 15;
@@ -240,6 +242,30 @@ public class PImage implements PConstants, Cloneable {
   }
 
 
+  /**
+   * Create a compact image that keeps one byte per pixel, see compact().
+   *
+   * @param format either ALPHA (samples are the alpha values)
+   * or RGB (samples are gray levels)
+   * @param samples width * height values, used directly, not copied
+   */
+  public PImage(int width, int height, int format, byte[] samples) {
+    if (format != ALPHA && format != RGB) {
+      throw new IllegalArgumentException("Only ALPHA and RGB images " +
+                                         "can use 8-bit samples");
+    }
+    if (samples.length != width * height) {
+      throw new IllegalArgumentException("The samples array should hold " +
+                                         "width * height values");
+    }
+    this.width = pixelWidth = width;
+    this.height = pixelHeight = height;
+    this.format = format;
+    this.pixelDensity = 1;
+    this.samples = samples;
+  }
+
+
   /**
    * Do not remove, see notes in the other variant.
    */
@@ -356,12 +382,18 @@ public class PImage implements PConstants, Cloneable {
    * Returns a native BufferedImage from this PImage.
    */
   public Object getNative() {  // ignore
-    loadPixels();
+    int[] data;
+    if (samples != null) {
+      data = expandSamples();  // stay compact
+    } else {
+      loadPixels();
+      data = pixels;
+    }
     int type = (format == RGB) ?
       BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB;
     BufferedImage image = new BufferedImage(pixelWidth, pixelHeight, type);
     WritableRaster wr = image.getRaster();
-    wr.setDataElements(0, 0, pixelWidth, pixelHeight, pixels);
+    wr.setDataElements(0, 0, pixelWidth, pixelHeight, data);
     return image;
   }
 
@@ -436,7 +468,11 @@ public class PImage implements PConstants, Cloneable {
    * @usage web_application
    */
   public void loadPixels() {  // ignore
-    if (pixels == null || pixels.length != pixelWidth*pixelHeight) {
+    if (samples != null) {
+      // pixels[] may be written to from now on, so leave compact storage
+      pixels = expandSamples();
+      samples = null;
+    } else if (pixels == null || pixels.length != pixelWidth*pixelHeight) {
       pixels = new int[pixelWidth*pixelHeight];
     }
     setLoaded();
@@ -504,6 +540,98 @@ public class PImage implements PConstants, Cloneable {
   }
 
 
+  //////////////////////////////////////////////////////////////
+
+  // COMPACT STORAGE
+
+
+  /**
+   * Switch to compact storage, keeping one byte per pixel instead of four.
+   * Works for ALPHA images (the low byte of each pixel is kept), and for
+   * RGB images whose pixels are all gray, such as heightmaps. Returns false
+   * and leaves the image alone for anything else.
+   * <p>
+   * Drawing, get(), copy(), blend() (from this image), mask(), blurring
+   * and saving all work from the samples directly or from a temporary
+   * copy; only loadPixels() and methods that change the image turn it
+   * back into a regular image.
+   */
+  public boolean compact() {
+    if (samples != null) return true;
+    if (pixels == null || this instanceof PGraphics) return false;
+
+    int count = pixelWidth * pixelHeight;
+    byte[] outgoing = new byte[count];
+    if (format == ALPHA) {
+      for (int i = 0; i < count; i++) {
+        outgoing[i] = (byte) pixels[i];
+      }
+    } else if (format == RGB) {
+      for (int i = 0; i < count; i++) {
+        int c = pixels[i];
+        int b = c & 0xff;
+        if (((c >> 16) & 0xff) != b || ((c >> 8) & 0xff) != b) {
+          return false;
+        }
+        outgoing[i] = (byte) b;
+      }
+    } else {
+      return false;
+    }
+    samples = outgoing;
+    pixels = null;
+    loaded = false;
+    return true;
+  }
+
+
+  /**
+   * The 8-bit samples of a compact image,
+   * or null if it keeps its pixels in pixels[].
+   */
+  public byte[] getSamples() {
+    return samples;
+  }
+
+
+  /**
+   * Returns the samples of a compact image as a new array in the layout of
+   * pixels[], without leaving compact storage. Use this to read the image
+   * as ints; call loadPixels() instead if the pixels will be changed.
+   */
+  public int[] expandSamples() {
+    int[] outgoing = new int[samples.length];
+    if (format == ALPHA) {
+      for (int i = 0; i < outgoing.length; i++) {
+        outgoing[i] = samples[i] & 0xff;
+      }
+    } else {
+      for (int i = 0; i < outgoing.length; i++) {
+        outgoing[i] = 0xff000000 | (samples[i] & 0xff) * 0x010101;
+      }
+    }
+    return outgoing;
+  }
+
+
+  /**
+   * This image if it uses pixels[], otherwise a temporary image with the
+   * same contents in a regular pixels[] array.
+   */
+  protected PImage expandedView() {
+    if (samples == null) return this;
+
+    PImage view = new PImage();
+    view.width = view.pixelWidth = pixelWidth;
+    view.height = view.pixelHeight = pixelHeight;
+    view.format = format;
+    view.parent = parent;
+    view.pixels = expandSamples();
+    return view;
+  }
+
+
+
   //////////////////////////////////////////////////////////////
 
   // COPYING IMAGE DATA
@@ -550,6 +678,8 @@ public class PImage implements PConstants, Cloneable {
     if (w <= 0 && h <= 0) {
       throw new IllegalArgumentException("width or height must be > 0 for resize");
     }
+    boolean wasCompact = (samples != null);
+    if (wasCompact) loadPixels();
 
     if (w == 0) {  // Use height to determine relative size
       float diff = (float) h / (float) height;
@@ -574,6 +704,8 @@ public class PImage implements PConstants, Cloneable {
 
     // Mark the pixels array as altered
     updatePixels();
+
+    if (wasCompact) compact();
   }
 
 
@@ -727,6 +859,12 @@ public class PImage implements PConstants, Cloneable {
   public int get(int x, int y) {
     if ((x < 0) || (y < 0) || (x >= pixelWidth) || (y >= pixelHeight)) return 0;
 
+    if (samples != null) {
+      int value = samples[y*pixelWidth + x] & 0xff;
+      return (format == ALPHA) ?
+        (value << 24) | 0xffffff : 0xff000000 | value * 0x010101;
+    }
+
     switch (format) {
       case RGB:
         return pixels[y*pixelWidth + x] | 0xff000000;
@@ -786,6 +924,23 @@ public class PImage implements PConstants, Cloneable {
       targetFormat = ARGB;
     }
 
+    if (samples != null) {
+      if (targetFormat != format) {
+        // needs transparent edges, which gray samples can't hold
+        return expandedView().get(x - targetX, y - targetY,
+                                  targetWidth, targetHeight);
+      }
+      // copies of compact images are compact as well
+      byte[] outgoing = new byte[targetWidth * targetHeight];
+      for (int row = 0; row < h; row++) {
+        System.arraycopy(samples, (y + row) * pixelWidth + x,
+                         outgoing, (targetY + row) * targetWidth + targetX, w);
+      }
+      PImage target = new PImage(targetWidth, targetHeight, format, outgoing);
+      target.parent = parent;
+      return target;
+    }
+
     PImage target = new PImage(targetWidth / pixelDensity,
                                targetHeight / pixelDensity,
                                targetFormat, pixelDensity);
@@ -865,6 +1020,7 @@ public class PImage implements PConstants, Cloneable {
    */
   public void set(int x, int y, int c) {
     if ((x < 0) || (y < 0) || (x >= pixelWidth) || (y >= pixelHeight)) return;
+    if (samples != null) loadPixels();
     pixels[y*pixelWidth + x] = c;
     updatePixels(x, y, 1, 1);  // slow...
   }
@@ -879,6 +1035,7 @@ public class PImage implements PConstants, Cloneable {
    * @param img image to copy into the original image
    */
   public void set(int x, int y, PImage img) {
+    img = img.expandedView();
     int sx = 0;
     int sy = 0;
     int sw = img.pixelWidth;
@@ -916,6 +1073,8 @@ public class PImage implements PConstants, Cloneable {
                          int sourceX, int sourceY,
                          int sourceWidth, int sourceHeight,
                          int targetX, int targetY) {
+    if (samples != null) loadPixels();
+
     int sourceOffset = sourceY * sourceImage.pixelWidth + sourceX;
     int targetOffset = targetY * pixelWidth + targetX;
 
@@ -990,8 +1149,23 @@ public class PImage implements PConstants, Cloneable {
    * @brief Masks part of an image with another image as an alpha channel
    */
   public void mask(PImage img) {
-    img.loadPixels();
-    mask(img.pixels);
+    byte[] maskSamples = img.getSamples();
+    if (maskSamples == null) {
+      img.loadPixels();
+      mask(img.pixels);
+      return;
+    }
+
+    // compact masks are used directly, their samples are the blue channel
+    loadPixels();
+    if (maskSamples.length != pixels.length) {
+      throw new IllegalArgumentException("mask() can only be used with an image that's the same size.");
+    }
+    for (int i = 0; i < pixels.length; i++) {
+      pixels[i] = ((maskSamples[i] & 0xff) << 24) | (pixels[i] & 0xffffff);
+    }
+    format = ARGB;
+    updatePixels();
   }
 
 
@@ -1126,6 +1300,12 @@ public class PImage implements PConstants, Cloneable {
    * @param param unique for each, see above
    */
   public void filter(int kind, float param) {
+    if (kind == BLUR && samples != null) {
+      // one channel either way, blur the samples and stay compact
+      blurSamples(param);
+      updatePixels();
+      return;
+    }
     loadPixels();
 
     switch (kind) {
@@ -1307,6 +1487,79 @@ public class PImage implements PConstants, Cloneable {
   }
 
 
+  /**
+   * Same as blurAlpha(), for the samples of a compact image. Gray images
+   * only have the one channel as well, so this works for both formats.
+   */
+  protected void blurSamples(float r) {
+    int sum, cb;
+    int read, ri, ym, ymi, bk0;
+    int b2[] = new int[samples.length];
+    int yi = 0;
+
+    buildBlurKernel(r);
+
+    for (int y = 0; y < pixelHeight; y++) {
+      for (int x = 0; x < pixelWidth; x++) {
+        cb = sum = 0;
+        read = x - blurRadius;
+        if (read<0) {
+          bk0=-read;
+          read=0;
+        } else {
+          if (read >= pixelWidth)
+            break;
+          bk0=0;
+        }
+        for (int i = bk0; i < blurKernelSize; i++) {
+          if (read >= pixelWidth)
+            break;
+          int[] bm = blurMult[i];
+          cb += bm[samples[read + yi] & 0xff];
+          sum += blurKernel[i];
+          read++;
+        }
+        ri = yi + x;
+        b2[ri] = cb / sum;
+      }
+      yi += pixelWidth;
+    }
+
+    yi = 0;
+    ym = -blurRadius;
+    ymi = ym * pixelWidth;
+
+    for (int y = 0; y < pixelHeight; y++) {
+      for (int x = 0; x < pixelWidth; x++) {
+        cb = sum = 0;
+        if (ym < 0) {
+          bk0 = ri = -ym;
+          read = x;
+        } else {
+          if (ym >= pixelHeight)
+            break;
+          bk0 = 0;
+          ri = ym;
+          read = x + ymi;
+        }
+        for (int i = bk0; i < blurKernelSize; i++) {
+          if (ri >= pixelHeight)
+            break;
+          int[] bm = blurMult[i];
+          cb += bm[b2[read]];
+          sum += blurKernel[i];
+          ri++;
+          read += pixelWidth;
+        }
+        samples[x+yi] = (byte) (cb/sum);
+      }
+      yi += pixelWidth;
+      ymi += pixelWidth;
+      ym++;
+    }
+  }
+
+
   protected void blurRGB(float r) {
     int sum, cr, cg, cb; //, k;
     int /*pixel,*/ read, ri, /*roff,*/ ym, ymi, /*riw,*/ bk0;
@@ -1874,7 +2127,7 @@ public class PImage implements PConstants, Cloneable {
                     pixels, pixelWidth, pixelHeight, dx, dy, dx2, dy2, mode);
       }
     } else {
-      src.loadPixels();
+      if (src.samples == null) src.loadPixels();
       blit_resize(src, sx, sy, sx2, sy2,
                   pixels, pixelWidth, pixelHeight, dx, dy, dx2, dy2, mode);
       //src.updatePixels();
@@ -1923,544 +2176,340 @@ public class PImage implements PConstants, Cloneable {
 
 
   /**
-   * Internal blitter/resizer/copier from toxi.
-   * Uses bilinear filtering if smooth() has been enabled
-   * 'mode' determines the blending mode used in the process.
+   * Internal blitter/resizer/copier, originally from toxi.
+   * Always uses bilinear filtering when the source and destination sizes
+   * differ; 'mode' determines the blending mode used in the process.
+   * All per-call state lives in a {@link Blit} so that several threads
+   * can blit (into disjoint regions) at the same time.
    */
   private void blit_resize(PImage img,
                            int srcX1, int srcY1, int srcX2, int srcY2,
                            int[] destPixels, int screenW, int screenH,
                            int destX1, int destY1, int destX2, int destY2,
                            int mode) {
-    if (srcX1 < 0) srcX1 = 0;
-    if (srcY1 < 0) srcY1 = 0;
-    if (srcX2 > img.pixelWidth) srcX2 = img.pixelWidth;
-    if (srcY2 > img.pixelHeight) srcY2 = img.pixelHeight;
-
-    int srcW = srcX2 - srcX1;
-    int srcH = srcY2 - srcY1;
-    int destW = destX2 - destX1;
-    int destH = destY2 - destY1;
-
-    boolean smooth = true;  // may as well go with the smoothing these days
-
-    if (!smooth) {
-      srcW++; srcH++;
+    int[] srcPixels =
+      (img.samples != null) ? img.expandSamples() : img.pixels;
+    Blit blit = Blit.create(srcPixels, img.pixelWidth, img.pixelHeight,
+                            srcX1, srcY1, srcX2, srcY2,
+                            destPixels, screenW, screenH,
+                            destX1, destY1, destX2, destY2, mode);
+    if (blit != null) {
+      blit.run();
     }
+  }
 
-    if (destW <= 0 || destH <= 0 ||
-        srcW <= 0 || srcH <= 0 ||
-        destX1 >= screenW || destY1 >= screenH ||
-        srcX1 >= img.pixelWidth || srcY1 >= img.pixelHeight) {
-      return;
-    }
-
-    int dx = (int) (srcW / (float) destW * PRECISIONF);
-    int dy = (int) (srcH / (float) destH * PRECISIONF);
-
-    srcXOffset = destX1 < 0 ? -destX1 * dx : srcX1 * PRECISIONF;
-    srcYOffset = destY1 < 0 ? -destY1 * dy : srcY1 * PRECISIONF;
 
-    if (destX1 < 0) {
-      destW += destX1;
-      destX1 = 0;
-    }
-    if (destY1 < 0) {
-      destH += destY1;
-      destY1 = 0;
+  /**
+   * A single blit operation, clipped against both images. Scaled copies
+   * step through the source with fixed point offsets computed once per
+   * call, unscaled copies read the source rows directly. Each blend mode has its
+   * own inner loop (see {@link #blendRow}), so the mode is only dispatched
+   * once per row rather than once per pixel. Large blits are split into
+   * bands of rows that are processed in parallel.
+   */
+  static final class Blit {
+    /** Blits smaller than this many pixels stay on the calling thread. */
+    static final int PARALLEL_THRESHOLD = 256 * 256;
+    /** Minimum number of rows handled by each parallel band. */
+    static final int MIN_BAND_ROWS = 16;
+
+    final int[] src;
+    final int srcW, srcH;
+    final int[] dest;
+    final int destStride;
+    final int destOffset;
+    final int destW, destH;
+    final int mode;
+
+    // fixed point position of the first destination pixel in the source
+    final int srcXOffset, srcYOffset;
+    // fixed point step in the source per destination pixel
+    final int dx, dy;
+    final boolean scaled;
+
+
+    private Blit(int[] src, int srcW, int srcH,
+                 int[] dest, int destStride, int destOffset,
+                 int destW, int destH, int mode,
+                 int srcXOffset, int srcYOffset, int dx, int dy) {
+      this.src = src;
+      this.srcW = srcW;
+      this.srcH = srcH;
+      this.dest = dest;
+      this.destStride = destStride;
+      this.destOffset = destOffset;
+      this.destW = destW;
+      this.destH = destH;
+      this.mode = mode;
+      this.srcXOffset = srcXOffset;
+      this.srcYOffset = srcYOffset;
+      this.dx = dx;
+      this.dy = dy;
+      scaled = (dx != PRECISIONF || dy != PRECISIONF);
     }
 
-    destW = min(destW, screenW - destX1);
-    destH = min(destH, screenH - destY1);
-
-    int destOffset = destY1 * screenW + destX1;
-    srcBuffer = img.pixels;
 
-    if (smooth) {
-      // use bilinear filtering
-      iw = img.pixelWidth;
-      iw1 = img.pixelWidth - 1;
-      ih1 = img.pixelHeight - 1;
-
-      switch (mode) {
-
-      case BLEND:
-        for (int y = 0; y < destH; y++) {
-          filter_new_scanline();
-          for (int x = 0; x < destW; x++) {
-            // davbol  - renamed old blend_multiply to blend_blend
-            destPixels[destOffset + x] =
-              blend_blend(destPixels[destOffset + x], filter_bilinear());
-            sX += dx;
-          }
-          destOffset += screenW;
-          srcYOffset += dy;
-        }
-        break;
-
-      case ADD:
-        for (int y = 0; y < destH; y++) {
-          filter_new_scanline();
-          for (int x = 0; x < destW; x++) {
-            destPixels[destOffset + x] =
-              blend_add_pin(destPixels[destOffset + x], filter_bilinear());
-            sX += dx;
-          }
-          destOffset += screenW;
-          srcYOffset += dy;
-        }
-        break;
+    /**
+     * Clip the source and destination rectangles and set up the blit.
+     * Returns null if there is nothing to draw.
+     */
+    static Blit create(int[] src, int srcW, int srcH,
+                       int srcX1, int srcY1, int srcX2, int srcY2,
+                       int[] dest, int screenW, int screenH,
+                       int destX1, int destY1, int destX2, int destY2,
+                       int mode) {
+      if (srcX1 < 0) srcX1 = 0;
+      if (srcY1 < 0) srcY1 = 0;
+      if (srcX2 > srcW) srcX2 = srcW;
+      if (srcY2 > srcH) srcY2 = srcH;
+
+      int sw = srcX2 - srcX1;
+      int sh = srcY2 - srcY1;
+      int dw = destX2 - destX1;
+      int dh = destY2 - destY1;
+
+      if (dw <= 0 || dh <= 0 ||
+          sw <= 0 || sh <= 0 ||
+          destX1 >= screenW || destY1 >= screenH ||
+          srcX1 >= srcW || srcY1 >= srcH) {
+        return null;
+      }
 
-      case SUBTRACT:
-        for (int y = 0; y < destH; y++) {
-          filter_new_scanline();
-          for (int x = 0; x < destW; x++) {
-            destPixels[destOffset + x] =
-              blend_sub_pin(destPixels[destOffset + x], filter_bilinear());
-            sX += dx;
-          }
-          destOffset += screenW;
-          srcYOffset += dy;
-        }
-        break;
+      int dx = (sw == dw) ? PRECISIONF : (int) (sw / (float) dw * PRECISIONF);
+      int dy = (sh == dh) ? PRECISIONF : (int) (sh / (float) dh * PRECISIONF);
 
-      case LIGHTEST:
-        for (int y = 0; y < destH; y++) {
-          filter_new_scanline();
-          for (int x = 0; x < destW; x++) {
-            destPixels[destOffset + x] =
-              blend_lightest(destPixels[destOffset + x], filter_bilinear());
-            sX += dx;
-          }
-          destOffset += screenW;
-          srcYOffset += dy;
-        }
-        break;
+      int srcXOffset = srcX1 * PRECISIONF;
+      int srcYOffset = srcY1 * PRECISIONF;
 
-      case DARKEST:
-        for (int y = 0; y < destH; y++) {
-          filter_new_scanline();
-          for (int x = 0; x < destW; x++) {
-            destPixels[destOffset + x] =
-              blend_darkest(destPixels[destOffset + x], filter_bilinear());
-            sX += dx;
-          }
-          destOffset += screenW;
-          srcYOffset += dy;
-        }
-        break;
+      if (destX1 < 0) {
+        srcXOffset += -destX1 * dx;
+        dw += destX1;
+        destX1 = 0;
+      }
+      if (destY1 < 0) {
+        srcYOffset += -destY1 * dy;
+        dh += destY1;
+        destY1 = 0;
+      }
 
-      case REPLACE:
-        for (int y = 0; y < destH; y++) {
-          filter_new_scanline();
-          for (int x = 0; x < destW; x++) {
-            destPixels[destOffset + x] = filter_bilinear();
-            sX += dx;
-          }
-          destOffset += screenW;
-          srcYOffset += dy;
-        }
-        break;
+      dw = min(dw, screenW - destX1);
+      dh = min(dh, screenH - destY1);
+      if (dw <= 0 || dh <= 0) {
+        return null;
+      }
 
-      case DIFFERENCE:
-        for (int y = 0; y < destH; y++) {
-          filter_new_scanline();
-          for (int x = 0; x < destW; x++) {
-            destPixels[destOffset + x] =
-              blend_difference(destPixels[destOffset + x], filter_bilinear());
-            sX += dx;
-          }
-          destOffset += screenW;
-          srcYOffset += dy;
-        }
-        break;
+      return new Blit(src, srcW, srcH,
+                      dest, screenW, destY1 * screenW + destX1,
+                      dw, dh, mode, srcXOffset, srcYOffset, dx, dy);
+    }
 
-      case EXCLUSION:
-        for (int y = 0; y < destH; y++) {
-          filter_new_scanline();
-          for (int x = 0; x < destW; x++) {
-            destPixels[destOffset + x] =
-              blend_exclusion(destPixels[destOffset + x], filter_bilinear());
-            sX += dx;
-          }
-          destOffset += screenW;
-          srcYOffset += dy;
-        }
-        break;
 
-      case MULTIPLY:
-        for (int y = 0; y < destH; y++) {
-          filter_new_scanline();
-          for (int x = 0; x < destW; x++) {
-            destPixels[destOffset + x] =
-              blend_multiply(destPixels[destOffset + x], filter_bilinear());
-            sX += dx;
-          }
-          destOffset += screenW;
-          srcYOffset += dy;
-        }
-        break;
+    void run() {
+      int bands = 1;
+      if ((long) destW * destH >= PARALLEL_THRESHOLD) {
+        int cores = Runtime.getRuntime().availableProcessors();
+        bands = max(1, min(cores, destH / MIN_BAND_ROWS));
+      }
+      if (bands == 1) {
+        rows(0, destH);
 
-      case SCREEN:
-        for (int y = 0; y < destH; y++) {
-          filter_new_scanline();
-          for (int x = 0; x < destW; x++) {
-            destPixels[destOffset + x] =
-              blend_screen(destPixels[destOffset + x], filter_bilinear());
-            sX += dx;
-          }
-          destOffset += screenW;
-          srcYOffset += dy;
-        }
-        break;
+      } else {
+        final int count = bands;
+        IntStream.range(0, count).parallel().forEach(band -> {
+          rows(destH * band / count, destH * (band + 1) / count);
+        });
+      }
+    }
 
-      case OVERLAY:
-        for (int y = 0; y < destH; y++) {
-          filter_new_scanline();
-          for (int x = 0; x < destW; x++) {
-            destPixels[destOffset + x] =
-              blend_overlay(destPixels[destOffset + x], filter_bilinear());
-            sX += dx;
-          }
-          destOffset += screenW;
-          srcYOffset += dy;
-        }
-        break;
 
-      case HARD_LIGHT:
-        for (int y = 0; y < destH; y++) {
-          filter_new_scanline();
-          for (int x = 0; x < destW; x++) {
-            destPixels[destOffset + x] =
-              blend_hard_light(destPixels[destOffset + x], filter_bilinear());
-            sX += dx;
-          }
-          destOffset += screenW;
-          srcYOffset += dy;
-        }
-        break;
+    /** Blit destination rows [y1, y2) relative to the clipped target. */
+    void rows(int y1, int y2) {
+      int destIndex = destOffset + y1 * destStride;
 
-      case SOFT_LIGHT:
-        for (int y = 0; y < destH; y++) {
-          filter_new_scanline();
-          for (int x = 0; x < destW; x++) {
-            destPixels[destOffset + x] =
-              blend_soft_light(destPixels[destOffset + x], filter_bilinear());
-            sX += dx;
-          }
-          destOffset += screenW;
-          srcYOffset += dy;
+      if (!scaled) {
+        int srcIndex = (srcYOffset >> PRECISIONB) * srcW +
+          (srcXOffset >> PRECISIONB) + y1 * srcW;
+        for (int y = y1; y < y2; y++) {
+          blendRow(mode, dest, destIndex, src, srcIndex, destW);
+          destIndex += destStride;
+          srcIndex += srcW;
         }
-        break;
 
-      // davbol - proposed 2007-01-09
-      case DODGE:
-        for (int y = 0; y < destH; y++) {
-          filter_new_scanline();
-          for (int x = 0; x < destW; x++) {
-            destPixels[destOffset + x] =
-              blend_dodge(destPixels[destOffset + x], filter_bilinear());
-            sX += dx;
+      } else {
+        // REPLACE filters straight into the destination
+        int[] line = (mode == REPLACE) ? null : new int[destW];
+        int ih1 = srcH - 1;
+        int sY = srcYOffset + y1 * dy;
+        for (int y = y1; y < y2; y++) {
+          int v = sY >> PRECISIONB;
+          int v1 = v * srcW;
+          int v2 = min(v + 1, ih1) * srcW;
+          int fracV = sY & PREC_MAXVAL;
+          if (line == null) {
+            filterRow(v1, v2, fracV, dest, destIndex);
+          } else {
+            filterRow(v1, v2, fracV, line, 0);
+            blendRow(mode, dest, destIndex, line, 0, destW);
           }
-          destOffset += screenW;
-          srcYOffset += dy;
+          destIndex += destStride;
+          sY += dy;
         }
-        break;
+      }
+    }
 
-      case BURN:
-        for (int y = 0; y < destH; y++) {
-          filter_new_scanline();
-          for (int x = 0; x < destW; x++) {
-            destPixels[destOffset + x] =
-              blend_burn(destPixels[destOffset + x], filter_bilinear());
-            sX += dx;
-          }
-          destOffset += screenW;
-          srcYOffset += dy;
-        }
-        break;
 
+    /**
+     * Bilinear filter one row of the source, between source rows starting
+     * at v1 and v2, into out[] starting at outOffset.
+     */
+    private void filterRow(int v1, int v2, int fracV, int[] out, int outOffset) {
+      final int[] src = this.src;
+      final int iw1 = srcW - 1;
+      final int ifV = PREC_MAXVAL - fracV + 1;
+      final int dx = this.dx;
+      int sX = srcXOffset;
+
+      for (int x = 0; x < destW; x++) {
+        int ifU = PREC_MAXVAL - (sX & PREC_MAXVAL) + 1;
+        int ul = (ifU * ifV) >> PRECISIONB;
+        int ll = ifU - ul;
+        int ur = ifV - ul;
+        int lr = PREC_MAXVAL + 1 - ul - ll - ur;
+        int u1 = sX >> PRECISIONB;
+        int u2 = min(u1 + 1, iw1);
+        sX += dx;
+
+        // get color values of the 4 neighbouring texels
+        int cUL = src[v1 + u1];
+        int cUR = src[v1 + u2];
+        int cLL = src[v2 + u1];
+        int cLR = src[v2 + u2];
+
+        int r = ((ul*((cUL&RED_MASK)>>16) + ll*((cLL&RED_MASK)>>16) +
+                  ur*((cUR&RED_MASK)>>16) + lr*((cLR&RED_MASK)>>16))
+                 << PREC_RED_SHIFT) & RED_MASK;
+
+        int g = ((ul*(cUL&GREEN_MASK) + ll*(cLL&GREEN_MASK) +
+                  ur*(cUR&GREEN_MASK) + lr*(cLR&GREEN_MASK))
+                 >>> PRECISIONB) & GREEN_MASK;
+
+        int b = (ul*(cUL&BLUE_MASK) + ll*(cLL&BLUE_MASK) +
+                 ur*(cUR&BLUE_MASK) + lr*(cLR&BLUE_MASK))
+                   >>> PRECISIONB;
+
+        int a = ((ul*((cUL&ALPHA_MASK)>>>24) + ll*((cLL&ALPHA_MASK)>>>24) +
+                  ur*((cUR&ALPHA_MASK)>>>24) + lr*((cLR&ALPHA_MASK)>>>24))
+                 << PREC_ALPHA_SHIFT) & ALPHA_MASK;
+
+        out[outOffset + x] = a | r | g | b;
       }
+    }
+  }
 
-    } else {
-      // nearest neighbour scaling (++fast!)
-      switch (mode) {
-
-      case BLEND:
-        for (int y = 0; y < destH; y++) {
-          sX = srcXOffset;
-          sY = (srcYOffset >> PRECISIONB) * img.pixelWidth;
-          for (int x = 0; x < destW; x++) {
-            // davbol - renamed old blend_multiply to blend_blend
-            destPixels[destOffset + x] =
-              blend_blend(destPixels[destOffset + x],
-                          srcBuffer[sY + (sX >> PRECISIONB)]);
-            sX += dx;
-          }
-          destOffset += screenW;
-          srcYOffset += dy;
-        }
-        break;
 
-      case ADD:
-        for (int y = 0; y < destH; y++) {
-          sX = srcXOffset;
-          sY = (srcYOffset >> PRECISIONB) * img.pixelWidth;
-          for (int x = 0; x < destW; x++) {
-            destPixels[destOffset + x] =
-              blend_add_pin(destPixels[destOffset + x],
-                            srcBuffer[sY + (sX >> PRECISIONB)]);
-            sX += dx;
-          }
-          destOffset += screenW;
-          srcYOffset += dy;
-        }
-        break;
+  /**
+   * Blend len pixels from src[srcOffset] onto dest[destOffset] using
+   * the given blend mode. The mode is resolved once, and each mode has
+   * its own loop. Unknown modes leave the destination untouched.
+   * Same result as calling blendColor(dest, src, mode) on each pixel;
+   * renderers use it to implement blendMode().
+   */
+  static public void blendRow(int mode, int[] dest, int destOffset,
+                       int[] src, int srcOffset, int len) {
+    int end = destOffset + len;
+    int s = srcOffset;
+    switch (mode) {
+    case REPLACE:
+      System.arraycopy(src, srcOffset, dest, destOffset, len);
+      break;
 
-      case SUBTRACT:
-        for (int y = 0; y < destH; y++) {
-          sX = srcXOffset;
-          sY = (srcYOffset >> PRECISIONB) * img.pixelWidth;
-          for (int x = 0; x < destW; x++) {
-            destPixels[destOffset + x] =
-              blend_sub_pin(destPixels[destOffset + x],
-                            srcBuffer[sY + (sX >> PRECISIONB)]);
-            sX += dx;
-          }
-          destOffset += screenW;
-          srcYOffset += dy;
-        }
-        break;
+    case BLEND:
+      for (int d = destOffset; d < end; d++) {
+        dest[d] = blend_blend(dest[d], src[s++]);
+      }
+      break;
 
-      case LIGHTEST:
-        for (int y = 0; y < destH; y++) {
-          sX = srcXOffset;
-          sY = (srcYOffset >> PRECISIONB) * img.pixelWidth;
-          for (int x = 0; x < destW; x++) {
-            destPixels[destOffset + x] =
-              blend_lightest(destPixels[destOffset + x],
-                             srcBuffer[sY + (sX >> PRECISIONB)]);
-            sX += dx;
-          }
-          destOffset += screenW;
-          srcYOffset += dy;
-        }
-        break;
+    case ADD:
+      for (int d = destOffset; d < end; d++) {
+        dest[d] = blend_add_pin(dest[d], src[s++]);
+      }
+      break;
 
-      case DARKEST:
-        for (int y = 0; y < destH; y++) {
-          sX = srcXOffset;
-          sY = (srcYOffset >> PRECISIONB) * img.pixelWidth;
-          for (int x = 0; x < destW; x++) {
-            destPixels[destOffset + x] =
-              blend_darkest(destPixels[destOffset + x],
-                            srcBuffer[sY + (sX >> PRECISIONB)]);
-            sX += dx;
-          }
-          destOffset += screenW;
-          srcYOffset += dy;
-        }
-        break;
+    case SUBTRACT:
+      for (int d = destOffset; d < end; d++) {
+        dest[d] = blend_sub_pin(dest[d], src[s++]);
+      }
+      break;
 
-      case REPLACE:
-        for (int y = 0; y < destH; y++) {
-          sX = srcXOffset;
-          sY = (srcYOffset >> PRECISIONB) * img.pixelWidth;
-          for (int x = 0; x < destW; x++) {
-            destPixels[destOffset + x] = srcBuffer[sY + (sX >> PRECISIONB)];
-            sX += dx;
-          }
-          destOffset += screenW;
-          srcYOffset += dy;
-        }
-        break;
+    case LIGHTEST:
+      for (int d = destOffset; d < end; d++) {
+        dest[d] = blend_lightest(dest[d], src[s++]);
+      }
+      break;
 
-      case DIFFERENCE:
-        for (int y = 0; y < destH; y++) {
-          sX = srcXOffset;
-          sY = (srcYOffset >> PRECISIONB) * img.pixelWidth;
-          for (int x = 0; x < destW; x++) {
-            destPixels[destOffset + x] =
-              blend_difference(destPixels[destOffset + x],
-                               srcBuffer[sY + (sX >> PRECISIONB)]);
-            sX += dx;
-          }
-          destOffset += screenW;
-          srcYOffset += dy;
-        }
-        break;
+    case DARKEST:
+      for (int d = destOffset; d < end; d++) {
+        dest[d] = blend_darkest(dest[d], src[s++]);
+      }
+      break;
 
-      case EXCLUSION:
-        for (int y = 0; y < destH; y++) {
-          sX = srcXOffset;
-          sY = (srcYOffset >> PRECISIONB) * img.pixelWidth;
-          for (int x = 0; x < destW; x++) {
-            destPixels[destOffset + x] =
-              blend_exclusion(destPixels[destOffset + x],
-                              srcBuffer[sY + (sX >> PRECISIONB)]);
-            sX += dx;
-          }
-          destOffset += screenW;
-          srcYOffset += dy;
-        }
-        break;
+    case DIFFERENCE:
+      for (int d = destOffset; d < end; d++) {
+        dest[d] = blend_difference(dest[d], src[s++]);
+      }
+      break;
 
-      case MULTIPLY:
-        for (int y = 0; y < destH; y++) {
-          sX = srcXOffset;
-          sY = (srcYOffset >> PRECISIONB) * img.pixelWidth;
-          for (int x = 0; x < destW; x++) {
-            destPixels[destOffset + x] =
-              blend_multiply(destPixels[destOffset + x],
-                            srcBuffer[sY + (sX >> PRECISIONB)]);
-            sX += dx;
-          }
-          destOffset += screenW;
-          srcYOffset += dy;
-        }
-        break;
+    case EXCLUSION:
+      for (int d = destOffset; d < end; d++) {
+        dest[d] = blend_exclusion(dest[d], src[s++]);
+      }
+      break;
 
-      case SCREEN:
-        for (int y = 0; y < destH; y++) {
-          sX = srcXOffset;
-          sY = (srcYOffset >> PRECISIONB) * img.pixelWidth;
-          for (int x = 0; x < destW; x++) {
-            destPixels[destOffset + x] =
-              blend_screen(destPixels[destOffset + x],
-                            srcBuffer[sY + (sX >> PRECISIONB)]);
-            sX += dx;
-          }
-          destOffset += screenW;
-          srcYOffset += dy;
-        }
-        break;
+    case MULTIPLY:
+      for (int d = destOffset; d < end; d++) {
+        dest[d] = blend_multiply(dest[d], src[s++]);
+      }
+      break;
 
-      case OVERLAY:
-        for (int y = 0; y < destH; y++) {
-          sX = srcXOffset;
-          sY = (srcYOffset >> PRECISIONB) * img.pixelWidth;
-          for (int x = 0; x < destW; x++) {
-            destPixels[destOffset + x] =
-              blend_overlay(destPixels[destOffset + x],
-                            srcBuffer[sY + (sX >> PRECISIONB)]);
-            sX += dx;
-          }
-          destOffset += screenW;
-          srcYOffset += dy;
-        }
-        break;
+    case SCREEN:
+      for (int d = destOffset; d < end; d++) {
+        dest[d] = blend_screen(dest[d], src[s++]);
+      }
+      break;
 
-      case HARD_LIGHT:
-        for (int y = 0; y < destH; y++) {
-          sX = srcXOffset;
-          sY = (srcYOffset >> PRECISIONB) * img.pixelWidth;
-          for (int x = 0; x < destW; x++) {
-            destPixels[destOffset + x] =
-              blend_hard_light(destPixels[destOffset + x],
-                            srcBuffer[sY + (sX >> PRECISIONB)]);
-            sX += dx;
-          }
-          destOffset += screenW;
-          srcYOffset += dy;
-        }
-        break;
+    case OVERLAY:
+      for (int d = destOffset; d < end; d++) {
+        dest[d] = blend_overlay(dest[d], src[s++]);
+      }
+      break;
 
-      case SOFT_LIGHT:
-        for (int y = 0; y < destH; y++) {
-          sX = srcXOffset;
-          sY = (srcYOffset >> PRECISIONB) * img.pixelWidth;
-          for (int x = 0; x < destW; x++) {
-            destPixels[destOffset + x] =
-              blend_soft_light(destPixels[destOffset + x],
-                            srcBuffer[sY + (sX >> PRECISIONB)]);
-            sX += dx;
-          }
-          destOffset += screenW;
-          srcYOffset += dy;
-        }
-        break;
+    case HARD_LIGHT:
+      for (int d = destOffset; d < end; d++) {
+        dest[d] = blend_hard_light(dest[d], src[s++]);
+      }
+      break;
 
-      // davbol - proposed 2007-01-09
-      case DODGE:
-        for (int y = 0; y < destH; y++) {
-          sX = srcXOffset;
-          sY = (srcYOffset >> PRECISIONB) * img.pixelWidth;
-          for (int x = 0; x < destW; x++) {
-            destPixels[destOffset + x] =
-              blend_dodge(destPixels[destOffset + x],
-                            srcBuffer[sY + (sX >> PRECISIONB)]);
-            sX += dx;
-          }
-          destOffset += screenW;
-          srcYOffset += dy;
-        }
-        break;
+    case SOFT_LIGHT:
+      for (int d = destOffset; d < end; d++) {
+        dest[d] = blend_soft_light(dest[d], src[s++]);
+      }
+      break;
 
-      case BURN:
-        for (int y = 0; y < destH; y++) {
-          sX = srcXOffset;
-          sY = (srcYOffset >> PRECISIONB) * img.pixelWidth;
-          for (int x = 0; x < destW; x++) {
-            destPixels[destOffset + x] =
-              blend_burn(destPixels[destOffset + x],
-                            srcBuffer[sY + (sX >> PRECISIONB)]);
-            sX += dx;
-          }
-          destOffset += screenW;
-          srcYOffset += dy;
-        }
-        break;
+    case DODGE:
+      for (int d = destOffset; d < end; d++) {
+        dest[d] = blend_dodge(dest[d], src[s++]);
+      }
+      break;
 
+    case BURN:
+      for (int d = destOffset; d < end; d++) {
+        dest[d] = blend_burn(dest[d], src[s++]);
       }
+      break;
     }
   }
 
 
-  private void filter_new_scanline() {
-    sX = srcXOffset;
-    fracV = srcYOffset & PREC_MAXVAL;
-    ifV = PREC_MAXVAL - fracV + 1;
-    v1 = (srcYOffset >> PRECISIONB) * iw;
-    v2 = min((srcYOffset >> PRECISIONB) + 1, ih1) * iw;
-  }
-
-
-  private int filter_bilinear() {
-    fracU = sX & PREC_MAXVAL;
-    ifU = PREC_MAXVAL - fracU + 1;
-    ul = (ifU * ifV) >> PRECISIONB;
-    ll = ifU - ul;
-    ur = ifV - ul;
-    lr = PREC_MAXVAL + 1 - ul - ll - ur;
-    u1 = (sX >> PRECISIONB);
-    u2 = min(u1 + 1, iw1);
-
-    // get color values of the 4 neighbouring texels
-    cUL = srcBuffer[v1 + u1];
-    cUR = srcBuffer[v1 + u2];
-    cLL = srcBuffer[v2 + u1];
-    cLR = srcBuffer[v2 + u2];
-
-    r = ((ul*((cUL&RED_MASK)>>16) + ll*((cLL&RED_MASK)>>16) +
-          ur*((cUR&RED_MASK)>>16) + lr*((cLR&RED_MASK)>>16))
-         << PREC_RED_SHIFT) & RED_MASK;
-
-    g = ((ul*(cUL&GREEN_MASK) + ll*(cLL&GREEN_MASK) +
-          ur*(cUR&GREEN_MASK) + lr*(cLR&GREEN_MASK))
-         >>> PRECISIONB) & GREEN_MASK;
-
-    b = (ul*(cUL&BLUE_MASK) + ll*(cLL&BLUE_MASK) +
-         ur*(cUR&BLUE_MASK) + lr*(cLR&BLUE_MASK))
-           >>> PRECISIONB;
-
-    a = ((ul*((cUL&ALPHA_MASK)>>>24) + ll*((cLL&ALPHA_MASK)>>>24) +
-          ur*((cUR&ALPHA_MASK)>>>24) + lr*((cLR&ALPHA_MASK)>>>24))
-         << PREC_ALPHA_SHIFT) & ALPHA_MASK;
-
-    return a | r | g | b;
-  }
-
-
 
   //////////////////////////////////////////////////////////////
 
@@ -3204,6 +3253,54 @@ int testFunction(int dst, int src) {
   }
 
 
+  /**
+   * Writes the pixels as they are, with no header and no compression:
+   * pixelWidth * pixelHeight big-endian ARGB ints, one row after the other.
+   * This is the cheapest format to write, meant for capturing frames that
+   * are converted later on (ffmpeg reads it as <tt>-pix_fmt argb</tt>).
+   */
+  protected boolean saveRaw(OutputStream output) {
+    try {
+      byte[] row = new byte[pixelWidth * 4];
+      int index = 0;
+      for (int y = 0; y < pixelHeight; y++) {
+        int offset = 0;
+        for (int x = 0; x < pixelWidth; x++) {
+          int c = pixels[index++];
+          row[offset++] = (byte) (c >>> 24);
+          row[offset++] = (byte) (c >> 16);
+          row[offset++] = (byte) (c >> 8);
+          row[offset++] = (byte) c;
+        }
+        output.write(row);
+      }
+      output.flush();
+      return true;
+
+    } catch (IOException e) {
+      e.printStackTrace();
+      return false;
+    }
+  }
+
+
+  /**
+   * Writes a PNG file with PNGEncoder, filtering and compressing parts of
+   * the image in parallel. Uses the pngCompression and pngFilter settings.
+   */
+  protected boolean savePNG(OutputStream output) {
+    try {
+      PNGEncoder encoder = new PNGEncoder(pngCompression, pngFilter);
+      encoder.write(pixels, pixelWidth, pixelHeight, format == ARGB, output);
+      return true;
+
+    } catch (IOException e) {
+      e.printStackTrace();
+      return false;
+    }
+  }
+
+
   /**
    * Use ImageIO functions from Java 1.4 and later to handle image save.
    * Various formats are supported, typically jpeg, png, bmp, and wbmp.
@@ -3225,8 +3322,18 @@ int testFunction(int dst, int src) {
         outputFormat = BufferedImage.TYPE_INT_RGB;
       }
 
-      BufferedImage bimage = new BufferedImage(pixelWidth, pixelHeight, outputFormat);
-      bimage.setRGB(0, 0, pixelWidth, pixelHeight, pixels, 0, pixelWidth);
+      // Wrap pixels[] instead of copying it over with setRGB(). The masks
+      // match TYPE_INT_RGB and TYPE_INT_ARGB, so the writers see the same
+      // kind of image, and RGB simply ignores whatever is in the top byte.
+      DirectColorModel model = (outputFormat == BufferedImage.TYPE_INT_ARGB) ?
+        new DirectColorModel(32, 0xff0000, 0xff00, 0xff, 0xff000000) :
+        new DirectColorModel(24, 0xff0000, 0xff00, 0xff);
+      DataBufferInt buffer =
+        new DataBufferInt(pixels, pixelWidth * pixelHeight);
+      WritableRaster raster =
+        Raster.createPackedRaster(buffer, pixelWidth, pixelHeight, pixelWidth,
+                                  model.getMasks(), null);
+      BufferedImage bimage = new BufferedImage(model, raster, false, null);
 
       File file = new File(path);
 
@@ -3258,7 +3365,8 @@ int testFunction(int dst, int src) {
       if (writer != null) {
         BufferedOutputStream output =
           new BufferedOutputStream(PApplet.createOutput(file));
-        writer.setOutput(ImageIO.createImageOutputStream(output));
+        // avoid the temporary file ImageIO would otherwise buffer through
+        writer.setOutput(new javax.imageio.stream.MemoryCacheImageOutputStream(output));
 //        writer.write(null, new IIOImage(bimage, null, null), param);
         writer.write(metadata, new IIOImage(bimage, null, metadata), param);
         writer.dispose();
@@ -3325,6 +3433,19 @@ int testFunction(int dst, int src) {
 
   protected String[] saveImageFormats;
 
+  /**
+   * Deflate level used when saving .png files, from 0 (fastest, no
+   * compression) to 9 (smallest files). Also applies to saveFrame().
+   */
+  static public int pngCompression = 4;
+
+  /**
+   * Scanline filter used when saving .png files, one of the FILTER_
+   * constants in PNGEncoder. FILTER_ADAPTIVE gives the smallest files,
+   * FILTER_NONE is the quickest and best paired with pngCompression 0.
+   */
+  static public int pngFilter = PNGEncoder.FILTER_ADAPTIVE;
+
   /**
    * ( begin auto-generated from PImage_save.xml )
    *
@@ -3360,7 +3481,8 @@ int testFunction(int dst, int src) {
    * <p>
    * To use the original built-in image writers, use .tga or .tif as the
    * extension, or don't include an extension. When no extension is used,
-   * the extension .tif will be added to the file name.
+   * the extension .tif will be added to the file name. Use .raw to dump
+   * the pixels without any header or compression (see saveRaw()).
    * <p>
    * The ImageIO API claims to support wbmp files, however they probably
    * require a black and white image. Basic testing produced a zero-length
@@ -3372,6 +3494,9 @@ int testFunction(int dst, int src) {
    * @param filename a sequence of letters and numbers
    */
   public boolean save(String filename) {  // ignore
+    if (samples != null) {
+      return expandedView().save(filename);  // stay compact
+    }
     boolean success = false;
 
     if (parent != null) {
@@ -3397,6 +3522,13 @@ int testFunction(int dst, int src) {
     try {
       OutputStream os = null;
 
+      if (filename.toLowerCase().endsWith(".png")) {
+        os = new BufferedOutputStream(new FileOutputStream(filename), 65536);
+        success = savePNG(os);
+        os.close();
+        return success;
+      }
+
       if (saveImageFormats == null) {
         saveImageFormats = javax.imageio.ImageIO.getWriterFormatNames();
       }
@@ -3416,6 +3548,10 @@ int testFunction(int dst, int src) {
         os = new BufferedOutputStream(new FileOutputStream(filename), 32768);
         success = saveTGA(os); //, pixels, width, height, format);
 
+      } else if (filename.toLowerCase().endsWith(".raw")) {
+        os = new BufferedOutputStream(new FileOutputStream(filename), 32768);
+        success = saveRaw(os);
+
       } else {
         if (!filename.toLowerCase().endsWith(".tif") &&
             !filename.toLowerCase().endsWith(".tiff")) {
@@ -0,0 +1,275 @@
+/* -*- mode: java; c-basic-offset: 2; indent-tabs-mode: nil -*- */
+
+/*
+  Part of the Processing project - http://processing.org
+
+  This library is free software; you can redistribute it and/or
+  modify it under the terms of the GNU Lesser General Public
+  License as published by the Free Software Foundation; either
+  version 2.1 of the License, or (at your option) any later version.
+
+  This library is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General
+  Public License along with this library; if not, write to the
+  Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+  Boston, MA  02111-1307  USA
+*/
+
+package processing.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+
+/**
+ * Cache of decoded images, shared by all sketches, used by
+ * <b>loadImage()</b> so that loading the same file twice only decodes it
+ * once.
+ * <p>
+ * Entries are keyed by the canonical path of the file together with its
+ * modification time and length, so a file that changes on disk is decoded
+ * again. Images read from the classpath are keyed by their URL, and images
+ * downloaded over the network are not cached at all.
+ * <p>
+ * Every image handed out gets its own copy of the pixels, so a sketch can
+ * write to pixels[] straight away (with or without <b>loadPixels()</b>)
+ * without altering the cached copy. Copying the array is still far quicker
+ * than decoding the file again.
+ * <p>
+ * The cache holds at most {@link #budget()} bytes of pixel data and evicts
+ * the least recently used images first. Set the budget to 0 to disable it.
+ */
+public class PImageCache {
+
+  static private PImageCache shared;
+
+  protected long budget;
+  protected long bytes;
+
+  protected long hits;
+  protected long misses;
+  protected long evictions;
+
+  protected LinkedHashMap<String, Entry> entries =
+    new LinkedHashMap<>(16, 0.75f, true);
+
+
+  static class Entry {
+    final int[] pixels;
+    final int width, height;
+    final int pixelDensity;
+    final int format;
+
+    Entry(PImage image) {
+      pixels = image.pixels.clone();
+      width = image.width;
+      height = image.height;
+      pixelDensity = image.pixelDensity;
+      format = image.format;
+    }
+
+    long bytes() {
+      return 4L * pixels.length;
+    }
+  }
+
+
+  /**
+   * @param budget maximum number of bytes of pixel data to keep
+   */
+  public PImageCache(long budget) {
+    this.budget = budget;
+  }
+
+
+  /**
+   * The cache used by loadImage(). Starts out with a budget of an eighth
+   * of the maximum heap size, up to 256 MB.
+   */
+  static public synchronized PImageCache shared() {
+    if (shared == null) {
+      long max = Runtime.getRuntime().maxMemory() / 8;
+      shared = new PImageCache(Math.min(max, 256L << 20));
+    }
+    return shared;
+  }
+
+
+  //////////////////////////////////////////////////////////////
+
+
+  /**
+   * Key used for the image at this path, or null if it should not be
+   * cached (for instance because it does not exist).
+   */
+  static public String key(File file, String extension) {
+    if (file == null || !file.isFile()) {
+      return null;
+    }
+    try {
+      return file.getCanonicalPath() + "|" + file.lastModified() + "|" +
+        file.length() + "|" + extension;
+    } catch (IOException e) {
+      return null;
+    }
+  }
+
+
+  /**
+   * Key used for an image read from a URL. Local files are keyed like
+   * {@link #key(File, String)}, resources inside jar files by their URL.
+   * Returns null for anything else, such as http downloads.
+   */
+  static public String key(URL url, String extension) {
+    if (url == null) return null;
+
+    String protocol = url.getProtocol();
+    if ("file".equals(protocol)) {
+      try {
+        return key(new File(url.toURI()), extension);
+      } catch (URISyntaxException | IllegalArgumentException e) {
+        return null;
+      }
+    }
+    if ("jar".equals(protocol)) {
+      return url.toExternalForm() + "|" + extension;
+    }
+    return null;
+  }
+
+
+  /**
+   * Returns a copy of the cached image, or null
+   * if there is no image for this key.
+   */
+  public synchronized PImage get(String key) {
+    Entry entry = entries.get(key);
+    if (entry == null) {
+      misses++;
+      return null;
+    }
+    hits++;
+    return copy(entry);
+  }
+
+
+  /**
+   * Store a copy of an image that was just decoded. The image itself
+   * keeps its own pixels.
+   */
+  public synchronized void put(String key, PImage image) {
+    if (image == null || image.pixels == null || image.width <= 0) return;
+
+    if (4L * image.pixels.length > budget) return;  // would evict everything else
+
+    Entry entry = new Entry(image);
+
+    Entry previous = entries.put(key, entry);
+    if (previous != null) {
+      bytes -= previous.bytes();
+    }
+    bytes += entry.bytes();
+    trim();
+  }
+
+
+  public synchronized void remove(String key) {
+    Entry entry = entries.remove(key);
+    if (entry != null) {
+      bytes -= entry.bytes();
+    }
+  }
+
+
+  public synchronized void clear() {
+    entries.clear();
+    bytes = 0;
+  }
+
+
+  protected PImage copy(Entry entry) {
+    PImage image = new PImage();
+    image.width = entry.width;
+    image.height = entry.height;
+    image.pixelDensity = entry.pixelDensity;
+    image.pixelWidth = entry.width * entry.pixelDensity;
+    image.pixelHeight = entry.height * entry.pixelDensity;
+    image.format = entry.format;
+    image.pixels = entry.pixels.clone();
+    return image;
+  }
+
+
+  /** Evict the least recently used entries until under budget. */
+  protected void trim() {
+    Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+    while (bytes > budget && it.hasNext()) {
+      bytes -= it.next().getValue().bytes();
+      it.remove();
+      evictions++;
+    }
+  }
+
+
+  //////////////////////////////////////////////////////////////
+
+  // SETTINGS AND STATISTICS
+
+
+  public synchronized long budget() {
+    return budget;
+  }
+
+
+  /**
+   * Set the maximum number of bytes of pixel data to keep,
+   * evicting images right away if needed. Use 0 to disable the cache.
+   */
+  public synchronized void budget(long budget) {
+    this.budget = budget;
+    trim();
+  }
+
+
+  /** Bytes of pixel data currently held. */
+  public synchronized long bytes() {
+    return bytes;
+  }
+
+
+  /** Number of images currently held. */
+  public synchronized int size() {
+    return entries.size();
+  }
+
+
+  public synchronized long getHits() {
+    return hits;
+  }
+
+
+  public synchronized long getMisses() {
+    return misses;
+  }
+
+
+  public synchronized long getEvictions() {
+    return evictions;
+  }
+
+
+  /** Fraction of lookups that found their image, between 0 and 1. */
+  public synchronized float hitRate() {
+    long total = hits + misses;
+    return total == 0 ? 0 : hits / (float) total;
+  }
+}
@@ -0,0 +1,504 @@
+/* -*- mode: java; c-basic-offset: 2; indent-tabs-mode: nil -*- */
+
+/*
+  Part of the Processing project - http://processing.org
+
+  This library is free software; you can redistribute it and/or
+  modify it under the terms of the GNU Lesser General Public
+  License as published by the Free Software Foundation; either
+  version 2.1 of the License, or (at your option) any later version.
+
+  This library is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General
+  Public License along with this library; if not, write to the
+  Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+  Boston, MA  02111-1307  USA
+*/
+
+package processing.core;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.imageio.ImageIO;
+
+
+/**
+ * Plays back an animation stored as numbered image files, or as the cells
+ * of a sprite sheet, without loading every frame up front.
+ * <pre>
+ * PImageSequence walk;
+ *
+ * void setup() {
+ *   walk = new PImageSequence(this, "walk/frame-####.png", 1, 240);
+ * }
+ *
+ * void draw() {
+ *   image(walk.next(), 0, 0);
+ * }
+ * </pre>
+ * The frames after the current one are decoded ahead of time on the
+ * sketch's asset loader (see <b>ahead()</b>) into a small pool of images
+ * that are reused over and over, so only a few frames are ever in memory.
+ * Decoded frames skip the loadImage() cache.
+ * <p>
+ * The image returned by next() stays valid until two more frames have
+ * been played; after that its pixels are used for a later frame. Use
+ * copy() to keep a frame for longer.
+ * <p>
+ * When a frame hasn't been decoded yet, next() returns the current frame
+ * again (counted by getRepeatedCount()). With skip(true) it instead jumps
+ * to the newest frame that is ready, dropping the ones in between
+ * (counted by getDroppedCount()), so the animation keeps its pace when the
+ * disk can't keep up.
+ */
+public class PImageSequence {
+
+  static final int DEFAULT_AHEAD = 6;
+
+  protected PApplet parent;
+
+  // numbered files
+  protected String[] filenames;
+
+  // sprite sheet
+  protected PImage sheet;
+  protected int[] sheetPixels;  // expanded once if the sheet is compact
+  protected int cellWidth, cellHeight;
+  protected int columns;
+
+  protected int count;
+
+  protected int ahead = DEFAULT_AHEAD;
+  protected boolean loop = true;
+  protected boolean skip;
+
+  /** Images that are free to be decoded into. */
+  protected ArrayDeque<PImage> pool = new ArrayDeque<>();
+  protected int poolSize;
+
+  /** Frames being decoded, in playback order. */
+  protected ArrayDeque<Frame> pending = new ArrayDeque<>();
+
+  /** Dropped frames whose decoding hasn't finished yet. */
+  protected ArrayDeque<Frame> discarded = new ArrayDeque<>();
+
+  protected int nextIndex;
+  protected int position = -1;
+  protected PImage current;
+  protected PImage previous;
+
+  // metrics
+  protected long decodedCount;
+  protected long droppedCount;
+  protected long repeatedCount;
+  protected long failedCount;
+  protected long decodeNanos;
+
+
+  static class Frame {
+    final int index;
+    final PImage image;
+    PAssetLoader.Request<PImage> request;
+    long nanos;
+    // taken by the decoder when it starts, or by drop() to keep it from starting
+    final AtomicBoolean started = new AtomicBoolean();
+    volatile boolean finished;
+
+    Frame(int index, PImage image) {
+      this.index = index;
+      this.image = image;
+    }
+  }
+
+
+  /**
+   * A sequence of numbered files. The run of # signs in the pattern is
+   * replaced with the frame number, padded with zeros, the same way as
+   * with saveFrame(). Plays the frames from first to last, inclusive.
+   */
+  public PImageSequence(PApplet parent, String pattern, int first, int last) {
+    this(parent, filenames(pattern, first, last));
+  }
+
+
+  /** A sequence that plays the given files in order. */
+  public PImageSequence(PApplet parent, String[] filenames) {
+    this.parent = parent;
+    this.filenames = filenames;
+    this.count = filenames.length;
+    allocatePool();
+  }
+
+
+  /**
+   * A sequence from a sprite sheet made of cells of the same size, read
+   * left to right and top to bottom.
+   *
+   * @param count number of cells in use, or 0 to use all of them
+   */
+  public PImageSequence(PApplet parent, PImage sheet,
+                        int cellWidth, int cellHeight, int count) {
+    if (cellWidth <= 0 || cellHeight <= 0 ||
+        cellWidth > sheet.pixelWidth || cellHeight > sheet.pixelHeight) {
+      throw new IllegalArgumentException("The cells must fit inside the sprite sheet");
+    }
+    this.parent = parent;
+    this.sheet = sheet;
+    this.cellWidth = cellWidth;
+    this.cellHeight = cellHeight;
+    this.columns = sheet.pixelWidth / cellWidth;
+    int cells = columns * (sheet.pixelHeight / cellHeight);
+    this.count = (count <= 0) ? cells : Math.min(count, cells);
+    if (sheet.pixels == null && sheet.getSamples() != null) {
+      sheetPixels = sheet.expandSamples();
+    }
+    allocatePool();
+  }
+
+
+  static protected String[] filenames(String pattern, int first, int last) {
+    int start = pattern.indexOf('#');
+    if (start == -1) {
+      throw new IllegalArgumentException("The pattern needs # signs " +
+                                         "where the frame number goes");
+    }
+    int stop = start;
+    while (stop < pattern.length() && pattern.charAt(stop) == '#') {
+      stop++;
+    }
+    String prefix = pattern.substring(0, start);
+    String suffix = pattern.substring(stop);
+    String[] outgoing = new String[Math.max(0, last - first + 1)];
+    for (int i = 0; i < outgoing.length; i++) {
+      outgoing[i] = prefix + PApplet.nf(first + i, stop - start) + suffix;
+    }
+    return outgoing;
+  }
+
+
+  protected void allocatePool() {
+    // the frames being decoded, plus the current and previous frames
+    int size = ahead + 2;
+    while (poolSize < size) {
+      PImage image = new PImage();
+      image.parent = parent;
+      pool.add(image);
+      poolSize++;
+    }
+  }
+
+
+  //////////////////////////////////////////////////////////////
+
+  // SETTINGS
+
+
+  /**
+   * Number of frames to decode ahead of the current one. More frames
+   * smooth out slow reads, at the cost of memory for each of them.
+   */
+  public void ahead(int frames) {
+    if (frames < 1) {
+      throw new IllegalArgumentException("Need to decode at least one frame ahead");
+    }
+    ahead = frames;
+    allocatePool();
+  }
+
+
+  /** Start over from the first frame after the last one. On by default. */
+  public void loop(boolean loop) {
+    this.loop = loop;
+  }
+
+
+  /**
+   * Drop frames that weren't decoded in time instead of
+   * repeating the current one until they are.
+   */
+  public void skip(boolean skip) {
+    this.skip = skip;
+  }
+
+
+  /** Number of frames in the sequence. */
+  public int count() {
+    return count;
+  }
+
+
+  /** Index of the frame last returned by next(), or -1 before the first. */
+  public int position() {
+    return position;
+  }
+
+
+  /**
+   * Continue playback from another frame. The frames decoded so far
+   * are thrown away, and the current frame stays the same until the
+   * new one is ready.
+   */
+  public void jump(int index) {
+    if (index < 0 || index >= count) {
+      throw new IndexOutOfBoundsException("No frame " + index + " in a sequence of " + count);
+    }
+    for (Frame frame : pending) {
+      drop(frame);
+    }
+    pending.clear();
+    nextIndex = index;
+    schedule();
+  }
+
+
+  //////////////////////////////////////////////////////////////
+
+  // PLAYBACK
+
+
+  /** True if the next frame has been decoded and next() won't repeat. */
+  public boolean available() {
+    schedule();
+    Frame head = pending.peek();
+    return head != null && head.request.isDone();
+  }
+
+
+  /**
+   * The next frame of the sequence, or the current one again if the next
+   * one isn't ready (see skip()). Returns null only if not a single frame
+   * has been decoded so far. Call this once per draw().
+   */
+  public PImage next() {
+    schedule();
+
+    Frame head = pending.peek();
+    if (head == null) {
+      return current;  // not looping, and the end was reached
+    }
+
+    if (!head.request.isDone() && skip) {
+      // find the newest frame that is ready and drop everything before it
+      Frame ready = null;
+      for (Frame frame : pending) {
+        if (frame.request.isDone()) ready = frame;
+      }
+      if (ready != null) {
+        while (pending.peek() != ready) {
+          drop(pending.poll());
+          droppedCount++;
+        }
+        head = ready;
+      }
+    }
+
+    if (!head.request.isDone()) {
+      if (current != null) repeatedCount++;
+      return current;
+    }
+
+    pending.poll();
+    if (head.request.isCompletedExceptionally()) {
+      // skip over files that couldn't be read
+      failedCount++;
+      pool.add(head.image);
+      schedule();
+      return current;
+    }
+
+    decodedCount++;
+    decodeNanos += head.nanos;
+
+    if (previous != null) {
+      pool.add(previous);
+    }
+    previous = current;
+    current = head.image;
+    current.updatePixels();  // so that renderers refresh their copy
+    position = head.index;
+
+    schedule();
+    return current;
+  }
+
+
+  /** Stops decoding. The sequence can't be played after this. */
+  public void dispose() {
+    for (Frame frame : pending) {
+      frame.request.cancel(false);
+    }
+    pending.clear();
+    discarded.clear();
+    pool.clear();
+  }
+
+
+  /**
+   * Throw away a frame. If it hasn't started decoding, it never will, and
+   * its image can be used again right away; otherwise the image is taken
+   * back by schedule() once the decoder is done with it.
+   */
+  protected void drop(Frame frame) {
+    frame.request.cancel(false);
+    if (frame.started.compareAndSet(false, true)) {
+      pool.add(frame.image);
+    } else {
+      discarded.add(frame);
+    }
+  }
+
+
+  /** Keep up to ahead() frames decoding, as far as free images allow. */
+  protected void schedule() {
+    // reclaim the images of dropped frames once their decoder is done
+    Iterator<Frame> it = discarded.iterator();
+    while (it.hasNext()) {
+      Frame frame = it.next();
+      if (frame.finished) {
+        pool.add(frame.image);
+        it.remove();
+      }
+    }
+
+    while (pending.size() < ahead && !pool.isEmpty()) {
+      if (nextIndex >= count) {
+        if (!loop || count == 0) break;
+        nextIndex = 0;
+      }
+      final Frame frame = new Frame(nextIndex++, pool.poll());
+      frame.request = parent.assetLoader().submit(() -> {
+        if (!frame.started.compareAndSet(false, true)) {
+          return null;  // dropped before it got going
+        }
+        try {
+          long started = System.nanoTime();
+          decode(frame.index, frame.image);
+          frame.nanos = System.nanoTime() - started;
+          return frame.image;
+        } finally {
+          frame.finished = true;
+        }
+      }, PAssetLoader.PREFETCH);
+      pending.add(frame);
+    }
+  }
+
+
+  //////////////////////////////////////////////////////////////
+
+  // DECODING
+
+
+  /**
+   * Read frame 'index' into the target image, reusing its pixels[] array
+   * whenever the size allows. Runs on a loader thread.
+   */
+  protected void decode(int index, PImage target) throws IOException {
+    if (sheet != null) {
+      int sx = (index % columns) * cellWidth;
+      int sy = (index / columns) * cellHeight;
+      reshape(target, cellWidth, cellHeight, sheet.format);
+      int[] source = (sheet.pixels != null) ? sheet.pixels : sheetPixels;
+      for (int y = 0; y < cellHeight; y++) {
+        System.arraycopy(source, (sy + y) * sheet.pixelWidth + sx,
+                         target.pixels, y * cellWidth, cellWidth);
+      }
+      return;
+    }
+
+    String filename = filenames[index];
+    String lower = filename.toLowerCase();
+    if (lower.endsWith(".png") || lower.endsWith(".jpg") ||
+        lower.endsWith(".jpeg") || lower.endsWith(".gif") ||
+        lower.endsWith(".bmp")) {
+      InputStream input = parent.createInput(filename);
+      if (input == null) {
+        throw new IOException("Could not find " + filename);
+      }
+      BufferedImage image;
+      try {
+        image = ImageIO.read(input);
+      } finally {
+        input.close();
+      }
+      if (image != null) {
+        int w = image.getWidth();
+        int h = image.getHeight();
+        reshape(target, w, h, image.getColorModel().hasAlpha() ?
+                PConstants.ARGB : PConstants.RGB);
+        image.getRGB(0, 0, w, h, target.pixels, 0, w);
+        return;
+      }
+    }
+
+    // anything else goes through the regular decoders
+    PImage image = parent.decodeImage(filename, null);
+    if (image == null || image.width <= 0) {
+      throw new IOException("Could not load " + filename);
+    }
+    image.loadPixels();
+    reshape(target, image.pixelWidth, image.pixelHeight, image.format);
+    System.arraycopy(image.pixels, 0, target.pixels, 0, image.pixels.length);
+  }
+
+
+  static protected void reshape(PImage target, int w, int h, int format) {
+    if (target.pixels == null || target.pixels.length != w * h) {
+      target.pixels = new int[w * h];
+    }
+    target.width = target.pixelWidth = w;
+    target.height = target.pixelHeight = h;
+    target.pixelDensity = 1;
+    target.format = format;
+  }
+
+
+  //////////////////////////////////////////////////////////////
+
+  // METRICS
+
+
+  /** Number of frames that have been played. */
+  public long getDecodedCount() {
+    return decodedCount;
+  }
+
+
+  /** Number of frames skipped because they weren't ready in time. */
+  public long getDroppedCount() {
+    return droppedCount;
+  }
+
+
+  /** Number of times next() had to show the same frame again. */
+  public long getRepeatedCount() {
+    return repeatedCount;
+  }
+
+
+  /** Number of frames that could not be read. */
+  public long getFailedCount() {
+    return failedCount;
+  }
+
+
+  /** Number of frames decoding or decoded, waiting to be played. */
+  public int getQueueDepth() {
+    return pending.size();
+  }
+
+
+  /** Average time in milliseconds taken to decode a frame. */
+  public float getAverageDecodeTime() {
+    return decodedCount == 0 ? 0 : (float) (decodeNanos / 1e6 / decodedCount);
+  }
+}
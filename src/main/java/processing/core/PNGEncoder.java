@@ -0,0 +1,482 @@
+/* -*- mode: java; c-basic-offset: 2; indent-tabs-mode: nil -*- */
+
+/*
+  Part of the Processing project - http://processing.org
+
+  This library is free software; you can redistribute it and/or
+  modify it under the terms of the GNU Lesser General Public
+  License as published by the Free Software Foundation; either
+  version 2.1 of the License, or (at your option) any later version.
+
+  This library is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General
+  Public License along with this library; if not, write to the
+  Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+  Boston, MA  02111-1307  USA
+*/
+
+package processing.core;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.stream.IntStream;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+
+/**
+ * Writes PNG files straight from a pixels[] array, using all cores.
+ * <p>
+ * The scanlines are filtered in parallel, then cut into chunks of rows
+ * that are deflated in parallel as well. Each chunk is primed with the
+ * last 32k of the data before it and ends on a sync flush, so the chunks
+ * simply follow each other to form one zlib stream (the way pigz does
+ * it) and compress almost as well as a single deflate would.
+ * <p>
+ * RGB images are written as 8-bit truecolor, ARGB images as 8-bit
+ * truecolor with alpha. Used by <b>PImage.save()</b> for .png files,
+ * see <b>PImage.pngCompression</b> and <b>PImage.pngFilter</b>. Images
+ * that don't fit in memory can be written a band of rows at a time with
+ * {@link #begin}.
+ */
+public class PNGEncoder {
+
+  static public final int FILTER_NONE = 0;
+  static public final int FILTER_SUB = 1;
+  static public final int FILTER_UP = 2;
+  static public final int FILTER_AVERAGE = 3;
+  static public final int FILTER_PAETH = 4;
+
+  /**
+   * Pick the filter for each row that gives the smallest sum of absolute
+   * differences, the heuristic suggested by the PNG specification.
+   */
+  static public final int FILTER_ADAPTIVE = 5;
+
+  /** Amount of uncompressed data handed to each deflater. */
+  static final int CHUNK_BYTES = 256 * 1024;
+
+  /** Size of the deflate window, and so of the dictionary for each chunk. */
+  static final int DICTIONARY_BYTES = 32 * 1024;
+
+  static final byte[] SIGNATURE = {
+    (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'
+  };
+
+  protected int level;
+  protected int filter;
+
+
+  public PNGEncoder() {
+    this(Deflater.DEFAULT_COMPRESSION, FILTER_ADAPTIVE);
+  }
+
+
+  /**
+   * @param level deflate level, from 0 (stored) to 9 (smallest),
+   *              or -1 for the zlib default
+   * @param filter one of the FILTER_ constants
+   */
+  public PNGEncoder(int level, int filter) {
+    if (level < -1 || level > 9) {
+      throw new IllegalArgumentException("PNG compression level must be " +
+                                         "between 0 and 9, or -1");
+    }
+    if (filter < FILTER_NONE || filter > FILTER_ADAPTIVE) {
+      throw new IllegalArgumentException("Unknown PNG filter " + filter);
+    }
+    this.level = level;
+    this.filter = filter;
+  }
+
+
+  public void write(int[] pixels, int width, int height, boolean alpha,
+                    OutputStream output) throws IOException {
+    Rows rows = begin(width, height, alpha, output);
+    rows.write(pixels, height);
+    rows.finish();
+  }
+
+
+  /**
+   * Start a PNG whose pixels are handed over a band of rows at a time,
+   * for images too large to be held in a single pixels[] array. Writes
+   * the header right away; call {@link Rows#write} for each band from top
+   * to bottom, then {@link Rows#finish}.
+   */
+  public Rows begin(int width, int height, boolean alpha,
+                    OutputStream output) throws IOException {
+    if (width <= 0 || height <= 0) {
+      throw new IllegalArgumentException("PNG width and height must be > 0");
+    }
+    output.write(SIGNATURE);
+
+    byte[] header = new byte[13];
+    putInt(header, 0, width);
+    putInt(header, 4, height);
+    header[8] = 8;  // bits per channel
+    header[9] = (byte) (alpha ? 6 : 2);  // truecolor, with or without alpha
+    header[10] = 0;  // deflate
+    header[11] = 0;  // adaptive filtering
+    header[12] = 0;  // not interlaced
+    writeChunk(output, "IHDR", header, 0, header.length);
+
+    byte[] zlibHeader = { 0x78, zlibFlags() };
+    writeChunk(output, "IDAT", zlibHeader, 0, 2);
+
+    return new Rows(width, height, alpha ? 4 : 3, output);
+  }
+
+
+  /**
+   * The image data of a PNG being written by {@link #begin}. Everything
+   * from the previous band that the next one depends on (the last row for
+   * filtering, the last 32k of filtered data as the deflate dictionary)
+   * is kept, so the output is the same as writing the image at once.
+   */
+  public class Rows {
+    final int width;
+    final int height;
+    final int bpp;
+    final int stride;
+    final OutputStream output;
+
+    int y;  // rows written so far
+    int[] above;  // last row of the previous band
+    byte[] tail = new byte[0];  // end of the previous band's filtered data
+    long adler = 1;
+
+
+    Rows(int width, int height, int bpp, OutputStream output) {
+      this.width = width;
+      this.height = height;
+      this.bpp = bpp;
+      this.stride = width * bpp + 1;  // filter type byte, then the row
+      this.output = output;
+    }
+
+
+    /**
+     * Write the next rows of the image, found at the start of pixels[]
+     * with width values per row.
+     */
+    public void write(int[] pixels, int count) throws IOException {
+      if (count <= 0) return;
+      if (y + count > height) {
+        throw new IllegalArgumentException("More rows than the image has");
+      }
+      final int prefix = tail.length;
+      final boolean end = (y + count == height);
+
+      // filter the scanlines after the dictionary, a chunk of rows per task
+      final byte[] data = new byte[prefix + stride * count];
+      System.arraycopy(tail, 0, data, 0, prefix);
+      final int rowsPerChunk = Math.max(1, CHUNK_BYTES / stride);
+      final int chunkCount = (count + rowsPerChunk - 1) / rowsPerChunk;
+      IntStream.range(0, chunkCount).parallel().forEach(i -> {
+        int y0 = i * rowsPerChunk;
+        int y1 = Math.min(count, y0 + rowsPerChunk);
+        filterRows(pixels, above, width, y0, y1, bpp, data, prefix, stride);
+      });
+
+      final int[] offsets = new int[chunkCount + 1];
+      for (int i = 0; i < chunkCount; i++) {
+        offsets[i] = prefix + i * rowsPerChunk * stride;
+      }
+      offsets[chunkCount] = data.length;
+
+      final byte[][] compressed = new byte[chunkCount][];
+      final long[] checksums = new long[chunkCount];
+      IntStream.range(0, chunkCount).parallel().forEach(i -> {
+        compressed[i] = deflate(data, offsets[i], offsets[i+1],
+                                end && i == chunkCount - 1);
+        Adler32 adler = new Adler32();
+        adler.update(data, offsets[i], offsets[i+1] - offsets[i]);
+        checksums[i] = adler.getValue();
+      });
+
+      for (int i = 0; i < chunkCount; i++) {
+        adler = adler32Combine(adler, checksums[i], offsets[i+1] - offsets[i]);
+        writeChunk(output, "IDAT", compressed[i], 0, compressed[i].length);
+      }
+
+      if (above == null) {
+        above = new int[width];
+      }
+      System.arraycopy(pixels, (count - 1) * width, above, 0, width);
+      int keep = Math.min(DICTIONARY_BYTES, data.length);
+      tail = new byte[keep];
+      System.arraycopy(data, data.length - keep, tail, 0, keep);
+      y += count;
+    }
+
+
+    /** Write the checksum and the end of the file. */
+    public void finish() throws IOException {
+      if (y != height) {
+        throw new IllegalStateException("Only " + y + " of " + height +
+                                        " rows were written");
+      }
+      byte[] trailer = new byte[4];
+      putInt(trailer, 0, (int) adler);
+      writeChunk(output, "IDAT", trailer, 0, 4);
+
+      writeChunk(output, "IEND", trailer, 0, 0);
+      output.flush();
+    }
+  }
+
+
+  //////////////////////////////////////////////////////////////
+
+  // FILTERING
+
+
+  /**
+   * Filter rows y0 to y1 of pixels[] into data[offset + y * stride].
+   * The row above the first one is taken from above[] (or is all zeros
+   * when that's null).
+   */
+  protected void filterRows(int[] pixels, int[] above, int width,
+                            int y0, int y1, int bpp,
+                            byte[] data, int offset, int stride) {
+    int length = width * bpp;
+    byte[] row = new byte[length];
+    byte[] prev = new byte[length];  // all zeros above the first row
+    if (y0 > 0) {
+      unpack(pixels, (y0 - 1) * width, width, bpp, prev);
+    } else if (above != null) {
+      unpack(above, 0, width, bpp, prev);
+    }
+    for (int y = y0; y < y1; y++) {
+      unpack(pixels, y * width, width, bpp, row);
+      int type = (filter == FILTER_ADAPTIVE) ? chooseFilter(row, prev, bpp) : filter;
+      int index = offset + y * stride;
+      data[index] = (byte) type;
+      applyFilter(type, row, prev, bpp, data, index + 1);
+
+      byte[] temp = prev;
+      prev = row;
+      row = temp;
+    }
+  }
+
+
+  /**
+   * The filter giving the smallest sum of absolute differences,
+   * with all five sums computed in a single pass over the row.
+   */
+  static protected int chooseFilter(byte[] row, byte[] prev, int bpp) {
+    long none = 0, sub = 0, up = 0, avg = 0, paeth = 0;
+    int length = row.length;
+    for (int i = 0; i < length; i++) {
+      int x = row[i] & 0xff;
+      int a = (i >= bpp) ? row[i - bpp] & 0xff : 0;
+      int b = prev[i] & 0xff;
+      int c = (i >= bpp) ? prev[i - bpp] & 0xff : 0;
+
+      int p = a + b - c;
+      int pa = Math.abs(p - a);
+      int pb = Math.abs(p - b);
+      int pc = Math.abs(p - c);
+      int predictor = (pa <= pb && pa <= pc) ? a : (pb <= pc) ? b : c;
+
+      none += Math.abs((byte) x);
+      sub += Math.abs((byte) (x - a));
+      up += Math.abs((byte) (x - b));
+      avg += Math.abs((byte) (x - ((a + b) >> 1)));
+      paeth += Math.abs((byte) (x - predictor));
+    }
+    int type = FILTER_NONE;
+    long best = none;
+    if (sub < best) { best = sub; type = FILTER_SUB; }
+    if (up < best) { best = up; type = FILTER_UP; }
+    if (avg < best) { best = avg; type = FILTER_AVERAGE; }
+    if (paeth < best) { type = FILTER_PAETH; }
+    return type;
+  }
+
+
+  static protected void unpack(int[] pixels, int index, int width, int bpp,
+                               byte[] row) {
+    int offset = 0;
+    if (bpp == 4) {
+      for (int x = 0; x < width; x++) {
+        int c = pixels[index++];
+        row[offset++] = (byte) (c >> 16);
+        row[offset++] = (byte) (c >> 8);
+        row[offset++] = (byte) c;
+        row[offset++] = (byte) (c >>> 24);
+      }
+    } else {
+      for (int x = 0; x < width; x++) {
+        int c = pixels[index++];
+        row[offset++] = (byte) (c >> 16);
+        row[offset++] = (byte) (c >> 8);
+        row[offset++] = (byte) c;
+      }
+    }
+  }
+
+
+  static protected void applyFilter(int type, byte[] row, byte[] prev,
+                                    int bpp, byte[] out, int offset) {
+    int length = row.length;
+    switch (type) {
+    case FILTER_NONE:
+      System.arraycopy(row, 0, out, offset, length);
+      break;
+
+    case FILTER_SUB:
+      for (int i = 0; i < bpp; i++) {
+        out[offset + i] = row[i];
+      }
+      for (int i = bpp; i < length; i++) {
+        out[offset + i] = (byte) (row[i] - row[i - bpp]);
+      }
+      break;
+
+    case FILTER_UP:
+      for (int i = 0; i < length; i++) {
+        out[offset + i] = (byte) (row[i] - prev[i]);
+      }
+      break;
+
+    case FILTER_AVERAGE:
+      for (int i = 0; i < bpp; i++) {
+        out[offset + i] = (byte) (row[i] - ((prev[i] & 0xff) >> 1));
+      }
+      for (int i = bpp; i < length; i++) {
+        int avg = ((row[i - bpp] & 0xff) + (prev[i] & 0xff)) >> 1;
+        out[offset + i] = (byte) (row[i] - avg);
+      }
+      break;
+
+    case FILTER_PAETH:
+      for (int i = 0; i < bpp; i++) {
+        out[offset + i] = (byte) (row[i] - prev[i]);
+      }
+      for (int i = bpp; i < length; i++) {
+        int a = row[i - bpp] & 0xff;
+        int b = prev[i] & 0xff;
+        int c = prev[i - bpp] & 0xff;
+        int p = a + b - c;
+        int pa = Math.abs(p - a);
+        int pb = Math.abs(p - b);
+        int pc = Math.abs(p - c);
+        int predictor = (pa <= pb && pa <= pc) ? a : (pb <= pc) ? b : c;
+        out[offset + i] = (byte) (row[i] - predictor);
+      }
+      break;
+    }
+  }
+
+
+  //////////////////////////////////////////////////////////////
+
+  // COMPRESSION
+
+
+  /**
+   * Raw deflate of data[start, stop), primed with the data just before it.
+   * Ends on a byte boundary so the next chunk can be appended directly.
+   */
+  protected byte[] deflate(byte[] data, int start, int stop, boolean last) {
+    Deflater deflater = new Deflater(level, true);
+    try {
+      if (start > 0) {
+        int from = Math.max(0, start - DICTIONARY_BYTES);
+        deflater.setDictionary(data, from, start - from);
+      }
+      deflater.setInput(data, start, stop - start);
+
+      ByteArrayOutputStream out =
+        new ByteArrayOutputStream((stop - start) / 2 + 64);
+      byte[] buffer = new byte[64 * 1024];
+      if (last) {
+        deflater.finish();
+        while (!deflater.finished()) {
+          int count = deflater.deflate(buffer);
+          out.write(buffer, 0, count);
+        }
+      } else {
+        int count;
+        do {
+          count = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+          out.write(buffer, 0, count);
+        } while (count == buffer.length);
+      }
+      return out.toByteArray();
+
+    } finally {
+      deflater.end();
+    }
+  }
+
+
+  /** FLG byte of the zlib header, advertising the compression level. */
+  protected byte zlibFlags() {
+    // (0x78 << 8 | flags) must be a multiple of 31
+    if (level == -1 || level == 6) return (byte) 0x9C;
+    if (level < 2) return (byte) 0x01;
+    if (level < 6) return (byte) 0x5E;
+    return (byte) 0xDA;
+  }
+
+
+  /**
+   * Checksum of two pieces of data from the checksums of each, same as
+   * adler32_combine() in zlib.
+   */
+  static protected long adler32Combine(long adler1, long adler2, long length2) {
+    final long BASE = 65521;
+    long rem = length2 % BASE;
+    long sum1 = adler1 & 0xffff;
+    long sum2 = (rem * sum1) % BASE;
+    sum1 += (adler2 & 0xffff) + BASE - 1;
+    sum2 += ((adler1 >> 16) & 0xffff) + ((adler2 >> 16) & 0xffff) + BASE - rem;
+    if (sum1 >= BASE) sum1 -= BASE;
+    if (sum1 >= BASE) sum1 -= BASE;
+    if (sum2 >= (BASE << 1)) sum2 -= (BASE << 1);
+    if (sum2 >= BASE) sum2 -= BASE;
+    return sum1 | (sum2 << 16);
+  }
+
+
+  //////////////////////////////////////////////////////////////
+
+  // CHUNKS
+
+
+  static protected void writeChunk(OutputStream output, String type,
+                                   byte[] data, int offset, int length)
+    throws IOException {
+    byte[] word = new byte[4];
+    putInt(word, 0, length);
+    output.write(word);
+
+    byte[] name = type.getBytes("US-ASCII");
+    output.write(name);
+    output.write(data, offset, length);
+
+    CRC32 crc = new CRC32();
+    crc.update(name);
+    crc.update(data, offset, length);
+    putInt(word, 0, (int) crc.getValue());
+    output.write(word);
+  }
+
+
+  static protected void putInt(byte[] b, int offset, int value) {
+    b[offset]   = (byte) (value >>> 24);
+    b[offset+1] = (byte) (value >> 16);
+    b[offset+2] = (byte) (value >> 8);
+    b[offset+3] = (byte) value;
+  }
+}
@@ -0,0 +1,456 @@
+/* -*- mode: java; c-basic-offset: 2; indent-tabs-mode: nil -*- */
+
+/*
+  Part of the Processing project - http://processing.org
+
+  This library is free software; you can redistribute it and/or
+  modify it under the terms of the GNU Lesser General Public
+  License as published by the Free Software Foundation; either
+  version 2.1 of the License, or (at your option) any later version.
+
+  This library is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General
+  Public License along with this library; if not, write to the
+  Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+  Boston, MA  02111-1307  USA
+*/
+
+package processing.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+
+/**
+ * An image too large to be held in a single pixels[] array, stored in a
+ * memory-mapped file as square tiles of fixed size.
+ * <p>
+ * Only a bounded number of tiles are kept on the heap at any time (least
+ * recently used tiles are written back and dropped), so the image can be
+ * far larger than both the heap and the 2^31 pixel limit of PImage.
+ * <b>get()</b>, <b>set()</b> and <b>copy()</b> only touch the tiles that
+ * cover the pixels involved, and {@link #readRegion} reads back a
+ * rectangle so that renderers can draw only the visible part.
+ * <p>
+ * The file starts with a small header followed by the tiles in row-major
+ * order, each tile stored as tileSize * tileSize ARGB ints (tiles on the
+ * right and bottom edges are padded). Call {@link #flush()} to write
+ * changed tiles back to the file, and {@link #dispose()} when done.
+ */
+public class PTiledImage implements PConstants {
+
+  static final int MAGIC = 0x50544C31;  // "PTL1"
+  static final int HEADER_SIZE = 32;
+
+  /** Largest region of the file mapped at once, in bytes. */
+  static final long SEGMENT_BYTES = 1L << 30;
+
+  static public final int DEFAULT_TILE_SIZE = 256;
+  static public final int DEFAULT_CACHED_TILES = 256;
+
+  public final int width;
+  public final int height;
+  /** Either RGB or ARGB. */
+  public final int format;
+
+  protected final int tileSize;
+  protected final int tileCols;
+  protected final int tileRows;
+  protected final long tileBytes;
+  protected final int tilesPerSegment;
+
+  protected File file;
+  protected RandomAccessFile raf;
+  protected FileChannel channel;
+  protected boolean writable;
+  protected MappedByteBuffer[] segments;
+
+  protected int cacheCapacity;
+  protected LinkedHashMap<Long, Tile> tiles;
+
+  /**
+   * Bumped whenever a tile changes, so that renderers can tell
+   * whether their copy of the tile is out of date.
+   */
+  protected int[] tileVersions;
+
+
+  static class Tile {
+    final int[] pixels;
+    boolean dirty;
+
+    Tile(int[] pixels) {
+      this.pixels = pixels;
+    }
+  }
+
+
+  /**
+   * Create a new tiled image in the given file, which is overwritten.
+   * All pixels start out as 0.
+   */
+  public PTiledImage(File file, int width, int height, int format) throws IOException {
+    this(file, width, height, format, DEFAULT_TILE_SIZE, DEFAULT_CACHED_TILES);
+  }
+
+
+  /**
+   * @param tileSize width and height of each tile in pixels
+   * @param cachedTiles number of tiles that may be kept on the heap
+   */
+  public PTiledImage(File file, int width, int height, int format,
+                     int tileSize, int cachedTiles) throws IOException {
+    if (width <= 0 || height <= 0 || tileSize <= 0) {
+      throw new IllegalArgumentException("Width, height and tile size must be > 0");
+    }
+    this.file = file;
+    this.width = width;
+    this.height = height;
+    this.format = (format == RGB) ? RGB : ARGB;
+    this.tileSize = tileSize;
+    this.tileCols = (width + tileSize - 1) / tileSize;
+    this.tileRows = (height + tileSize - 1) / tileSize;
+    this.tileBytes = 4L * tileSize * tileSize;
+    this.tilesPerSegment = (int) Math.max(1, SEGMENT_BYTES / tileBytes);
+
+    raf = new RandomAccessFile(file, "rw");
+    raf.setLength(0);
+    raf.setLength(HEADER_SIZE + tileBytes * tileCols * tileRows);
+    raf.writeInt(MAGIC);
+    raf.writeInt(width);
+    raf.writeInt(height);
+    raf.writeInt(tileSize);
+    raf.writeInt(this.format);
+    writable = true;
+    open(cachedTiles);
+  }
+
+
+  /**
+   * Open an existing tiled image file.
+   *
+   * @param writable false to open the file read-only
+   */
+  public PTiledImage(File file, boolean writable, int cachedTiles) throws IOException {
+    this.file = file;
+    this.writable = writable;
+    raf = new RandomAccessFile(file, writable ? "rw" : "r");
+    if (raf.readInt() != MAGIC) {
+      raf.close();
+      throw new IOException(file + " is not a tiled image");
+    }
+    width = raf.readInt();
+    height = raf.readInt();
+    tileSize = raf.readInt();
+    format = raf.readInt();
+    tileCols = (width + tileSize - 1) / tileSize;
+    tileRows = (height + tileSize - 1) / tileSize;
+    tileBytes = 4L * tileSize * tileSize;
+    tilesPerSegment = (int) Math.max(1, SEGMENT_BYTES / tileBytes);
+    open(cachedTiles);
+  }
+
+
+  private void open(int cachedTiles) {
+    channel = raf.getChannel();
+    long tileCount = (long) tileCols * tileRows;
+    segments = new MappedByteBuffer[(int) ((tileCount + tilesPerSegment - 1) / tilesPerSegment)];
+    tileVersions = new int[(int) Math.min(tileCount, Integer.MAX_VALUE - 8)];
+    cacheCapacity = Math.max(1, cachedTiles);
+    tiles = new LinkedHashMap<>(16, 0.75f, true);
+  }
+
+
+  //////////////////////////////////////////////////////////////
+
+  // TILES
+
+
+  public int getTileSize() {
+    return tileSize;
+  }
+
+
+  public int getTileCols() {
+    return tileCols;
+  }
+
+
+  public int getTileRows() {
+    return tileRows;
+  }
+
+
+  /**
+   * Version of a tile, which changes every time one of its pixels is set.
+   */
+  public synchronized int getTileVersion(int col, int row) {
+    long index = (long) row * tileCols + col;
+    return index < tileVersions.length ? tileVersions[(int) index] : 0;
+  }
+
+
+  /**
+   * Copy the pixels of one tile into out[], which must hold at least
+   * tileSize * tileSize values. Pixels past the image edge are 0.
+   */
+  public synchronized void readTile(int col, int row, int[] out) {
+    System.arraycopy(tile(col, row).pixels, 0, out, 0, tileSize * tileSize);
+  }
+
+
+  protected Tile tile(int col, int row) {
+    Long key = (long) row * tileCols + col;
+    Tile tile = tiles.get(key);
+    if (tile == null) {
+      tile = new Tile(new int[tileSize * tileSize]);
+      buffer(key).get(tile.pixels);
+      tiles.put(key, tile);
+      trim();
+    }
+    return tile;
+  }
+
+
+  /** Int view of the file at the start of the tile with this index. */
+  protected IntBuffer buffer(long index) {
+    int seg = (int) (index / tilesPerSegment);
+    MappedByteBuffer segment = segments[seg];
+    if (segment == null) {
+      long tileCount = (long) tileCols * tileRows;
+      long first = (long) seg * tilesPerSegment;
+      long count = Math.min(tilesPerSegment, tileCount - first);
+      try {
+        segment = channel.map(writable ? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.READ_ONLY,
+                              HEADER_SIZE + first * tileBytes, count * tileBytes);
+      } catch (IOException e) {
+        throw new RuntimeException("Could not map " + file, e);
+      }
+      segments[seg] = segment;
+    }
+    ByteBuffer bytes = segment.duplicate();
+    bytes.position((int) ((index % tilesPerSegment) * tileBytes));
+    return bytes.slice().asIntBuffer();
+  }
+
+
+  protected void checkWritable() {
+    if (!writable) {
+      throw new RuntimeException(file + " was opened read-only");
+    }
+  }
+
+
+  protected void changed(int col, int row, Tile tile) {
+    tile.dirty = true;
+    long index = (long) row * tileCols + col;
+    if (index < tileVersions.length) {
+      tileVersions[(int) index]++;
+    }
+  }
+
+
+  /** Write back and drop the least recently used tiles over capacity. */
+  protected void trim() {
+    Iterator<Map.Entry<Long, Tile>> it = tiles.entrySet().iterator();
+    while (tiles.size() > cacheCapacity && it.hasNext()) {
+      Map.Entry<Long, Tile> entry = it.next();
+      writeBack(entry.getKey(), entry.getValue());
+      it.remove();
+    }
+  }
+
+
+  protected void writeBack(long index, Tile tile) {
+    if (tile.dirty) {
+      buffer(index).put(tile.pixels);
+      tile.dirty = false;
+    }
+  }
+
+
+  /** Write all changed tiles to the file. */
+  public synchronized void flush() {
+    for (Map.Entry<Long, Tile> entry : tiles.entrySet()) {
+      writeBack(entry.getKey(), entry.getValue());
+    }
+    if (writable) {
+      for (MappedByteBuffer segment : segments) {
+        if (segment != null) segment.force();
+      }
+    }
+  }
+
+
+  /**
+   * Flush changes and close the file. Java has no way to unmap a file
+   * explicitly, so the mapped regions are only released once they're
+   * garbage collected; until then the file stays open, and on Windows it
+   * can't be deleted or replaced.
+   */
+  public synchronized void dispose() {
+    if (raf == null) return;
+    flush();
+    tiles.clear();
+    segments = null;
+    try {
+      raf.close();
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+    raf = null;
+  }
+
+
+  //////////////////////////////////////////////////////////////
+
+  // GET/SET PIXELS
+
+
+  public synchronized int get(int x, int y) {
+    if ((x < 0) || (y < 0) || (x >= width) || (y >= height)) return 0;
+    int c = tile(x / tileSize, y / tileSize).pixels[(y % tileSize) * tileSize + (x % tileSize)];
+    return (format == RGB) ? (c | 0xff000000) : c;
+  }
+
+
+  public synchronized void set(int x, int y, int c) {
+    if ((x < 0) || (y < 0) || (x >= width) || (y >= height)) return;
+    checkWritable();
+    int col = x / tileSize;
+    int row = y / tileSize;
+    Tile tile = tile(col, row);
+    tile.pixels[(y % tileSize) * tileSize + (x % tileSize)] = c;
+    changed(col, row, tile);
+  }
+
+
+  /**
+   * Read a rectangle of pixels into out[], starting at offset and using
+   * stride values per row. Pixels outside the image are set to 0.
+   */
+  public synchronized void readRegion(int x, int y, int w, int h,
+                                      int[] out, int offset, int stride) {
+    for (int row = 0; row < h; row++) {
+      Arrays.fill(out, offset + row * stride, offset + row * stride + w, 0);
+    }
+    int x1 = Math.max(x, 0);
+    int y1 = Math.max(y, 0);
+    int x2 = Math.min(x + w, width);
+    int y2 = Math.min(y + h, height);
+    if (x1 >= x2 || y1 >= y2) return;
+
+    for (int ty = y1 / tileSize; ty <= (y2 - 1) / tileSize; ty++) {
+      int ry1 = Math.max(y1, ty * tileSize);
+      int ry2 = Math.min(y2, (ty + 1) * tileSize);
+      for (int tx = x1 / tileSize; tx <= (x2 - 1) / tileSize; tx++) {
+        int rx1 = Math.max(x1, tx * tileSize);
+        int rx2 = Math.min(x2, (tx + 1) * tileSize);
+        int[] pixels = tile(tx, ty).pixels;
+        for (int yy = ry1; yy < ry2; yy++) {
+          System.arraycopy(pixels, (yy - ty * tileSize) * tileSize + (rx1 - tx * tileSize),
+                           out, offset + (yy - y) * stride + (rx1 - x), rx2 - rx1);
+        }
+      }
+    }
+    if (format == RGB) {
+      for (int row = 0; row < h; row++) {
+        int start = offset + row * stride;
+        for (int i = start; i < start + w; i++) {
+          out[i] |= 0xff000000;
+        }
+      }
+    }
+  }
+
+
+  /**
+   * Write a rectangle of pixels from src[] (starting at offset, with
+   * stride values per row) into the image. Parts outside are ignored.
+   */
+  public synchronized void writeRegion(int x, int y, int w, int h,
+                                       int[] src, int offset, int stride) {
+    checkWritable();
+    int x1 = Math.max(x, 0);
+    int y1 = Math.max(y, 0);
+    int x2 = Math.min(x + w, width);
+    int y2 = Math.min(y + h, height);
+    if (x1 >= x2 || y1 >= y2) return;
+
+    for (int ty = y1 / tileSize; ty <= (y2 - 1) / tileSize; ty++) {
+      int ry1 = Math.max(y1, ty * tileSize);
+      int ry2 = Math.min(y2, (ty + 1) * tileSize);
+      for (int tx = x1 / tileSize; tx <= (x2 - 1) / tileSize; tx++) {
+        int rx1 = Math.max(x1, tx * tileSize);
+        int rx2 = Math.min(x2, (tx + 1) * tileSize);
+        Tile tile = tile(tx, ty);
+        for (int yy = ry1; yy < ry2; yy++) {
+          System.arraycopy(src, offset + (yy - y) * stride + (rx1 - x),
+                           tile.pixels, (yy - ty * tileSize) * tileSize + (rx1 - tx * tileSize),
+                           rx2 - rx1);
+        }
+        changed(tx, ty, tile);
+      }
+    }
+  }
+
+
+  /**
+   * Read back a region of the image as a regular PImage.
+   */
+  public PImage get(int x, int y, int w, int h) {
+    PImage outgoing = new PImage(w, h, format);
+    readRegion(x, y, w, h, outgoing.pixels, 0, w);
+    return outgoing;
+  }
+
+
+  /**
+   * Write a PImage into this image, with its upper left corner at x, y.
+   */
+  public void set(int x, int y, PImage img) {
+    img.loadPixels();
+    writeRegion(x, y, img.pixelWidth, img.pixelHeight, img.pixels, 0, img.pixelWidth);
+  }
+
+
+  /**
+   * Copy a region of a PImage into this image, resizing it if the source
+   * and destination sizes are different.
+   */
+  public void copy(PImage src, int sx, int sy, int sw, int sh,
+                   int dx, int dy, int dw, int dh) {
+    PImage region;
+    if (sw == dw && sh == dh) {
+      region = src.get(sx, sy, sw, sh);
+    } else {
+      region = new PImage(dw, dh, ARGB);
+      region.copy(src, sx, sy, sw, sh, 0, 0, dw, dh);
+    }
+    set(dx, dy, region);
+  }
+
+
+  /**
+   * Copy a region of this image to another place in it, resizing it if
+   * the source and destination sizes are different. Only the tiles that
+   * cover both regions are read or written.
+   */
+  public void copy(int sx, int sy, int sw, int sh,
+                   int dx, int dy, int dw, int dh) {
+    copy(get(sx, sy, sw, sh), 0, 0, sw, sh, dx, dy, dw, dh);
+  }
+}
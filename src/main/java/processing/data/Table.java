@@ -25,21 +25,28 @@ package processing.data;
 
 import java.io.*;
 import java.lang.reflect.*;
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.sql.Types;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 import java.util.zip.ZipOutputStream;
 
 import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
 
+import org.xml.sax.Attributes;
 import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
 
 import processing.core.PApplet;
 import processing.core.PConstants;
@@ -92,6 +99,20 @@ public class Table {
   static public final int CATEGORY = 5;
   int[] columnTypes;
 
+  // types of join(), see below
+  static public final int INNER_JOIN = 0;
+  static public final int LEFT_JOIN = 1;
+  static public final int SEMI_JOIN = 2;
+
+  /** Hash index for each column, or null if none, see createIndex() */
+  TableIndex[] columnIndexes;
+  /** Sorted index for numeric columns, built as needed by findRowsInRange() */
+  TableRangeIndex[] rangeIndexes;
+  /** Bitmap of the missing values in each column, or null if none, see isNull() */
+  long[][] columnNulls;
+  /** Text of inferred number columns while a file is read, see keepText() */
+  TableText[] columnOriginals;
+
   protected RowIterator rowIterator;
 
   // 0 for doubling each time, otherwise the number of rows to increment on
@@ -123,7 +144,7 @@ public class Table {
   public Table(File file, String options) throws IOException {
     // uses createInput() to handle .gz (and eventually .bz2) files
     init();
-    parse(PApplet.createInput(file),
+    parse(PApplet.createInput(file), file,
           extensionOptions(true, file.getName(), options));
   }
 
@@ -142,6 +163,8 @@ public class Table {
    * <li>tsv - parse the table as tab-separated values
    * <li>newlines - this CSV file contains newlines inside individual cells
    * <li>header - this table has a header (title) row
+   * <li>infer - pick int, long, float, double, or category types for the
+   * columns of a csv or tsv file by looking at the first rows
    * </ul>
    *
    * @nowebref
@@ -159,22 +182,13 @@ public class Table {
     init();
 
     int row = 0;
-    int alloc = 10;
 
     for (TableRow incoming : rows) {
       if (row == 0) {
         setColumnTypes(incoming.getColumnTypes());
         setColumnTitles(incoming.getColumnTitles());
-        // Do this after setting types, otherwise it'll attempt to parse the
-        // allocated but empty rows, and drive CATEGORY columns nutso.
-        setRowCount(alloc);
         // sometimes more columns than titles (and types?)
         setColumnCount(incoming.getColumnCount());
-
-      } else if (row == alloc) {
-        // Far more efficient than re-allocating all columns and doing a copy
-        alloc *= 2;
-        setRowCount(alloc);
       }
 
       //addRow(row);
@@ -187,10 +201,8 @@ public class Table {
 //        throw aioobe;
 //      }
     }
-    // Shrink the table to only the rows that were used
-    if (row != alloc) {
-      setRowCount(row);
-    }
+    // Release the room that was allocated for more rows
+    crop();
   }
 
 
@@ -325,8 +337,19 @@ public class Table {
 
 
   protected void parse(InputStream input, String options) throws IOException {
+    parse(input, null, options);
+  }
+
+
+  /**
+   * @param file where the input comes from, if it's a local file, so that a
+   *             binary table can be memory mapped instead of read
+   */
+  private void parse(InputStream input, File file, String options) throws IOException {
 //    boolean awfulCSV = false;
     boolean header = false;
+    boolean infer = false;
+    boolean compact = false;
     String extension = null;
     boolean binary = false;
     String encoding = "UTF-8";
@@ -353,6 +376,10 @@ public class Table {
           extension = "bin";
         } else if (opt.equals("header")) {
           header = true;
+        } else if (opt.equals("infer")) {
+          infer = true;
+        } else if (opt.equals("compact")) {
+          compact = true;
         } else if (opt.startsWith(sheetParam)) {
           worksheet = opt.substring(sheetParam.length());
         } else if (opt.startsWith("dictionary=")) {
@@ -370,10 +397,21 @@ public class Table {
     }
 
     if (binary) {
-      loadBinary(input);
+      if (file != null && TableFile.isTableFile(file)) {
+        input.close();
+        loadBinary(file);
+      } else {
+        loadBinary(input);
+      }
+      if (compact) {
+        compact();
+      }
 
     } else if (extension.equals("ods")) {
       odsParse(input, worksheet, header);
+      if (compact) {
+        compact();
+      }
 
     } else {
       InputStreamReader isr = new InputStreamReader(input, encoding);
@@ -396,57 +434,658 @@ public class Table {
         parseBasic(reader, header, false);
       }
       */
-      parseBasic(reader, header, "tsv".equals(extension));
+      parseBasic(reader, header, "tsv".equals(extension), infer, compact);
     }
   }
 
 
   protected void parseBasic(BufferedReader reader,
                             boolean header, boolean tsv) throws IOException {
-    String line = null;
+    parseBasic(reader, header, tsv, false, false);
+  }
+
+
+  /**
+   * @param infer whether to choose types for the String columns based on
+   * the first INFER_SAMPLE rows of data
+   * @param compact whether to dictionary encode String columns with few
+   * distinct values, and share repeated Strings in the others (see compact())
+   */
+  protected void parseBasic(BufferedReader reader, boolean header,
+                            boolean tsv, boolean infer,
+                            boolean compact) throws IOException {
+    if (header) {
+      String line = reader.readLine();
+      if (line != null) {
+        setColumnTitles(tsv ? PApplet.split(line, '\t') : splitLineCSV(line, reader));
+      }
+    }
+
+    // The rest of the file is cut into blocks of whole records, which are
+    // parsed on separate threads into tables of their own, then appended
+    // here in order. Only a few blocks are in flight at once, so memory
+    // stays close to the size of the finished table.
+    RecordChunker chunker = new RecordChunker(reader, tsv);
+    // with "compact", columns set to CATEGORY by a dictionary stay that way,
+    // and the other String columns share one String per value across blocks
+    boolean[] declared = compact ? categoryColumns(columnTypes) : null;
+    List<HashMapBlows> shared = compact ? new ArrayList<HashMapBlows>() : null;
+    int threads = Runtime.getRuntime().availableProcessors();
+    ExecutorService pool = null;
+    ArrayDeque<Future<Table>> pending = new ArrayDeque<>();
     int row = 0;
-    if (rowCount == 0) {
-      setRowCount(10);
+    try {
+      boolean[] inferred = null;
+      while (chunker.next()) {
+        if (infer && inferred == null) {
+          inferred = inferColumnTypes(chunker.chunk, chunker.length, tsv);
+        }
+        final boolean[] checked = inferred;
+        final int[] types = columnTypes.clone();
+        final boolean[] encode = compact ? textColumns(types) : null;
+        final char[] c = chunker.chunk;
+        final int length = chunker.length;
+        final int records = chunker.records;
+        final int first = chunker.firstRecord;
+
+        if (threads == 1 || (pool == null && chunker.done)) {
+          // single core, or the whole file fit in a single block
+          row = appendChunk(row, parseChunk(c, length, records, first, tsv, types, checked, encode), declared, shared);
+
+        } else {
+          if (pool == null) {
+            pool = Executors.newFixedThreadPool(threads);
+          }
+          pending.add(pool.submit(new Callable<Table>() {
+            public Table call() {
+              return parseChunk(c, length, records, first, tsv, types, checked, encode);
+            }
+          }));
+          if (pending.size() > threads * 2) {
+            row = appendChunk(row, awaitChunk(pending.poll()), declared, shared);
+          }
+        }
+      }
+      while (!pending.isEmpty()) {
+        row = appendChunk(row, awaitChunk(pending.poll()), declared, shared);
+      }
+    } finally {
+      if (pool != null) {
+        pool.shutdownNow();
+      }
+      columnOriginals = null;
     }
-    //int prev = 0;  //-1;
+    // shorten or lengthen based on what's left
+    setRowCount(row);
+    crop();
+  }
+
+
+  /** Number of chars in each block handed to the threads in parseBasic() */
+  static final int PARSE_CHUNK = 1 << 20;
+
+
+  /**
+   * Parse a block of whole records into a new Table with the column types
+   * passed in (taken from this one). CATEGORY columns are kept as Strings so that
+   * the category indices are handed out in order by appendChunk().
+   * Columns flagged in 'inferred' are switched back to String if one of
+   * their values doesn't fit the type that was guessed for them, using the
+   * text saved by keepText() for the rows already read. Columns
+   * flagged in 'encode' are handed to compactColumn() once they're read.
+   */
+  private Table parseChunk(char[] c, int length, int records, int first,
+                           boolean tsv, int[] types, boolean[] inferred,
+                           boolean[] encode) {
+    Table part = new Table();
+    part.missingString = missingString;
+    part.missingInt = missingInt;
+    part.missingLong = missingLong;
+    part.missingFloat = missingFloat;
+    part.missingDouble = missingDouble;
+    part.missingCategory = missingCategory;
+    part.setColumnCount(types.length);
+    for (int col = 0; col < types.length; col++) {
+      if (types[col] != CATEGORY) {
+        part.setColumnType(col, types[col]);
+      }
+    }
+    part.setRowCount(records);
+
+    BufferedReader reader =
+      new BufferedReader(new CharArrayReader(c, 0, length), 16384);
+    CommaSeparatedLine csv = tsv ? null : new CommaSeparatedLine();
+    int row = 0;
     try {
+      String line = null;
       while ((line = reader.readLine()) != null) {
-        if (row == getRowCount()) {
-          setRowCount(row << 1);
+        String[] pieces = tsv ? PApplet.split(line, '\t') : csv.handle(line, reader);
+        if (inferred != null) {
+          int count = Math.min(pieces.length, inferred.length);
+          for (int col = 0; col < count; col++) {
+            if (inferred[col] && !part.fitsType(part.columnTypes[col], pieces[col])) {
+              part.demoteColumn(col, row);
+            }
+          }
         }
-        if (row == 0 && header) {
-          setColumnTitles(tsv ? PApplet.split(line, '\t') : splitLineCSV(line, reader));
-          header = false;
-        } else {
-          setRow(row, tsv ? PApplet.split(line, '\t') : splitLineCSV(line, reader));
-          row++;
+        part.setRow(row, pieces);
+        // short rows get the missing value in typed columns, rather than 0
+        for (int col = pieces.length; col < part.columns.length; col++) {
+          if (part.columnTypes[col] != STRING) {
+            part.setRowCol(row, col, null);
+          }
+        }
+        if (inferred != null) {
+          for (int col = 0; col < inferred.length; col++) {
+            if (inferred[col]) {
+              part.keepText(row, col, col < pieces.length ? pieces[col] : null);
+            }
+          }
+        }
+        row++;
+      }
+    } catch (Exception e) {
+      throw new RuntimeException("Error reading table on line " + (first + row), e);
+    }
+    if (row != part.getRowCount()) {
+      part.setRowCount(row);
+    }
+    if (encode != null) {
+      for (int col = 0; col < encode.length; col++) {
+        if (encode[col]) {
+          part.compactColumn(col);
         }
+      }
+    }
+    return part;
+  }
 
-        if (row % 10000 == 0) {
-        /*
-        // this is problematic unless we're going to calculate rowCount first
-        if (row < rowCount) {
-          int pct = (100 * row) / rowCount;
-          if (pct != prev) {  // also prevents "0%" from showing up
-            System.out.println(pct + "%");
-            prev = pct;
+
+  /** The columns that are CATEGORY. */
+  static private boolean[] categoryColumns(int[] types) {
+    boolean[] outgoing = new boolean[types.length];
+    for (int col = 0; col < types.length; col++) {
+      outgoing[col] = (types[col] == CATEGORY);
+    }
+    return outgoing;
+  }
+
+
+  /** The columns that hold text, either STRING or CATEGORY. */
+  static private boolean[] textColumns(int[] types) {
+    boolean[] outgoing = new boolean[types.length];
+    for (int col = 0; col < types.length; col++) {
+      outgoing[col] = (types[col] == STRING || types[col] == CATEGORY);
+    }
+    return outgoing;
+  }
+
+
+  /**
+   * Copy the rows of a table made by parseChunk() into this one, starting
+   * at 'row'. Returns the index of the row after the last one copied.
+   * For the "compact" option, 'shared' holds the Strings of each column
+   * so that every row with the same value uses the same String. A String
+   * column becomes a CATEGORY if the first block was dictionary encoded,
+   * and goes back to Strings (that share one object per value) if later
+   * blocks bring in too many distinct values, unless it's 'declared' as a
+   * CATEGORY by the dictionary of column types.
+   */
+  private int appendChunk(int row, Table part, boolean[] declared,
+                          List<HashMapBlows> shared) {
+    int count = part.getRowCount();
+    ensureColumn(part.getColumnCount() - 1);
+    if (row + count > getRowCount()) {
+      setRowCount(row + count);
+    }
+    for (int col = 0; col < part.getColumnCount(); col++) {
+      if (part.columnTypes[col] == CATEGORY) {
+        if (row == 0 && columnTypes[col] == STRING) {
+          int[] indexData = new int[Array.getLength(columns[col])];
+          Arrays.fill(indexData, missingCategory);
+          columns[col] = indexData;
+          columnTypes[col] = CATEGORY;
+          columnCategories[col] = new HashMapBlows();
+          staleIndex(col);
+        }
+        if (columnTypes[col] == CATEGORY) {
+          // move the indices over to this table's list of categories
+          HashMapBlows categories = part.columnCategories[col];
+          int[] mapping = new int[categories.size()];
+          for (int i = 0; i < mapping.length; i++) {
+            mapping[i] = columnCategories[col].index(categories.key(i));
+          }
+          int[] pieces = (int[]) part.columns[col];
+          int[] indexData = (int[]) columns[col];
+          for (int i = 0; i < count; i++) {
+            indexData[row + i] = (pieces[i] == missingCategory) ?
+              missingCategory : mapping[pieces[i]];
+          }
+        } else {
+          String[] stringData = (String[]) columns[col];
+          for (int i = 0; i < count; i++) {
+            stringData[row + i] = share(shared, col, part.getString(i, col));
           }
         }
-         */
-          try {
-            // Sleep this thread so that the GC can catch up
-            Thread.sleep(10);
-          } catch (InterruptedException e) {
-            e.printStackTrace();
+
+      } else if (columnTypes[col] == CATEGORY) {
+        String[] pieces = (String[]) part.columns[col];
+        for (int i = 0; i < count; i++) {
+          setRowCol(row + i, col, pieces[i]);
+        }
+      } else {
+        if (part.columnTypes[col] != columnTypes[col]) {
+          // an inferred column that didn't fit in this block or an earlier one
+          if (columnTypes[col] != STRING) {
+            demoteColumn(col, row);
+          }
+          if (part.columnTypes[col] != STRING) {
+            part.demoteColumn(col, count);
+          }
+        } else if (part.columnOriginals != null && part.columnOriginals[col] != null) {
+          // still a number in both, hang onto the text in case that changes
+          if (columnOriginals == null) {
+            columnOriginals = new TableText[columns.length];
+          }
+          if (columnOriginals[col] == null) {
+            columnOriginals[col] = new TableText();
           }
+          columnOriginals[col].addAll(part.columnOriginals[col], row);
         }
+        if (shared != null && columnTypes[col] == STRING) {
+          part.shareColumn(col, count, shared);
+        }
+        System.arraycopy(part.columns[col], 0, columns[col], row, count);
+      }
+      long[] bits = part.nullBits(col);
+      if (bits != null && columnTypes[col] != STRING) {
+        if (columnNulls == null) {
+          columnNulls = new long[columns.length][];
+        }
+        columnNulls[col] = TableNulls.copy(bits, count, columnNulls[col], row, allocCount);
+      }
+
+      if (shared != null && columnTypes[col] == CATEGORY &&
+          !(col < declared.length && declared[col]) &&
+          !fewDistinct(columnCategories[col].size(), row + count)) {
+        // the Strings made from the categories are the ones to share
+        while (shared.size() <= col) {
+          shared.add(null);
+        }
+        shared.set(col, columnCategories[col]);
+        setColumnType(col, STRING);
+      }
+    }
+    return row + count;
+  }
+
+
+  /**
+   * Replace each String in the first 'count' rows of a STRING column with
+   * the one in 'shared' for the same value, adding the new ones.
+   */
+  private void shareColumn(int col, int count, List<HashMapBlows> shared) {
+    String[] stringData = (String[]) columns[col];
+    for (int i = 0; i < count; i++) {
+      stringData[i] = share(shared, col, stringData[i]);
+    }
+  }
+
+
+  /** The String in 'shared' for this column with the same value as s. */
+  static private String share(List<HashMapBlows> shared, int col, String s) {
+    if (shared == null || s == null) {
+      return s;
+    }
+    while (shared.size() <= col) {
+      shared.add(null);
+    }
+    HashMapBlows strings = shared.get(col);
+    if (strings == null) {
+      strings = new HashMapBlows();
+      shared.set(col, strings);
+    }
+    return strings.key(strings.index(s));
+  }
+
+
+  /**
+   * Turn a column back into Strings, the same way setColumnType() does,
+   * leaving the rows from 'used' onward empty (they haven't been read yet).
+   * Rows saved by keepText() get their text back exactly as it was read.
+   */
+  private void demoteColumn(int col, int used) {
+    setColumnType(col, STRING);
+    String[] stringData = (String[]) columns[col];
+    if (columnOriginals != null && col < columnOriginals.length &&
+        columnOriginals[col] != null) {
+      columnOriginals[col].restore(stringData);
+      columnOriginals[col] = null;
+    }
+    Arrays.fill(stringData, used, rowCount, null);
+  }
+
+
+  /**
+   * Save the text read for a cell of a number column, if getString() won't
+   * give it back as it was ("1.50", "+5", or "" for a missing value), so that
+   * demoteColumn() doesn't change any values if the column has to be Strings.
+   */
+  private void keepText(int row, int col, String piece) {
+    if (columnTypes[col] == STRING || columnTypes[col] == CATEGORY) {
+      return;
+    }
+    String text = getString(row, col);
+    if (piece == null ? text != null : !piece.equals(text)) {
+      if (columnOriginals == null) {
+        columnOriginals = new TableText[columns.length];
+      }
+      if (columnOriginals[col] == null) {
+        columnOriginals[col] = new TableText();
+      }
+      columnOriginals[col].add(row, piece);
+    }
+  }
+
+
+  /** Number of rows looked at by the "infer" option when picking types */
+  static final int INFER_SAMPLE = 1000;
+
+
+  /**
+   * Look at the first rows of a block, and give each String column the
+   * narrowest type that holds all of its values. Columns of text that
+   * repeats a lot become CATEGORY. Returns the columns that were changed,
+   * so that parseChunk() can check them against the rest of the file.
+   */
+  private boolean[] inferColumnTypes(char[] c, int length, boolean tsv) {
+    BufferedReader reader = new BufferedReader(new CharArrayReader(c, 0, length));
+    CommaSeparatedLine csv = tsv ? null : new CommaSeparatedLine();
+    List<String[]> sample = new ArrayList<>();
+    int columnCount = columns.length;
+    try {
+      String line = null;
+      while (sample.size() < INFER_SAMPLE && (line = reader.readLine()) != null) {
+        String[] pieces = tsv ? PApplet.split(line, '\t') : csv.handle(line, reader);
+        sample.add(pieces);
+        columnCount = Math.max(columnCount, pieces.length);
       }
     } catch (Exception e) {
-      throw new RuntimeException("Error reading table on line " + row, e);
+      // the same error will be reported with its line number by parseChunk()
+    }
+    ensureColumn(columnCount - 1);
+
+    boolean[] inferred = new boolean[columnCount];
+    for (int col = 0; col < columnCount; col++) {
+      if (columnTypes[col] == STRING) {
+        int type = -1;  // no values seen yet
+        int count = 0;
+        HashSet<String> distinct = new HashSet<>();
+        for (String[] pieces : sample) {
+          if (col < pieces.length && !isMissing(pieces[col])) {
+            type = widenType(type, inferType(pieces[col]));
+            distinct.add(pieces[col]);
+            count++;
+          }
+        }
+        if (type == STRING && fewDistinct(distinct.size(), count)) {
+          type = CATEGORY;
+        }
+        if (type != -1 && type != STRING) {
+          setColumnType(col, type);
+          inferred[col] = true;
+        }
+      }
     }
-    // shorten or lengthen based on what's left
-    if (row != getRowCount()) {
-      setRowCount(row);
+    return inferred;
+  }
+
+
+  /**
+   * Whether a column of text with this many distinct values out of 'count'
+   * is better off as a CATEGORY, with each value used four times or more.
+   */
+  static private boolean fewDistinct(int distinct, int count) {
+    return count >= 16 && distinct * 4 <= count;
+  }
+
+
+  private boolean isMissing(String piece) {
+    return piece == null || piece.length() == 0 || piece.equals(missingString);
+  }
+
+
+  /** Whether a value read from a file can be stored in a column of 'type' */
+  private boolean fitsType(int type, String piece) {
+    if (type == STRING || type == CATEGORY || isMissing(piece)) {
+      return true;
+    }
+    // anything that parses is fine, keepText() has the text if it's needed
+    try {
+      switch (type) {
+      case INT:
+        Integer.parseInt(piece);
+        return true;
+      case LONG:
+        Long.parseLong(piece);
+        return true;
+      case FLOAT:
+        float f = Float.parseFloat(piece);
+        return !Float.isNaN(f) && !Float.isInfinite(f);
+      default:
+        double d = Double.parseDouble(piece);
+        return !Double.isNaN(d) && !Double.isInfinite(d);
+      }
+    } catch (NumberFormatException e) {
+      return false;
+    }
+  }
+
+
+  /** Returns the smallest type that can hold both a and b (-1 for none). */
+  static private int widenType(int a, int b) {
+    if (a == -1 || a == b) {
+      return b;
+    }
+    if (a == STRING || b == STRING) {
+      return STRING;
+    }
+    if (a == INT) {
+      return b;
+    }
+    if (b == INT) {
+      return a;
+    }
+    return DOUBLE;  // some mix of LONG, FLOAT, and DOUBLE
+  }
+
+
+  /**
+   * Returns INT, LONG, FLOAT, or DOUBLE for the narrowest number type that
+   * holds the value, otherwise STRING. Integers with leading zeros (zip
+   * codes, IDs) are left as STRING so that the zeros aren't lost.
+   */
+  static private int inferType(String piece) {
+    int length = piece.length();
+    int index = 0;
+    if (piece.charAt(0) == '-' || piece.charAt(0) == '+') {
+      index++;
+    }
+    int start = index;
+    int digits = 0;
+    int significant = 0;
+    boolean point = false;
+    boolean exponent = false;
+    while (index < length) {
+      char c = piece.charAt(index);
+      if (c >= '0' && c <= '9') {
+        if (significant != 0 || c != '0') {
+          significant++;
+        }
+        digits++;
+      } else if (c == '.' && !point) {
+        point = true;
+      } else {
+        break;
+      }
+      index++;
+    }
+    if (digits == 0) {
+      return STRING;
+    }
+    if (index < length && (piece.charAt(index) == 'e' || piece.charAt(index) == 'E')) {
+      exponent = true;
+      index++;
+      if (index < length && (piece.charAt(index) == '-' || piece.charAt(index) == '+')) {
+        index++;
+      }
+      int exponentStart = index;
+      while (index < length && piece.charAt(index) >= '0' && piece.charAt(index) <= '9') {
+        index++;
+      }
+      if (index == exponentStart) {
+        return STRING;
+      }
+    }
+    if (index != length) {
+      return STRING;
+    }
+
+    if (!point && !exponent) {
+      if (digits > 1 && piece.charAt(start) == '0') {
+        return STRING;
+      }
+      try {
+        long value = Long.parseLong(piece);
+        return (value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE) ? INT : LONG;
+      } catch (NumberFormatException e) {
+        return STRING;  // too long for a long, keep all the digits
+      }
+    }
+    if (significant <= 7) {
+      float value = Float.parseFloat(piece);
+      if (!Float.isInfinite(value) && (value != 0 || significant == 0)) {
+        return FLOAT;
+      }
+    }
+    return DOUBLE;
+  }
+
+
+  static private Table awaitChunk(Future<Table> future) {
+    try {
+      return future.get();
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw new RuntimeException(e.getCause());
+    } catch (InterruptedException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+
+  /**
+   * Reads a CSV or TSV file in large blocks, each cut at the end of a
+   * record. For CSV, this follows the same rules as CommaSeparatedLine to
+   * find line breaks that sit inside a quoted field, so that a record is
+   * never split across two blocks.
+   */
+  static class RecordChunker {
+    BufferedReader reader;
+    boolean tsv;
+
+    char[] chunk;
+    int length;
+    int records;  // number of records in this chunk
+    int firstRecord;  // index of the first record in the chunk
+    boolean done;
+
+    char[] carry = new char[0];  // partial record left from the last block
+    int carryLength;
+
+    RecordChunker(BufferedReader reader, boolean tsv) {
+      this.reader = reader;
+      this.tsv = tsv;
+    }
+
+    /** Read the next block, returns false when the input is used up. */
+    boolean next() throws IOException {
+      if (done) {
+        return false;
+      }
+      firstRecord += records;
+
+      char[] c = new char[Math.max(PARSE_CHUNK, carryLength << 1)];
+      System.arraycopy(carry, 0, c, 0, carryLength);
+      int count = carryLength;
+      int scan = 0;
+      // state at 'scan', reset at the end of each record
+      boolean field = true;  // at the start of a field
+      boolean quoted = false;  // inside a quoted field
+      int cut = 0;
+      int cutRecords = 0;
+      boolean eof = false;
+
+      while (true) {
+        while (count < c.length && !eof) {
+          int read = reader.read(c, count, c.length - count);
+          if (read == -1) {
+            eof = true;
+          } else {
+            count += read;
+          }
+        }
+        // stop one short of the end, because some cases need to peek ahead
+        int stop = eof ? count : count - 1;
+        while (scan < stop) {
+          char ch = c[scan];
+          char ahead = (scan + 1 < count) ? c[scan + 1] : '\n';
+          if (quoted) {
+            if (ch == '\"') {
+              if (ahead == '\"') {
+                scan++;  // escaped quote, step over it
+              } else if (ahead == ',' || ahead == '\n' || ahead == '\r') {
+                quoted = false;  // closing quote
+              }
+              // otherwise a lone quote, which CommaSeparatedLine also skips
+            }
+          } else if (ch == '\n' || (ch == '\r' && ahead != '\n')) {
+            cut = scan + 1;
+            cutRecords++;
+            field = true;
+          } else if (ch == ',' && !tsv) {
+            field = true;
+          } else if (ch != '\r') {
+            quoted = field && ch == '\"' && !tsv;
+            field = false;
+          }
+          scan++;
+        }
+        if (eof) {
+          if (count > cut) {  // last line without a line ending
+            cut = count;
+            cutRecords++;
+          }
+          done = true;
+          break;
+        } else if (cut != 0) {
+          break;
+        }
+        // a single record larger than the buffer, make room for more
+        c = Arrays.copyOf(c, c.length << 1);
+      }
+
+      chunk = c;
+      length = cut;
+      records = cutRecords;
+      carryLength = count - cut;
+      if (carry.length < carryLength) {
+        carry = new char[carryLength];
+      }
+      System.arraycopy(c, cut, carry, 0, carryLength);
+      return length != 0;
     }
   }
 
@@ -844,27 +1483,20 @@ public class Table {
   protected void odsParse(InputStream input, String worksheet, boolean header) {
     try {
       InputStream contentStream = odsFindContentXML(input);
-      XML xml = new XML(contentStream);
-
-      // table files will have multiple sheets..
-      // <table:table table:name="Sheet1" table:style-name="ta1" table:print="false">
-      // <table:table table:name="Sheet2" table:style-name="ta1" table:print="false">
-      // <table:table table:name="Sheet3" table:style-name="ta1" table:print="false">
-      XML[] sheets =
-        xml.getChildren("office:body/office:spreadsheet/table:table");
-
-      boolean found = false;
-      for (XML sheet : sheets) {
-//        System.out.println(sheet.getAttribute("table:name"));
-        if (worksheet == null || worksheet.equals(sheet.getString("table:name"))) {
-          odsParseSheet(sheet, header);
-          found = true;
-          if (worksheet == null) {
-            break;  // only read the first sheet
-          }
+      if (contentStream == null) {
+        throw new RuntimeException("No content.xml found in the ODS file.");
+      }
+      // content.xml is streamed rather than loaded as a DOM, because the
+      // tree for a large sheet is many times the size of the data itself.
+      OdsHandler handler = new OdsHandler(worksheet, header);
+      try {
+        SAXParserFactory.newInstance().newSAXParser().parse(contentStream, handler);
+      } catch (SAXException e) {
+        if (e != ODS_DONE) {
+          throw e;
         }
       }
-      if (!found) {
+      if (!handler.found) {
         if (worksheet == null) {
           throw new RuntimeException("No worksheets found in the ODS file.");
         } else {
@@ -884,11 +1516,18 @@ public class Table {
   }
 
 
+  /** Thrown by OdsHandler to stop parsing once the sheet has been read. */
+  static final SAXException ODS_DONE = new SAXException("done");
+
+
   /**
-   * Parses a single sheet of XML from this file.
-   * @param The XML object for a single worksheet from the ODS file
+   * Pulls the rows and cells of a single worksheet out of the content.xml
+   * event stream, and writes them straight into the (possibly typed) columns
+   * of this Table. Runs of repeated empty cells and rows only advance the
+   * indices; they're never expanded, so the trailing million-row padding
+   * that some spreadsheets write costs nothing.
    */
-  private void odsParseSheet(XML sheet, boolean header) {
+  private class OdsHandler extends DefaultHandler {
     // Extra <p> or <a> tags inside the text tag for the cell will be stripped.
     // Different from showing formulas, and not quite the same as 'save as
     // displayed' option when saving from inside OpenOffice. Only time we
@@ -896,116 +1535,242 @@ public class Table {
     // styling information intact, but that's out of scope for the p5 version.
     final boolean ignoreTags = true;
 
-    XML[] rows = sheet.getChildren("table:table-row");
-    //xml.getChildren("office:body/office:spreadsheet/table:table/table:table-row");
+    String worksheet;
+    boolean header;
+    boolean found;
+
+    int tableDepth;  // > 0 while inside the sheet, > 1 for nested tables
+    int rowIndex;
+    int rowRepeat;
+    boolean rowNotNull;
+    /** One past the last row that actually has data */
+    int rowMax;
+    String[] titles;
+
+    int columnIndex;
+    int cellRepeat;
+    boolean inCell;
+    String cellData;
+    StringBuilder cellBuffer = new StringBuilder();
+    int paragraphCount;
+    int textDepth;  // inside text:p
+    int skipDepth;  // inside an annotation
+    BitSet rowCells = new BitSet();  // columns with a value in this row
+
+
+    OdsHandler(String worksheet, boolean header) {
+      this.worksheet = worksheet;
+      this.header = header;
+    }
+
+
+    @Override
+    public void startElement(String uri, String localName, String qName,
+                             Attributes attr) throws SAXException {
+      if (tableDepth == 0) {
+        // table files will have multiple sheets..
+        // <table:table table:name="Sheet1" table:style-name="ta1" table:print="false">
+        // <table:table table:name="Sheet2" table:style-name="ta1" table:print="false">
+        if (qName.equals("table:table") &&
+            (worksheet == null || worksheet.equals(attr.getValue("table:name")))) {
+          found = true;
+          tableDepth = 1;
+        }
 
-    int rowIndex = 0;
-    for (XML row : rows) {
-      int rowRepeat = row.getInt("table:number-rows-repeated", 1);
-//      if (rowRepeat != 1) {
-//          System.out.println(rowRepeat + " " + rowCount + " " + (rowCount + rowRepeat));
-//      }
-      boolean rowNotNull = false;
-      XML[] cells = row.getChildren();
-      int columnIndex = 0;
+      } else if (qName.equals("table:table")) {
+        tableDepth++;
+
+      } else if (tableDepth > 1) {
+        // ignore the contents of sub-tables
 
-      for (XML cell : cells) {
-        int cellRepeat = cell.getInt("table:number-columns-repeated", 1);
+      } else if (qName.equals("table:table-row")) {
+        rowRepeat = getRepeat(attr, "table:number-rows-repeated");
+        rowNotNull = false;
+        rowCells.clear();
+        columnIndex = 0;
 
+      } else if (qName.equals("table:table-cell") ||
+                 qName.equals("table:covered-table-cell")) {
+        cellRepeat = getRepeat(attr, "table:number-columns-repeated");
 //        <table:table-cell table:formula="of:=SUM([.E7:.E8])" office:value-type="float" office:value="4150">
 //        <text:p>4150.00</text:p>
 //        </table:table-cell>
+        // if there's an office:value in the cell, just roll with that
+        cellData = ignoreTags ? attr.getValue("office:value") : null;
+        cellBuffer.setLength(0);
+        paragraphCount = 0;
+        inCell = true;
 
-        String cellData = ignoreTags ? cell.getString("office:value") : null;
+      } else if (!inCell || cellData != null) {
+        // nothing else to read
 
-        // if there's an office:value in the cell, just roll with that
-        if (cellData == null) {
-          int cellKids = cell.getChildCount();
-          if (cellKids != 0) {
-            XML[] paragraphElements = cell.getChildren("text:p");
-            if (paragraphElements.length != 1) {
-              for (XML el : paragraphElements) {
-                System.err.println(el.toString());
-              }
-              throw new RuntimeException("found more than one text:p element");
-            }
-            XML textp = paragraphElements[0];
-            String textpContent = textp.getContent();
-            // if there are sub-elements, the content shows up as a child element
-            // (for which getName() returns null.. which seems wrong)
-            if (textpContent != null) {
-              cellData = textpContent;  // nothing fancy, the text is in the text:p element
-            } else {
-              XML[] textpKids = textp.getChildren();
-              StringBuilder cellBuffer = new StringBuilder();
-              for (XML kid : textpKids) {
-                String kidName = kid.getName();
-                if (kidName == null) {
-                  odsAppendNotNull(kid, cellBuffer);
-
-                } else if (kidName.equals("text:s")) {
-                  int spaceCount = kid.getInt("text:c", 1);
-                  for (int space = 0; space < spaceCount; space++) {
-                    cellBuffer.append(' ');
-                  }
-                } else if (kidName.equals("text:span")) {
-                  odsAppendNotNull(kid, cellBuffer);
-
-                } else if (kidName.equals("text:a")) {
-                  // <text:a xlink:href="http://blah.com/">blah.com</text:a>
-                  if (ignoreTags) {
-                    cellBuffer.append(kid.getString("xlink:href"));
-                  } else {
-                    odsAppendNotNull(kid, cellBuffer);
-                  }
-
-                } else {
-                  odsAppendNotNull(kid, cellBuffer);
-                  System.err.println(getClass().getName() + ": don't understand: " + kid);
-                  //throw new RuntimeException("I'm not used to this.");
-                }
-              }
-              cellData = cellBuffer.toString();
-            }
-            //setString(rowIndex, columnIndex, c); //text[0].getContent());
-            //columnIndex++;
+      } else if (skipDepth > 0 || qName.equals("office:annotation")) {
+        skipDepth++;
+
+      } else if (qName.equals("text:p")) {
+        if (paragraphCount++ > 0) {
+          cellBuffer.append('\n');
+        }
+        textDepth++;
+
+      } else if (textDepth > 0) {
+        if (qName.equals("text:s")) {
+          int spaceCount = getRepeat(attr, "text:c");
+          for (int space = 0; space < spaceCount; space++) {
+            cellBuffer.append(' ');
           }
+        } else if (qName.equals("text:tab")) {
+          cellBuffer.append('\t');
+        } else if (qName.equals("text:line-break")) {
+          cellBuffer.append('\n');
+        }
+        // text:span, text:a and friends contribute their characters as-is
+      }
+    }
+
+
+    @Override
+    public void characters(char[] ch, int start, int length) {
+      if (textDepth > 0 && skipDepth == 0) {
+        cellBuffer.append(ch, start, length);
+      }
+    }
+
+
+    @Override
+    public void endElement(String uri, String localName,
+                           String qName) throws SAXException {
+      if (tableDepth == 0) {
+        return;
+      }
+      if (qName.equals("table:table")) {
+        if (--tableDepth == 0) {
+          endSheet();
         }
+      } else if (tableDepth > 1) {
+        // still inside a sub-table
+
+      } else if (qName.equals("table:table-row")) {
+        endRow();
+
+      } else if (qName.equals("table:table-cell") ||
+                 qName.equals("table:covered-table-cell")) {
+        endCell();
+
+      } else if (skipDepth > 0) {
+        skipDepth--;
+
+      } else if (qName.equals("text:p") && textDepth > 0) {
+        textDepth--;
+      }
+    }
+
+
+    void endCell() {
+      if (cellData == null && paragraphCount != 0) {
+        cellData = cellBuffer.toString();
+      }
+      if (cellData != null) {
+        rowNotNull = true;
         for (int r = 0; r < cellRepeat; r++) {
-          if (cellData != null) {
-            //System.out.println("setting " + rowIndex + "," + columnIndex + " to " + cellData);
-            setString(rowIndex, columnIndex, cellData);
-          }
-          columnIndex++;
-          if (cellData != null) {
-//            if (columnIndex > columnMax) {
-//              columnMax = columnIndex;
-//            }
-            rowNotNull = true;
-          }
+          setCell(columnIndex + r, cellData);
         }
       }
+      columnIndex += cellRepeat;
+      inCell = false;
+      textDepth = 0;
+      skipDepth = 0;
+    }
+
+
+    void setCell(int column, String value) {
       if (header) {
-        removeTitleRow();  // efficient enough on the first row
-        header = false;  // avoid infinite loop
+        if (titles == null) {
+          titles = new String[column + 1];
+        } else if (column >= titles.length) {
+          titles = PApplet.expand(titles, column + 1);
+        }
+        titles[column] = value;
 
       } else {
+        ensureBounds(rowIndex, column);
+        setRowCol(rowIndex, column, value);
+        rowCells.set(column);
+        rowMax = rowIndex + 1;
+      }
+    }
+
+
+    void endRow() {
+      if (header) {
+        if (titles != null) {
+          if (titles.length < getColumnCount()) {
+            titles = PApplet.expand(titles, getColumnCount());
+          }
+          setColumnTitles(titles);
+        }
+        header = false;
+
+      } else {
+        if (rowNotNull) {
+          // empty cells in typed columns are missing, rather than 0
+          for (int col = 0; col < columns.length; col++) {
+            if (columnTypes[col] != STRING && !rowCells.get(col)) {
+              setRowCol(rowIndex, col, null);
+            }
+          }
+        }
         if (rowNotNull && rowRepeat > 1) {
-          String[] rowStrings = getStringRow(rowIndex);
-          for (int r = 1; r < rowRepeat; r++) {
-            addRow(rowStrings);
+          int last = rowIndex + rowRepeat;
+          ensureRow(last - 1);
+          for (int col = 0; col < columns.length; col++) {
+            odsRepeat(columns[col], rowIndex, last);
+            if (isNullBit(rowIndex, col)) {
+              // the copies are missing too, not real zeros
+              for (int row = rowIndex + 1; row < last; row++) {
+                markNull(row, col, true);
+              }
+            }
           }
+          rowMax = last;
         }
         rowIndex += rowRepeat;
       }
     }
+
+
+    void endSheet() throws SAXException {
+      // shorten to the rows that were actually used
+      setRowCount(rowMax);
+      crop();
+      throw ODS_DONE;  // no need to read the rest of the file
+    }
+
+
+    int getRepeat(Attributes attr, String name) {
+      String value = attr.getValue(name);
+      return (value == null) ? 1 : Math.max(1, PApplet.parseInt(value, 1));
+    }
   }
 
 
-  private void odsAppendNotNull(XML kid, StringBuilder buffer) {
-    String content = kid.getContent();
-    if (content != null) {
-      buffer.append(content);
+  /** Copy the entry at index 'row' of a column over [row + 1, last). */
+  static private void odsRepeat(Object column, int row, int last) {
+    if (column instanceof int[]) {
+      int[] data = (int[]) column;
+      Arrays.fill(data, row + 1, last, data[row]);
+    } else if (column instanceof long[]) {
+      long[] data = (long[]) column;
+      Arrays.fill(data, row + 1, last, data[row]);
+    } else if (column instanceof float[]) {
+      float[] data = (float[]) column;
+      Arrays.fill(data, row + 1, last, data[row]);
+    } else if (column instanceof double[]) {
+      double[] data = (double[]) column;
+      Arrays.fill(data, row + 1, last, data[row]);
+    } else {
+      Object[] data = (Object[]) column;
+      Arrays.fill(data, row + 1, last, data[row]);
     }
   }
 
@@ -1608,87 +2373,48 @@ public class Table {
   }
 
 
-  protected void saveBinary(OutputStream os) throws IOException {
-    DataOutputStream output = new DataOutputStream(new BufferedOutputStream(os));
-    output.writeInt(0x9007AB1E);  // version
-    output.writeInt(getRowCount());
-    output.writeInt(getColumnCount());
-    if (columnTitles != null) {
-      output.writeBoolean(true);
-      for (String title : columnTitles) {
-        output.writeUTF(title);
-      }
-    } else {
-      output.writeBoolean(false);
-    }
-    for (int i = 0; i < getColumnCount(); i++) {
-      //System.out.println(i + " is " + columnTypes[i]);
-      output.writeInt(columnTypes[i]);
-    }
-
-    for (int i = 0; i < getColumnCount(); i++) {
-      if (columnTypes[i] == CATEGORY) {
-        columnCategories[i].write(output);
-      }
-    }
-    if (missingString == null) {
-      output.writeBoolean(false);
-    } else {
-      output.writeBoolean(true);
-      output.writeUTF(missingString);
-    }
-    output.writeInt(missingInt);
-    output.writeLong(missingLong);
-    output.writeFloat(missingFloat);
-    output.writeDouble(missingDouble);
-    output.writeInt(missingCategory);
+  /** Row-by-row binary tables, from before TableFile */
+  static final int BINARY_MAGIC_V1 = 0x9007AB1E;
 
-    for (TableRow row : rows()) {
-      for (int col = 0; col < getColumnCount(); col++) {
-        switch (columnTypes[col]) {
-        case STRING:
-          String str = row.getString(col);
-          if (str == null) {
-            output.writeBoolean(false);
-          } else {
-            output.writeBoolean(true);
-            output.writeUTF(str);
-          }
-          break;
-        case INT:
-          output.writeInt(row.getInt(col));
-          break;
-        case LONG:
-          output.writeLong(row.getLong(col));
-          break;
-        case FLOAT:
-          output.writeFloat(row.getFloat(col));
-          break;
-        case DOUBLE:
-          output.writeDouble(row.getDouble(col));
-          break;
-        case CATEGORY:
-          String peace = row.getString(col);
-          if (peace.equals(missingString)) {
-            output.writeInt(missingCategory);
-          } else {
-            output.writeInt(columnCategories[col].index(peace));
-          }
-          break;
-        }
-      }
-    }
 
-    output.flush();
+  /**
+   * Write the column-major format described in TableFile, which can be
+   * opened without reading the whole file (see TableFile).
+   */
+  protected void saveBinary(OutputStream os) throws IOException {
+    OutputStream output = new BufferedOutputStream(os);
+    TableFile.write(this, output);
     output.close();
   }
 
 
+  /**
+   * Load a binary table from a file. Table files (the current format) are
+   * read straight into the column arrays, one column at a time. Use
+   * TableFile to map the file instead.
+   */
+  protected void loadBinary(File file) throws IOException {
+    TableFile.load(file, this);
+  }
+
+
   protected void loadBinary(InputStream is) throws IOException {
-    DataInputStream input = new DataInputStream(new BufferedInputStream(is));
+    BufferedInputStream buffered = new BufferedInputStream(is);
+    buffered.mark(4);
+    DataInputStream input = new DataInputStream(buffered);
 
     int magic = input.readInt();
-    if (magic != 0x9007AB1E) {
+    if (magic == TableFile.MAGIC) {
+      // offsets in the file are from the start, so read it all again
+      buffered.reset();
+      byte[] bytes = PApplet.loadBytes(buffered);
+      if (bytes == null) {
+        throw new IOException("Could not read the table file.");
+      }
+      new TableFile(ByteBuffer.wrap(bytes)).load(this);
+      return;
+    }
+    if (magic != BINARY_MAGIC_V1) {
       throw new IOException("Not a compatible binary table (magic was " + PApplet.hex(magic) + ")");
     }
     int rowCount = input.readInt();
@@ -1858,6 +2584,20 @@ public class Table {
       case STRING: columns[index] = new String[rowCount]; break;
       case CATEGORY: columns[index] = new int[rowCount]; break;
     }
+
+    rangeIndexes = null;
+    if (columnIndexes != null) {
+      TableIndex[] indexTemp = new TableIndex[columns.length];
+      System.arraycopy(columnIndexes, 0, indexTemp, 0, index);
+      System.arraycopy(columnIndexes, index, indexTemp, index+1, columns.length - index - 1);
+      columnIndexes = indexTemp;
+    }
+    if (columnNulls != null) {
+      long[][] nullsTemp = new long[columns.length][];
+      System.arraycopy(columnNulls, 0, nullsTemp, 0, index);
+      System.arraycopy(columnNulls, index, nullsTemp, index+1, columns.length - index - 1);
+      columnNulls = nullsTemp;
+    }
   }
 
  /**
@@ -1891,6 +2631,20 @@ public class Table {
     columns = columnsTemp;
     columnCategories = catTemp;
 
+    rangeIndexes = null;
+    if (columnIndexes != null) {
+      TableIndex[] indexTemp = new TableIndex[newCount];
+      System.arraycopy(columnIndexes, 0, indexTemp, 0, column);
+      System.arraycopy(columnIndexes, column+1, indexTemp, column, newCount - column);
+      columnIndexes = indexTemp;
+    }
+    if (columnNulls != null) {
+      long[][] nullsTemp = new long[newCount][];
+      System.arraycopy(columnNulls, 0, nullsTemp, 0, column);
+      System.arraycopy(columnNulls, column+1, nullsTemp, column, newCount - column);
+      columnNulls = nullsTemp;
+    }
+
     if (columnTitles != null) {
       String[] titlesTemp = new String[newCount];
       for (int i = 0; i < column; i++) {
@@ -1936,6 +2690,13 @@ public class Table {
       columnTypes = PApplet.expand(columnTypes, newCount);
       columnCategories = (HashMapBlows[])
         PApplet.expand(columnCategories, newCount);
+      if (columnIndexes != null) {
+        columnIndexes = Arrays.copyOf(columnIndexes, newCount);
+      }
+      if (columnNulls != null) {
+        columnNulls = Arrays.copyOf(columnNulls, newCount);
+      }
+      rangeIndexes = null;
     }
   }
 
@@ -1989,12 +2750,22 @@ public class Table {
    * @param newType something fresh, maybe try an int or a float for size?
    */
   public void setColumnType(int column, int newType) {
+    // the values that can't be read as the new type become missing
+    long[] bits = null;
     switch (newType) {
       case INT: {
         int[] intData = new int[rowCount];
         for (int row = 0; row < rowCount; row++) {
           String s = getString(row, column);
-          intData[row] = (s == null) ? missingInt : PApplet.parseInt(s, missingInt);
+          try {
+            intData[row] = (s == null) ? missingInt : parseInt(s);
+            if (s == null) {
+              bits = TableNulls.set(bits, row, true, rowCount);
+            }
+          } catch (NumberFormatException nfe) {
+            intData[row] = missingInt;
+            bits = TableNulls.set(bits, row, true, rowCount);
+          }
         }
         columns[column] = intData;
         break;
@@ -2005,8 +2776,12 @@ public class Table {
           String s = getString(row, column);
           try {
             longData[row] = (s == null) ? missingLong : Long.parseLong(s);
+            if (s == null) {
+              bits = TableNulls.set(bits, row, true, rowCount);
+            }
           } catch (NumberFormatException nfe) {
             longData[row] = missingLong;
+            bits = TableNulls.set(bits, row, true, rowCount);
           }
         }
         columns[column] = longData;
@@ -2016,7 +2791,11 @@ public class Table {
         float[] floatData = new float[rowCount];
         for (int row = 0; row < rowCount; row++) {
           String s = getString(row, column);
-          floatData[row] = (s == null) ? missingFloat : PApplet.parseFloat(s, missingFloat);
+          floatData[row] = (s == null) ? Float.NaN : PApplet.parseFloat(s, Float.NaN);
+          if (Float.isNaN(floatData[row])) {
+            floatData[row] = missingFloat;
+            bits = TableNulls.set(bits, row, true, rowCount);
+          }
         }
         columns[column] = floatData;
         break;
@@ -2026,9 +2805,13 @@ public class Table {
         for (int row = 0; row < rowCount; row++) {
           String s = getString(row, column);
           try {
-            doubleData[row] = (s == null) ? missingDouble : Double.parseDouble(s);
+            doubleData[row] = (s == null) ? Double.NaN : Double.parseDouble(s);
           } catch (NumberFormatException nfe) {
+            doubleData[row] = Double.NaN;
+          }
+          if (Double.isNaN(doubleData[row])) {
             doubleData[row] = missingDouble;
+            bits = TableNulls.set(bits, row, true, rowCount);
           }
         }
         columns[column] = doubleData;
@@ -2049,7 +2832,12 @@ public class Table {
         HashMapBlows categories = new HashMapBlows();
         for (int row = 0; row < rowCount; row++) {
           String s = getString(row, column);
-          indexData[row] = categories.index(s);
+          if (s == null || s.equals(missingString)) {
+            indexData[row] = missingCategory;
+            bits = TableNulls.set(bits, row, true, rowCount);
+          } else {
+            indexData[row] = categories.index(s);
+          }
         }
         columnCategories[column] = categories;
         columns[column] = indexData;
@@ -2061,6 +2849,14 @@ public class Table {
     }
 //    System.out.println("new type is " + newType);
     columnTypes[column] = newType;
+    if (bits != null || nullBits(column) != null) {
+      if (columnNulls == null) {
+        columnNulls = new long[columns.length][];
+      }
+      // Strings have null instead
+      columnNulls[column] = (newType == STRING) ? null : bits;
+    }
+    staleIndex(column);
   }
 
 
@@ -2082,6 +2878,118 @@ public class Table {
   }
 
 
+  /**
+   * Use less memory for the String columns. Columns where each value is
+   * used four or more times on average (country, status, and so on) are
+   * switched to CATEGORY, which stores an int per row and each value once.
+   * In the other String columns, rows with the same value are made to
+   * share a single String. Loading a table with the "compact" option
+   * does the same as the data is read.
+   * @see Table#getColumnMemory(int)
+   */
+  public void compact() {
+    for (int col = 0; col < columns.length; col++) {
+      if (columnTypes[col] == STRING) {
+        compactColumn(col);
+      }
+    }
+  }
+
+
+  /**
+   * Dictionary encode a STRING column if it has few distinct values,
+   * otherwise replace repeated values with the first String seen for each.
+   * Returns true if the column became a CATEGORY.
+   */
+  private boolean compactColumn(int column) {
+    String[] stringData = (String[]) columns[column];
+    int[] indexData = new int[stringData.length];
+    HashMapBlows categories = new HashMapBlows();
+    int count = 0;
+    for (int row = 0; row < rowCount; row++) {
+      String s = stringData[row];
+      if (s == null || s.equals(missingString)) {
+        indexData[row] = missingCategory;
+      } else {
+        int index = categories.index(s);
+        indexData[row] = index;
+        stringData[row] = categories.key(index);
+        count++;
+      }
+    }
+    if (!fewDistinct(categories.size(), count)) {
+      return false;
+    }
+    Arrays.fill(indexData, rowCount, indexData.length, missingCategory);
+    columns[column] = indexData;
+    columnTypes[column] = CATEGORY;
+    columnCategories[column] = categories;
+    staleIndex(column);
+    return true;
+  }
+
+
+  /**
+   * Approximate number of bytes used by a column: its array, plus for a
+   * STRING column each distinct String object (counted once no matter how
+   * many rows share it), or for a CATEGORY column its list of values.
+   * Sizes are for a 64-bit JVM with compressed references, the default
+   * for heaps smaller than 32 GB.
+   * @param column ID number of the column
+   * @see Table#compact()
+   */
+  public long getColumnMemory(int column) {
+    checkColumn(column);
+    Object data = columns[column];
+    int length = Array.getLength(data);
+    switch (columnTypes[column]) {
+    case LONG:
+    case DOUBLE:
+      return arrayMemory(length, 8);
+    case INT:
+    case FLOAT:
+      return arrayMemory(length, 4);
+    case CATEGORY: {
+      long bytes = arrayMemory(length, 4);
+      for (String s : columnCategories[column].indexToData) {
+        // the String, plus its HashMap entry, Integer, and list slot
+        bytes += stringMemory(s) + 56;
+      }
+      return bytes;
+    }
+    default: {
+      long bytes = arrayMemory(length, 4);
+      Set<String> seen =
+        Collections.newSetFromMap(new IdentityHashMap<String, Boolean>());
+      for (String s : (String[]) data) {
+        if (s != null && seen.add(s)) {
+          bytes += stringMemory(s);
+        }
+      }
+      return bytes;
+    }
+    }
+  }
+
+
+  /**
+   * @param columnName title of the column
+   */
+  public long getColumnMemory(String columnName) {
+    return getColumnMemory(getColumnIndex(columnName));
+  }
+
+
+  static private long arrayMemory(int length, int size) {
+    return (16 + (long) length * size + 7) & ~7L;
+  }
+
+
+  static private long stringMemory(String s) {
+    return (s == null) ? 0 : 24 + arrayMemory(s.length(), 2);
+  }
+
+
   /**
    * Set the titles (and if a second column is present) the data types for
    * this table based on a file loaded separately. This will look for the
@@ -2103,6 +3011,10 @@ public class Table {
 
     if (dictionary.getColumnCount() > 1) {
       if (getRowCount() > 1000) {
+        if (columnNulls == null) {
+          // made here, rather than by whichever thread needs it first
+          columnNulls = new long[columns.length][];
+        }
         int proc = Runtime.getRuntime().availableProcessors();
         ExecutorService pool = Executors.newFixedThreadPool(proc/2);
         for (int i = 0; i < dictionary.getRowCount(); i++) {
@@ -2281,33 +3193,84 @@ public class Table {
 
   public void setRowCount(int newCount) {
     if (newCount != rowCount) {
-      if (newCount > 1000000) {
-        System.out.print("Note: setting maximum row count to " + PApplet.nfc(newCount));
+      rangeIndexes = null;
+    }
+    if (columnIndexes != null) {
+      for (int row = rowCount - 1; row >= newCount; --row) {
+        unindexRow(row);
       }
-      long t = System.currentTimeMillis();
-      for (int col = 0; col < columns.length; col++) {
-        switch (columnTypes[col]) {
-          case INT: columns[col] = PApplet.expand((int[]) columns[col], newCount); break;
-          case LONG: columns[col] = PApplet.expand((long[]) columns[col], newCount); break;
-          case FLOAT: columns[col] = PApplet.expand((float[]) columns[col], newCount); break;
-          case DOUBLE: columns[col] = PApplet.expand((double[]) columns[col], newCount); break;
-          case STRING: columns[col] = PApplet.expand((String[]) columns[col], newCount); break;
-          case CATEGORY: columns[col] = PApplet.expand((int[]) columns[col], newCount); break;
-        }
-        if (newCount > 1000000) {
-          try {
-            Thread.sleep(10);  // gc time!
-          } catch (InterruptedException e) {
-            e.printStackTrace();
-          }
-        }
+    }
+    if (newCount > allocCount) {
+      // grow the capacity ahead of what's needed, so that adding rows one
+      // at a time doesn't re-allocate and copy every column each time
+      if (expandIncrement == 0) {
+        allocCount = Math.max(newCount, allocCount << 1);
+      } else {
+        allocCount = Math.max(newCount, allocCount + expandIncrement);
       }
-      if (newCount > 1000000) {
-        int ms = (int) (System.currentTimeMillis() - t);
-        System.out.println(" (resize took " + PApplet.nfc(ms) + " ms)");
+    }
+    for (int col = 0; col < columns.length; col++) {
+      if (Array.getLength(columns[col]) < newCount) {
+        columns[col] = resizeColumn(columns[col], allocCount);
+      } else if (newCount < rowCount) {
+        // clear the rows that were dropped, so they come back empty
+        // (and Strings can be collected)
+        clearColumn(columns[col], newCount, rowCount);
+      }
+      long[] bits = nullBits(col);
+      if (bits != null && newCount < rowCount) {
+        TableNulls.clearFrom(bits, newCount);
       }
     }
+    int oldCount = rowCount;
     rowCount = newCount;
+    if (columnIndexes != null) {
+      for (int row = oldCount; row < newCount; row++) {
+        reindexRow(row);
+      }
+    }
+  }
+
+
+  /**
+   * Give up the extra room allocated for rows that haven't been added yet.
+   */
+  protected void crop() {
+    for (int col = 0; col < columns.length; col++) {
+      if (Array.getLength(columns[col]) != rowCount) {
+        columns[col] = resizeColumn(columns[col], rowCount);
+      }
+    }
+    allocCount = rowCount;
+  }
+
+
+  static private Object resizeColumn(Object column, int length) {
+    if (column instanceof int[]) {
+      return Arrays.copyOf((int[]) column, length);
+    } else if (column instanceof long[]) {
+      return Arrays.copyOf((long[]) column, length);
+    } else if (column instanceof float[]) {
+      return Arrays.copyOf((float[]) column, length);
+    } else if (column instanceof double[]) {
+      return Arrays.copyOf((double[]) column, length);
+    }
+    return Arrays.copyOf((String[]) column, length);
+  }
+
+
+  static private void clearColumn(Object column, int start, int stop) {
+    if (column instanceof int[]) {
+      Arrays.fill((int[]) column, start, stop, 0);
+    } else if (column instanceof long[]) {
+      Arrays.fill((long[]) column, start, stop, 0);
+    } else if (column instanceof float[]) {
+      Arrays.fill((float[]) column, start, stop, 0);
+    } else if (column instanceof double[]) {
+      Arrays.fill((double[]) column, start, stop, 0);
+    } else {
+      Arrays.fill((String[]) column, start, stop, null);
+    }
   }
 
 
@@ -2337,6 +3300,10 @@ public class Table {
     ensureBounds(row, source.getColumnCount() - 1);
 
     for (int col = 0; col < Math.min(source.getColumnCount(), columns.length); col++) {
+      if (columnTypes[col] != STRING && source.isNull(col)) {
+        setNull(row, col);
+        continue;
+      }
       switch (columnTypes[col]) {
       case INT:
         setInt(row, col, source.getInt(col));
@@ -2388,49 +3355,31 @@ public class Table {
 
 
   public void insertRow(int insert, Object[] columnData) {
-    for (int col = 0; col < columns.length; col++) {
-      switch (columnTypes[col]) {
-        case CATEGORY:
-        case INT: {
-          int[] intTemp = new int[rowCount+1];
-          System.arraycopy(columns[col], 0, intTemp, 0, insert);
-          System.arraycopy(columns[col], insert, intTemp, insert+1, rowCount - insert);
-          columns[col] = intTemp;
-          break;
-        }
-        case LONG: {
-          long[] longTemp = new long[rowCount+1];
-          System.arraycopy(columns[col], 0, longTemp, 0, insert);
-          System.arraycopy(columns[col], insert, longTemp, insert+1, rowCount - insert);
-          columns[col] = longTemp;
-          break;
-        }
-        case FLOAT: {
-          float[] floatTemp = new float[rowCount+1];
-          System.arraycopy(columns[col], 0, floatTemp, 0, insert);
-          System.arraycopy(columns[col], insert, floatTemp, insert+1, rowCount - insert);
-          columns[col] = floatTemp;
-          break;
-        }
-        case DOUBLE: {
-          double[] doubleTemp = new double[rowCount+1];
-          System.arraycopy(columns[col], 0, doubleTemp, 0, insert);
-          System.arraycopy(columns[col], insert, doubleTemp, insert+1, rowCount - insert);
-          columns[col] = doubleTemp;
-          break;
-        }
-        case STRING: {
-          String[] stringTemp = new String[rowCount+1];
-          System.arraycopy(columns[col], 0, stringTemp, 0, insert);
-          System.arraycopy(columns[col], insert, stringTemp, insert+1, rowCount - insert);
-          columns[col] = stringTemp;
-          break;
+    if (insert < 0 || insert > rowCount) {
+      throw new ArrayIndexOutOfBoundsException("Row " + insert + " does not exist.");
+    }
+    int count = rowCount;
+    // make room at the end (amortized), then shift the rest down in place
+    setRowCount(count + 1);
+    if (columnIndexes != null) {
+      unindexRow(count);
+      for (TableIndex index : columnIndexes) {
+        if (index != null && !index.stale) {
+          index.insertRow(insert, count);
         }
       }
     }
-    // Need to increment before setRow(), because it calls ensureBounds()
-    // https://github.com/processing/processing/issues/5406
-    ++rowCount;
+    for (int col = 0; col < columns.length; col++) {
+      System.arraycopy(columns[col], insert, columns[col], insert+1, count - insert);
+      clearColumn(columns[col], insert, insert+1);
+      long[] bits = nullBits(col);
+      if (bits != null) {
+        columnNulls[col] = TableNulls.insert(bits, insert, count);
+      }
+    }
+    if (columnIndexes != null) {
+      reindexRow(insert);
+    }
     setRow(insert, columnData);
   }
 
@@ -2443,57 +3392,24 @@ public class Table {
    * @see Table#clearRows()
    */
   public void removeRow(int row) {
-    for (int col = 0; col < columns.length; col++) {
-      switch (columnTypes[col]) {
-        case CATEGORY:
-        case INT: {
-          int[] intTemp = new int[rowCount-1];
-//          int[] intData = (int[]) columns[col];
-//          System.arraycopy(intData, 0, intTemp, 0, dead);
-//          System.arraycopy(intData, dead+1, intTemp, dead, (rowCount - dead) + 1);
-          System.arraycopy(columns[col], 0, intTemp, 0, row);
-          System.arraycopy(columns[col], row+1, intTemp, row, (rowCount - row) - 1);
-          columns[col] = intTemp;
-          break;
-        }
-        case LONG: {
-          long[] longTemp = new long[rowCount-1];
-//          long[] longData = (long[]) columns[col];
-//          System.arraycopy(longData, 0, longTemp, 0, dead);
-//          System.arraycopy(longData, dead+1, longTemp, dead, (rowCount - dead) + 1);
-          System.arraycopy(columns[col], 0, longTemp, 0, row);
-          System.arraycopy(columns[col], row+1, longTemp, row, (rowCount - row) - 1);
-          columns[col] = longTemp;
-          break;
-        }
-        case FLOAT: {
-          float[] floatTemp = new float[rowCount-1];
-//          float[] floatData = (float[]) columns[col];
-//          System.arraycopy(floatData, 0, floatTemp, 0, dead);
-//          System.arraycopy(floatData, dead+1, floatTemp, dead, (rowCount - dead) + 1);
-          System.arraycopy(columns[col], 0, floatTemp, 0, row);
-          System.arraycopy(columns[col], row+1, floatTemp, row, (rowCount - row) - 1);
-          columns[col] = floatTemp;
-          break;
-        }
-        case DOUBLE: {
-          double[] doubleTemp = new double[rowCount-1];
-//          double[] doubleData = (double[]) columns[col];
-//          System.arraycopy(doubleData, 0, doubleTemp, 0, dead);
-//          System.arraycopy(doubleData, dead+1, doubleTemp, dead, (rowCount - dead) + 1);
-          System.arraycopy(columns[col], 0, doubleTemp, 0, row);
-          System.arraycopy(columns[col], row+1, doubleTemp, row, (rowCount - row) - 1);
-          columns[col] = doubleTemp;
-          break;
-        }
-        case STRING: {
-          String[] stringTemp = new String[rowCount-1];
-          System.arraycopy(columns[col], 0, stringTemp, 0, row);
-          System.arraycopy(columns[col], row+1, stringTemp, row, (rowCount - row) - 1);
-          columns[col] = stringTemp;
+    checkRow(row);
+    rangeIndexes = null;
+    if (columnIndexes != null) {
+      unindexRow(row);
+      for (TableIndex index : columnIndexes) {
+        if (index != null && !index.stale) {
+          index.removeRow(row, rowCount);
         }
       }
     }
+    for (int col = 0; col < columns.length; col++) {
+      System.arraycopy(columns[col], row+1, columns[col], row, (rowCount - row) - 1);
+      clearColumn(columns[col], rowCount - 1, rowCount);
+      long[] bits = nullBits(col);
+      if (bits != null) {
+        TableNulls.remove(bits, row, rowCount);
+      }
+    }
     rowCount--;
   }
 
@@ -2559,6 +3475,8 @@ public class Table {
 
 
   protected void setRowCol(int row, int col, Object piece) {
+    unindex(row, col);
+    boolean missing = (piece == null);
     switch (columnTypes[col]) {
       case STRING:
         String[] stringData = (String[]) columns[col];
@@ -2579,7 +3497,12 @@ public class Table {
         } else if (piece instanceof Integer) {
           intData[row] = (Integer) piece;
         } else {
-          intData[row] = PApplet.parseInt(String.valueOf(piece), missingInt);
+          try {
+            intData[row] = parseInt(String.valueOf(piece));
+          } catch (NumberFormatException nfe) {
+            intData[row] = missingInt;
+            missing = true;
+          }
         }
         break;
       case LONG:
@@ -2593,6 +3516,7 @@ public class Table {
             longData[row] = Long.parseLong(String.valueOf(piece));
           } catch (NumberFormatException nfe) {
             longData[row] = missingLong;
+            missing = true;
           }
         }
         break;
@@ -2600,23 +3524,29 @@ public class Table {
         float[] floatData = (float[]) columns[col];
         if (piece == null) {
           floatData[row] = missingFloat;
-        } else if (piece instanceof Float) {
-          floatData[row] = (Float) piece;
         } else {
-          floatData[row] = PApplet.parseFloat(String.valueOf(piece), missingFloat);
+          floatData[row] = (piece instanceof Float) ?
+            (Float) piece : PApplet.parseFloat(String.valueOf(piece), Float.NaN);
+          if (Float.isNaN(floatData[row])) {
+            floatData[row] = missingFloat;
+            missing = true;
+          }
         }
         break;
       case DOUBLE:
         double[] doubleData = (double[]) columns[col];
         if (piece == null) {
           doubleData[row] = missingDouble;
-        } else if (piece instanceof Double) {
-          doubleData[row] = (Double) piece;
         } else {
           try {
-            doubleData[row] = Double.parseDouble(String.valueOf(piece));
+            doubleData[row] = (piece instanceof Double) ?
+              (Double) piece : Double.parseDouble(String.valueOf(piece));
           } catch (NumberFormatException nfe) {
+            doubleData[row] = Double.NaN;
+          }
+          if (Double.isNaN(doubleData[row])) {
             doubleData[row] = missingDouble;
+            missing = true;
           }
         }
         break;
@@ -2628,6 +3558,7 @@ public class Table {
           String peace = String.valueOf(piece);
           if (peace.equals(missingString)) {  // missingString might be null
             indexData[row] = missingCategory;
+            missing = true;
           } else {
             indexData[row] = columnCategories[col].index(peace);
           }
@@ -2636,6 +3567,10 @@ public class Table {
       default:
         throw new IllegalArgumentException("That's not a valid column type.");
     }
+    if (columnTypes[col] != STRING) {
+      markNull(row, col, missing);
+    }
+    reindex(row, col);
   }
 
 
@@ -2694,6 +3629,30 @@ public class Table {
   }
 
 
+  /**
+   * A view of all the rows and columns of this table, which can be
+   * filtered, narrowed to some of the columns, sorted, and grouped without
+   * copying the data. Nothing is copied unless values are set through the
+   * view, and those changes don't affect this table.
+   * @see TableView
+   */
+  public TableView view() {
+    return new TableView(this, null, null);
+  }
+
+
+  /**
+   * A view of some of the rows of this table, in the order given.
+   * @param indices ID numbers of the rows
+   */
+  public TableView view(int[] indices) {
+    for (int row : indices) {
+      checkRow(row);
+    }
+    return new TableView(this, indices.clone(), null);
+  }
+
+
   // . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . .
 
 
@@ -2750,6 +3709,14 @@ public class Table {
       return table.getDouble(row, columnName);
     }
 
+    public boolean isNull(int column) {
+      return table.isNull(row, column);
+    }
+
+    public boolean isNull(String columnName) {
+      return table.isNull(row, columnName);
+    }
+
     public void setString(int column, String value) {
       table.setString(row, column, value);
     }
@@ -3108,8 +4075,11 @@ public class Table {
           columnTypes[column] != CATEGORY) {
         throw new IllegalArgumentException("Column " + column + " is not an int column.");
       }
+      unindex(row, column);
       int[] intData = (int[]) columns[column];
       intData[row] = value;
+      markNull(row, column, columnTypes[column] == CATEGORY && value == missingCategory);
+      reindex(row, column);
     }
   }
 
@@ -3186,8 +4156,11 @@ public class Table {
       if (columnTypes[column] != LONG) {
         throw new IllegalArgumentException("Column " + column + " is not a 'long' column.");
       }
+      unindex(row, column);
       long[] longData = (long[]) columns[column];
       longData[row] = value;
+      markNull(row, column, false);
+      reindex(row, column);
     }
   }
 
@@ -3288,8 +4261,11 @@ public class Table {
       if (columnTypes[column] != FLOAT) {
         throw new IllegalArgumentException("Column " + column + " is not a float column.");
       }
+      unindex(row, column);
       float[] longData = (float[]) columns[column];
       longData[row] = value;
+      markNull(row, column, value != value);  // NaN
+      reindex(row, column);
     }
   }
 
@@ -3365,8 +4341,11 @@ public class Table {
       if (columnTypes[column] != DOUBLE) {
         throw new IllegalArgumentException("Column " + column + " is not a 'double' column.");
       }
+      unindex(row, column);
       double[] doubleData = (double[]) columns[column];
       doubleData[row] = value;
+      markNull(row, column, value != value);  // NaN
+      reindex(row, column);
     }
   }
 
@@ -3478,6 +4457,8 @@ public class Table {
     if (columnTypes[column] == STRING) {
       String[] stringData = (String[]) columns[column];
       return stringData[row];
+    } else if (isNullBit(row, column)) {
+      return missingString;
     } else if (columnTypes[column] == CATEGORY) {
       int cat = getInt(row, column);
       if (cat == missingCategory) {
@@ -3489,99 +4470,489 @@ public class Table {
         return null;
       }
     } else if (columnTypes[column] == DOUBLE) {
-      if (Double.isNaN(getFloat(row, column))) {
+      if (Double.isNaN(getDouble(row, column))) {
         return null;
       }
     }
-    return String.valueOf(Array.get(columns[column], row));
+    return String.valueOf(Array.get(columns[column], row));
+  }
+
+
+  /**
+   * @param columnName title of the column to reference
+   */
+  public String getString(int row, String columnName) {
+    return getString(row, getColumnIndex(columnName));
+  }
+
+
+  /**
+   * Treat entries with this string as "missing". Also used for categorial.
+   */
+  public void setMissingString(String value) {
+    missingString = value;
+  }
+
+
+  // . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . .
+
+
+  /**
+   * Whether the value in a cell is missing: left empty or unreadable in
+   * the file it was loaded from, set to null or NaN, or cleared with
+   * setNull(). Unlike comparing with the value from setMissingInt() and
+   * the like, this can tell a real 0 from a missing one.
+   * @param row ID number of the row
+   * @param column ID number of the column
+   */
+  public boolean isNull(int row, int column) {
+    checkBounds(row, column);
+    switch (columnTypes[column]) {
+    case STRING:
+      return ((String[]) columns[column])[row] == null;
+    case FLOAT:
+      return isNullBit(row, column) || Float.isNaN(((float[]) columns[column])[row]);
+    case DOUBLE:
+      return isNullBit(row, column) || Double.isNaN(((double[]) columns[column])[row]);
+    case CATEGORY:
+      return isNullBit(row, column) || ((int[]) columns[column])[row] == missingCategory;
+    default:
+      return isNullBit(row, column);
+    }
+  }
+
+
+  /**
+   * @param columnName title of the column
+   */
+  public boolean isNull(int row, String columnName) {
+    return isNull(row, getColumnIndex(columnName));
+  }
+
+
+  /**
+   * Clear a cell, so that isNull() is true for it. String cells are set to
+   * null, others to the value from setMissingInt(), setMissingFloat() and
+   * so on.
+   * @param row ID number of the row
+   * @param column ID number of the column
+   */
+  public void setNull(int row, int column) {
+    ensureBounds(row, column);
+    unindex(row, column);
+    switch (columnTypes[column]) {
+    case STRING:
+      ((String[]) columns[column])[row] = null;
+      break;
+    case INT:
+      ((int[]) columns[column])[row] = missingInt;
+      break;
+    case LONG:
+      ((long[]) columns[column])[row] = missingLong;
+      break;
+    case FLOAT:
+      ((float[]) columns[column])[row] = missingFloat;
+      break;
+    case DOUBLE:
+      ((double[]) columns[column])[row] = missingDouble;
+      break;
+    case CATEGORY:
+      ((int[]) columns[column])[row] = missingCategory;
+      break;
+    }
+    if (columnTypes[column] != STRING) {
+      markNull(row, column, true);
+    }
+    reindex(row, column);
+  }
+
+
+  /**
+   * @param columnName title of the column
+   */
+  public void setNull(int row, String columnName) {
+    setNull(row, getColumnIndex(columnName));
+  }
+
+
+  /**
+   * Number of missing values (see isNull()) in a column.
+   * @param column ID number of the column
+   */
+  public int getNullCount(int column) {
+    checkColumn(column);
+    long[] bits = nullBits(column);
+    if (columnTypes[column] == INT || columnTypes[column] == LONG) {
+      return (bits == null) ? 0 : TableNulls.count(bits, rowCount);
+    }
+    int count = 0;
+    for (int row = 0; row < rowCount; row++) {
+      if (isNull(row, column)) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+
+  /**
+   * @param columnName title of the column
+   */
+  public int getNullCount(String columnName) {
+    return getNullCount(getColumnIndex(columnName));
+  }
+
+
+  /** Bitmap of the missing values in a column, or null if it has none. */
+  long[] nullBits(int column) {
+    return (columnNulls == null) ? null : columnNulls[column];
+  }
+
+
+  private boolean isNullBit(int row, int column) {
+    long[] bits = nullBits(column);
+    return bits != null && TableNulls.get(bits, row);
+  }
+
+
+  /**
+   * Mark a cell in a column of numbers or categories as missing (or not).
+   * String columns use null instead, and don't have a bitmap.
+   */
+  void markNull(int row, int column, boolean missing) {
+    if (columnNulls == null) {
+      if (!missing) {
+        return;
+      }
+      columnNulls = new long[columns.length][];
+    }
+    columnNulls[column] =
+      TableNulls.set(columnNulls[column], row, missing, allocCount);
+  }
+
+
+  /** Same as PApplet.parseInt(), but throws an exception if it fails. */
+  static private int parseInt(String s) {
+    int offset = s.indexOf('.');
+    return Integer.parseInt((offset == -1) ? s : s.substring(0, offset));
+  }
+
+
+  /**
+   * @webref table:method
+   * @brief Store a String value in the specified row and column
+   * @param row ID number of the target row
+   * @param column ID number of the target column
+   * @param value value to assign
+   * @see Table#setInt(int, int, int)
+   * @see Table#setFloat(int, int, float)
+   * @see Table#getInt(int, int)
+   * @see Table#getFloat(int, int)
+   * @see Table#getString(int, int)
+   * @see Table#getStringColumn(String)
+   */
+  public void setString(int row, int column, String value) {
+    ensureBounds(row, column);
+    if (columnTypes[column] != STRING) {
+      throw new IllegalArgumentException("Column " + column + " is not a String column.");
+    }
+    unindex(row, column);
+    String[] stringData = (String[]) columns[column];
+    stringData[row] = value;
+    reindex(row, column);
+  }
+
+  /**
+   * @param columnName title of the target column
+   */
+  public void setString(int row, String columnName, String value) {
+    int column = checkColumnIndex(columnName);
+    setString(row, column, value);
+  }
+
+  /**
+   * @webref table:method
+   * @brief Gets all values in the specified column
+   * @param columnName title of the column to search
+   * @see Table#getInt(int, int)
+   * @see Table#getFloat(int, int)
+   * @see Table#getString(int, int)
+   * @see Table#setInt(int, int, int)
+   * @see Table#setFloat(int, int, float)
+   * @see Table#setString(int, int, String)
+   */
+  public String[] getStringColumn(String columnName) {
+    int col = getColumnIndex(columnName);
+    return (col == -1) ? null : getStringColumn(col);
+  }
+
+
+  /**
+   * @param column ID number of the column to search
+   */
+  public String[] getStringColumn(int column) {
+    String[] outgoing = new String[rowCount];
+    for (int i = 0; i < rowCount; i++) {
+      outgoing[i] = getString(i, column);
+    }
+    return outgoing;
+  }
+
+
+  public String[] getStringRow(int row) {
+    String[] outgoing = new String[columns.length];
+    for (int col = 0; col < columns.length; col++) {
+      outgoing[col] = getString(row, col);
+    }
+    return outgoing;
+  }
+
+
+  // . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . .
+
+
+  /**
+   * Build a hash index on a column, so that findRow(), findRows(),
+   * findRowIndex(), findRowIndices() and getRowMap() for that column no
+   * longer have to look through every row. The index is kept up to date as
+   * values are set and rows are added or removed. When changing a large part
+   * of the column at once, it's faster to drop the index first and create
+   * it again afterwards.
+   * @param column ID number of the column to index
+   */
+  public void createIndex(int column) {
+    checkColumn(column);
+    if (columnIndexes == null) {
+      columnIndexes = new TableIndex[columns.length];
+    }
+    columnIndexes[column] = buildIndex(column);
+  }
+
+
+  /**
+   * @param columnName title of the column to index
+   */
+  public void createIndex(String columnName) {
+    createIndex(getColumnIndex(columnName));
+  }
+
+
+  public void dropIndex(int column) {
+    checkColumn(column);
+    if (columnIndexes != null) {
+      columnIndexes[column] = null;
+    }
+  }
+
+
+  public void dropIndex(String columnName) {
+    dropIndex(getColumnIndex(columnName));
+  }
+
+
+  /** Remove the index from all columns. */
+  public void dropIndexes() {
+    columnIndexes = null;
+  }
+
+
+  public boolean hasIndex(int column) {
+    checkColumn(column);
+    return columnIndexes != null && columnIndexes[column] != null;
+  }
+
+
+  public boolean hasIndex(String columnName) {
+    return hasIndex(getColumnIndex(columnName));
+  }
+
+
+  /** Returns the index for this column (rebuilt if necessary), or null. */
+  protected TableIndex getIndex(int column) {
+    if (columnIndexes == null || columnIndexes[column] == null) {
+      return null;
+    }
+    if (columnIndexes[column].stale) {
+      columnIndexes[column] = buildIndex(column);
+    }
+    return columnIndexes[column];
+  }
+
+
+  private TableIndex buildIndex(int column) {
+    TableIndex index = new TableIndex(columnTypes[column] == STRING, rowCount);
+    if (index.text) {
+      String[] stringData = (String[]) columns[column];
+      for (int row = 0; row < rowCount; row++) {
+        index.add(row, stringData[row]);
+      }
+    } else {
+      for (int row = 0; row < rowCount; row++) {
+        index.add(row, indexKey(row, column));
+      }
+    }
+    return index;
+  }
+
+
+  /**
+   * Numeric key for the index: the value itself for int, long and category
+   * columns, or its bits for float and double (so that NaN matches NaN).
+   * Missing values all share one key: Long.MIN_VALUE for int and long,
+   * NaN for float and double, and the missing category.
+   */
+  private long indexKey(int row, int column) {
+    if (isNullBit(row, column)) {
+      switch (columnTypes[column]) {
+      case FLOAT:
+        return Float.floatToIntBits(Float.NaN);
+      case DOUBLE:
+        return Double.doubleToLongBits(Double.NaN);
+      case CATEGORY:
+        return missingCategory;
+      default:
+        return Long.MIN_VALUE;
+      }
+    }
+    switch (columnTypes[column]) {
+    case LONG:
+      return ((long[]) columns[column])[row];
+    case FLOAT:
+      return Float.floatToIntBits(((float[]) columns[column])[row]);
+    case DOUBLE:
+      return Double.doubleToLongBits(((double[]) columns[column])[row]);
+    default:  // INT and CATEGORY
+      return ((int[]) columns[column])[row];
+    }
+  }
+
+
+  /** Mark the indexes on this column (if any) to be rebuilt when next used. */
+  private void staleIndex(int column) {
+    if (rangeIndexes != null) {
+      rangeIndexes[column] = null;
+    }
+    if (columnIndexes != null && columnIndexes[column] != null) {
+      columnIndexes[column].stale = true;
+    }
   }
 
 
   /**
-   * @param columnName title of the column to reference
+   * Remove the current value of a cell from its column's index, because
+   * it's about to change. The sorted index is simply dropped.
    */
-  public String getString(int row, String columnName) {
-    return getString(row, getColumnIndex(columnName));
+  private void unindex(int row, int column) {
+    if (rangeIndexes != null) {
+      rangeIndexes[column] = null;
+    }
+    if (columnIndexes != null) {
+      TableIndex index = columnIndexes[column];
+      if (index != null && !index.stale) {
+        if (index.text) {
+          index.remove(row, ((String[]) columns[column])[row]);
+        } else {
+          index.remove(row, indexKey(row, column));
+        }
+      }
+    }
   }
 
 
-  /**
-   * Treat entries with this string as "missing". Also used for categorial.
-   */
-  public void setMissingString(String value) {
-    missingString = value;
+  /** Add the current value of a cell to its column's index. */
+  private void reindex(int row, int column) {
+    if (columnIndexes != null) {
+      TableIndex index = columnIndexes[column];
+      if (index != null && !index.stale) {
+        if (index.text) {
+          index.add(row, ((String[]) columns[column])[row]);
+        } else {
+          index.add(row, indexKey(row, column));
+        }
+      }
+    }
   }
 
 
-  /**
-   * @webref table:method
-   * @brief Store a String value in the specified row and column
-   * @param row ID number of the target row
-   * @param column ID number of the target column
-   * @param value value to assign
-   * @see Table#setInt(int, int, int)
-   * @see Table#setFloat(int, int, float)
-   * @see Table#getInt(int, int)
-   * @see Table#getFloat(int, int)
-   * @see Table#getString(int, int)
-   * @see Table#getStringColumn(String)
-   */
-  public void setString(int row, int column, String value) {
-    ensureBounds(row, column);
-    if (columnTypes[column] != STRING) {
-      throw new IllegalArgumentException("Column " + column + " is not a String column.");
+  private void unindexRow(int row) {
+    for (int col = 0; col < columns.length; col++) {
+      unindex(row, col);
     }
-    String[] stringData = (String[]) columns[column];
-    stringData[row] = value;
   }
 
-  /**
-   * @param columnName title of the target column
-   */
-  public void setString(int row, String columnName, String value) {
-    int column = checkColumnIndex(columnName);
-    setString(row, column, value);
-  }
 
-  /**
-   * @webref table:method
-   * @brief Gets all values in the specified column
-   * @param columnName title of the column to search
-   * @see Table#getInt(int, int)
-   * @see Table#getFloat(int, int)
-   * @see Table#getString(int, int)
-   * @see Table#setInt(int, int, int)
-   * @see Table#setFloat(int, int, float)
-   * @see Table#setString(int, int, String)
-   */
-  public String[] getStringColumn(String columnName) {
-    int col = getColumnIndex(columnName);
-    return (col == -1) ? null : getStringColumn(col);
+  private void reindexRow(int row) {
+    for (int col = 0; col < columns.length; col++) {
+      reindex(row, col);
+    }
   }
 
 
   /**
-   * @param column ID number of the column to search
+   * First row where getString(row, column) would be equal to value, or -1
+   * if there is none. Returns -2 for the odd case the index can't answer
+   * (a category named the same as the missing String), so that the caller
+   * will look through the rows instead.
    */
-  public String[] getStringColumn(int column) {
-    String[] outgoing = new String[rowCount];
-    for (int i = 0; i < rowCount; i++) {
-      outgoing[i] = getString(i, column);
-    }
-    return outgoing;
-  }
+  private int indexFirst(TableIndex index, String value, int column) {
+    switch (columnTypes[column]) {
+    case STRING:
+      return index.first(value);
 
+    case INT:
+    case LONG:
+      if (value == null) {
+        return (missingString == null) ? index.first(Long.MIN_VALUE) : -1;
+      }
+      if (value.equals(missingString)) {
+        return -2;  // the missing rows, but maybe a number like it too
+      }
+      try {
+        long lvalue = Long.parseLong(value);
+        if (lvalue == Long.MIN_VALUE) {
+          return -2;  // shares its key with the missing rows
+        }
+        // only the way getString() writes it will match, not "007"
+        if (String.valueOf(lvalue).equals(value) &&
+            (columnTypes[column] == LONG || lvalue == (int) lvalue)) {
+          return index.first(lvalue);
+        }
+      } catch (NumberFormatException nfe) { }
+      return -1;
 
-  public String[] getStringRow(int row) {
-    String[] outgoing = new String[columns.length];
-    for (int col = 0; col < columns.length; col++) {
-      outgoing[col] = getString(row, col);
-    }
-    return outgoing;
-  }
+    case FLOAT:
+      if (value == null) {
+        return index.first(Float.floatToIntBits(Float.NaN));
+      }
+      try {
+        float fvalue = Float.parseFloat(value);
+        if (!Float.isNaN(fvalue) && String.valueOf(fvalue).equals(value)) {
+          return index.first(Float.floatToIntBits(fvalue));
+        }
+      } catch (NumberFormatException nfe) { }
+      return -1;
 
+    case DOUBLE:
+      if (value == null) {
+        return index.first(Double.doubleToLongBits(Double.NaN));
+      }
+      try {
+        double dvalue = Double.parseDouble(value);
+        if (!Double.isNaN(dvalue) && String.valueOf(dvalue).equals(value)) {
+          return index.first(Double.doubleToLongBits(dvalue));
+        }
+      } catch (NumberFormatException nfe) { }
+      return -1;
 
-  // . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . .
+    case CATEGORY:
+      Integer cat = columnCategories[column].dataToIndex.get(value);
+      if (value == null ? missingString == null : value.equals(missingString)) {
+        return (cat == null) ? index.first(missingCategory) : -2;
+      }
+      return (cat == null) ? -1 : index.first(cat);
+    }
+    return -2;
+  }
 
 
   /**
@@ -3591,6 +4962,13 @@ public class Table {
    */
   public int findRowIndex(String value, int column) {
     checkColumn(column);
+    TableIndex index = getIndex(column);
+    if (index != null) {
+      int row = indexFirst(index, value, column);
+      if (row != -2) {
+        return row;
+      }
+    }
     if (columnTypes[column] == STRING) {
       String[] stringData = (String[]) columns[column];
       if (value == null) {
@@ -3637,10 +5015,23 @@ public class Table {
    * @param column ID number of the column to search
    */
   public int[] findRowIndices(String value, int column) {
+    checkColumn(column);
+    TableIndex index = getIndex(column);
+    if (index != null) {
+      int row = indexFirst(index, value, column);
+      if (row != -2) {
+        IntList outgoing = new IntList();
+        while (row != -1) {
+          outgoing.append(row);
+          row = index.next(row);
+        }
+        return outgoing.array();
+      }
+    }
+
     int[] outgoing = new int[rowCount];
     int count = 0;
 
-    checkColumn(column);
     if (columnTypes[column] == STRING) {
       String[] stringData = (String[]) columns[column];
       if (value == null) {
@@ -3759,6 +5150,171 @@ public class Table {
   // . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . .
 
 
+  /**
+   * Return the rows where the value in a numeric (int, long, float, or
+   * double) column is between lo and hi (inclusive), ordered by that value.
+   * <p/>
+   * The first call sorts the column, and later calls are only a binary
+   * search, until the column is changed or rows are added or removed.
+   * The result is a view onto the sorted column, not a copy, so this stays
+   * fast for asking about a moving time window every frame. Missing values
+   * (NaN, or see isNull()) are never part of a range. In a float column,
+   * lo and hi are rounded to float, so findRowsInRange(col, 0.1, 0.1)
+   * finds the rows that hold 0.1f.
+   * @param column ID number of the column to search
+   * @param lo the smallest value to include
+   * @param hi the largest value to include
+   */
+  public TableRange findRowsInRange(int column, double lo, double hi) {
+    TableRangeIndex index = getRangeIndex(column);
+    int start = index.lowerBound(lo);
+    int stop = index.upperBound(hi);
+    return new TableRange(this, index.order, start, Math.max(start, stop), false);
+  }
+
+
+  /**
+   * Same as the double version, but exact for long values that are too
+   * large to be represented as a double.
+   */
+  public TableRange findRowsInRange(int column, long lo, long hi) {
+    TableRangeIndex index = getRangeIndex(column);
+    int start = index.lowerBound(lo);
+    int stop = index.upperBound(hi);
+    return new TableRange(this, index.order, start, Math.max(start, stop), false);
+  }
+
+
+  /**
+   * @param columnName title of the column to search
+   */
+  public TableRange findRowsInRange(String columnName, double lo, double hi) {
+    return findRowsInRange(getColumnIndex(columnName), lo, hi);
+  }
+
+
+  public TableRange findRowsInRange(String columnName, long lo, long hi) {
+    return findRowsInRange(getColumnIndex(columnName), lo, hi);
+  }
+
+
+  /**
+   * All rows that have a value in this numeric column, from smallest to
+   * largest. Rows with the same value stay in the order of the table.
+   */
+  public TableRange getSortedRows(int column) {
+    TableRangeIndex index = getRangeIndex(column);
+    return new TableRange(this, index.order, 0, index.validCount, false);
+  }
+
+
+  public TableRange getSortedRows(String columnName) {
+    return getSortedRows(getColumnIndex(columnName));
+  }
+
+
+  /**
+   * Part of getSortedRows(column), for use with lowerBound() and
+   * upperBound(). For instance, the rows after the first 'value' or more:
+   * <pre>
+   * table.getSortedRows(col, table.upperBound(col, value), table.getRowCount())
+   * </pre>
+   * @param start first position in sorted order (inclusive)
+   * @param stop last position in sorted order (exclusive), will be limited
+   *             to the number of rows that are not missing
+   */
+  public TableRange getSortedRows(int column, int start, int stop) {
+    TableRangeIndex index = getRangeIndex(column);
+    stop = Math.min(stop, index.validCount);
+    if (start < 0 || start > stop) {
+      throw new ArrayIndexOutOfBoundsException("Sorted position " + start + " is out of range.");
+    }
+    return new TableRange(this, index.order, start, stop, false);
+  }
+
+
+  /**
+   * Position in getSortedRows(column) of the first row whose value is
+   * greater than or equal to value. Also the number of rows whose value is
+   * less than value.
+   */
+  public int lowerBound(int column, double value) {
+    return getRangeIndex(column).lowerBound(value);
+  }
+
+
+  public int lowerBound(int column, long value) {
+    return getRangeIndex(column).lowerBound(value);
+  }
+
+
+  /**
+   * Position in getSortedRows(column) of the first row whose value is
+   * greater than value. Also the number of rows whose value is less than or
+   * equal to value.
+   */
+  public int upperBound(int column, double value) {
+    return getRangeIndex(column).upperBound(value);
+  }
+
+
+  public int upperBound(int column, long value) {
+    return getRangeIndex(column).upperBound(value);
+  }
+
+
+  /**
+   * The rows with the largest values in a numeric column, largest first.
+   * @param column ID number of the column to check
+   * @param count how many rows (fewer if the table doesn't have that many)
+   */
+  public TableRange topRows(int column, int count) {
+    TableRangeIndex index = getRangeIndex(column);
+    int start = Math.max(0, index.validCount - Math.max(0, count));
+    return new TableRange(this, index.order, start, index.validCount, true);
+  }
+
+
+  public TableRange topRows(String columnName, int count) {
+    return topRows(getColumnIndex(columnName), count);
+  }
+
+
+  /**
+   * The rows with the smallest values in a numeric column, smallest first.
+   */
+  public TableRange bottomRows(int column, int count) {
+    TableRangeIndex index = getRangeIndex(column);
+    int stop = Math.min(index.validCount, Math.max(0, count));
+    return new TableRange(this, index.order, 0, stop, false);
+  }
+
+
+  public TableRange bottomRows(String columnName, int count) {
+    return bottomRows(getColumnIndex(columnName), count);
+  }
+
+
+  /** Returns the sorted index for a numeric column, building it if needed. */
+  protected TableRangeIndex getRangeIndex(int column) {
+    checkColumn(column);
+    int type = columnTypes[column];
+    if (type != INT && type != LONG && type != FLOAT && type != DOUBLE) {
+      throw new IllegalArgumentException("Column " + column + " is not a numeric column.");
+    }
+    if (rangeIndexes == null) {
+      rangeIndexes = new TableRangeIndex[columns.length];
+    }
+    if (rangeIndexes[column] == null) {
+      rangeIndexes[column] = new TableRangeIndex(columns[column], rowCount, nullBits(column));
+    }
+    return rangeIndexes[column];
+  }
+
+
+  // . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . .
+
+
   /**
    * Return the row that contains the first String that matches.
    * @param regexp the String to match
@@ -3933,6 +5489,7 @@ public class Table {
 
   public void replace(String orig, String replacement, int col) {
     if (columnTypes[col] == STRING) {
+      staleIndex(col);
       String[] stringData = (String[]) columns[col];
 
       if (orig != null) {
@@ -3970,6 +5527,7 @@ public class Table {
   public void replaceAll(String regex, String replacement, int column) {
     checkColumn(column);
     if (columnTypes[column] == STRING) {
+      staleIndex(column);
       String[] stringData = (String[]) columns[column];
       for (int row = 0; row < rowCount; row++) {
         if (stringData[row] != null) {
@@ -4128,6 +5686,7 @@ public class Table {
    */
   public void trim(int column) {
     if (columnTypes[column] == STRING) {
+      staleIndex(column);
       String[] stringData = (String[]) columns[column];
       for (int row = 0; row < rowCount; row++) {
         if (stringData[row] != null) {
@@ -4207,6 +5766,11 @@ public class Table {
       read(input);
     }
 
+    HashMapBlows(HashMapBlows source) {
+      dataToIndex = new HashMap<>(source.dataToIndex);
+      indexToData = new ArrayList<>(source.indexToData);
+    }
+
     /** gets the index, and creates one if it doesn't already exist. */
     int index(String key) {
       Integer value = dataToIndex.get(key);
@@ -4323,103 +5887,54 @@ public class Table {
   }
 
 
-  protected void sort(final int column, final boolean reverse) {
-    final int[] order = IntList.fromRange(getRowCount()).array();
-    Sort s = new Sort() {
+  /**
+   * @param columnNames titles of the columns to sort by, most important first
+   */
+  public void sort(String[] columnNames, boolean[] reverse) {
+    int[] columns = new int[columnNames.length];
+    for (int i = 0; i < columns.length; i++) {
+      columns[i] = getColumnIndex(columnNames[i]);
+    }
+    sort(columns, reverse);
+  }
+
 
-      @Override
-      public int size() {
-        return getRowCount();
-      }
+  protected void sort(int column, boolean reverse) {
+    sort(new int[] { column }, new boolean[] { reverse });
+  }
 
-      @Override
-      public int compare(int index1, int index2) {
-        int a = reverse ? order[index2] : order[index1];
-        int b = reverse ? order[index1] : order[index2];
 
-        switch (getColumnType(column)) {
-        case INT:
-          return getInt(a, column) - getInt(b, column);
-        case LONG:
-          long diffl = getLong(a, column) - getLong(b, column);
-          return diffl == 0 ? 0 : (diffl < 0 ? -1 : 1);
-        case FLOAT:
-          float difff = getFloat(a, column) - getFloat(b, column);
-          return difff == 0 ? 0 : (difff < 0 ? -1 : 1);
-        case DOUBLE:
-          double diffd = getDouble(a, column) - getDouble(b, column);
-          return diffd == 0 ? 0 : (diffd < 0 ? -1 : 1);
-        case STRING:
-          String string1 = getString(a, column);
-          if (string1 == null) {
-            string1 = "";  // avoid NPE when cells are left empty
-          }
-          String string2 = getString(b, column);
-          if (string2 == null) {
-            string2 = "";
-          }
-          return string1.compareToIgnoreCase(string2);
-        case CATEGORY:
-          return getInt(a, column) - getInt(b, column);
-        default:
-          throw new IllegalArgumentException("Invalid column type: " + getColumnType(column));
+  /**
+   * Sort by several columns: rows are ordered by the first column, rows
+   * with the same value there by the second column, and so on. The sort is
+   * stable, so rows that are equal in every column keep their order.
+   * Strings are compared without regard to case (null is the same as an
+   * empty String), and missing float and double values always go last.
+   * @param columns the columns to sort by, most important first
+   * @param reverse for each column, true to sort it from largest to
+   *                smallest, or null to sort all columns in ascending order
+   */
+  public void sort(int[] columns, boolean[] reverse) {
+    for (int column : columns) {
+      checkColumn(column);
+    }
+    if (reverse != null && reverse.length != columns.length) {
+      throw new IllegalArgumentException("reverse should have one entry per sort column");
+    }
+    int[] order = TableSort.order(this, columns, reverse);
+    TableSort.permute(this.columns, order, rowCount);
+    if (columnNulls != null) {
+      for (int col = 0; col < this.columns.length; col++) {
+        if (columnNulls[col] != null) {
+          columnNulls[col] = TableNulls.gather(columnNulls[col], order, rowCount);
         }
       }
+    }
 
-      @Override
-      public void swap(int a, int b) {
-        int temp = order[a];
-        order[a] = order[b];
-        order[b] = temp;
-      }
-
-    };
-    s.run();
-
-    //Object[] newColumns = new Object[getColumnCount()];
-    for (int col = 0; col < getColumnCount(); col++) {
-      switch (getColumnType(col)) {
-      case INT:
-      case CATEGORY:
-        int[] oldInt = (int[]) columns[col];
-        int[] newInt = new int[rowCount];
-        for (int row = 0; row < getRowCount(); row++) {
-          newInt[row] = oldInt[order[row]];
-        }
-        columns[col] = newInt;
-        break;
-      case LONG:
-        long[] oldLong = (long[]) columns[col];
-        long[] newLong = new long[rowCount];
-        for (int row = 0; row < getRowCount(); row++) {
-          newLong[row] = oldLong[order[row]];
-        }
-        columns[col] = newLong;
-        break;
-      case FLOAT:
-        float[] oldFloat = (float[]) columns[col];
-        float[] newFloat = new float[rowCount];
-        for (int row = 0; row < getRowCount(); row++) {
-          newFloat[row] = oldFloat[order[row]];
-        }
-        columns[col] = newFloat;
-        break;
-      case DOUBLE:
-        double[] oldDouble = (double[]) columns[col];
-        double[] newDouble = new double[rowCount];
-        for (int row = 0; row < getRowCount(); row++) {
-          newDouble[row] = oldDouble[order[row]];
-        }
-        columns[col] = newDouble;
-        break;
-      case STRING:
-        String[] oldString = (String[]) columns[col];
-        String[] newString = new String[rowCount];
-        for (int row = 0; row < getRowCount(); row++) {
-          newString[row] = oldString[order[row]];
-        }
-        columns[col] = newString;
-        break;
+    rangeIndexes = null;
+    if (columnIndexes != null) {
+      for (int col = 0; col < this.columns.length; col++) {
+        staleIndex(col);
       }
     }
   }
@@ -4461,6 +5976,77 @@ public class Table {
   }
 
 
+  /**
+   * Group the rows by the values in one or more columns, to get totals for
+   * each group in a new Table. For instance, the sales for each region and
+   * month, and how many rows went into each:
+   * <pre>
+   * Table totals = table.groupBy("region", "month").sum("sales").count().getTable();
+   * </pre>
+   * @param columnNames titles of the columns to group by
+   * @see TableGroupBy
+   */
+  public TableGroupBy groupBy(String... columnNames) {
+    int[] columns = new int[columnNames.length];
+    for (int i = 0; i < columns.length; i++) {
+      columns[i] = getColumnIndex(columnNames[i]);
+    }
+    return new TableGroupBy(this, columns);
+  }
+
+
+  /**
+   * @param columns ID numbers of the columns to group by
+   */
+  public TableGroupBy groupBy(int... columns) {
+    for (int column : columns) {
+      checkColumn(column);
+    }
+    return new TableGroupBy(this, columns.clone());
+  }
+
+
+  /**
+   * Combine this table with another, matching up rows that have the same
+   * value in a key column of each. For instance, to add the name and size
+   * of each country to a table of events:
+   * <pre>
+   * Table both = events.join(countries, "country", "code", Table.LEFT_JOIN);
+   * </pre>
+   * With INNER_JOIN, the result has a row for each pair of rows that match.
+   * LEFT_JOIN also keeps the rows of this table that don't have a match,
+   * with missing values for the other table's columns. SEMI_JOIN keeps
+   * the rows of this table that have at least one match, and only its
+   * columns. Otherwise the result has all the columns of this table,
+   * then those of the other table except for its key column. If one of
+   * those has the same title as a column before it, "_2" is added to its
+   * title (or "_3" and so on), so joining two tables that both have a
+   * "name" column gives "name" and "name_2".
+   * <p/>
+   * Rows stay in the order of this table, and rows of the other table that
+   * match the same row stay in their order. Keys are matched as numbers
+   * when both columns are numeric, otherwise by their String values;
+   * missing (null or NaN) keys never match.
+   * @param other the table to join with
+   * @param leftKey the key column in this table
+   * @param rightKey the key column in the other table
+   * @param type INNER_JOIN, LEFT_JOIN, or SEMI_JOIN
+   */
+  public Table join(Table other, int leftKey, int rightKey, int type) {
+    checkColumn(leftKey);
+    other.checkColumn(rightKey);
+    if (type != INNER_JOIN && type != LEFT_JOIN && type != SEMI_JOIN) {
+      throw new IllegalArgumentException("Unknown join type " + type);
+    }
+    return new TableJoin(this, other, leftKey, rightKey, type).run();
+  }
+
+
+  public Table join(Table other, String leftKey, String rightKey, int type) {
+    return join(other, getColumnIndex(leftKey), other.getColumnIndex(rightKey), type);
+  }
+
+
   // . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . .
 
 
@@ -4554,6 +6140,19 @@ public class Table {
    */
   public Map<String, TableRow> getRowMap(int column) {
     Map<String, TableRow> outgoing = new HashMap<>();
+    TableIndex index = getIndex(column);
+    if (index != null) {
+      // the last row for each value, as below, since later rows replace
+      // earlier ones with the same key; a few values may share a String
+      // (a category equal to missingString), so keep them in row order
+      IntList last = index.lastRows();
+      last.sort();
+      for (int i = 0; i < last.size(); i++) {
+        int row = last.get(i);
+        outgoing.put(getString(row, column), new RowPointer(this, row));
+      }
+      return outgoing;
+    }
     for (int row = 0; row < getRowCount(); row++) {
       String id = getString(row, column);
       outgoing.put(id, new RowPointer(this, row));
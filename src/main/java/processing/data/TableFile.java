@@ -0,0 +1,1076 @@
+package processing.data;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+
+/**
+ * A Table saved with saveTable(table, "data.bin"), opened straight from
+ * the file. The file is memory mapped, so opening it only reads the footer
+ * at the end, and the numbers in a column are read from the file as they're
+ * used (see getIntBuffer() and friends) instead of being copied into the
+ * heap first:
+ * <pre>
+ * TableFile file = new TableFile(new File("trips.bin"));
+ * DoubleBuffer fares = file.getDoubleBuffer("fare");
+ * </pre>
+ * Use getTable() to load the whole thing into a regular Table. loadTable()
+ * does the same with a .bin file, but reads it with FileChannel.read()
+ * rather than mapping it, see load(File, Table).
+ * <p/>
+ * The file is column-major. After a 4 byte magic number (big-endian, like
+ * the older row-by-row format) comes a block for each column, starting on a
+ * multiple of 8 bytes and in little-endian order:
+ * <ul>
+ * <li>the values, one int, long, float or double per row. String and
+ * category columns have an int per row, which is the position of the value
+ * in the column's dictionary (-1 for a null String).
+ * <li>the bitmap of missing values (see Table.isNull()), a long for each
+ * 64 rows, if the column has any.
+ * <li>for String and category columns, the dictionary: the number of
+ * distinct values, an int offset to the start of each one (and one past
+ * the end of the last), then the values themselves as UTF-8.
+ * </ul>
+ * Then the footer: the row and column counts, the missing values, and for
+ * each column its type, title, the offset of each of its blocks, and its
+ * number of missing values, smallest value and largest value. The file
+ * ends with the offset of the footer and the magic number again.
+ */
+public class TableFile {
+  static final int MAGIC = 0x9007AB20;
+  static final int NONE = -1;
+
+  protected int rowCount;
+  protected String[] columnTitles;  // null if the table had no titles
+  protected int[] columnTypes;
+  protected Column[] columns;
+
+  protected String missingString;
+  protected int missingInt;
+  protected long missingLong;
+  protected float missingFloat;
+  protected double missingDouble;
+  protected int missingCategory;
+
+  static Charset utf8 = Charset.forName("UTF-8");
+
+
+  /** Everything the footer says about a column, and its blocks. */
+  static class Column {
+    long valuesOffset;
+    long nullsOffset = NONE;
+    long dictionaryOffset = NONE;
+    long dictionaryLength;
+    int nullCount;
+    long min, max;  // doubles are stored as their bits
+
+    ByteBuffer values;
+    long[] nulls;
+    ByteBuffer dictionary;
+    String[] strings;  // the dictionary once it has been decoded
+  }
+
+
+  /**
+   * Open a table file. The blocks of each column are memory mapped, which
+   * takes very little time whatever the size of the file.
+   */
+  public TableFile(File file) throws IOException {
+    RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      open(file, raf.getChannel(), true);
+    } finally {
+      // the mapped blocks are still good after the file is closed
+      raf.close();
+    }
+  }
+
+
+  private TableFile() { }
+
+
+  /**
+   * Read the footer, and the blocks of each column either mapped, or read
+   * into the heap except for the values, which load() reads itself.
+   */
+  private void open(File file, FileChannel channel, boolean mapped) throws IOException {
+    long size = channel.size();
+    if (size < 16) {
+      throw new IOException(file + " is not a table file.");
+    }
+    ByteBuffer tail = block(channel, size - 12, 12, mapped);
+    long footerOffset = tail.getLong();
+    checkMagic(tail.getInt(), file.getName());
+    if (footerOffset < 8 || footerOffset > size - 12) {
+      throw new IOException(file + " is damaged, the footer is out of place.");
+    }
+    readFooter(block(channel, footerOffset, size - 12 - footerOffset, mapped));
+    for (int col = 0; col < columns.length; col++) {
+      Column column = columns[col];
+      if (mapped) {
+        column.values =
+          map(channel, column.valuesOffset, (long) rowCount * width(columnTypes[col]));
+      }
+      if (column.nullsOffset != NONE) {
+        column.nulls = new long[words()];
+        block(channel, column.nullsOffset, words() * 8L, mapped).asLongBuffer().get(column.nulls);
+      }
+      if (column.dictionaryOffset != NONE) {
+        column.dictionary =
+          block(channel, column.dictionaryOffset, column.dictionaryLength, mapped);
+      }
+    }
+  }
+
+
+  /**
+   * Load a table file into a Table with FileChannel.read() instead of
+   * mapping it, one column at a time, so that only the arrays of the
+   * Table (and a single column's worth of buffer) are left afterwards.
+   * This is what Table.loadBinary(File) uses.
+   */
+  static void load(File file, Table table) throws IOException {
+    RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      TableFile tableFile = new TableFile();
+      tableFile.open(file, raf.getChannel(), false);
+      tableFile.load(table, raf.getChannel());
+    } finally {
+      raf.close();
+    }
+  }
+
+
+  /** The same, for a file that has already been read into memory. */
+  TableFile(ByteBuffer buffer) throws IOException {
+    buffer.order(ByteOrder.LITTLE_ENDIAN);
+    int size = buffer.limit();
+    if (size < 16) {
+      throw new IOException("Not a table file.");
+    }
+    long footerOffset = buffer.getLong(size - 12);
+    checkMagic(buffer.getInt(size - 4), "This file");
+    if (footerOffset < 8 || footerOffset > size - 12) {
+      throw new IOException("This table file is damaged, the footer is out of place.");
+    }
+    readFooter(slice(buffer, footerOffset, size - 12 - footerOffset));
+    for (int col = 0; col < columns.length; col++) {
+      Column column = columns[col];
+      column.values =
+        slice(buffer, column.valuesOffset, (long) rowCount * width(columnTypes[col]));
+      if (column.nullsOffset != NONE) {
+        column.nulls = new long[words()];
+        slice(buffer, column.nullsOffset, words() * 8L).asLongBuffer().get(column.nulls);
+      }
+      if (column.dictionaryOffset != NONE) {
+        column.dictionary = slice(buffer, column.dictionaryOffset, column.dictionaryLength);
+      }
+    }
+  }
+
+
+  static private ByteBuffer block(FileChannel channel, long offset, long length,
+                                  boolean mapped) throws IOException {
+    return mapped ? map(channel, offset, length) : read(channel, offset, length);
+  }
+
+
+  static private ByteBuffer read(FileChannel channel, long offset, long length) throws IOException {
+    if (length > Integer.MAX_VALUE) {
+      throw new IOException("A column of more than 2 GB can't be read.");
+    }
+    if (offset < 0 || offset + length > channel.size()) {
+      throw new IOException("This table file is damaged, a block is out of place.");
+    }
+    ByteBuffer outgoing = ByteBuffer.allocate((int) length);
+    while (outgoing.hasRemaining()) {
+      if (channel.read(outgoing, offset + outgoing.position()) == -1) {
+        throw new IOException("This table file ends too soon.");
+      }
+    }
+    outgoing.flip();
+    return outgoing.order(ByteOrder.LITTLE_ENDIAN);
+  }
+
+
+  static private ByteBuffer map(FileChannel channel, long offset, long length) throws IOException {
+    if (length > Integer.MAX_VALUE) {
+      throw new IOException("A column of more than 2 GB can't be mapped.");
+    }
+    ByteBuffer outgoing = channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+    return outgoing.order(ByteOrder.LITTLE_ENDIAN);
+  }
+
+
+  static private ByteBuffer slice(ByteBuffer buffer, long offset, long length) throws IOException {
+    if (offset < 0 || offset + length > buffer.limit()) {
+      throw new IOException("This table file is damaged, a block is out of place.");
+    }
+    ByteBuffer outgoing = buffer.duplicate();
+    outgoing.position((int) offset);
+    outgoing.limit((int) (offset + length));
+    return outgoing.slice().order(ByteOrder.LITTLE_ENDIAN);
+  }
+
+
+  static private void checkMagic(int bits, String name) throws IOException {
+    int magic = Integer.reverseBytes(bits);  // written big-endian
+    if (magic != MAGIC) {
+      throw new IOException(name + " is not a table file (magic was " + Integer.toHexString(magic) + ")");
+    }
+  }
+
+
+  /** Whether a file starts like a table file (a cheap test before mapping it). */
+  static boolean isTableFile(File file) {
+    try {
+      RandomAccessFile raf = new RandomAccessFile(file, "r");
+      try {
+        return raf.length() >= 16 && raf.readInt() == MAGIC;
+      } finally {
+        raf.close();
+      }
+    } catch (IOException e) {
+      return false;
+    }
+  }
+
+
+  private void readFooter(ByteBuffer footer) {
+    rowCount = footer.getInt();
+    int columnCount = footer.getInt();
+    missingString = readString(footer);
+    missingInt = footer.getInt();
+    missingLong = footer.getLong();
+    missingFloat = footer.getFloat();
+    missingDouble = footer.getDouble();
+    missingCategory = footer.getInt();
+
+    columnTypes = new int[columnCount];
+    columnTitles = new String[columnCount];
+    columns = new Column[columnCount];
+    boolean titled = false;
+    for (int col = 0; col < columnCount; col++) {
+      columnTypes[col] = footer.getInt();
+      columnTitles[col] = readString(footer);
+      titled |= (columnTitles[col] != null);
+      Column column = new Column();
+      column.valuesOffset = footer.getLong();
+      column.nullsOffset = footer.getLong();
+      column.dictionaryOffset = footer.getLong();
+      column.dictionaryLength = footer.getLong();
+      column.nullCount = footer.getInt();
+      column.min = footer.getLong();
+      column.max = footer.getLong();
+      columns[col] = column;
+    }
+    if (!titled) {
+      columnTitles = null;
+    }
+  }
+
+
+  static private String readString(ByteBuffer buffer) {
+    int length = buffer.getInt();
+    if (length == NONE) {
+      return null;
+    }
+    byte[] bytes = new byte[length];
+    buffer.get(bytes);
+    return new String(bytes, utf8);
+  }
+
+
+  static private int width(int type) {
+    return (type == Table.LONG || type == Table.DOUBLE) ? 8 : 4;
+  }
+
+
+  private int words() {
+    return (rowCount + 63) >>> 6;
+  }
+
+
+  // . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . .
+
+
+  public int getRowCount() {
+    return rowCount;
+  }
+
+
+  public int getColumnCount() {
+    return columns.length;
+  }
+
+
+  public String getColumnTitle(int column) {
+    checkColumn(column);
+    return (columnTitles == null) ? null : columnTitles[column];
+  }
+
+
+  public String[] getColumnTitles() {
+    return columnTitles;
+  }
+
+
+  public int getColumnIndex(String columnName) {
+    if (columnTitles == null) {
+      throw new IllegalArgumentException("This table has no header, so no column titles are set.");
+    }
+    for (int col = 0; col < columnTitles.length; col++) {
+      if (columnName.equals(columnTitles[col])) {
+        return col;
+      }
+    }
+    throw new IllegalArgumentException("This table has no column named '" + columnName + "'");
+  }
+
+
+  public int getColumnType(int column) {
+    checkColumn(column);
+    return columnTypes[column];
+  }
+
+
+  public int getColumnType(String columnName) {
+    return getColumnType(getColumnIndex(columnName));
+  }
+
+
+  public int[] getColumnTypes() {
+    return columnTypes;
+  }
+
+
+  protected void checkColumn(int column) {
+    if (column < 0 || column >= columns.length) {
+      throw new ArrayIndexOutOfBoundsException("Column " + column + " does not exist.");
+    }
+  }
+
+
+  protected void checkBounds(int row, int column) {
+    checkColumn(column);
+    if (row < 0 || row >= rowCount) {
+      throw new ArrayIndexOutOfBoundsException("Row " + row + " does not exist.");
+    }
+  }
+
+
+  // . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . .
+
+
+  /** Same as Table.isNull(), taken from the file. */
+  public boolean isNull(int row, int column) {
+    checkBounds(row, column);
+    Column c = columns[column];
+    if (c.nulls != null && TableNulls.get(c.nulls, row)) {
+      return true;
+    }
+    switch (columnTypes[column]) {
+    case Table.STRING:
+      return c.values.getInt(row << 2) == NONE;
+    case Table.FLOAT:
+      return Float.isNaN(c.values.getFloat(row << 2));
+    case Table.DOUBLE:
+      return Double.isNaN(c.values.getDouble(row << 3));
+    case Table.CATEGORY:
+      return c.values.getInt(row << 2) == missingCategory;
+    }
+    return false;
+  }
+
+
+  public boolean isNull(int row, String columnName) {
+    return isNull(row, getColumnIndex(columnName));
+  }
+
+
+  /** Value from an int column, or the index of a category. */
+  public int getInt(int row, int column) {
+    checkBounds(row, column);
+    requireType(column, Table.INT, Table.CATEGORY, "an int");
+    return columns[column].values.getInt(row << 2);
+  }
+
+
+  public int getInt(int row, String columnName) {
+    return getInt(row, getColumnIndex(columnName));
+  }
+
+
+  /** Value from a long or int column. */
+  public long getLong(int row, int column) {
+    checkBounds(row, column);
+    requireType(column, Table.LONG, Table.INT, "a long");
+    ByteBuffer values = columns[column].values;
+    return (columnTypes[column] == Table.LONG) ?
+      values.getLong(row << 3) : values.getInt(row << 2);
+  }
+
+
+  public long getLong(int row, String columnName) {
+    return getLong(row, getColumnIndex(columnName));
+  }
+
+
+  /** Value from any numeric column. */
+  public float getFloat(int row, int column) {
+    return (float) getDouble(row, column);
+  }
+
+
+  public float getFloat(int row, String columnName) {
+    return getFloat(row, getColumnIndex(columnName));
+  }
+
+
+  /** Value from any numeric column. */
+  public double getDouble(int row, int column) {
+    checkBounds(row, column);
+    ByteBuffer values = columns[column].values;
+    switch (columnTypes[column]) {
+    case Table.INT:
+      return values.getInt(row << 2);
+    case Table.LONG:
+      return values.getLong(row << 3);
+    case Table.FLOAT:
+      return values.getFloat(row << 2);
+    case Table.DOUBLE:
+      return values.getDouble(row << 3);
+    }
+    throw new IllegalArgumentException("Column " + column + " is not a numeric column.");
+  }
+
+
+  public double getDouble(int row, String columnName) {
+    return getDouble(row, getColumnIndex(columnName));
+  }
+
+
+  /** The value as a String, the same as Table.getString() would give. */
+  public String getString(int row, int column) {
+    checkBounds(row, column);
+    int type = columnTypes[column];
+    if (type == Table.STRING) {
+      int index = columns[column].values.getInt(row << 2);
+      return (index == NONE) ? null : getDictionary(column)[index];
+    }
+    if (isNull(row, column)) {
+      return missingString;
+    }
+    ByteBuffer values = columns[column].values;
+    switch (type) {
+    case Table.INT:
+      return String.valueOf(values.getInt(row << 2));
+    case Table.LONG:
+      return String.valueOf(values.getLong(row << 3));
+    case Table.FLOAT:
+      return String.valueOf(values.getFloat(row << 2));
+    case Table.DOUBLE:
+      return String.valueOf(values.getDouble(row << 3));
+    default:  // CATEGORY
+      return getDictionary(column)[values.getInt(row << 2)];
+    }
+  }
+
+
+  public String getString(int row, String columnName) {
+    return getString(row, getColumnIndex(columnName));
+  }
+
+
+  private void requireType(int column, int type, int alternate, String name) {
+    if (columnTypes[column] != type && columnTypes[column] != alternate) {
+      throw new IllegalArgumentException("Column " + column + " is not " + name + " column.");
+    }
+  }
+
+
+  // . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . .
+
+
+  /**
+   * The values of an int column (or the indices of a category column),
+   * read straight from the file. The buffer is read-only.
+   */
+  public IntBuffer getIntBuffer(int column) {
+    checkColumn(column);
+    requireType(column, Table.INT, Table.CATEGORY, "an int");
+    return columns[column].values.asReadOnlyBuffer().order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+  }
+
+
+  public IntBuffer getIntBuffer(String columnName) {
+    return getIntBuffer(getColumnIndex(columnName));
+  }
+
+
+  public LongBuffer getLongBuffer(int column) {
+    checkColumn(column);
+    requireType(column, Table.LONG, Table.LONG, "a long");
+    return columns[column].values.asReadOnlyBuffer().order(ByteOrder.LITTLE_ENDIAN).asLongBuffer();
+  }
+
+
+  public LongBuffer getLongBuffer(String columnName) {
+    return getLongBuffer(getColumnIndex(columnName));
+  }
+
+
+  public FloatBuffer getFloatBuffer(int column) {
+    checkColumn(column);
+    requireType(column, Table.FLOAT, Table.FLOAT, "a float");
+    return columns[column].values.asReadOnlyBuffer().order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+  }
+
+
+  public FloatBuffer getFloatBuffer(String columnName) {
+    return getFloatBuffer(getColumnIndex(columnName));
+  }
+
+
+  public DoubleBuffer getDoubleBuffer(int column) {
+    checkColumn(column);
+    requireType(column, Table.DOUBLE, Table.DOUBLE, "a double");
+    return columns[column].values.asReadOnlyBuffer().order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+  }
+
+
+  public DoubleBuffer getDoubleBuffer(String columnName) {
+    return getDoubleBuffer(getColumnIndex(columnName));
+  }
+
+
+  /**
+   * The distinct values of a String column, or the categories of a
+   * category column, in the order of the indices used for each row.
+   */
+  public String[] getDictionary(int column) {
+    checkColumn(column);
+    Column c = columns[column];
+    if (c.dictionary == null) {
+      throw new IllegalArgumentException("Column " + column + " is not a String or category column.");
+    }
+    if (c.strings == null) {
+      ByteBuffer dictionary = c.dictionary;
+      int count = dictionary.getInt(0);
+      int start = 4 + (count + 1) * 4;  // where the text begins
+      byte[] bytes = new byte[dictionary.limit() - start];
+      ByteBuffer text = dictionary.duplicate();
+      text.position(start);
+      text.get(bytes);
+      String[] strings = new String[count];
+      for (int i = 0; i < count; i++) {
+        int offset = dictionary.getInt(4 + i * 4);
+        int stop = dictionary.getInt(4 + (i + 1) * 4);
+        strings[i] = new String(bytes, offset, stop - offset, utf8);
+      }
+      c.strings = strings;
+    }
+    return c.strings;
+  }
+
+
+  public String[] getDictionary(String columnName) {
+    return getDictionary(getColumnIndex(columnName));
+  }
+
+
+  // . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . .
+
+
+  /** Number of missing values in a column, from the footer. */
+  public int getNullCount(int column) {
+    checkColumn(column);
+    return columns[column].nullCount;
+  }
+
+
+  public int getNullCount(String columnName) {
+    return getNullCount(getColumnIndex(columnName));
+  }
+
+
+  /**
+   * Smallest value in a numeric column, from the footer. NaN if the column
+   * has no values that aren't missing.
+   */
+  public double getMin(int column) {
+    return stat(column, columns[column].min);
+  }
+
+
+  public double getMin(String columnName) {
+    return getMin(getColumnIndex(columnName));
+  }
+
+
+  /** Largest value in a numeric column, from the footer. */
+  public double getMax(int column) {
+    return stat(column, columns[column].max);
+  }
+
+
+  public double getMax(String columnName) {
+    return getMax(getColumnIndex(columnName));
+  }
+
+
+  private double stat(int column, long value) {
+    checkColumn(column);
+    int type = columnTypes[column];
+    if (type == Table.STRING || type == Table.CATEGORY) {
+      throw new IllegalArgumentException("Column " + column + " is not a numeric column.");
+    }
+    if (columns[column].nullCount == rowCount) {
+      return Double.NaN;
+    }
+    return (type == Table.FLOAT || type == Table.DOUBLE) ?
+      Double.longBitsToDouble(value) : value;
+  }
+
+
+  // . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . .
+
+
+  /** Copy the whole file into a new Table. */
+  public Table getTable() {
+    Table outgoing = new Table();
+    load(outgoing);
+    return outgoing;
+  }
+
+
+  /**
+   * Replace the contents of a table with the contents of this file. The
+   * numeric columns are bulk copies from the file, and each distinct String
+   * is decoded once and shared by the rows that have it.
+   */
+  void load(Table table) {
+    try {
+      load(table, null);
+    } catch (IOException e) {
+      throw new RuntimeException(e);  // not reached, the values are all here
+    }
+  }
+
+
+  /**
+   * @param channel where to read the values of each column from, when
+   *                they haven't been mapped (see load(File, Table))
+   */
+  private void load(Table table, FileChannel channel) throws IOException {
+    int columnCount = columns.length;
+    table.missingString = missingString;
+    table.missingInt = missingInt;
+    table.missingLong = missingLong;
+    table.missingFloat = missingFloat;
+    table.missingDouble = missingDouble;
+    table.missingCategory = missingCategory;
+
+    table.rowCount = rowCount;
+    table.allocCount = rowCount;
+    table.columnTypes = columnTypes.clone();
+    table.columnTitles = (columnTitles == null) ? null : columnTitles.clone();
+    table.columnIndices = null;
+    table.columnIndexes = null;
+    table.rangeIndexes = null;
+    table.columnNulls = null;
+    table.columns = new Object[columnCount];
+    table.columnCategories = new Table.HashMapBlows[columnCount];
+
+    for (int col = 0; col < columnCount; col++) {
+      Column column = columns[col];
+      ByteBuffer values = (column.values != null) ?
+        column.values.duplicate().order(ByteOrder.LITTLE_ENDIAN) :
+        read(channel, column.valuesOffset, (long) rowCount * width(columnTypes[col]));
+      table.columnCategories[col] = new Table.HashMapBlows();
+      switch (columnTypes[col]) {
+      case Table.INT:
+        int[] intData = new int[rowCount];
+        values.asIntBuffer().get(intData);
+        table.columns[col] = intData;
+        break;
+      case Table.LONG:
+        long[] longData = new long[rowCount];
+        values.asLongBuffer().get(longData);
+        table.columns[col] = longData;
+        break;
+      case Table.FLOAT:
+        float[] floatData = new float[rowCount];
+        values.asFloatBuffer().get(floatData);
+        table.columns[col] = floatData;
+        break;
+      case Table.DOUBLE:
+        double[] doubleData = new double[rowCount];
+        values.asDoubleBuffer().get(doubleData);
+        table.columns[col] = doubleData;
+        break;
+      case Table.CATEGORY:
+        int[] indexData = new int[rowCount];
+        values.asIntBuffer().get(indexData);
+        table.columns[col] = indexData;
+        for (String category : getDictionary(col)) {
+          table.columnCategories[col].index(category);
+        }
+        break;
+      default:
+        String[] dictionary = getDictionary(col);
+        IntBuffer indices = values.asIntBuffer();
+        String[] stringData = new String[rowCount];
+        for (int row = 0; row < rowCount; row++) {
+          int index = indices.get(row);
+          stringData[row] = (index == NONE) ? null : dictionary[index];
+        }
+        table.columns[col] = stringData;
+      }
+      if (column.nulls != null) {
+        if (table.columnNulls == null) {
+          table.columnNulls = new long[columnCount][];
+        }
+        table.columnNulls[col] = column.nulls.clone();
+      }
+    }
+  }
+
+
+  // . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . .
+
+
+  /** Write a table in this format, see Table.saveBinary(). */
+  static void write(Table table, OutputStream os) throws IOException {
+    Output output = new Output(os);
+    output.putInt(Integer.reverseBytes(MAGIC));  // big-endian
+    output.align();
+
+    int rowCount = table.getRowCount();
+    int columnCount = table.getColumnCount();
+    Column[] info = new Column[columnCount];
+    for (int col = 0; col < columnCount; col++) {
+      Column column = new Column();
+      Object data = table.columns[col];
+      String[] dictionary = null;
+      output.align();
+      column.valuesOffset = output.position;
+
+      switch (table.columnTypes[col]) {
+      case Table.INT:
+        output.putInts((int[]) data, rowCount);
+        break;
+      case Table.LONG:
+        output.putLongs((long[]) data, rowCount);
+        break;
+      case Table.FLOAT:
+        output.putFloats((float[]) data, rowCount);
+        break;
+      case Table.DOUBLE:
+        output.putDoubles((double[]) data, rowCount);
+        break;
+      case Table.CATEGORY:
+        ArrayList<String> categories = table.columnCategories[col].indexToData;
+        int[] indexData = (int[]) data;
+        if (!categories.contains(null) &&
+            table.columnCategories[col].dataToIndex.size() == categories.size()) {
+          dictionary = categories.toArray(new String[0]);
+          output.putInts(indexData, rowCount);
+        } else {
+          // a category list with holes (or repeats) in it, renumber
+          // the categories so that the dictionary has neither
+          HashMap<String, Integer> ids = new HashMap<>();
+          ArrayList<String> used = new ArrayList<>();
+          int[] indices = new int[rowCount];
+          for (int row = 0; row < rowCount; row++) {
+            int index = indexData[row];
+            String value = (index < 0 || index >= categories.size()) ? null : categories.get(index);
+            if (value == null) {
+              indices[row] = index;  // missingCategory, presumably
+            } else {
+              Integer id = ids.get(value);
+              if (id == null) {
+                id = used.size();
+                ids.put(value, id);
+                used.add(value);
+              }
+              indices[row] = id;
+            }
+          }
+          dictionary = used.toArray(new String[0]);
+          output.putInts(indices, rowCount);
+        }
+        break;
+      default:
+        String[] stringData = (String[]) data;
+        HashMap<String, Integer> ids = new HashMap<>();
+        ArrayList<String> distinct = new ArrayList<>();
+        int[] indices = new int[rowCount];
+        for (int row = 0; row < rowCount; row++) {
+          String value = stringData[row];
+          if (value == null) {
+            indices[row] = NONE;
+          } else {
+            Integer id = ids.get(value);
+            if (id == null) {
+              id = distinct.size();
+              ids.put(value, id);
+              distinct.add(value);
+            }
+            indices[row] = id;
+          }
+        }
+        dictionary = distinct.toArray(new String[0]);
+        output.putInts(indices, rowCount);
+      }
+
+      long[] bits = table.nullBits(col);
+      if (bits != null && TableNulls.count(bits, rowCount) != 0) {
+        output.align();
+        column.nullsOffset = output.position;
+        int words = (rowCount + 63) >>> 6;
+        long[] trimmed = new long[words];
+        System.arraycopy(bits, 0, trimmed, 0, Math.min(words, bits.length));
+        if ((rowCount & 63) != 0) {
+          trimmed[words - 1] &= (1L << rowCount) - 1;
+        }
+        output.putLongs(trimmed, words);
+      }
+
+      if (dictionary != null) {
+        output.align();
+        column.dictionaryOffset = output.position;
+        writeDictionary(output, dictionary);
+        column.dictionaryLength = output.position - column.dictionaryOffset;
+      }
+
+      if (table.columnTypes[col] != Table.STRING &&
+          table.columnTypes[col] != Table.CATEGORY) {
+        findRange(table, col, column);
+      } else {
+        column.nullCount = table.getNullCount(col);
+      }
+      info[col] = column;
+    }
+
+    long footerOffset = output.position;
+    output.putInt(rowCount);
+    output.putInt(columnCount);
+    output.putString(table.missingString);
+    output.putInt(table.missingInt);
+    output.putLong(table.missingLong);
+    output.putInt(Float.floatToRawIntBits(table.missingFloat));
+    output.putLong(Double.doubleToRawLongBits(table.missingDouble));
+    output.putInt(table.missingCategory);
+    for (int col = 0; col < columnCount; col++) {
+      Column column = info[col];
+      output.putInt(table.columnTypes[col]);
+      output.putString(table.getColumnTitle(col));
+      output.putLong(column.valuesOffset);
+      output.putLong(column.nullsOffset);
+      output.putLong(column.dictionaryOffset);
+      output.putLong(column.dictionaryLength);
+      output.putInt(column.nullCount);
+      output.putLong(column.min);
+      output.putLong(column.max);
+    }
+    output.putLong(footerOffset);
+    output.putInt(Integer.reverseBytes(MAGIC));
+    output.flush();
+    os.flush();
+  }
+
+
+  static private void writeDictionary(Output output, String[] dictionary) throws IOException {
+    byte[][] encoded = new byte[dictionary.length][];
+    long length = 0;
+    for (int i = 0; i < dictionary.length; i++) {
+      encoded[i] = dictionary[i].getBytes(utf8);
+      length += encoded[i].length;
+    }
+    if (length > Integer.MAX_VALUE - 8L * (dictionary.length + 1)) {
+      throw new IOException("The distinct values of a column take more than 2 GB.");
+    }
+    output.putInt(dictionary.length);
+    int offset = 0;
+    output.putInt(offset);
+    for (byte[] bytes : encoded) {
+      offset += bytes.length;
+      output.putInt(offset);
+    }
+    for (byte[] bytes : encoded) {
+      output.putBytes(bytes);
+    }
+  }
+
+
+  /** Fill in the null count, smallest and largest value of a numeric column. */
+  static private void findRange(Table table, int col, Column column) {
+    Object data = table.columns[col];
+    long[] bits = table.nullBits(col);
+    int rowCount = table.getRowCount();
+    int nullCount = 0;
+    if (data instanceof int[] || data instanceof long[]) {
+      long min = 0, max = 0;
+      boolean found = false;
+      for (int row = 0; row < rowCount; row++) {
+        if (bits != null && TableNulls.get(bits, row)) {
+          nullCount++;
+        } else {
+          long v = (data instanceof int[]) ? ((int[]) data)[row] : ((long[]) data)[row];
+          if (!found || v < min) min = v;
+          if (!found || v > max) max = v;
+          found = true;
+        }
+      }
+      column.min = min;
+      column.max = max;
+
+    } else {
+      double min = 0, max = 0;
+      boolean found = false;
+      for (int row = 0; row < rowCount; row++) {
+        double v = (data instanceof float[]) ? ((float[]) data)[row] : ((double[]) data)[row];
+        if (v != v || (bits != null && TableNulls.get(bits, row))) {
+          nullCount++;
+        } else {
+          if (!found || v < min) min = v;
+          if (!found || v > max) max = v;
+          found = true;
+        }
+      }
+      column.min = Double.doubleToLongBits(min);
+      column.max = Double.doubleToLongBits(max);
+    }
+    column.nullCount = nullCount;
+  }
+
+
+  /**
+   * Little-endian output through a buffer, keeping track of the position
+   * so that blocks can be aligned and their offsets put in the footer.
+   */
+  static private class Output {
+    OutputStream os;
+    ByteBuffer buffer = ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+    long position;  // bytes written so far, including the ones in the buffer
+
+    Output(OutputStream os) {
+      this.os = os;
+    }
+
+    void room(int count) throws IOException {
+      if (buffer.remaining() < count) {
+        flush();
+      }
+    }
+
+    void flush() throws IOException {
+      os.write(buffer.array(), 0, buffer.position());
+      buffer.clear();
+    }
+
+    void align() throws IOException {
+      while ((position & 7) != 0) {
+        room(1);
+        buffer.put((byte) 0);
+        position++;
+      }
+    }
+
+    void putInt(int value) throws IOException {
+      room(4);
+      buffer.putInt(value);
+      position += 4;
+    }
+
+    void putLong(long value) throws IOException {
+      room(8);
+      buffer.putLong(value);
+      position += 8;
+    }
+
+    void putString(String value) throws IOException {
+      if (value == null) {
+        putInt(NONE);
+      } else {
+        byte[] bytes = value.getBytes(utf8);
+        putInt(bytes.length);
+        putBytes(bytes);
+      }
+    }
+
+    void putBytes(byte[] bytes) throws IOException {
+      if (bytes.length > buffer.remaining()) {
+        flush();
+        if (bytes.length > buffer.capacity()) {
+          os.write(bytes);
+          position += bytes.length;
+          return;
+        }
+      }
+      buffer.put(bytes);
+      position += bytes.length;
+    }
+
+    // The bulk puts fill the buffer through a view of the right type,
+    // a buffer-full at a time.
+
+    void putInts(int[] data, int count) throws IOException {
+      for (int i = 0; i < count; ) {
+        room(4);
+        int n = Math.min(count - i, buffer.remaining() >> 2);
+        buffer.asIntBuffer().put(data, i, n);
+        advance(n << 2);
+        i += n;
+      }
+    }
+
+    void putLongs(long[] data, int count) throws IOException {
+      for (int i = 0; i < count; ) {
+        room(8);
+        int n = Math.min(count - i, buffer.remaining() >> 3);
+        buffer.asLongBuffer().put(data, i, n);
+        advance(n << 3);
+        i += n;
+      }
+    }
+
+    void putFloats(float[] data, int count) throws IOException {
+      for (int i = 0; i < count; ) {
+        room(4);
+        int n = Math.min(count - i, buffer.remaining() >> 2);
+        buffer.asFloatBuffer().put(data, i, n);
+        advance(n << 2);
+        i += n;
+      }
+    }
+
+    void putDoubles(double[] data, int count) throws IOException {
+      for (int i = 0; i < count; ) {
+        room(8);
+        int n = Math.min(count - i, buffer.remaining() >> 3);
+        buffer.asDoubleBuffer().put(data, i, n);
+        advance(n << 3);
+        i += n;
+      }
+    }
+
+    private void advance(int bytes) {
+      buffer.position(buffer.position() + bytes);
+      position += bytes;
+    }
+  }
+}
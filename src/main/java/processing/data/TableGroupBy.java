@@ -0,0 +1,648 @@
+package processing.data;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+
+/**
+ * Groups the rows of a Table by the values in one or more columns, then
+ * builds a new Table with a row for each group and a column for each of
+ * the totals that were asked for. Returned by Table.groupBy():
+ * <pre>
+ * Table totals = table.groupBy("region", "month").sum("sales").mean("price").count().getTable();
+ * </pre>
+ * The result has the grouping columns first (with the same types as in the
+ * original), then one column per total, titled "sum(sales)", "mean(price)",
+ * "count", and so on. Groups come out in the order that they first appear.
+ * <p/>
+ * Grouping works on the values as they're stored, so int, long, float,
+ * and double keys are hashed directly and category columns are grouped by
+ * their index. Missing values (NaN, or cells marked with Table.setNull())
+ * are left out of sums, means, minimums and maximums, and rows with a
+ * missing key are grouped together. Large tables are totaled in parallel, one
+ * block of rows per thread. TableView.groupBy() works the same way, reading
+ * only the rows and columns of the view.
+ */
+public class TableGroupBy {
+  static final int COUNT = 0;
+  static final int SUM = 1;
+  static final int MEAN = 2;
+  static final int MIN = 3;
+  static final int MAX = 4;
+  static final String[] opNames = { "count", "sum", "mean", "min", "max" };
+
+  protected Table table;
+  protected int[] rows;  // rows of the table to group, or null for all of them
+  protected int[] columns;  // table column for each column of a view, or null
+  protected int[] keyColumns;  // columns of the table
+
+  // the totals that were asked for, and the column for each
+  protected IntList ops = new IntList();
+  protected IntList opColumns = new IntList();
+
+
+  TableGroupBy(Table table, int[] keyColumns) {
+    this(table, null, null, keyColumns);
+  }
+
+
+  TableGroupBy(Table table, int[] rows, int[] columns, int[] keyColumns) {
+    this.table = table;
+    this.rows = rows;
+    this.columns = columns;
+    this.keyColumns = keyColumns;
+  }
+
+
+  /** Add a column with the number of rows in each group. */
+  public TableGroupBy count() {
+    ops.append(COUNT);
+    opColumns.append(-1);
+    return this;
+  }
+
+
+  /**
+   * Add a column with the total of a numeric column for each group. Totals
+   * of int and long columns are a long, float and double totals a double.
+   */
+  public TableGroupBy sum(int column) {
+    return add(SUM, tableColumn(column));
+  }
+
+
+  public TableGroupBy sum(String columnName) {
+    return add(SUM, tableColumn(columnName));
+  }
+
+
+  /** Add a column (of doubles) with the average for each group. */
+  public TableGroupBy mean(int column) {
+    return add(MEAN, tableColumn(column));
+  }
+
+
+  public TableGroupBy mean(String columnName) {
+    return add(MEAN, tableColumn(columnName));
+  }
+
+
+  /** Add a column with the smallest value in each group. */
+  public TableGroupBy min(int column) {
+    return add(MIN, tableColumn(column));
+  }
+
+
+  public TableGroupBy min(String columnName) {
+    return add(MIN, tableColumn(columnName));
+  }
+
+
+  /** Add a column with the largest value in each group. */
+  public TableGroupBy max(int column) {
+    return add(MAX, tableColumn(column));
+  }
+
+
+  public TableGroupBy max(String columnName) {
+    return add(MAX, tableColumn(columnName));
+  }
+
+
+  /** The column of the table for a column of the table or view. */
+  private int tableColumn(int column) {
+    if (columns == null) {
+      table.checkColumn(column);
+      return column;
+    }
+    if (column < 0 || column >= columns.length) {
+      throw new ArrayIndexOutOfBoundsException("Column " + column + " does not exist.");
+    }
+    return columns[column];
+  }
+
+
+  private int tableColumn(String columnName) {
+    int column = table.getColumnIndex(columnName);
+    if (columns != null) {
+      for (int col : columns) {
+        if (col == column) {
+          return column;
+        }
+      }
+      throw new IllegalArgumentException("This view has no column named '" + columnName + "'");
+    }
+    return column;
+  }
+
+
+  private TableGroupBy add(int op, int column) {
+    int type = table.getColumnType(column);
+    if (type != Table.INT && type != Table.LONG &&
+        type != Table.FLOAT && type != Table.DOUBLE) {
+      throw new IllegalArgumentException("Column " + column + " is not a numeric column.");
+    }
+    ops.append(op);
+    opColumns.append(column);
+    return this;
+  }
+
+
+  // . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . .
+
+
+  /**
+   * Do the grouping and return the results as a new Table. This reads the
+   * table as it is now, so it can be called again after the data changes.
+   */
+  public Table getTable() {
+    int count = (rows == null) ? table.getRowCount() : rows.length;
+    int[] groupOf = new int[count];
+    int[] firstRows = group(groupOf, count);
+    int groupCount = firstRows.length;
+
+    Table outgoing = new Table();
+    for (int col : keyColumns) {
+      outgoing.addColumn(table.getColumnTitle(col), table.getColumnType(col));
+    }
+    for (int a = 0; a < ops.size(); a++) {
+      int col = opColumns.get(a);
+      String title = opNames[ops.get(a)];
+      if (col != -1) {
+        String name = table.getColumnTitle(col);
+        title += "(" + (name == null ? String.valueOf(col) : name) + ")";
+      }
+      outgoing.addColumn(title, resultType(ops.get(a), col));
+    }
+    outgoing.setRowCount(groupCount);
+
+    for (int k = 0; k < keyColumns.length; k++) {
+      copyKeys(keyColumns[k], firstRows, outgoing, k);
+    }
+
+    Totals totals = total(groupOf, groupCount, count);
+    for (int a = 0; a < ops.size(); a++) {
+      writeTotals(totals, a, groupCount, outgoing, keyColumns.length + a);
+    }
+    return outgoing;
+  }
+
+
+  private int resultType(int op, int column) {
+    if (op == COUNT) {
+      return Table.INT;
+    }
+    int type = table.getColumnType(column);
+    if (op == MEAN) {
+      return Table.DOUBLE;
+    } else if (op == SUM) {
+      return (type == Table.INT || type == Table.LONG) ? Table.LONG : Table.DOUBLE;
+    }
+    return type;  // min and max
+  }
+
+
+  // . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . .
+
+
+  /**
+   * Set the group number for each row, handed out in order of appearance.
+   * Returns the first row of each group.
+   */
+  private int[] group(int[] groupOf, int count) {
+    long[][] codes = new long[keyColumns.length][];
+    int extra = 0;
+    for (int k = 0; k < keyColumns.length; k++) {
+      codes[k] = keyCodes(keyColumns[k], count);
+      if (table.nullBits(keyColumns[k]) != null) {
+        extra++;
+      }
+    }
+    if (extra != 0) {
+      // an extra 0 or 1 for each key that has missing values, so that
+      // those rows make a group of their own whatever value is stored
+      codes = Arrays.copyOf(codes, keyColumns.length + extra);
+      int e = keyColumns.length;
+      for (int k = 0; k < keyColumns.length; k++) {
+        long[] nulls = table.nullBits(keyColumns[k]);
+        if (nulls != null) {
+          long[] flags = new long[count];
+          for (int i = 0; i < count; i++) {
+            if (TableNulls.get(nulls, tableRow(i))) {
+              codes[k][i] = 0;
+              flags[i] = 1;
+            }
+          }
+          codes[e++] = flags;
+        }
+      }
+    }
+
+    IntList firstRows = new IntList();
+    int[] slots = new int[16];
+    Arrays.fill(slots, -1);
+    int mask = slots.length - 1;
+
+    for (int row = 0; row < count; row++) {
+      int slot = hash(codes, row) & mask;
+      int group;
+      while (true) {
+        group = slots[slot];
+        if (group == -1) {
+          group = firstRows.size();
+          firstRows.append(row);
+          slots[slot] = group;
+          if (firstRows.size() * 2 > slots.length) {
+            slots = rehash(codes, firstRows, slots.length << 1);
+            mask = slots.length - 1;
+          }
+          break;
+        }
+        if (sameKey(codes, firstRows.get(group), row)) {
+          break;
+        }
+        slot = (slot + 1) & mask;
+      }
+      groupOf[row] = group;
+    }
+    return firstRows.array();
+  }
+
+
+  /**
+   * The value of each row as a long: ints and longs as they are, the bits
+   * of floats and doubles (with -0.0 folded into 0.0, like TableSort and
+   * the joins), category indices, or an id for each String.
+   */
+  private long[] keyCodes(int column, int count) {
+    long[] codes = new long[count];
+    Object data = table.columns[column];
+    switch (table.getColumnType(column)) {
+    case Table.INT:
+    case Table.CATEGORY:
+      int[] intData = (int[]) data;
+      for (int i = 0; i < count; i++) {
+        codes[i] = intData[tableRow(i)];
+      }
+      break;
+    case Table.LONG:
+      long[] longData = (long[]) data;
+      for (int i = 0; i < count; i++) {
+        codes[i] = longData[tableRow(i)];
+      }
+      break;
+    case Table.FLOAT:
+      float[] floatData = (float[]) data;
+      for (int i = 0; i < count; i++) {
+        codes[i] = Float.floatToIntBits(floatData[tableRow(i)] + 0.0f);
+      }
+      break;
+    case Table.DOUBLE:
+      double[] doubleData = (double[]) data;
+      for (int i = 0; i < count; i++) {
+        codes[i] = Double.doubleToLongBits(doubleData[tableRow(i)] + 0.0);
+      }
+      break;
+    default:
+      String[] stringData = (String[]) data;
+      HashMap<String, Integer> ids = new HashMap<>();
+      for (int i = 0; i < count; i++) {
+        String value = stringData[tableRow(i)];
+        Integer id = ids.get(value);
+        if (id == null) {
+          id = ids.size();
+          ids.put(value, id);
+        }
+        codes[i] = id;
+      }
+    }
+    return codes;
+  }
+
+
+  /** Row of the table for the i-th row being grouped. */
+  private int tableRow(int i) {
+    return (rows == null) ? i : rows[i];
+  }
+
+
+  static private int hash(long[][] codes, int row) {
+    long h = 0;
+    for (long[] c : codes) {
+      h = (h + c[row]) * 0x9E3779B97F4A7C15L;
+    }
+    return (int) (h ^ (h >>> 32));
+  }
+
+
+  static private boolean sameKey(long[][] codes, int a, int b) {
+    for (long[] c : codes) {
+      if (c[a] != c[b]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+
+  static private int[] rehash(long[][] codes, IntList firstRows, int length) {
+    int[] slots = new int[length];
+    Arrays.fill(slots, -1);
+    int mask = length - 1;
+    for (int group = 0; group < firstRows.size(); group++) {
+      int slot = hash(codes, firstRows.get(group)) & mask;
+      while (slots[slot] != -1) {
+        slot = (slot + 1) & mask;
+      }
+      slots[slot] = group;
+    }
+    return slots;
+  }
+
+
+  /** Copy the key values for each group from its first row. */
+  private void copyKeys(int column, int[] firstRows, Table outgoing, int target) {
+    Object data = table.columns[column];
+    Object dest = outgoing.columns[target];
+    int groupCount = firstRows.length;
+    if (data instanceof int[]) {
+      for (int g = 0; g < groupCount; g++) {
+        ((int[]) dest)[g] = ((int[]) data)[tableRow(firstRows[g])];
+      }
+      if (table.getColumnType(column) == Table.CATEGORY) {
+        outgoing.columnCategories[target] =
+          new Table.HashMapBlows(table.columnCategories[column]);
+      }
+    } else if (data instanceof long[]) {
+      for (int g = 0; g < groupCount; g++) {
+        ((long[]) dest)[g] = ((long[]) data)[tableRow(firstRows[g])];
+      }
+    } else if (data instanceof float[]) {
+      for (int g = 0; g < groupCount; g++) {
+        ((float[]) dest)[g] = ((float[]) data)[tableRow(firstRows[g])];
+      }
+    } else if (data instanceof double[]) {
+      for (int g = 0; g < groupCount; g++) {
+        ((double[]) dest)[g] = ((double[]) data)[tableRow(firstRows[g])];
+      }
+    } else {
+      for (int g = 0; g < groupCount; g++) {
+        ((String[]) dest)[g] = ((String[]) data)[tableRow(firstRows[g])];
+      }
+    }
+
+    long[] nulls = table.nullBits(column);
+    if (nulls != null) {
+      int[] sourceRows = new int[groupCount];
+      for (int g = 0; g < groupCount; g++) {
+        sourceRows[g] = tableRow(firstRows[g]);
+      }
+      long[] bits = TableNulls.gather(nulls, sourceRows, groupCount);
+      if (bits != null) {
+        if (outgoing.columnNulls == null) {
+          outgoing.columnNulls = new long[outgoing.getColumnCount()][];
+        }
+        outgoing.columnNulls[target] = bits;
+      }
+    }
+  }
+
+
+  // . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . .
+
+
+  /**
+   * Running totals for each group, for each of the requested columns.
+   * Whole numbers are kept in longs so that sums stay exact.
+   */
+  static private class Totals {
+    long[][] longs;  // [total][group]
+    double[][] doubles;
+    int[][] counts;  // number of values that weren't missing
+
+    Totals(int totalCount, int groupCount) {
+      longs = new long[totalCount][];
+      doubles = new double[totalCount][];
+      counts = new int[totalCount][groupCount];
+    }
+  }
+
+
+  private Totals total(final int[] groupOf, final int groupCount, int count) {
+    int parts = Math.min(ForkJoinPool.getCommonPoolParallelism(),
+                         count / TableSort.PARALLEL_COUNT);
+    if (parts < 2) {
+      return total(groupOf, groupCount, 0, count);
+    }
+
+    final Totals[] results = new Totals[parts];
+    RecursiveAction[] tasks = new RecursiveAction[parts];
+    for (int p = 0; p < parts; p++) {
+      final int index = p;
+      final int lo = (int) ((long) count * p / parts);
+      final int hi = (int) ((long) count * (p+1) / parts);
+      tasks[p] = new RecursiveAction() {
+        @Override
+        protected void compute() {
+          results[index] = total(groupOf, groupCount, lo, hi);
+        }
+      };
+    }
+    ForkJoinPool.commonPool().invoke(new RecursiveAction() {
+      @Override
+      protected void compute() {
+        invokeAll(tasks);
+      }
+    });
+    for (int p = 1; p < parts; p++) {
+      merge(results[0], results[p], groupCount);
+    }
+    return results[0];
+  }
+
+
+  /**
+   * Totals for the rows from lo up to (but not including) hi. The rows are
+   * taken 64 at a time, along with a mask of the ones that aren't missing,
+   * so a block of missing values is passed over in one step.
+   */
+  private Totals total(int[] groupOf, int groupCount, int lo, int hi) {
+    Totals totals = new Totals(ops.size(), groupCount);
+    for (int a = 0; a < ops.size(); a++) {
+      int op = ops.get(a);
+      int[] counts = totals.counts[a];
+      if (op == COUNT) {
+        for (int row = lo; row < hi; row++) {
+          counts[groupOf[row]]++;
+        }
+        continue;
+      }
+
+      Object data = table.columns[opColumns.get(a)];
+      long[] nulls = table.nullBits(opColumns.get(a));
+      if (data instanceof int[] || data instanceof long[]) {
+        long[] values = new long[groupCount];
+        totals.longs[a] = values;
+        for (int start = lo; start < hi; start = (start | 63) + 1) {
+          long valid = validBits(nulls, start, Math.min(hi, (start | 63) + 1));
+          while (valid != 0) {
+            int row = start + Long.numberOfTrailingZeros(valid);
+            valid &= valid - 1;
+            long v = (data instanceof int[]) ?
+              ((int[]) data)[tableRow(row)] : ((long[]) data)[tableRow(row)];
+            int g = groupOf[row];
+            accumulate(op, values, g, v, counts[g] == 0);
+            counts[g]++;
+          }
+        }
+
+      } else {
+        double[] values = new double[groupCount];
+        totals.doubles[a] = values;
+        for (int start = lo; start < hi; start = (start | 63) + 1) {
+          long valid = validBits(nulls, start, Math.min(hi, (start | 63) + 1));
+          while (valid != 0) {
+            int row = start + Long.numberOfTrailingZeros(valid);
+            valid &= valid - 1;
+            double v = (data instanceof float[]) ?
+              ((float[]) data)[tableRow(row)] : ((double[]) data)[tableRow(row)];
+            if (v == v) {  // skip NaN
+              int g = groupOf[row];
+              accumulate(op, values, g, v, counts[g] == 0);
+              counts[g]++;
+            }
+          }
+        }
+      }
+    }
+    return totals;
+  }
+
+
+  /**
+   * Mask of the rows from start up to (but not including) end that aren't
+   * missing, bit 0 for 'start'. The rows are all within one block of 64.
+   */
+  private long validBits(long[] nulls, int start, int end) {
+    int length = end - start;
+    long mask = (length == 64) ? -1L : (1L << length) - 1;
+    if (nulls == null) {
+      return mask;
+    }
+    if (rows == null) {
+      int word = start >>> 6;
+      long missing = (word < nulls.length) ? nulls[word] >>> (start & 63) : 0;
+      return ~missing & mask;
+    }
+    long valid = mask;
+    for (int i = 0; i < length; i++) {
+      if (TableNulls.get(nulls, rows[start + i])) {
+        valid &= ~(1L << i);
+      }
+    }
+    return valid;
+  }
+
+
+  static private void accumulate(int op, long[] values, int g, long v, boolean first) {
+    if (op == MIN) {
+      if (first || v < values[g]) values[g] = v;
+    } else if (op == MAX) {
+      if (first || v > values[g]) values[g] = v;
+    } else {
+      values[g] += v;
+    }
+  }
+
+
+  static private void accumulate(int op, double[] values, int g, double v, boolean first) {
+    if (op == MIN) {
+      if (first || v < values[g]) values[g] = v;
+    } else if (op == MAX) {
+      if (first || v > values[g]) values[g] = v;
+    } else {
+      values[g] += v;
+    }
+  }
+
+
+  /** Fold the totals from another block of rows into these. */
+  private void merge(Totals totals, Totals other, int groupCount) {
+    for (int a = 0; a < ops.size(); a++) {
+      int op = ops.get(a);
+      int[] counts = totals.counts[a];
+      int[] otherCounts = other.counts[a];
+      for (int g = 0; g < groupCount; g++) {
+        if (otherCounts[g] != 0) {
+          if (totals.longs[a] != null) {
+            accumulate(op, totals.longs[a], g, other.longs[a][g], counts[g] == 0);
+          } else if (totals.doubles[a] != null) {
+            accumulate(op, totals.doubles[a], g, other.doubles[a][g], counts[g] == 0);
+          }
+          counts[g] += otherCounts[g];
+        }
+      }
+    }
+  }
+
+
+  private void writeTotals(Totals totals, int a, int groupCount,
+                           Table outgoing, int target) {
+    int op = ops.get(a);
+    int[] counts = totals.counts[a];
+    Object dest = outgoing.columns[target];
+
+    if (op == COUNT) {
+      System.arraycopy(counts, 0, dest, 0, groupCount);
+
+    } else if (op == MEAN) {
+      double[] means = (double[]) dest;
+      for (int g = 0; g < groupCount; g++) {
+        if (counts[g] == 0) {
+          means[g] = Double.NaN;
+          outgoing.markNull(g, target, true);
+        } else if (totals.longs[a] != null) {
+          means[g] = (double) totals.longs[a][g] / counts[g];
+        } else {
+          means[g] = totals.doubles[a][g] / counts[g];
+        }
+      }
+
+    } else if (totals.longs[a] != null) {
+      long[] values = totals.longs[a];
+      for (int g = 0; g < groupCount; g++) {
+        // nothing to take the min or max of
+        if (op != SUM && counts[g] == 0) {
+          values[g] = (dest instanceof int[]) ? outgoing.missingInt : outgoing.missingLong;
+          outgoing.markNull(g, target, true);
+        }
+      }
+      if (dest instanceof int[]) {
+        for (int g = 0; g < groupCount; g++) {
+          ((int[]) dest)[g] = (int) values[g];
+        }
+      } else {
+        System.arraycopy(values, 0, dest, 0, groupCount);
+      }
+
+    } else {
+      double[] values = totals.doubles[a];
+      for (int g = 0; g < groupCount; g++) {
+        // nothing to take the min or max of
+        if (op != SUM && counts[g] == 0) {
+          values[g] = Double.NaN;
+          outgoing.markNull(g, target, true);
+        }
+      }
+      if (dest instanceof float[]) {
+        for (int g = 0; g < groupCount; g++) {
+          ((float[]) dest)[g] = (float) values[g];
+        }
+      } else {
+        System.arraycopy(values, 0, dest, 0, groupCount);
+      }
+    }
+  }
+}
@@ -0,0 +1,437 @@
+package processing.data;
+
+import java.util.Arrays;
+
+
+/**
+ * Hash index for a single column of a Table, see Table.createIndex().
+ * Keys are either Strings or numbers packed into a long (int values,
+ * category indices, and the bits of floats and doubles), so numeric
+ * columns are indexed without boxing. Rows with the same key are kept in
+ * a doubly linked list, so the first match for a key and the next match
+ * after any row are both a single lookup. A row that's added in the middle
+ * of a list (because its value changed) goes on the end, and the list is
+ * put back in row order the next time it's read, so that changing a value
+ * never has to walk through the other rows with the same key.
+ * Internal class, advanced users only, not official API.
+ */
+class TableIndex {
+  final boolean text;
+
+  // open addressing, a slot stays assigned to its key even once empty
+  long[] keys;
+  String[] strings;
+  boolean[] used;
+  int[] heads;
+  int[] tails;
+  boolean[] unsorted;  // a row was added out of order, see sort()
+  int slotCount;  // number of slots in use
+  int mask;
+
+  int nullHead = -1;  // rows with a null String
+  int nullTail = -1;
+  boolean nullUnsorted;
+
+  int[] next;  // the following row with the same key, or -1
+  int[] prev;  // the preceding row with the same key, or -1
+
+  /** Set when the column was changed in bulk and the index needs rebuilding */
+  boolean stale;
+
+
+  TableIndex(boolean text, int rowCount) {
+    this.text = text;
+    int length = 16;
+    while (length < rowCount) {
+      length <<= 1;
+    }
+    allocSlots(length);
+    next = new int[Math.max(16, rowCount)];
+    prev = new int[next.length];
+  }
+
+
+  private void allocSlots(int length) {
+    if (text) {
+      strings = new String[length];
+    } else {
+      keys = new long[length];
+    }
+    used = new boolean[length];
+    heads = new int[length];
+    tails = new int[length];
+    unsorted = new boolean[length];
+    mask = length - 1;
+  }
+
+
+  static private int hash(long key) {
+    long h = key * 0x9E3779B97F4A7C15L;
+    return (int) (h ^ (h >>> 32));
+  }
+
+
+  static private int hash(String key) {
+    int h = key.hashCode() * 0x9E3779B9;
+    return h ^ (h >>> 16);
+  }
+
+
+  /** Returns the slot for this key, or -1 if it's not in the index. */
+  private int find(long key) {
+    int slot = hash(key) & mask;
+    while (used[slot]) {
+      if (keys[slot] == key) {
+        return slot;
+      }
+      slot = (slot + 1) & mask;
+    }
+    return -1;
+  }
+
+
+  private int find(String key) {
+    int slot = hash(key) & mask;
+    while (used[slot]) {
+      if (strings[slot].equals(key)) {
+        return slot;
+      }
+      slot = (slot + 1) & mask;
+    }
+    return -1;
+  }
+
+
+  /** Returns the slot for this key, adding it if necessary. */
+  private int slot(long key) {
+    int slot = find(key);
+    if (slot == -1) {
+      if (slotCount + 1 > (mask + 1) >> 1) {
+        rehash();
+      }
+      slot = hash(key) & mask;
+      while (used[slot]) {
+        slot = (slot + 1) & mask;
+      }
+      used[slot] = true;
+      keys[slot] = key;
+      heads[slot] = -1;
+      tails[slot] = -1;
+      unsorted[slot] = false;
+      slotCount++;
+    }
+    return slot;
+  }
+
+
+  private int slot(String key) {
+    int slot = find(key);
+    if (slot == -1) {
+      if (slotCount + 1 > (mask + 1) >> 1) {
+        rehash();
+      }
+      slot = hash(key) & mask;
+      while (used[slot]) {
+        slot = (slot + 1) & mask;
+      }
+      used[slot] = true;
+      strings[slot] = key;
+      heads[slot] = -1;
+      tails[slot] = -1;
+      unsorted[slot] = false;
+      slotCount++;
+    }
+    return slot;
+  }
+
+
+  /** Grow the table, and let go of keys that no longer have any rows. */
+  private void rehash() {
+    long[] oldKeys = keys;
+    String[] oldStrings = strings;
+    boolean[] oldUsed = used;
+    int[] oldHeads = heads;
+    int[] oldTails = tails;
+    boolean[] oldUnsorted = unsorted;
+
+    int live = 0;
+    for (int i = 0; i < oldUsed.length; i++) {
+      if (oldUsed[i] && oldHeads[i] != -1) {
+        live++;
+      }
+    }
+    int length = oldUsed.length;
+    while (live + 1 > length >> 2) {
+      length <<= 1;
+    }
+    allocSlots(length);
+    slotCount = 0;
+    for (int i = 0; i < oldUsed.length; i++) {
+      if (oldUsed[i] && oldHeads[i] != -1) {
+        int slot = text ? hash(oldStrings[i]) & mask : hash(oldKeys[i]) & mask;
+        while (used[slot]) {
+          slot = (slot + 1) & mask;
+        }
+        used[slot] = true;
+        if (text) {
+          strings[slot] = oldStrings[i];
+        } else {
+          keys[slot] = oldKeys[i];
+        }
+        heads[slot] = oldHeads[i];
+        tails[slot] = oldTails[i];
+        unsorted[slot] = oldUnsorted[i];
+        slotCount++;
+      }
+    }
+  }
+
+
+  // . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . .
+
+
+  /** First row with this key, or -1 if there are none. */
+  int first(long key) {
+    return firstInSlot(find(key));
+  }
+
+
+  int first(String key) {
+    if (key == null) {
+      if (nullUnsorted && nullHead != -1) {
+        nullHead = sort(nullHead);
+        nullTail = lastOf(nullHead);
+        nullUnsorted = false;
+      }
+      return nullHead;
+    }
+    return firstInSlot(find(key));
+  }
+
+
+  private int firstInSlot(int slot) {
+    if (slot == -1) {
+      return -1;
+    }
+    if (unsorted[slot] && heads[slot] != -1) {
+      heads[slot] = sort(heads[slot]);
+      tails[slot] = lastOf(heads[slot]);
+      unsorted[slot] = false;
+    }
+    return heads[slot];
+  }
+
+
+  /**
+   * The next row after 'row' with the same key, or -1. Only valid while
+   * walking the list from first(), which puts it back in order if needed.
+   */
+  int next(int row) {
+    return next[row];
+  }
+
+
+  /** Last row of each key, in no particular order. */
+  IntList lastRows() {
+    IntList outgoing = new IntList();
+    if (nullHead != -1) {
+      first(null);
+      outgoing.append(nullTail);
+    }
+    for (int i = 0; i < used.length; i++) {
+      if (used[i] && heads[i] != -1) {
+        firstInSlot(i);
+        outgoing.append(tails[i]);
+      }
+    }
+    return outgoing;
+  }
+
+
+  /** Relink the list that starts at 'head' in row order, returns the new head. */
+  private int sort(int head) {
+    int count = 0;
+    for (int row = head; row != -1; row = next[row]) {
+      count++;
+    }
+    int[] rows = new int[count];
+    count = 0;
+    for (int row = head; row != -1; row = next[row]) {
+      rows[count++] = row;
+    }
+    Arrays.sort(rows);
+    for (int i = 0; i < count; i++) {
+      prev[rows[i]] = (i == 0) ? -1 : rows[i - 1];
+      next[rows[i]] = (i == count - 1) ? -1 : rows[i + 1];
+    }
+    return rows[0];
+  }
+
+
+  private int lastOf(int head) {
+    int row = head;
+    while (next[row] != -1) {
+      row = next[row];
+    }
+    return row;
+  }
+
+
+  // . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . .
+
+
+  void add(int row, long key) {
+    int slot = slot(key);
+    int head = heads[slot];
+    int tail = tails[slot];
+    heads[slot] = link(row, head, tail);
+    if (next[row] == -1) {
+      tails[slot] = row;
+      if (tail != -1 && row < tail) {
+        unsorted[slot] = true;
+      }
+    }
+  }
+
+
+  void add(int row, String key) {
+    if (key == null) {
+      int tail = nullTail;
+      nullHead = link(row, nullHead, nullTail);
+      if (next[row] == -1) {
+        nullTail = row;
+        if (tail != -1 && row < tail) {
+          nullUnsorted = true;
+        }
+      }
+    } else {
+      int slot = slot(key);
+      int head = heads[slot];
+      int tail = tails[slot];
+      heads[slot] = link(row, head, tail);
+      if (next[row] == -1) {
+        tails[slot] = row;
+        if (tail != -1 && row < tail) {
+          unsorted[slot] = true;
+        }
+      }
+    }
+  }
+
+
+  /**
+   * Put row into the list that starts at head: at the front if it comes
+   * before the head, otherwise at the end (which can leave the list out of
+   * order). Returns the new head; next[row] is -1 if row is the new tail.
+   */
+  private int link(int row, int head, int tail) {
+    if (row >= next.length) {
+      int length = Math.max(row + 1, next.length << 1);
+      next = Arrays.copyOf(next, length);
+      prev = Arrays.copyOf(prev, length);
+    }
+    if (head == -1) {
+      next[row] = -1;
+      prev[row] = -1;
+      return row;
+    }
+    if (row < head) {
+      next[row] = head;
+      prev[row] = -1;
+      prev[head] = row;
+      return row;
+    }
+    next[tail] = row;
+    prev[row] = tail;
+    next[row] = -1;
+    return head;
+  }
+
+
+  void remove(int row, long key) {
+    removeFromSlot(find(key), row);
+  }
+
+
+  void remove(int row, String key) {
+    if (key == null) {
+      if (nullHead == row) {
+        nullHead = next[row];
+      }
+      if (nullTail == row) {
+        nullTail = prev[row];
+      }
+      unlink(row);
+    } else {
+      removeFromSlot(find(key), row);
+    }
+  }
+
+
+  private void removeFromSlot(int slot, int row) {
+    if (slot != -1) {
+      if (heads[slot] == row) {
+        heads[slot] = next[row];
+      }
+      if (tails[slot] == row) {
+        tails[slot] = prev[row];
+      }
+      unlink(row);
+    }
+  }
+
+
+  private void unlink(int row) {
+    if (prev[row] != -1) {
+      next[prev[row]] = next[row];
+    }
+    if (next[row] != -1) {
+      prev[next[row]] = prev[row];
+    }
+  }
+
+
+  // . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . .
+
+
+  /**
+   * Renumber for a row added at 'row' (not yet in the index), moving every
+   * row from there onward down by one. 'count' is the number of rows before.
+   */
+  void insertRow(int row, int count) {
+    if (count + 1 > next.length) {
+      next = Arrays.copyOf(next, Math.max(count + 1, next.length << 1));
+      prev = Arrays.copyOf(prev, next.length);
+    }
+    System.arraycopy(next, row, next, row + 1, count - row);
+    System.arraycopy(prev, row, prev, row + 1, count - row);
+    renumber(row, 1, count + 1);
+  }
+
+
+  /**
+   * Renumber for a row removed at 'row' (already removed from the index).
+   * 'count' is the number of rows before the removal.
+   */
+  void removeRow(int row, int count) {
+    System.arraycopy(next, row + 1, next, row, count - row - 1);
+    System.arraycopy(prev, row + 1, prev, row, count - row - 1);
+    renumber(row, -1, count - 1);
+  }
+
+
+  private void renumber(int from, int offset, int count) {
+    for (int i = 0; i < count; i++) {
+      if (next[i] >= from) next[i] += offset;
+      if (prev[i] >= from) prev[i] += offset;
+    }
+    for (int i = 0; i < used.length; i++) {
+      if (used[i]) {
+        if (heads[i] >= from) heads[i] += offset;
+        if (tails[i] >= from) tails[i] += offset;
+      }
+    }
+    if (nullHead >= from) nullHead += offset;
+    if (nullTail >= from) nullTail += offset;
+  }
+}
@@ -0,0 +1,484 @@
+package processing.data;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+
+/**
+ * Hash join behind Table.join(). The key column of the smaller table goes
+ * into a hash table of primitive keys, the larger table is looked up
+ * against it (in parallel blocks of rows for large tables), and the output
+ * is written a whole column at a time from the list of matching rows.
+ * Internal class, advanced users only, not official API.
+ */
+class TableJoin {
+  Table left;
+  Table right;
+  int leftKey;
+  int rightKey;
+  int type;
+
+  // one entry per output row, -1 for the right side of an unmatched row
+  int[] leftRows;
+  int[] rightRows;
+  int count;
+
+
+  TableJoin(Table left, Table right, int leftKey, int rightKey, int type) {
+    this.left = left;
+    this.right = right;
+    this.leftKey = leftKey;
+    this.rightKey = rightKey;
+    this.type = type;
+  }
+
+
+  Table run() {
+    int leftCount = left.getRowCount();
+    int rightCount = right.getRowCount();
+    Keys keys = new Keys(left.getColumnType(leftKey), right.getColumnType(rightKey));
+    // build from the left only when it's the smaller side of an inner join,
+    // because then the output needs to be put back in order afterwards
+    boolean buildLeft = (type == Table.INNER_JOIN && leftCount < rightCount);
+    if (buildLeft) {
+      Hash hash = new Hash(keys.codes(left, leftKey, leftCount, true), leftCount);
+      match(hash, keys.codes(right, rightKey, rightCount, false), rightCount, true);
+    } else {
+      Hash hash = new Hash(keys.codes(right, rightKey, rightCount, true), rightCount);
+      match(hash, keys.codes(left, leftKey, leftCount, false), leftCount, false);
+    }
+    return write();
+  }
+
+
+  // . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . .
+
+
+  /**
+   * Turns the keys from both tables into longs that are equal when the
+   * values are. Whole numbers are compared as longs, other numbers as
+   * doubles, and anything involving String or category columns by its
+   * String value. When whole numbers are joined against floats or doubles,
+   * a long that a double can't hold exactly (above 2^53) can't equal any of
+   * them, so it's left out rather than rounded into another key.
+   * Missing values (null, NaN, or marked with Table.setNull()) never match
+   * anything.
+   */
+  static class Keys {
+    static final int WHOLE = 0;
+    static final int REAL = 1;
+    static final int TEXT = 2;
+
+    int mode;
+    HashMap<String, Integer> ids;  // String to code, filled by the build side
+
+
+    Keys(int leftType, int rightType) {
+      if (whole(leftType) && whole(rightType)) {
+        mode = WHOLE;
+      } else if (numeric(leftType) && numeric(rightType)) {
+        mode = REAL;
+      } else {
+        mode = TEXT;
+        ids = new HashMap<>();
+      }
+    }
+
+
+    static boolean whole(int type) {
+      return type == Table.INT || type == Table.LONG;
+    }
+
+
+    static boolean numeric(int type) {
+      return whole(type) || type == Table.FLOAT || type == Table.DOUBLE;
+    }
+
+
+    /**
+     * Codes for each row of a key column, with missing[] set for rows that
+     * can't match. For the build side, new Strings are given new codes;
+     * for the other side, Strings that aren't there are missing.
+     */
+    Codes codes(Table table, int column, int count, boolean build) {
+      Codes outgoing = new Codes(count);
+      long[] codes = outgoing.codes;
+      boolean[] missing = outgoing.missing;
+      Object data = table.columns[column];
+
+      if (mode == WHOLE) {
+        for (int i = 0; i < count; i++) {
+          codes[i] = (data instanceof int[]) ?
+            ((int[]) data)[i] : ((long[]) data)[i];
+        }
+
+      } else if (mode == REAL) {
+        for (int i = 0; i < count; i++) {
+          double value;
+          if (data instanceof int[]) {
+            value = ((int[]) data)[i];
+          } else if (data instanceof long[]) {
+            long whole = ((long[]) data)[i];
+            value = whole;
+            if (value == 0x1p63 || (long) value != whole) {
+              missing[i] = true;  // rounded, so not equal to any double
+              continue;
+            }
+          } else if (data instanceof float[]) {
+            value = ((float[]) data)[i];
+          } else {
+            value = ((double[]) data)[i];
+          }
+          if (value != value) {
+            missing[i] = true;
+          } else {
+            // 0.0 and -0.0 are the same key
+            codes[i] = Double.doubleToLongBits(value + 0.0);
+          }
+        }
+
+      } else {
+        for (int i = 0; i < count; i++) {
+          String value = table.getString(i, column);
+          Integer id = (value == null) ? null : ids.get(value);
+          if (id == null && value != null && build) {
+            id = ids.size();
+            ids.put(value, id);
+          }
+          if (id == null) {
+            missing[i] = true;
+          } else {
+            codes[i] = id;
+          }
+        }
+      }
+
+      long[] nulls = table.nullBits(column);
+      if (nulls != null) {
+        for (int i = 0; i < count; i++) {
+          if (TableNulls.get(nulls, i)) {
+            missing[i] = true;
+          }
+        }
+      }
+      return outgoing;
+    }
+  }
+
+
+  static class Codes {
+    long[] codes;
+    boolean[] missing;
+
+    Codes(int count) {
+      codes = new long[count];
+      missing = new boolean[count];
+    }
+  }
+
+
+  /**
+   * Open addressing from key to the first row with that key, then a chain
+   * through next[] to the rest of them, in order.
+   */
+  static class Hash {
+    long[] keys;
+    int[] heads;
+    int[] next;
+    int mask;
+
+
+    Hash(Codes codes, int count) {
+      int length = 16;
+      while (length < count * 2 && length < (1 << 30)) {
+        length <<= 1;
+      }
+      keys = new long[length];
+      heads = new int[length];
+      Arrays.fill(heads, -1);
+      mask = length - 1;
+      next = new int[count];
+
+      // backwards, so that each chain ends up in row order
+      for (int row = count - 1; row >= 0; --row) {
+        if (!codes.missing[row]) {
+          long key = codes.codes[row];
+          int slot = hash(key) & mask;
+          while (heads[slot] != -1 && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+          }
+          keys[slot] = key;
+          next[row] = heads[slot];
+          heads[slot] = row;
+        }
+      }
+    }
+
+
+    static int hash(long key) {
+      long h = key * 0x9E3779B97F4A7C15L;
+      return (int) (h ^ (h >>> 32));
+    }
+
+
+    /** First row with this key, or -1. */
+    int first(long key) {
+      int slot = hash(key) & mask;
+      while (heads[slot] != -1) {
+        if (keys[slot] == key) {
+          return heads[slot];
+        }
+        slot = (slot + 1) & mask;
+      }
+      return -1;
+    }
+  }
+
+
+  // . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . .
+
+
+  /**
+   * Look up each row of the probe side and collect the matching pairs.
+   * 'probeRight' is set when the hash was built from the left table.
+   */
+  private void match(final Hash hash, final Codes probe, int probeCount,
+                     final boolean probeRight) {
+    int parts = Math.min(ForkJoinPool.getCommonPoolParallelism(),
+                         probeCount / TableSort.PARALLEL_COUNT);
+    if (parts < 2) {
+      IntList[] pairs = probe(hash, probe, 0, probeCount);
+      leftRows = probeRight ? pairs[1].array() : pairs[0].array();
+      rightRows = probeRight ? pairs[0].array() : pairs[1].array();
+      count = leftRows.length;
+
+    } else {
+      final IntList[][] results = new IntList[parts][];
+      RecursiveAction[] tasks = new RecursiveAction[parts];
+      for (int p = 0; p < parts; p++) {
+        final int index = p;
+        final int lo = (int) ((long) probeCount * p / parts);
+        final int hi = (int) ((long) probeCount * (p+1) / parts);
+        tasks[p] = new RecursiveAction() {
+          @Override
+          protected void compute() {
+            results[index] = probe(hash, probe, lo, hi);
+          }
+        };
+      }
+      invoke(tasks);
+
+      count = 0;
+      for (IntList[] pairs : results) {
+        count += pairs[0].size();
+      }
+      int[] probeRows = new int[count];
+      int[] buildRows = new int[count];
+      int offset = 0;
+      for (IntList[] pairs : results) {
+        int size = pairs[0].size();
+        System.arraycopy(pairs[0].data, 0, probeRows, offset, size);
+        System.arraycopy(pairs[1].data, 0, buildRows, offset, size);
+        offset += size;
+      }
+      leftRows = probeRight ? buildRows : probeRows;
+      rightRows = probeRight ? probeRows : buildRows;
+    }
+
+    if (probeRight) {
+      // back into the order of the left table
+      long[] keys = new long[count];
+      int[] order = new int[count];
+      for (int i = 0; i < count; i++) {
+        keys[i] = ((long) leftRows[i] << 32) | rightRows[i];
+        order[i] = i;
+      }
+      TableSort.sort(keys, order, count, false);
+      for (int i = 0; i < count; i++) {
+        leftRows[i] = (int) (keys[i] >>> 32);
+        rightRows[i] = (int) keys[i];
+      }
+    }
+  }
+
+
+  /** Returns the probe rows and the build rows that they matched. */
+  private IntList[] probe(Hash hash, Codes probe, int lo, int hi) {
+    IntList probeRows = new IntList();
+    IntList buildRows = new IntList();
+    for (int row = lo; row < hi; row++) {
+      int match = probe.missing[row] ? -1 : hash.first(probe.codes[row]);
+      if (match == -1) {
+        if (type == Table.LEFT_JOIN) {
+          probeRows.append(row);
+          buildRows.append(-1);
+        }
+      } else if (type == Table.SEMI_JOIN) {
+        probeRows.append(row);
+        buildRows.append(match);
+      } else {
+        do {
+          probeRows.append(row);
+          buildRows.append(match);
+          match = hash.next[match];
+        } while (match != -1);
+      }
+    }
+    return new IntList[] { probeRows, buildRows };
+  }
+
+
+  static private void invoke(final RecursiveAction[] tasks) {
+    ForkJoinPool.commonPool().invoke(new RecursiveAction() {
+      @Override
+      protected void compute() {
+        invokeAll(tasks);
+      }
+    });
+  }
+
+
+  // . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . .
+
+
+  /**
+   * Returns the title, or if it's already in use, the title with "_2"
+   * (or "_3" and so on) added, so that getColumnIndex() can find every
+   * column of the result. The title returned is added to 'titles'.
+   */
+  static private String uniqueTitle(String title, HashSet<String> titles) {
+    if (title == null) {
+      return null;
+    }
+    String outgoing = title;
+    for (int n = 2; titles.contains(outgoing); n++) {
+      outgoing = title + "_" + n;
+    }
+    titles.add(outgoing);
+    return outgoing;
+  }
+
+
+  /**
+   * Build the output: every column of the left table, then (except for
+   * a semi join) the columns of the right table other than its key.
+   * Titles from the right table that are already used get a suffix.
+   */
+  private Table write() {
+    final Table outgoing = new Table();
+    outgoing.missingString = left.missingString;
+    outgoing.missingInt = left.missingInt;
+    outgoing.missingLong = left.missingLong;
+    outgoing.missingFloat = left.missingFloat;
+    outgoing.missingDouble = left.missingDouble;
+    outgoing.missingCategory = left.missingCategory;
+
+    IntList sourceColumns = new IntList();
+    HashSet<String> titles = new HashSet<>();
+    for (int col = 0; col < left.getColumnCount(); col++) {
+      outgoing.addColumn(left.getColumnTitle(col), left.getColumnType(col));
+      sourceColumns.append(col);
+      titles.add(left.getColumnTitle(col));
+    }
+    final int leftCount = sourceColumns.size();
+    if (type != Table.SEMI_JOIN) {
+      for (int col = 0; col < right.getColumnCount(); col++) {
+        if (col != rightKey) {
+          outgoing.addColumn(uniqueTitle(right.getColumnTitle(col), titles),
+                             right.getColumnType(col));
+          sourceColumns.append(col);
+        }
+      }
+    }
+    outgoing.setRowCount(count);
+    outgoing.columnNulls = new long[sourceColumns.size()][];
+
+    final int[] sources = sourceColumns.array();
+    RecursiveAction[] tasks = new RecursiveAction[sources.length];
+    for (int i = 0; i < sources.length; i++) {
+      final int target = i;
+      tasks[i] = new RecursiveAction() {
+        @Override
+        protected void compute() {
+          boolean fromLeft = target < leftCount;
+          Table table = fromLeft ? left : right;
+          int col = sources[target];
+          outgoing.columns[target] =
+            gather(table, col, fromLeft ? leftRows : rightRows, count, outgoing);
+          if (table.getColumnType(col) == Table.CATEGORY) {
+            outgoing.columnCategories[target] =
+              new Table.HashMapBlows(table.columnCategories[col]);
+          }
+          // unmatched rows of a left join are missing on the right side
+          if (table.getColumnType(col) != Table.STRING &&
+              (!fromLeft || table.nullBits(col) != null)) {
+            outgoing.columnNulls[target] =
+              TableNulls.gather(table.nullBits(col), fromLeft ? leftRows : rightRows, count);
+          }
+        }
+      };
+    }
+    if (count >= TableSort.PARALLEL_COUNT && sources.length > 1 &&
+        ForkJoinPool.getCommonPoolParallelism() > 1) {
+      invoke(tasks);
+    } else {
+      for (RecursiveAction task : tasks) {
+        task.invoke();
+      }
+    }
+    return outgoing;
+  }
+
+
+  /**
+   * Copy the listed rows of a column into a new array. Rows of -1 get the
+   * missing value for that type (and are marked in the bitmap by write()).
+   */
+  static private Object gather(Table table, int column, int[] rows, int count,
+                               Table outgoing) {
+    Object data = table.columns[column];
+    switch (table.getColumnType(column)) {
+    case Table.INT:
+    case Table.CATEGORY:
+      int missing = (table.getColumnType(column) == Table.CATEGORY) ?
+        outgoing.missingCategory : outgoing.missingInt;
+      int[] intData = (int[]) data;
+      int[] intOut = new int[count];
+      for (int i = 0; i < count; i++) {
+        intOut[i] = (rows[i] == -1) ? missing : intData[rows[i]];
+      }
+      return intOut;
+    case Table.LONG:
+      long[] longData = (long[]) data;
+      long[] longOut = new long[count];
+      for (int i = 0; i < count; i++) {
+        longOut[i] = (rows[i] == -1) ? outgoing.missingLong : longData[rows[i]];
+      }
+      return longOut;
+    case Table.FLOAT:
+      float[] floatData = (float[]) data;
+      float[] floatOut = new float[count];
+      for (int i = 0; i < count; i++) {
+        floatOut[i] = (rows[i] == -1) ? outgoing.missingFloat : floatData[rows[i]];
+      }
+      return floatOut;
+    case Table.DOUBLE:
+      double[] doubleData = (double[]) data;
+      double[] doubleOut = new double[count];
+      for (int i = 0; i < count; i++) {
+        doubleOut[i] = (rows[i] == -1) ? outgoing.missingDouble : doubleData[rows[i]];
+      }
+      return doubleOut;
+    default:
+      String[] stringData = (String[]) data;
+      String[] stringOut = new String[count];
+      for (int i = 0; i < count; i++) {
+        stringOut[i] = (rows[i] == -1) ? outgoing.missingString : stringData[rows[i]];
+      }
+      return stringOut;
+    }
+  }
+}
@@ -0,0 +1,166 @@
+package processing.data;
+
+
+/**
+ * Bitmaps of the missing values in a Table column, one bit per row in an
+ * array of longs, so that rows with a missing value can be skipped 64 at a
+ * time. Bits past the end of the array are treated as zero (not missing),
+ * so a bitmap only grows as far as the last row that has been marked.
+ * Internal class, advanced users only, not official API.
+ */
+class TableNulls {
+
+  static boolean get(long[] bits, int row) {
+    int word = row >>> 6;
+    return word < bits.length && (bits[word] & (1L << row)) != 0;
+  }
+
+
+  /**
+   * Set or clear the bit for a row, returning the bitmap (which is a new,
+   * longer array if it needed room for at least 'capacity' rows). The
+   * bitmap passed in can be null if nothing has been marked yet.
+   */
+  static long[] set(long[] bits, int row, boolean missing, int capacity) {
+    int word = row >>> 6;
+    if (bits == null || word >= bits.length) {
+      if (!missing) {
+        return bits;
+      }
+      bits = grow(bits, Math.max(capacity, row + 1));
+    }
+    if (missing) {
+      bits[word] |= 1L << row;
+    } else {
+      bits[word] &= ~(1L << row);
+    }
+    return bits;
+  }
+
+
+  static long[] grow(long[] bits, int capacity) {
+    int length = (capacity + 63) >>> 6;
+    if (bits == null) {
+      return new long[length];
+    }
+    if (length <= bits.length) {
+      return bits;
+    }
+    long[] outgoing = new long[Math.max(length, bits.length << 1)];
+    System.arraycopy(bits, 0, outgoing, 0, bits.length);
+    return outgoing;
+  }
+
+
+  /** Clear the bits for the rows from 'start' onward. */
+  static void clearFrom(long[] bits, int start) {
+    int word = start >>> 6;
+    if (word < bits.length) {
+      bits[word] &= (1L << start) - 1;
+      for (int i = word + 1; i < bits.length; i++) {
+        bits[i] = 0;
+      }
+    }
+  }
+
+
+  /**
+   * Move the bits for rows 'row' and up by one, leaving the bit at 'row'
+   * clear. Returns the bitmap, which is a new array if it had to grow.
+   */
+  static long[] insert(long[] bits, int row, int count) {
+    if (bits.length > 0 && bits[bits.length - 1] < 0) {
+      bits = grow(bits, (bits.length << 6) + 1);  // the top bit moves up
+    }
+    int last = count >>> 6;  // word with the new last row
+    int word = row >>> 6;
+    for (int i = Math.min(last, bits.length - 1); i > word; --i) {
+      bits[i] = (bits[i] << 1) | (bits[i-1] >>> 63);
+    }
+    if (word < bits.length) {
+      long low = (1L << row) - 1;
+      long w = bits[word];
+      bits[word] = (w & low) | ((w & ~low) << 1);
+    }
+    return bits;
+  }
+
+
+  /** Move the bits for the rows after 'row' down by one. */
+  static void remove(long[] bits, int row, int count) {
+    int word = row >>> 6;
+    if (word >= bits.length) {
+      return;
+    }
+    long low = (1L << row) - 1;
+    long w = bits[word];
+    bits[word] = (w & low) | ((w >>> 1) & ~low);
+    int last = Math.min((count - 1) >>> 6, bits.length - 1);
+    for (int i = word + 1; i <= last; i++) {
+      bits[i-1] |= bits[i] << 63;
+      bits[i] >>>= 1;
+    }
+    clearFrom(bits, count - 1);
+  }
+
+
+  /**
+   * Bits for the rows taken in a new order: bit i of the result is the bit
+   * for row order[i]. Rows of -1 come out as missing. Returns null if none
+   * of them are missing.
+   */
+  static long[] gather(long[] bits, int[] order, int count) {
+    long[] outgoing = null;
+    for (int i = 0; i < count; i++) {
+      int row = order[i];
+      if (row == -1 || (bits != null && get(bits, row))) {
+        if (outgoing == null) {
+          outgoing = new long[(count + 63) >>> 6];
+        }
+        outgoing[i >>> 6] |= 1L << i;
+      }
+    }
+    return outgoing;
+  }
+
+
+  /**
+   * Copy the bits for 'count' rows of src into dest, starting at row
+   * 'start' of dest, where the bits are expected to be clear. Returns
+   * dest, or a new array if it was null or needed more room.
+   */
+  static long[] copy(long[] src, int count, long[] dest, int start, int capacity) {
+    for (int i = 0; i < count; i += 64) {
+      int word = i >>> 6;
+      long w = (word < src.length) ? src[word] : 0;
+      if (count - i < 64) {
+        w &= (1L << (count - i)) - 1;
+      }
+      if (w != 0) {
+        dest = grow(dest, Math.max(capacity, start + count));
+        int row = start + i;
+        int shift = row & 63;
+        dest[row >>> 6] |= w << shift;
+        if (shift != 0 && (w >>> (64 - shift)) != 0) {
+          dest[(row >>> 6) + 1] |= w >>> (64 - shift);
+        }
+      }
+    }
+    return dest;
+  }
+
+
+  /** Number of missing values among the first 'count' rows. */
+  static int count(long[] bits, int count) {
+    int outgoing = 0;
+    int words = Math.min((count + 63) >>> 6, bits.length);
+    for (int i = 0; i < words; i++) {
+      long w = bits[i];
+      if (i == (count >>> 6)) {
+        w &= (1L << count) - 1;
+      }
+      outgoing += Long.bitCount(w);
+    }
+    return outgoing;
+  }
+}
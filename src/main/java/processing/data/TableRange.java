@@ -0,0 +1,100 @@
+package processing.data;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+
+/**
+ * A run of rows from a Table, ordered by the values in one of its columns,
+ * as returned by findRowsInRange(), getSortedRows(), topRows() and
+ * bottomRows(). It's a view onto the column's sorted index rather than a
+ * copy, so getting one is cheap even when it covers most of the table.
+ * <p/>
+ * The row numbers are the ones from when the range was made: if rows are
+ * added, removed, or sorted afterwards, ask the table for a new range.
+ */
+public class TableRange implements Iterable<TableRow> {
+  protected Table table;
+  protected int[] order;
+  protected int start;
+  protected int stop;
+  protected boolean reverse;
+
+
+  TableRange(Table table, int[] order, int start, int stop, boolean reverse) {
+    this.table = table;
+    this.order = order;
+    this.start = start;
+    this.stop = stop;
+    this.reverse = reverse;
+  }
+
+
+  /**
+   * Number of rows in the range.
+   */
+  public int size() {
+    return stop - start;
+  }
+
+
+  /**
+   * Row number (in the table) of an entry in this range.
+   * @param index 0 for the first entry in the range, up to size() - 1
+   */
+  public int getRowIndex(int index) {
+    if (index < 0 || index >= stop - start) {
+      throw new ArrayIndexOutOfBoundsException(index);
+    }
+    return reverse ? order[stop - 1 - index] : order[start + index];
+  }
+
+
+  public TableRow getRow(int index) {
+    return new Table.RowPointer(table, getRowIndex(index));
+  }
+
+
+  /**
+   * Copy the row numbers into a new array, in the order of this range.
+   */
+  public int[] getRowIndices() {
+    int[] outgoing = new int[stop - start];
+    if (reverse) {
+      for (int i = 0; i < outgoing.length; i++) {
+        outgoing[i] = order[stop - 1 - i];
+      }
+    } else {
+      System.arraycopy(order, start, outgoing, 0, outgoing.length);
+    }
+    return outgoing;
+  }
+
+
+  /**
+   * Iterate over the rows in this range. As with rows(), the same TableRow
+   * object is reused for each entry, so don't hang onto it.
+   */
+  public Iterator<TableRow> iterator() {
+    return new Iterator<TableRow>() {
+      Table.RowPointer rp = new Table.RowPointer(table, -1);
+      int index = 0;
+
+      public boolean hasNext() {
+        return index < stop - start;
+      }
+
+      public TableRow next() {
+        if (index == stop - start) {
+          throw new NoSuchElementException();
+        }
+        rp.setRow(getRowIndex(index++));
+        return rp;
+      }
+
+      public void remove() {
+        throw new UnsupportedOperationException("remove() is not supported");
+      }
+    };
+  }
+}
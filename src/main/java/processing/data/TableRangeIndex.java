@@ -0,0 +1,144 @@
+package processing.data;
+
+
+/**
+ * Sorted index for a numeric column of a Table, see Table.findRowsInRange().
+ * The values are kept as longs in sorted order, next to the row each one
+ * came from, so a range is two binary searches with no boxing and no
+ * lookups back into the column. Floats and doubles are stored as bits that
+ * sort the same way as the values themselves (see TableSort), with NaN
+ * (missing) at the end. Rows marked missing in the column's bitmap are
+ * left out altogether. For a float column, the bounds of a range are
+ * rounded to float first, so that a range from 0.1 to 0.1 finds 0.1f.
+ * Internal class, advanced users only, not official API.
+ */
+class TableRangeIndex {
+  final boolean real;  // float or double column
+  final boolean single;  // float column, bounds are rounded to float
+
+  long[] keys;  // sorted
+  int[] order;  // the row for each key, equal keys stay in row order
+  int validCount;  // number of keys before the NaN values
+
+
+  /**
+   * @param nulls bitmap of the missing rows (see TableNulls), which are
+   *              left out of the index, or null if there are none
+   */
+  TableRangeIndex(Object column, int count, long[] nulls) {
+    order = new int[count];
+    int used = 0;
+    for (int i = 0; i < count; i++) {
+      if (nulls == null || !TableNulls.get(nulls, i)) {
+        order[used++] = i;
+      }
+    }
+    count = used;
+
+    keys = new long[count];
+    if (column instanceof int[]) {
+      int[] intData = (int[]) column;
+      for (int i = 0; i < count; i++) {
+        keys[i] = intData[order[i]];
+      }
+      real = false;
+      single = false;
+
+    } else if (column instanceof long[]) {
+      long[] longData = (long[]) column;
+      for (int i = 0; i < count; i++) {
+        keys[i] = longData[order[i]];
+      }
+      real = false;
+      single = false;
+
+    } else if (column instanceof float[]) {
+      float[] floatData = (float[]) column;
+      for (int i = 0; i < count; i++) {
+        keys[i] = TableSort.sortable(floatData[order[i]]);
+      }
+      real = true;
+      single = true;
+
+    } else {
+      double[] doubleData = (double[]) column;
+      for (int i = 0; i < count; i++) {
+        keys[i] = TableSort.sortable(doubleData[order[i]]);
+      }
+      real = true;
+      single = false;
+    }
+
+    TableSort.sort(keys, order, count, real);
+
+    validCount = count;
+    if (real) {
+      long nan = TableSort.sortable(Double.NaN);
+      while (validCount > 0 && keys[validCount - 1] == nan) {
+        validCount--;
+      }
+    }
+  }
+
+
+  // . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . .
+
+
+  /** Position of the first value that is >= value. */
+  int lowerBound(double value) {
+    if (Double.isNaN(value)) {
+      return validCount;
+    }
+    if (real) {
+      return search(TableSort.sortable(single ? (float) value : value), false);
+    }
+    if (value >= 0x1p63) {
+      return validCount;
+    }
+    return search((long) Math.ceil(value), false);
+  }
+
+
+  int lowerBound(long value) {
+    return real ? lowerBound((double) value) : search(value, false);
+  }
+
+
+  /** Position of the first value that is > value. */
+  int upperBound(double value) {
+    if (Double.isNaN(value)) {
+      return validCount;
+    }
+    if (real) {
+      return search(TableSort.sortable(single ? (float) value : value), true);
+    }
+    if (value < -0x1p63) {
+      return 0;
+    }
+    if (value >= 0x1p63) {
+      return validCount;
+    }
+    return search((long) Math.floor(value), true);
+  }
+
+
+  int upperBound(long value) {
+    return real ? upperBound((double) value) : search(value, true);
+  }
+
+
+  /** First position whose key is >= key, or > key if 'after' is set. */
+  private int search(long key, boolean after) {
+    int lo = 0;
+    int hi = validCount;
+    while (lo < hi) {
+      int mid = (lo + hi) >>> 1;
+      if (keys[mid] < key || (after && keys[mid] == key)) {
+        lo = mid + 1;
+      } else {
+        hi = mid;
+      }
+    }
+    return lo;
+  }
+}
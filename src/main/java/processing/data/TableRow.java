@@ -82,6 +82,43 @@ public interface TableRow {
    */
   public double getDouble(String columnName);
 
+  /**
+   * @brief Check whether the value in the specified column is missing
+   * @param column ID number of the column to reference
+   * @see Table#isNull(int, int)
+   */
+  public default boolean isNull(int column) {
+    // for rows that aren't backed by a Table, go by the value itself
+    switch (getColumnType(column)) {
+    case Table.INT:
+    case Table.LONG:
+      return false;
+    case Table.FLOAT:
+      return Float.isNaN(getFloat(column));
+    case Table.DOUBLE:
+      return Double.isNaN(getDouble(column));
+    default:
+      return getString(column) == null;
+    }
+  }
+
+  /**
+   * @param columnName title of the column to reference
+   */
+  public default boolean isNull(String columnName) {
+    switch (getColumnType(columnName)) {
+    case Table.INT:
+    case Table.LONG:
+      return false;
+    case Table.FLOAT:
+      return Float.isNaN(getFloat(columnName));
+    case Table.DOUBLE:
+      return Double.isNaN(getDouble(columnName));
+    default:
+      return getString(columnName) == null;
+    }
+  }
+
   /**
    * @webref tablerow:method
    * @brief Store a String value in the specified column
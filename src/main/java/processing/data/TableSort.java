@@ -0,0 +1,474 @@
+package processing.data;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+
+/**
+ * Sort engine behind Table.sort() and the sorted index used by
+ * Table.findRowsInRange(). Each sort column is turned into an array of
+ * long keys that order the same way as the values (descending columns are
+ * flipped), so the sorting itself never calls back into the Table. Keys are
+ * sorted with a stable radix sort, or for float and double columns a merge
+ * sort that runs in parallel for large tables. Sorting by several columns
+ * is a stable sort per column, starting with the last one.
+ * Internal class, advanced users only, not official API.
+ */
+class TableSort {
+  /** Below this many rows, it's not worth handing work to other threads */
+  static final int PARALLEL_COUNT = 1 << 15;
+
+  /** Segments this short are insertion sorted before merging */
+  static final int INSERTION_COUNT = 32;
+
+
+  /**
+   * Returns the rows of the table in sorted order.
+   * @param columns the columns to sort by, most important first
+   * @param reverse whether each column is sorted in descending order,
+   *                or null to sort them all in ascending order
+   */
+  static int[] order(Table table, int[] columns, boolean[] reverse) {
+    return order(table, null, columns, reverse);
+  }
+
+
+  /**
+   * Same as above, for a subset of the rows (as used by TableView).
+   * @param rows the rows to sort, or null for all the rows of the table
+   */
+  static int[] order(Table table, int[] rows, int[] columns, boolean[] reverse) {
+    int count;
+    int[] order;
+    if (rows == null) {
+      count = table.rowCount;
+      order = new int[count];
+      for (int i = 0; i < count; i++) {
+        order[i] = i;
+      }
+    } else {
+      count = rows.length;
+      order = rows.clone();
+    }
+    long[] keys = new long[count];
+    for (int i = columns.length - 1; i >= 0; --i) {
+      int column = columns[i];
+      boolean descending = reverse != null && reverse[i];
+      int type = table.columnTypes[column];
+      extractKeys(table, column, descending, order, keys, count);
+      sort(keys, order, count, type == Table.FLOAT || type == Table.DOUBLE);
+    }
+    return order;
+  }
+
+
+  /**
+   * Fill keys[] with the sort key for each row, taken in the current order.
+   * Missing values (NaN, or rows marked with Table.setNull()) go last in
+   * either direction.
+   * Strings are sorted without regard to case (like compareToIgnoreCase),
+   * with null treated as an empty String.
+   */
+  static private void extractKeys(Table table, int column, boolean descending,
+                                  int[] order, long[] keys, int count) {
+    Object data = table.columns[column];
+    switch (table.columnTypes[column]) {
+    case Table.INT:
+    case Table.CATEGORY:
+      int[] intData = (int[]) data;
+      for (int i = 0; i < count; i++) {
+        keys[i] = intData[order[i]];
+      }
+      break;
+    case Table.LONG:
+      long[] longData = (long[]) data;
+      for (int i = 0; i < count; i++) {
+        keys[i] = longData[order[i]];
+      }
+      break;
+    case Table.FLOAT:
+      float[] floatData = (float[]) data;
+      for (int i = 0; i < count; i++) {
+        keys[i] = sortable(floatData[order[i]]);
+      }
+      break;
+    case Table.DOUBLE:
+      double[] doubleData = (double[]) data;
+      for (int i = 0; i < count; i++) {
+        keys[i] = sortable(doubleData[order[i]]);
+      }
+      break;
+    case Table.STRING:
+      int[] rank = collate((String[]) data, order, count);
+      for (int i = 0; i < count; i++) {
+        keys[i] = rank[i];
+      }
+      break;
+    default:
+      throw new IllegalArgumentException("Invalid column type: " + table.columnTypes[column]);
+    }
+
+    if (descending) {
+      int type = table.columnTypes[column];
+      if (type == Table.FLOAT || type == Table.DOUBLE) {
+        long nan = sortable(Double.NaN);
+        for (int i = 0; i < count; i++) {
+          // ~key reverses the order, but keep missing values at the end
+          keys[i] = (keys[i] == nan) ? Long.MAX_VALUE : ~keys[i];
+        }
+      } else {
+        for (int i = 0; i < count; i++) {
+          keys[i] = ~keys[i];
+        }
+      }
+    }
+
+    long[] bits = table.nullBits(column);
+    if (bits != null) {
+      for (int i = 0; i < count; i++) {
+        if (TableNulls.get(bits, order[i])) {
+          keys[i] = Long.MAX_VALUE;
+        }
+      }
+    }
+  }
+
+
+  /**
+   * Bits of a double, flipped for negative numbers so that they sort as
+   * signed longs in the same order as the values. -0.0 is folded into 0.0,
+   * and NaN comes after positive infinity.
+   */
+  static long sortable(double value) {
+    long bits = Double.doubleToLongBits(value + 0.0);
+    return bits ^ ((bits >> 63) & Long.MAX_VALUE);
+  }
+
+
+  /**
+   * Rank of the String in each row (taken in the current order) in
+   * case-insensitive order, equal Strings getting the same rank. Each
+   * distinct String is folded to a collation key only once, and only the
+   * distinct keys are compared, so a column with lots of repeated values
+   * is mostly a hash lookup per row.
+   */
+  static private int[] collate(String[] data, int[] order, int count) {
+    HashMap<String, Integer> ids = new HashMap<>();
+    int[] rowId = new int[count];
+    StringList distinct = new StringList();
+    for (int i = 0; i < count; i++) {
+      String s = data[order[i]];
+      if (s == null) {
+        s = "";
+      }
+      Integer id = ids.get(s);
+      if (id == null) {
+        id = distinct.size();
+        ids.put(s, id);
+        distinct.append(s);
+      }
+      rowId[i] = id;
+    }
+
+    final String[] folded = new String[distinct.size()];
+    Integer[] sorted = new Integer[folded.length];
+    for (int i = 0; i < folded.length; i++) {
+      folded[i] = fold(distinct.get(i));
+      sorted[i] = i;
+    }
+    Arrays.sort(sorted, new Comparator<Integer>() {
+      public int compare(Integer a, Integer b) {
+        return folded[a].compareTo(folded[b]);
+      }
+    });
+    int[] idRank = new int[folded.length];
+    int rank = 0;
+    for (int i = 0; i < sorted.length; i++) {
+      if (i > 0 && !folded[sorted[i]].equals(folded[sorted[i-1]])) {
+        rank++;
+      }
+      idRank[sorted[i]] = rank;
+    }
+
+    int[] outgoing = new int[count];
+    for (int i = 0; i < count; i++) {
+      outgoing[i] = idRank[rowId[i]];
+    }
+    return outgoing;
+  }
+
+
+  /**
+   * Collation key for case-insensitive order. Comparing two of these with
+   * compareTo() gives the same result as compareToIgnoreCase() on the
+   * originals, since that compares each char after the same folding.
+   */
+  static private String fold(String s) {
+    char[] c = null;
+    for (int i = 0; i < s.length(); i++) {
+      char ch = s.charAt(i);
+      char f = Character.toLowerCase(Character.toUpperCase(ch));
+      if (f != ch) {
+        if (c == null) {
+          c = s.toCharArray();
+        }
+        c[i] = f;
+      }
+    }
+    return (c == null) ? s : new String(c);
+  }
+
+
+  // . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . .
+
+
+  /**
+   * Stable sort of the keys (as signed longs), moving order[] along with
+   * them. Uses a radix sort, or a merge sort if 'merge' is set, which is
+   * a better fit for float and double keys whose bits are spread out.
+   */
+  static void sort(long[] keys, int[] order, int count, boolean merge) {
+    if (count < 2) {
+      return;
+    }
+    // already in order (appended timestamps, or a second sort)
+    int i = 1;
+    while (i < count && keys[i-1] <= keys[i]) {
+      i++;
+    }
+    if (i == count) {
+      return;
+    }
+    if (merge) {
+      mergeSort(keys, order, count);
+    } else {
+      radixSort(keys, order, count);
+    }
+  }
+
+
+  /**
+   * LSD radix sort, a byte at a time. The keys are offset by the smallest
+   * one, so only as many passes are made as the spread of the values needs
+   * (one or two for most int columns), and a pass is skipped when all the
+   * keys have the same byte in that position.
+   */
+  static private void radixSort(long[] keys, int[] order, int count) {
+    long min = keys[0];
+    long max = keys[0];
+    for (int i = 1; i < count; i++) {
+      if (keys[i] < min) min = keys[i];
+      if (keys[i] > max) max = keys[i];
+    }
+    // max - min may overflow, but is still correct as an unsigned number
+    int bits = 64 - Long.numberOfLeadingZeros(max - min);
+
+    long[] srcKeys = keys;
+    int[] srcOrder = order;
+    long[] dstKeys = new long[count];
+    int[] dstOrder = new int[count];
+    int[] start = new int[257];
+
+    for (int shift = 0; shift < bits; shift += 8) {
+      Arrays.fill(start, 0);
+      for (int i = 0; i < count; i++) {
+        start[(int) (((srcKeys[i] - min) >>> shift) & 0xFF) + 1]++;
+      }
+      if (start[(int) (((srcKeys[0] - min) >>> shift) & 0xFF) + 1] == count) {
+        continue;  // nothing to do for this byte
+      }
+      for (int b = 0; b < 256; b++) {
+        start[b+1] += start[b];
+      }
+      for (int i = 0; i < count; i++) {
+        int pos = start[(int) (((srcKeys[i] - min) >>> shift) & 0xFF)]++;
+        dstKeys[pos] = srcKeys[i];
+        dstOrder[pos] = srcOrder[i];
+      }
+      long[] tempKeys = srcKeys;
+      srcKeys = dstKeys;
+      dstKeys = tempKeys;
+      int[] tempOrder = srcOrder;
+      srcOrder = dstOrder;
+      dstOrder = tempOrder;
+    }
+    if (srcKeys != keys) {
+      System.arraycopy(srcKeys, 0, keys, 0, count);
+      System.arraycopy(srcOrder, 0, order, 0, count);
+    }
+  }
+
+
+  static private void mergeSort(long[] keys, int[] order, int count) {
+    long[] keyTemp = new long[count];
+    int[] orderTemp = new int[count];
+    if (count >= PARALLEL_COUNT && ForkJoinPool.getCommonPoolParallelism() > 1) {
+      ForkJoinPool.commonPool().invoke(new MergeTask(keys, order, keyTemp, orderTemp, 0, count));
+    } else {
+      mergeSort(keys, order, keyTemp, orderTemp, 0, count);
+    }
+  }
+
+
+  static private void mergeSort(long[] keys, int[] order,
+                                long[] keyTemp, int[] orderTemp,
+                                int lo, int hi) {
+    if (hi - lo <= INSERTION_COUNT) {
+      insertionSort(keys, order, lo, hi);
+    } else {
+      int mid = (lo + hi) >>> 1;
+      mergeSort(keys, order, keyTemp, orderTemp, lo, mid);
+      mergeSort(keys, order, keyTemp, orderTemp, mid, hi);
+      merge(keys, order, keyTemp, orderTemp, lo, mid, hi);
+    }
+  }
+
+
+  /** Sorts each half on its own thread, down to PARALLEL_COUNT entries. */
+  @SuppressWarnings("serial")
+  static private class MergeTask extends RecursiveAction {
+    long[] keys;
+    int[] order;
+    long[] keyTemp;
+    int[] orderTemp;
+    int lo, hi;
+
+    MergeTask(long[] keys, int[] order, long[] keyTemp, int[] orderTemp,
+              int lo, int hi) {
+      this.keys = keys;
+      this.order = order;
+      this.keyTemp = keyTemp;
+      this.orderTemp = orderTemp;
+      this.lo = lo;
+      this.hi = hi;
+    }
+
+    @Override
+    protected void compute() {
+      if (hi - lo <= PARALLEL_COUNT) {
+        mergeSort(keys, order, keyTemp, orderTemp, lo, hi);
+      } else {
+        int mid = (lo + hi) >>> 1;
+        invokeAll(new MergeTask(keys, order, keyTemp, orderTemp, lo, mid),
+                  new MergeTask(keys, order, keyTemp, orderTemp, mid, hi));
+        merge(keys, order, keyTemp, orderTemp, lo, mid, hi);
+      }
+    }
+  }
+
+
+  static private void insertionSort(long[] keys, int[] order, int lo, int hi) {
+    for (int i = lo + 1; i < hi; i++) {
+      long key = keys[i];
+      int row = order[i];
+      int j = i - 1;
+      while (j >= lo && keys[j] > key) {
+        keys[j+1] = keys[j];
+        order[j+1] = order[j];
+        j--;
+      }
+      keys[j+1] = key;
+      order[j+1] = row;
+    }
+  }
+
+
+  /** Merge the sorted runs [lo, mid) and [mid, hi), ties from the left. */
+  static private void merge(long[] keys, int[] order,
+                            long[] keyTemp, int[] orderTemp,
+                            int lo, int mid, int hi) {
+    if (keys[mid-1] <= keys[mid]) {
+      return;  // already in order
+    }
+    System.arraycopy(keys, lo, keyTemp, lo, hi - lo);
+    System.arraycopy(order, lo, orderTemp, lo, hi - lo);
+    int a = lo;
+    int b = mid;
+    for (int i = lo; i < hi; i++) {
+      if (b == hi || (a < mid && keyTemp[a] <= keyTemp[b])) {
+        keys[i] = keyTemp[a];
+        order[i] = orderTemp[a++];
+      } else {
+        keys[i] = keyTemp[b];
+        order[i] = orderTemp[b++];
+      }
+    }
+  }
+
+
+  // . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . .
+
+
+  /**
+   * Rearrange every column so that row i holds what was in row order[i].
+   * The columns are independent, so large tables do them in parallel.
+   */
+  static void permute(final Object[] columns, final int[] order, final int count) {
+    if (count < PARALLEL_COUNT || columns.length < 2 ||
+        ForkJoinPool.getCommonPoolParallelism() < 2) {
+      for (int col = 0; col < columns.length; col++) {
+        columns[col] = permute(columns[col], order, count);
+      }
+    } else {
+      final RecursiveAction[] tasks = new RecursiveAction[columns.length];
+      for (int col = 0; col < columns.length; col++) {
+        final int c = col;
+        tasks[col] = new RecursiveAction() {
+          @Override
+          protected void compute() {
+            columns[c] = permute(columns[c], order, count);
+          }
+        };
+      }
+      ForkJoinPool.commonPool().invoke(new RecursiveAction() {
+        @Override
+        protected void compute() {
+          invokeAll(tasks);
+        }
+      });
+    }
+  }
+
+
+  /** Permuted copy of a column, keeping the room allocated past count. */
+  static private Object permute(Object column, int[] order, int count) {
+    if (column instanceof int[]) {
+      int[] oldData = (int[]) column;
+      int[] newData = new int[oldData.length];
+      for (int i = 0; i < count; i++) {
+        newData[i] = oldData[order[i]];
+      }
+      return newData;
+    } else if (column instanceof long[]) {
+      long[] oldData = (long[]) column;
+      long[] newData = new long[oldData.length];
+      for (int i = 0; i < count; i++) {
+        newData[i] = oldData[order[i]];
+      }
+      return newData;
+    } else if (column instanceof float[]) {
+      float[] oldData = (float[]) column;
+      float[] newData = new float[oldData.length];
+      for (int i = 0; i < count; i++) {
+        newData[i] = oldData[order[i]];
+      }
+      return newData;
+    } else if (column instanceof double[]) {
+      double[] oldData = (double[]) column;
+      double[] newData = new double[oldData.length];
+      for (int i = 0; i < count; i++) {
+        newData[i] = oldData[order[i]];
+      }
+      return newData;
+    }
+    String[] oldData = (String[]) column;
+    String[] newData = new String[oldData.length];
+    for (int i = 0; i < count; i++) {
+      newData[i] = oldData[order[i]];
+    }
+    return newData;
+  }
+}
@@ -0,0 +1,77 @@
+package processing.data;
+
+import java.util.Arrays;
+
+
+/**
+ * The text read from a file for the cells of a column that were parsed
+ * into numbers by the "infer" option, kept only where getString() would
+ * give something else ("1.50" for 1.5, "+5", "1e3", or an empty cell), so
+ * that the column can go back to Strings exactly as they were in the file
+ * if a later value turns out not to be a number. Rows are added in order.
+ * Internal class, advanced users only, not official API.
+ */
+class TableText {
+  int count;
+  int[] rows = new int[16];
+  int[] ends = new int[16];  // -1 for a null
+  char[] chars = new char[64];
+  int used;
+
+
+  void add(int row, String text) {
+    if (text == null) {
+      add(row, null, 0, 0);
+    } else {
+      add(row, text.toCharArray(), 0, text.length());
+    }
+  }
+
+
+  private void add(int row, char[] text, int start, int length) {
+    if (count == rows.length) {
+      rows = Arrays.copyOf(rows, count << 1);
+      ends = Arrays.copyOf(ends, count << 1);
+    }
+    rows[count] = row;
+    if (text == null) {
+      ends[count] = -1;
+    } else {
+      if (used + length > chars.length) {
+        chars = Arrays.copyOf(chars, Math.max(chars.length << 1, used + length));
+      }
+      System.arraycopy(text, start, chars, used, length);
+      used += length;
+      ends[count] = used;
+    }
+    count++;
+  }
+
+
+  /** Put the text back into the rows of a String column. */
+  void restore(String[] stringData) {
+    int start = 0;
+    for (int i = 0; i < count; i++) {
+      if (ends[i] == -1) {
+        stringData[rows[i]] = null;
+      } else {
+        stringData[rows[i]] = new String(chars, start, ends[i] - start);
+        start = ends[i];
+      }
+    }
+  }
+
+
+  /** Add everything from another column's text, with its rows moved by 'offset'. */
+  void addAll(TableText other, int offset) {
+    int start = 0;
+    for (int i = 0; i < other.count; i++) {
+      if (other.ends[i] == -1) {
+        add(other.rows[i] + offset, null, 0, 0);
+      } else {
+        add(other.rows[i] + offset, other.chars, start, other.ends[i] - start);
+        start = other.ends[i];
+      }
+    }
+  }
+}
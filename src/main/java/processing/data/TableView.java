@@ -0,0 +1,906 @@
+package processing.data;
+
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import processing.core.PApplet;
+
+
+/**
+ * Some of the rows and columns of a Table, without a copy of the data.
+ * Returned by Table.view(), and by the filtering methods of a view, so
+ * they can be chained:
+ * <pre>
+ * TableView recent = table.view().findRowsInRange("year", 2000, 2020).select("year", "sales");
+ * recent.sort("sales");
+ * </pre>
+ * A view is a list of rows and a list of columns of the table it came
+ * from, and reads go straight to that table's data. Filtering, selecting
+ * columns, sorting (which only reorders the view's list of rows) and
+ * grouping never copy the values, so a chain of steps doesn't duplicate
+ * the data at each one.
+ * <p/>
+ * The first time a value is set through a view, the view makes its own
+ * copy of its rows and columns (copy on write), so changes made through a
+ * view never show up in the table. Until then, changes made to the table
+ * show up in the view. A view remembers rows by number, so if rows of the
+ * table are removed or sorted, make a new view. Use getTable() to get a
+ * regular Table with the contents of a view.
+ */
+public class TableView implements Iterable<TableRow> {
+  protected Table table;
+  protected int[] rows;  // rows of the table, or null for all of them
+  protected int[] columns;  // columns of the table, or null for all of them
+  protected boolean copied;  // whether the table is a copy owned by this view
+
+
+  TableView(Table table, int[] rows, int[] columns) {
+    this.table = table;
+    this.rows = rows;
+    this.columns = columns;
+  }
+
+
+  /** Row of the table for a row of this view. */
+  protected int tableRow(int row) {
+    if (rows == null) {
+      table.checkRow(row);
+      return row;
+    }
+    if (row < 0 || row >= rows.length) {
+      throw new ArrayIndexOutOfBoundsException("Row " + row + " does not exist.");
+    }
+    return rows[row];
+  }
+
+
+  /** Column of the table for a column of this view. */
+  protected int tableColumn(int column) {
+    if (columns == null) {
+      table.checkColumn(column);
+      return column;
+    }
+    if (column < 0 || column >= columns.length) {
+      throw new ArrayIndexOutOfBoundsException("Column " + column + " does not exist.");
+    }
+    return columns[column];
+  }
+
+
+  /**
+   * Before the first change, replace the table with a copy of the rows and
+   * columns in this view, so the original table isn't touched.
+   */
+  protected void ensureCopy() {
+    if (!copied) {
+      table = getTable();
+      rows = null;
+      columns = null;
+      copied = true;
+    }
+  }
+
+
+  // . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . .
+
+
+  public int getRowCount() {
+    return (rows == null) ? table.getRowCount() : rows.length;
+  }
+
+
+  public int getColumnCount() {
+    return (columns == null) ? table.getColumnCount() : columns.length;
+  }
+
+
+  public String getColumnTitle(int column) {
+    return table.getColumnTitle(tableColumn(column));
+  }
+
+
+  public String[] getColumnTitles() {
+    if (table.getColumnTitles() == null) {
+      return null;
+    }
+    String[] outgoing = new String[getColumnCount()];
+    for (int col = 0; col < outgoing.length; col++) {
+      outgoing[col] = getColumnTitle(col);
+    }
+    return outgoing;
+  }
+
+
+  /**
+   * Index of a column in this view. Like Table.getColumnIndex(), throws
+   * an exception if there's no column with that title.
+   */
+  public int getColumnIndex(String columnName) {
+    int column = table.getColumnIndex(columnName);
+    if (columns == null) {
+      return column;
+    }
+    for (int col = 0; col < columns.length; col++) {
+      if (columns[col] == column) {
+        return col;
+      }
+    }
+    throw new IllegalArgumentException("This view has no column named '" + columnName + "'");
+  }
+
+
+  public int getColumnType(int column) {
+    return table.getColumnType(tableColumn(column));
+  }
+
+
+  public int getColumnType(String columnName) {
+    return getColumnType(getColumnIndex(columnName));
+  }
+
+
+  public int[] getColumnTypes() {
+    int[] outgoing = new int[getColumnCount()];
+    for (int col = 0; col < outgoing.length; col++) {
+      outgoing[col] = getColumnType(col);
+    }
+    return outgoing;
+  }
+
+
+  // . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . .
+
+
+  public String getString(int row, int column) {
+    return table.getString(tableRow(row), tableColumn(column));
+  }
+
+
+  public String getString(int row, String columnName) {
+    return getString(row, getColumnIndex(columnName));
+  }
+
+
+  public int getInt(int row, int column) {
+    return table.getInt(tableRow(row), tableColumn(column));
+  }
+
+
+  public int getInt(int row, String columnName) {
+    return getInt(row, getColumnIndex(columnName));
+  }
+
+
+  public long getLong(int row, int column) {
+    return table.getLong(tableRow(row), tableColumn(column));
+  }
+
+
+  public long getLong(int row, String columnName) {
+    return getLong(row, getColumnIndex(columnName));
+  }
+
+
+  public float getFloat(int row, int column) {
+    return table.getFloat(tableRow(row), tableColumn(column));
+  }
+
+
+  public float getFloat(int row, String columnName) {
+    return getFloat(row, getColumnIndex(columnName));
+  }
+
+
+  public double getDouble(int row, int column) {
+    return table.getDouble(tableRow(row), tableColumn(column));
+  }
+
+
+  public double getDouble(int row, String columnName) {
+    return getDouble(row, getColumnIndex(columnName));
+  }
+
+
+  public boolean isNull(int row, int column) {
+    return table.isNull(tableRow(row), tableColumn(column));
+  }
+
+
+  public boolean isNull(int row, String columnName) {
+    return isNull(row, getColumnIndex(columnName));
+  }
+
+
+  public String[] getStringColumn(int column) {
+    int col = tableColumn(column);
+    String[] outgoing = new String[getRowCount()];
+    for (int i = 0; i < outgoing.length; i++) {
+      outgoing[i] = table.getString(rowAt(i), col);
+    }
+    return outgoing;
+  }
+
+
+  public String[] getStringColumn(String columnName) {
+    return getStringColumn(getColumnIndex(columnName));
+  }
+
+
+  public int[] getIntColumn(int column) {
+    int col = tableColumn(column);
+    int[] outgoing = new int[getRowCount()];
+    for (int i = 0; i < outgoing.length; i++) {
+      outgoing[i] = table.getInt(rowAt(i), col);
+    }
+    return outgoing;
+  }
+
+
+  public int[] getIntColumn(String columnName) {
+    return getIntColumn(getColumnIndex(columnName));
+  }
+
+
+  public long[] getLongColumn(int column) {
+    int col = tableColumn(column);
+    long[] outgoing = new long[getRowCount()];
+    for (int i = 0; i < outgoing.length; i++) {
+      outgoing[i] = table.getLong(rowAt(i), col);
+    }
+    return outgoing;
+  }
+
+
+  public long[] getLongColumn(String columnName) {
+    return getLongColumn(getColumnIndex(columnName));
+  }
+
+
+  public float[] getFloatColumn(int column) {
+    int col = tableColumn(column);
+    float[] outgoing = new float[getRowCount()];
+    for (int i = 0; i < outgoing.length; i++) {
+      outgoing[i] = table.getFloat(rowAt(i), col);
+    }
+    return outgoing;
+  }
+
+
+  public float[] getFloatColumn(String columnName) {
+    return getFloatColumn(getColumnIndex(columnName));
+  }
+
+
+  public double[] getDoubleColumn(int column) {
+    int col = tableColumn(column);
+    double[] outgoing = new double[getRowCount()];
+    for (int i = 0; i < outgoing.length; i++) {
+      outgoing[i] = table.getDouble(rowAt(i), col);
+    }
+    return outgoing;
+  }
+
+
+  public double[] getDoubleColumn(String columnName) {
+    return getDoubleColumn(getColumnIndex(columnName));
+  }
+
+
+  /** Same as tableRow(), without the bounds check. */
+  private int rowAt(int i) {
+    return (rows == null) ? i : rows[i];
+  }
+
+
+  public String[] getUnique(int column) {
+    return new StringList(getStringColumn(column)).getUnique();
+  }
+
+
+  public String[] getUnique(String columnName) {
+    return getUnique(getColumnIndex(columnName));
+  }
+
+
+  public IntDict getTally(int column) {
+    return new StringList(getStringColumn(column)).getTally();
+  }
+
+
+  public IntDict getTally(String columnName) {
+    return getTally(getColumnIndex(columnName));
+  }
+
+
+  public IntDict getOrder(int column) {
+    return new StringList(getStringColumn(column)).getOrder();
+  }
+
+
+  public IntDict getOrder(String columnName) {
+    return getOrder(getColumnIndex(columnName));
+  }
+
+
+  // . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . .
+
+
+  public void setString(int row, int column, String value) {
+    tableColumn(column);
+    tableRow(row);
+    ensureCopy();
+    table.setString(tableRow(row), tableColumn(column), value);
+  }
+
+
+  public void setString(int row, String columnName, String value) {
+    setString(row, getColumnIndex(columnName), value);
+  }
+
+
+  public void setInt(int row, int column, int value) {
+    tableColumn(column);
+    tableRow(row);
+    ensureCopy();
+    table.setInt(tableRow(row), tableColumn(column), value);
+  }
+
+
+  public void setInt(int row, String columnName, int value) {
+    setInt(row, getColumnIndex(columnName), value);
+  }
+
+
+  public void setLong(int row, int column, long value) {
+    tableColumn(column);
+    tableRow(row);
+    ensureCopy();
+    table.setLong(tableRow(row), tableColumn(column), value);
+  }
+
+
+  public void setLong(int row, String columnName, long value) {
+    setLong(row, getColumnIndex(columnName), value);
+  }
+
+
+  public void setFloat(int row, int column, float value) {
+    tableColumn(column);
+    tableRow(row);
+    ensureCopy();
+    table.setFloat(tableRow(row), tableColumn(column), value);
+  }
+
+
+  public void setFloat(int row, String columnName, float value) {
+    setFloat(row, getColumnIndex(columnName), value);
+  }
+
+
+  public void setDouble(int row, int column, double value) {
+    tableColumn(column);
+    tableRow(row);
+    ensureCopy();
+    table.setDouble(tableRow(row), tableColumn(column), value);
+  }
+
+
+  public void setDouble(int row, String columnName, double value) {
+    setDouble(row, getColumnIndex(columnName), value);
+  }
+
+
+  // . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . .
+
+
+  public TableRow getRow(int row) {
+    tableRow(row);
+    return new ViewRow(row);
+  }
+
+
+  public Iterable<TableRow> rows() {
+    return this;
+  }
+
+
+  /**
+   * Iterate over the rows of this view. As with Table.rows(), the same
+   * TableRow object is reused for each row, so don't hang onto it.
+   */
+  public Iterator<TableRow> iterator() {
+    return new Iterator<TableRow>() {
+      ViewRow vr = new ViewRow(-1);
+
+      public boolean hasNext() {
+        return vr.row + 1 < getRowCount();
+      }
+
+      public TableRow next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        vr.row++;
+        return vr;
+      }
+
+      public void remove() {
+        throw new UnsupportedOperationException("remove() is not supported");
+      }
+    };
+  }
+
+
+  /**
+   * A new view with some of the rows of this one.
+   * @param indices rows of this view, in the order they should appear
+   */
+  public TableView rows(int[] indices) {
+    int[] selected = new int[indices.length];
+    for (int i = 0; i < indices.length; i++) {
+      selected[i] = tableRow(indices[i]);
+    }
+    return new TableView(table, selected, columns);
+  }
+
+
+  /**
+   * A new view with some of the columns of this one, in the order given.
+   */
+  public TableView select(int... columns) {
+    int[] selected = new int[columns.length];
+    for (int i = 0; i < columns.length; i++) {
+      selected[i] = tableColumn(columns[i]);
+    }
+    return new TableView(table, rows, selected);
+  }
+
+
+  public TableView select(String... columnNames) {
+    int[] selected = new int[columnNames.length];
+    for (int i = 0; i < columnNames.length; i++) {
+      selected[i] = tableColumn(getColumnIndex(columnNames[i]));
+    }
+    return new TableView(table, rows, selected);
+  }
+
+
+  /**
+   * A new view with the rows of this one that contain the value in a
+   * column, in the same order. Values are compared as Strings, the same
+   * as Table.findRows(). On a view of all the rows of a table, this can
+   * use an index made with Table.createIndex().
+   */
+  public TableView findRows(String value, int column) {
+    int col = tableColumn(column);
+    if (rows == null) {
+      return new TableView(table, table.findRowIndices(value, col), columns);
+    }
+    IntList selected = new IntList();
+    for (int row : rows) {
+      String str = table.getString(row, col);
+      if (str == null ? value == null : str.equals(value)) {
+        selected.append(row);
+      }
+    }
+    return new TableView(table, selected.array(), columns);
+  }
+
+
+  public TableView findRows(String value, String columnName) {
+    return findRows(value, getColumnIndex(columnName));
+  }
+
+
+  /**
+   * A new view with the rows of this one that match a regular expression
+   * in a column, in the same order.
+   */
+  public TableView matchRows(String regexp, int column) {
+    int col = tableColumn(column);
+    if (rows == null) {
+      return new TableView(table, table.matchRowIndices(regexp, col), columns);
+    }
+    IntList selected = new IntList();
+    for (int row : rows) {
+      String str = table.getString(row, col);
+      if (str != null && PApplet.match(str, regexp) != null) {
+        selected.append(row);
+      }
+    }
+    return new TableView(table, selected.array(), columns);
+  }
+
+
+  public TableView matchRows(String regexp, String columnName) {
+    return matchRows(regexp, getColumnIndex(columnName));
+  }
+
+
+  /**
+   * A new view with the rows of this one where the value in a numeric
+   * column is between lo and hi (inclusive), in the same order. Missing
+   * values (NaN, or see Table.isNull()) are left out. On a view of all the rows of a table, this
+   * uses the sorted index behind Table.findRowsInRange(). For a float
+   * column, lo and hi are rounded to float, the same as the index does.
+   */
+  public TableView findRowsInRange(int column, double lo, double hi) {
+    int col = tableColumn(column);
+    if (rows == null) {
+      int[] selected = table.findRowsInRange(col, lo, hi).getRowIndices();
+      Arrays.sort(selected);
+      return new TableView(table, selected, columns);
+    }
+    Object data = numericColumn(col);
+    if (data instanceof float[]) {
+      lo = (float) lo;
+      hi = (float) hi;
+    }
+    long[] nulls = table.nullBits(col);
+    IntList selected = new IntList();
+    for (int row : rows) {
+      if (nulls != null && TableNulls.get(nulls, row)) {
+        continue;
+      }
+      double value;
+      if (data instanceof int[]) {
+        value = ((int[]) data)[row];
+      } else if (data instanceof long[]) {
+        value = ((long[]) data)[row];
+      } else if (data instanceof float[]) {
+        value = ((float[]) data)[row];
+      } else {
+        value = ((double[]) data)[row];
+      }
+      if (value >= lo && value <= hi) {
+        selected.append(row);
+      }
+    }
+    return new TableView(table, selected.array(), columns);
+  }
+
+
+  public TableView findRowsInRange(String columnName, double lo, double hi) {
+    return findRowsInRange(getColumnIndex(columnName), lo, hi);
+  }
+
+
+  /**
+   * Same as above, compared as longs for int and long columns, so that
+   * large long values are exact.
+   */
+  public TableView findRowsInRange(int column, long lo, long hi) {
+    int col = tableColumn(column);
+    if (rows == null) {
+      int[] selected = table.findRowsInRange(col, lo, hi).getRowIndices();
+      Arrays.sort(selected);
+      return new TableView(table, selected, columns);
+    }
+    Object data = numericColumn(col);
+    if (data instanceof float[] || data instanceof double[]) {
+      return findRowsInRange(column, (double) lo, (double) hi);
+    }
+    long[] nulls = table.nullBits(col);
+    IntList selected = new IntList();
+    for (int row : rows) {
+      if (nulls != null && TableNulls.get(nulls, row)) {
+        continue;
+      }
+      long value = (data instanceof int[]) ?
+        ((int[]) data)[row] : ((long[]) data)[row];
+      if (value >= lo && value <= hi) {
+        selected.append(row);
+      }
+    }
+    return new TableView(table, selected.array(), columns);
+  }
+
+
+  public TableView findRowsInRange(String columnName, long lo, long hi) {
+    return findRowsInRange(getColumnIndex(columnName), lo, hi);
+  }
+
+
+  private Object numericColumn(int col) {
+    int type = table.getColumnType(col);
+    if (type != Table.INT && type != Table.LONG &&
+        type != Table.FLOAT && type != Table.DOUBLE) {
+      throw new IllegalArgumentException("Column " + col + " is not a numeric column.");
+    }
+    return table.columns[col];
+  }
+
+
+  // . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . .
+
+
+  /**
+   * Sort the rows of this view by the values in a column. Only the view's
+   * list of rows is reordered, the table itself is left alone.
+   */
+  public void sort(int column) {
+    sort(new int[] { column }, null);
+  }
+
+
+  public void sort(String columnName) {
+    sort(getColumnIndex(columnName));
+  }
+
+
+  public void sortReverse(int column) {
+    sort(new int[] { column }, new boolean[] { true });
+  }
+
+
+  public void sortReverse(String columnName) {
+    sortReverse(getColumnIndex(columnName));
+  }
+
+
+  /**
+   * Sort by several columns, same as Table.sort(int[], boolean[]).
+   */
+  public void sort(int[] columns, boolean[] reverse) {
+    if (reverse != null && reverse.length != columns.length) {
+      throw new IllegalArgumentException("reverse[] must be the same length as columns[]");
+    }
+    int[] sortColumns = new int[columns.length];
+    for (int i = 0; i < columns.length; i++) {
+      sortColumns[i] = tableColumn(columns[i]);
+    }
+    rows = TableSort.order(table, rows, sortColumns, reverse);
+  }
+
+
+  public void sort(String[] columnNames, boolean[] reverse) {
+    int[] columns = new int[columnNames.length];
+    for (int i = 0; i < columns.length; i++) {
+      columns[i] = getColumnIndex(columnNames[i]);
+    }
+    sort(columns, reverse);
+  }
+
+
+  /**
+   * Group the rows of this view, same as Table.groupBy(). Column numbers
+   * passed to the TableGroupBy are columns of this view.
+   */
+  public TableGroupBy groupBy(String... columnNames) {
+    int[] columns = new int[columnNames.length];
+    for (int i = 0; i < columns.length; i++) {
+      columns[i] = getColumnIndex(columnNames[i]);
+    }
+    return groupBy(columns);
+  }
+
+
+  public TableGroupBy groupBy(int... columns) {
+    int[] keyColumns = new int[columns.length];
+    for (int i = 0; i < columns.length; i++) {
+      keyColumns[i] = tableColumn(columns[i]);
+    }
+    return new TableGroupBy(table, rows, this.columns, keyColumns);
+  }
+
+
+  // . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . .
+
+
+  /**
+   * Copy the rows and columns of this view into a new Table.
+   */
+  public Table getTable() {
+    Table outgoing = new Table();
+    outgoing.missingString = table.missingString;
+    outgoing.missingInt = table.missingInt;
+    outgoing.missingLong = table.missingLong;
+    outgoing.missingFloat = table.missingFloat;
+    outgoing.missingDouble = table.missingDouble;
+    outgoing.missingCategory = table.missingCategory;
+
+    int count = getRowCount();
+    int columnCount = getColumnCount();
+    for (int col = 0; col < columnCount; col++) {
+      int source = tableColumn(col);
+      outgoing.addColumn(table.getColumnTitle(source), table.getColumnType(source));
+    }
+    outgoing.setRowCount(count);
+
+    for (int col = 0; col < columnCount; col++) {
+      int source = tableColumn(col);
+      Object data = table.columns[source];
+      Object dest = outgoing.columns[col];
+      if (rows == null) {
+        System.arraycopy(data, 0, dest, 0, count);
+      } else if (data instanceof int[]) {
+        for (int i = 0; i < count; i++) {
+          ((int[]) dest)[i] = ((int[]) data)[rows[i]];
+        }
+      } else if (data instanceof long[]) {
+        for (int i = 0; i < count; i++) {
+          ((long[]) dest)[i] = ((long[]) data)[rows[i]];
+        }
+      } else if (data instanceof float[]) {
+        for (int i = 0; i < count; i++) {
+          ((float[]) dest)[i] = ((float[]) data)[rows[i]];
+        }
+      } else if (data instanceof double[]) {
+        for (int i = 0; i < count; i++) {
+          ((double[]) dest)[i] = ((double[]) data)[rows[i]];
+        }
+      } else {
+        for (int i = 0; i < count; i++) {
+          ((String[]) dest)[i] = ((String[]) data)[rows[i]];
+        }
+      }
+      if (table.getColumnType(source) == Table.CATEGORY) {
+        outgoing.columnCategories[col] =
+          new Table.HashMapBlows(table.columnCategories[source]);
+      }
+      long[] bits = table.nullBits(source);
+      if (bits != null) {
+        if (outgoing.columnNulls == null) {
+          outgoing.columnNulls = new long[columnCount][];
+        }
+        outgoing.columnNulls[col] = (rows == null) ?
+          TableNulls.copy(bits, count, null, 0, count) :
+          TableNulls.gather(bits, rows, count);
+      }
+    }
+    return outgoing;
+  }
+
+
+  public void write(PrintWriter writer) {
+    getTable().write(writer);
+  }
+
+
+  public void print() {
+    getTable().print();
+  }
+
+
+  // . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . .
+
+
+  /**
+   * A row of the view. Reads and writes go through the view, so that
+   * setting a value makes the view's own copy first.
+   */
+  class ViewRow implements TableRow {
+    int row;
+
+    ViewRow(int row) {
+      this.row = row;
+    }
+
+    public String getString(int column) {
+      return TableView.this.getString(row, column);
+    }
+
+    public String getString(String columnName) {
+      return TableView.this.getString(row, columnName);
+    }
+
+    public int getInt(int column) {
+      return TableView.this.getInt(row, column);
+    }
+
+    public int getInt(String columnName) {
+      return TableView.this.getInt(row, columnName);
+    }
+
+    public long getLong(int column) {
+      return TableView.this.getLong(row, column);
+    }
+
+    public long getLong(String columnName) {
+      return TableView.this.getLong(row, columnName);
+    }
+
+    public float getFloat(int column) {
+      return TableView.this.getFloat(row, column);
+    }
+
+    public float getFloat(String columnName) {
+      return TableView.this.getFloat(row, columnName);
+    }
+
+    public double getDouble(int column) {
+      return TableView.this.getDouble(row, column);
+    }
+
+    public double getDouble(String columnName) {
+      return TableView.this.getDouble(row, columnName);
+    }
+
+    public boolean isNull(int column) {
+      return TableView.this.isNull(row, column);
+    }
+
+    public boolean isNull(String columnName) {
+      return TableView.this.isNull(row, columnName);
+    }
+
+    public void setString(int column, String value) {
+      TableView.this.setString(row, column, value);
+    }
+
+    public void setString(String columnName, String value) {
+      TableView.this.setString(row, columnName, value);
+    }
+
+    public void setInt(int column, int value) {
+      TableView.this.setInt(row, column, value);
+    }
+
+    public void setInt(String columnName, int value) {
+      TableView.this.setInt(row, columnName, value);
+    }
+
+    public void setLong(int column, long value) {
+      TableView.this.setLong(row, column, value);
+    }
+
+    public void setLong(String columnName, long value) {
+      TableView.this.setLong(row, columnName, value);
+    }
+
+    public void setFloat(int column, float value) {
+      TableView.this.setFloat(row, column, value);
+    }
+
+    public void setFloat(String columnName, float value) {
+      TableView.this.setFloat(row, columnName, value);
+    }
+
+    public void setDouble(int column, double value) {
+      TableView.this.setDouble(row, column, value);
+    }
+
+    public void setDouble(String columnName, double value) {
+      TableView.this.setDouble(row, columnName, value);
+    }
+
+    public int getColumnCount() {
+      return TableView.this.getColumnCount();
+    }
+
+    public int getColumnType(String columnName) {
+      return TableView.this.getColumnType(columnName);
+    }
+
+    public int getColumnType(int column) {
+      return TableView.this.getColumnType(column);
+    }
+
+    public int[] getColumnTypes() {
+      return TableView.this.getColumnTypes();
+    }
+
+    public String getColumnTitle(int column) {
+      return TableView.this.getColumnTitle(column);
+    }
+
+    public String[] getColumnTitles() {
+      return TableView.this.getColumnTitles();
+    }
+
+    public void print() {
+      write(new PrintWriter(System.out));
+    }
+
+    public void write(PrintWriter writer) {
+      for (int i = 0 ; i < getColumnCount(); i++) {
+        if (i != 0) {
+          writer.print('\t');
+        }
+        writer.print(getString(i));
+      }
+    }
+  }
+}
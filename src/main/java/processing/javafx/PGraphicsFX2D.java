@@ -25,9 +25,12 @@ package processing.javafx;
 import java.nio.IntBuffer;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.WeakHashMap;
 
+import javafx.geometry.Point2D;
 import javafx.scene.SnapshotParameters;
 import javafx.scene.canvas.GraphicsContext;
 import javafx.scene.effect.BlendMode;
@@ -43,8 +46,10 @@ import javafx.scene.shape.StrokeLineJoin;
 import javafx.scene.text.Font;
 import javafx.scene.text.Text;
 import javafx.scene.transform.Affine;
+import javafx.scene.transform.NonInvertibleTransformException;
 import javafx.scene.transform.Transform;
 import processing.core.PApplet;
+import processing.core.PAssetLoader;
 import processing.core.PFont;
 import processing.core.PGraphics;
 import processing.core.PImage;
@@ -54,6 +59,7 @@ import processing.core.PMatrix3D;
 import processing.core.PShape;
 import processing.core.PShapeSVG;
 import processing.core.PSurface;
+import processing.core.PTiledImage;
 
 public class PGraphicsFX2D extends PGraphics {
 	GraphicsContext context;
@@ -94,6 +100,7 @@ public class PGraphicsFX2D extends PGraphics {
 
 	int transformCount;
 	Affine transformStack[] = new Affine[MATRIX_STACK_DEPTH];
+	Affine mipmapTransform;
 
 //  Line2D.Float line = new Line2D.Float();
 //  Ellipse2D.Float ellipse = new Ellipse2D.Float();
@@ -957,19 +964,21 @@ public class PGraphicsFX2D extends PGraphics {
 
 		// If image previously was tinted, or the color changed
 		// or the image was tinted, and tint is now disabled
-		if ((this.tint && !cash.tinted) || (this.tint && (cash.tintedColor != this.tintColor))
-				|| (!this.tint && cash.tinted)) {
-			// For tint change, mark all pixels as needing update.
-			who.updatePixels();
-		}
+		boolean tintChanged = (this.tint && !cash.tinted) || (this.tint && (cash.tintedColor != this.tintColor))
+				|| (!this.tint && cash.tinted);
 
-		if (who.isModified()) {
-			if (who.pixels == null) {
+		if (who.isModified() || tintChanged) {
+			if ((who.pixels == null) && (who.getSamples() == null)) {
 				// This might be a PGraphics that hasn't been drawn to yet.
 				// Can't just bail because the cache has been created above.
 				// https://github.com/processing/processing/issues/2208
 				who.pixels = new int[who.pixelWidth * who.pixelHeight];
 			}
+			// The mipmap levels are tinted by their own caches, so only new
+			// pixels make the pyramid out of date.
+			if (who.isModified()) {
+				cash.invalidateMipmaps();
+			}
 			cash.update(who, this.tint, this.tintColor);
 			who.setModified(false);
 		}
@@ -979,8 +988,146 @@ public class PGraphicsFX2D extends PGraphics {
 		u2 *= who.pixelDensity;
 		v2 *= who.pixelDensity;
 
-		this.context.drawImage(((ImageCache) this.getCache(who)).image, u1, v1, u2 - u1, v2 - v1, x1, y1, x2 - x1,
-				y2 - y1);
+		// With hint(ENABLE_IMAGE_MIPMAPS), when the image is shrunk a lot, draw a
+		// smaller copy from its mipmap pyramid instead, once that has been built
+		// in the background. Not for PGraphics, whose pixels change all the time.
+		if (this.hints[ENABLE_IMAGE_MIPMAPS] && !(who instanceof PGraphics)) {
+			int level = this.mipmapLevel(x2 - x1, y2 - y1, u2 - u1, v2 - v1);
+			ImageCache mip = (level > 0) ? cash.level(who, level, this.parent, this.tint, this.tintColor) : null;
+			if (mip != null) {
+				double sx = mip.image.getWidth() / who.pixelWidth;
+				double sy = mip.image.getHeight() / who.pixelHeight;
+				this.context.drawImage(mip.image, u1 * sx, v1 * sy, (u2 - u1) * sx, (v2 - v1) * sy, x1, y1, x2 - x1,
+						y2 - y1);
+				return;
+			}
+		}
+
+		this.context.drawImage(cash.image, u1, v1, u2 - u1, v2 - v1, x1, y1, x2 - x1, y2 - y1);
+	}
+
+	/**
+	 * Pick the mipmap level for drawing a source region of uw x vh pixels into a
+	 * region of w x h, given the current transform. Level n is 2^n times smaller
+	 * than the image, and is used until it would have to be magnified.
+	 */
+	protected int mipmapLevel(float w, float h, int uw, int vh) {
+		if ((uw == 0) || (vh == 0)) {
+			return 0;
+		}
+		this.mipmapTransform = this.context.getTransform(this.mipmapTransform);
+		double tx = Math.hypot(this.mipmapTransform.getMxx(), this.mipmapTransform.getMyx());
+		double ty = Math.hypot(this.mipmapTransform.getMxy(), this.mipmapTransform.getMyy());
+		double scale = Math.max(Math.abs(w / uw) * tx, Math.abs(h / vh) * ty);
+
+		int level = 0;
+		while ((scale > 0) && (scale <= 0.5)) {
+			scale *= 2;
+			level++;
+		}
+		return level;
+	}
+
+	// Renderer copies of the tiles of PTiledImages, least recently drawn first
+	protected Map<PTiledImage, LinkedHashMap<Long, TileCache>> tileCaches = new WeakHashMap<>();
+
+	static class TileCache {
+		ImageCache cache = new ImageCache();
+		int version = -1;
+	}
+
+	/**
+	 * Draw only the tiles of a PTiledImage that end up inside the surface. Their
+	 * pixels are read back as needed and kept as WritableImages between frames.
+	 */
+	@Override
+	protected void tiledImageImpl(PTiledImage img, float x1, float y1, float x2, float y2) {
+		if ((x2 <= x1) || (y2 <= y1)) {
+			return;
+		}
+
+		// Map the corners of the surface back through the current transform to
+		// find the part of the destination rectangle that is visible.
+		Affine t = this.context.getTransform();
+		double vx1 = Double.MAX_VALUE, vy1 = Double.MAX_VALUE;
+		double vx2 = -Double.MAX_VALUE, vy2 = -Double.MAX_VALUE;
+		double[][] corners = { { 0, 0 }, { this.width, 0 }, { 0, this.height }, { this.width, this.height } };
+		try {
+			for (double[] corner : corners) {
+				Point2D p = t.inverseTransform(corner[0], corner[1]);
+				vx1 = Math.min(vx1, p.getX());
+				vy1 = Math.min(vy1, p.getY());
+				vx2 = Math.max(vx2, p.getX());
+				vy2 = Math.max(vy2, p.getY());
+			}
+		} catch (NonInvertibleTransformException e) {
+			return; // collapsed to nothing
+		}
+		vx1 = Math.max(vx1, x1);
+		vy1 = Math.max(vy1, y1);
+		vx2 = Math.min(vx2, x2);
+		vy2 = Math.min(vy2, y2);
+		if ((vx1 >= vx2) || (vy1 >= vy2)) {
+			return;
+		}
+
+		// visible pixels of the image, then the tiles that cover them
+		double sx = img.width / (double) (x2 - x1);
+		double sy = img.height / (double) (y2 - y1);
+		int u1 = Math.max(0, (int) Math.floor((vx1 - x1) * sx));
+		int v1 = Math.max(0, (int) Math.floor((vy1 - y1) * sy));
+		int u2 = Math.min(img.width, (int) Math.ceil((vx2 - x1) * sx));
+		int v2 = Math.min(img.height, (int) Math.ceil((vy2 - y1) * sy));
+		if ((u1 >= u2) || (v1 >= v2)) {
+			return;
+		}
+		int size = img.getTileSize();
+		int col1 = u1 / size;
+		int row1 = v1 / size;
+		int col2 = (u2 - 1) / size;
+		int row2 = (v2 - 1) / size;
+
+		LinkedHashMap<Long, TileCache> caches = this.tileCaches.get(img);
+		if (caches == null) {
+			caches = new LinkedHashMap<>(16, 0.75f, true);
+			this.tileCaches.put(img, caches);
+		}
+		int capacity = Math.max(TILE_CACHE_SIZE, 2 * (col2 - col1 + 1) * (row2 - row1 + 1));
+
+		PImage pixels = null;
+		for (int row = row1; row <= row2; row++) {
+			for (int col = col1; col <= col2; col++) {
+				Long key = ((long) row * img.getTileCols()) + col;
+				TileCache tile = caches.get(key);
+				if (tile == null) {
+					tile = new TileCache();
+					caches.put(key, tile);
+				}
+				int version = img.getTileVersion(col, row);
+				if ((tile.version != version) || (tile.cache.tinted != this.tint)
+						|| (this.tint && (tile.cache.tintedColor != this.tintColor))) {
+					if (pixels == null) {
+						pixels = new PImage(size, size, img.format);
+					}
+					img.readTile(col, row, pixels.pixels);
+					tile.cache.update(pixels, this.tint, this.tintColor);
+					tile.version = version;
+				}
+
+				int u = col * size;
+				int v = row * size;
+				int w = Math.min(size, img.width - u);
+				int h = Math.min(size, img.height - v);
+				this.context.drawImage(tile.cache.image, 0, 0, w, h, x1 + (u / sx), y1 + (v / sy), w / sx, h / sy);
+			}
+		}
+
+		// forget the tiles that were drawn the longest time ago
+		Iterator<Long> it = caches.keySet().iterator();
+		while ((caches.size() > capacity) && it.hasNext()) {
+			it.next();
+			it.remove();
+		}
 	}
 
 	static class ImageCache {
@@ -990,12 +1137,148 @@ public class PGraphicsFX2D extends PGraphics {
 		// BufferedImage image;
 		WritableImage image;
 
+		// Mipmap pyramid, built in the background the first time the image is
+		// drawn at half its size or less. levels[n] is 2^n times smaller than the
+		// image (levels[0] is unused), and each level has its own cache image.
+		PImage[] levels;
+		ImageCache[] levelCaches;
+		boolean levelsBuilding;
+		int levelsGeneration;
+
+		/**
+		 * Returns the cache for mipmap level n (or the smallest available level),
+		 * or null if the pyramid is not ready yet. The first call starts building
+		 * it on the sketch's asset loader; if the pixels change meanwhile, the
+		 * next build only starts once that one is done.
+		 */
+		synchronized ImageCache level(PImage source, int n, PApplet parent, boolean tint, int tintColor) {
+			if (this.levels == null) {
+				byte[] samples = source.getSamples();
+				if (!this.levelsBuilding && (parent != null) && ((source.pixels != null) || (samples != null))) {
+					this.levelsBuilding = true;
+					// compact images are expanded on the loader thread
+					final PImage compact = (samples != null)
+							? new PImage(source.pixelWidth, source.pixelHeight, source.format, samples)
+							: null;
+					final int[] pixels = source.pixels;
+					final int w = source.pixelWidth;
+					final int h = source.pixelHeight;
+					final int format = source.format;
+					final int generation = this.levelsGeneration;
+					parent.assetLoader().submit(() -> {
+						PImage[] built = null;
+						try {
+							built = buildMipmaps((compact != null) ? compact.expandSamples() : pixels, w, h, format);
+						} finally {
+							synchronized (ImageCache.this) {
+								if ((built != null) && (generation == ImageCache.this.levelsGeneration)) {
+									ImageCache.this.levels = built;
+									ImageCache.this.levelCaches = new ImageCache[built.length];
+								}
+								ImageCache.this.levelsBuilding = false;
+							}
+						}
+						return null;
+					}, PAssetLoader.PREFETCH);
+				}
+				return null;
+			}
+			if (this.levels.length < 2) {
+				return null;
+			}
+			n = Math.min(n, this.levels.length - 1);
+			ImageCache cache = this.levelCaches[n];
+			if (cache == null) {
+				cache = new ImageCache();
+				this.levelCaches[n] = cache;
+			}
+			if ((cache.image == null) || (cache.tinted != tint) || (tint && (cache.tintedColor != tintColor))) {
+				cache.update(this.levels[n], tint, tintColor);
+			}
+			return cache;
+		}
+
+		/**
+		 * Drop the pyramid, called whenever the image pixels change. A build that
+		 * is still running is left to finish, its result is thrown away.
+		 */
+		synchronized void invalidateMipmaps() {
+			this.levels = null;
+			this.levelCaches = null;
+			this.levelsGeneration++;
+		}
+
+		/**
+		 * Build the pyramid with a 2x2 box filter, weighting colors by their alpha
+		 * so that transparent pixels do not darken the edges.
+		 */
+		static PImage[] buildMipmaps(int[] pixels, int w, int h, int format) {
+			int count = 1;
+			for (int lw = w, lh = h; (lw > 1) || (lh > 1); lw = Math.max(1, lw / 2), lh = Math.max(1, lh / 2)) {
+				count++;
+			}
+			PImage[] levels = new PImage[count];
+			int[] src = pixels;
+			int sw = w;
+			int sh = h;
+			for (int n = 1; n < count; n++) {
+				int dw = Math.max(1, sw / 2);
+				int dh = Math.max(1, sh / 2);
+				PImage level = new PImage(dw, dh, format);
+				int[] dst = level.pixels;
+				int index = 0;
+				for (int y = 0; y < dh; y++) {
+					int row0 = Math.min(2 * y, sh - 1) * sw;
+					int row1 = Math.min(2 * y + 1, sh - 1) * sw;
+					for (int x = 0; x < dw; x++) {
+						int x0 = Math.min(2 * x, sw - 1);
+						int x1 = Math.min(2 * x + 1, sw - 1);
+						dst[index++] = average(src[row0 + x0], src[row0 + x1], src[row1 + x0], src[row1 + x1], format);
+					}
+				}
+				levels[n] = level;
+				src = dst;
+				sw = dw;
+				sh = dh;
+			}
+			return levels;
+		}
+
+		static private int average(int c0, int c1, int c2, int c3, int format) {
+			if (format == ALPHA) {
+				return ((c0 & 0xff) + (c1 & 0xff) + (c2 & 0xff) + (c3 & 0xff) + 2) >> 2;
+			}
+			int a0 = (format == RGB) ? 0xff : (c0 >>> 24);
+			int a1 = (format == RGB) ? 0xff : (c1 >>> 24);
+			int a2 = (format == RGB) ? 0xff : (c2 >>> 24);
+			int a3 = (format == RGB) ? 0xff : (c3 >>> 24);
+			int sa = a0 + a1 + a2 + a3;
+			if (sa == 0) {
+				return 0;
+			}
+			int r = (((c0 >> 16) & 0xff) * a0 + ((c1 >> 16) & 0xff) * a1 + ((c2 >> 16) & 0xff) * a2
+					+ ((c3 >> 16) & 0xff) * a3 + (sa >> 1)) / sa;
+			int g = (((c0 >> 8) & 0xff) * a0 + ((c1 >> 8) & 0xff) * a1 + ((c2 >> 8) & 0xff) * a2
+					+ ((c3 >> 8) & 0xff) * a3 + (sa >> 1)) / sa;
+			int b = ((c0 & 0xff) * a0 + (c1 & 0xff) * a1 + (c2 & 0xff) * a2 + (c3 & 0xff) * a3 + (sa >> 1)) / sa;
+			return (((sa + 2) >> 2) << 24) | (r << 16) | (g << 8) | b;
+		}
+
 		/**
 		 * Update the pixels of the cache image. Already determined that the tint has
 		 * changed, or the pixels have changed, so should just go through with the
 		 * update without further checks.
 		 */
 		public void update(PImage source, boolean tint, int tintColor) {
+			// Tinted ALPHA images in compact 8-bit storage are expanded straight
+			// from their samples below, anything else compact is read through a
+			// temporary int copy.
+			byte[] samples = source.getSamples();
+			int[] pixels = source.pixels;
+			if ((samples != null) && !(tint && (source.format == ALPHA))) {
+				pixels = source.expandSamples();
+				samples = null;
+			}
 			// int bufferType = BufferedImage.TYPE_INT_ARGB;
 			int targetType = ARGB;
 			boolean opaque = (tintColor & 0xFF000000) == 0xFF000000;
@@ -1040,7 +1323,7 @@ public class PGraphicsFX2D extends PGraphics {
 					int index = 0;
 					for (int y = 0; y < source.pixelHeight; y++) {
 						for (int x = 0; x < source.pixelWidth; x++) {
-							int argb1 = source.pixels[index++];
+							int argb1 = pixels[index++];
 							int r1 = (argb1 >> 16) & 0xff;
 							int g1 = (argb1 >> 8) & 0xff;
 							int b1 = (argb1) & 0xff;
@@ -1067,7 +1350,7 @@ public class PGraphicsFX2D extends PGraphics {
 						int index = 0;
 						for (int y = 0; y < source.pixelHeight; y++) {
 							for (int x = 0; x < source.pixelWidth; x++) {
-								this.tintedTemp[x] = hi | (source.pixels[index++] & 0xFFFFFF);
+								this.tintedTemp[x] = hi | (pixels[index++] & 0xFFFFFF);
 							}
 							// wr.setDataElements(0, y, source.width, 1, tintedTemp);
 							pw.setPixels(0, y, source.pixelWidth, 1, argbFormat, this.tintedTemp, 0, source.pixelWidth);
@@ -1078,7 +1361,7 @@ public class PGraphicsFX2D extends PGraphics {
 							if (source.format == RGB) {
 								int alpha = tintColor & 0xFF000000;
 								for (int x = 0; x < source.pixelWidth; x++) {
-									int argb1 = source.pixels[index++];
+									int argb1 = pixels[index++];
 									int r1 = (argb1 >> 16) & 0xff;
 									int g1 = (argb1 >> 8) & 0xff;
 									int b1 = (argb1) & 0xff;
@@ -1087,7 +1370,7 @@ public class PGraphicsFX2D extends PGraphics {
 								}
 							} else if (source.format == ARGB) {
 								for (int x = 0; x < source.pixelWidth; x++) {
-									int argb1 = source.pixels[index++];
+									int argb1 = pixels[index++];
 									int a1 = (argb1 >> 24) & 0xff;
 									int r1 = (argb1 >> 16) & 0xff;
 									int g1 = (argb1 >> 8) & 0xff;
@@ -1097,9 +1380,16 @@ public class PGraphicsFX2D extends PGraphics {
 								}
 							} else if (source.format == ALPHA) {
 								int lower = tintColor & 0xFFFFFF;
-								for (int x = 0; x < source.pixelWidth; x++) {
-									int a1 = source.pixels[index++];
-									this.tintedTemp[x] = (((a2 * a1) & 0xff00) << 16) | lower;
+								if (samples != null) {
+									for (int x = 0; x < source.pixelWidth; x++) {
+										int a1 = samples[index++] & 0xff;
+										this.tintedTemp[x] = (((a2 * a1) & 0xff00) << 16) | lower;
+									}
+								} else {
+									for (int x = 0; x < source.pixelWidth; x++) {
+										int a1 = pixels[index++];
+										this.tintedTemp[x] = (((a2 * a1) & 0xff00) << 16) | lower;
+									}
 								}
 							}
 							// wr.setDataElements(0, y, source.width, 1, tintedTemp);
@@ -1113,19 +1403,20 @@ public class PGraphicsFX2D extends PGraphics {
 //          op.filter(image, image);
 				}
 			} else { // !tint
-				if ((targetType == RGB) && ((source.pixels[0] >> 24) == 0)) {
+				if ((targetType == RGB) && ((pixels[0] >> 24) == 0)) {
 					// If it's an RGB image and the high bits aren't set, need to set
 					// the high bits to opaque because we're drawing ARGB images.
 					source.filter(OPAQUE);
+					pixels = source.pixels;
 					// Opting to just manipulate the image here, since it shouldn't
 					// affect anything else (and alpha(get(x, y)) should return 0xff).
 					// Wel also make no guarantees about the values of the pixels array
 					// in a PImage and how the high bits will be set.
 				}
 				// If no tint, just shove the pixels on in there verbatim
-				// wr.setDataElements(0, 0, source.width, source.height, source.pixels);
+				// wr.setDataElements(0, 0, source.width, source.height, pixels);
 				// System.out.println("moving the big one");
-				pw.setPixels(0, 0, source.pixelWidth, source.pixelHeight, argbFormat, source.pixels, 0,
+				pw.setPixels(0, 0, source.pixelWidth, source.pixelHeight, argbFormat, pixels, 0,
 						source.pixelWidth);
 			}
 			this.tinted = tint;
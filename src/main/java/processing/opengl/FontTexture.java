@@ -271,13 +271,15 @@ class FontTexture implements PConstants {
     int[] rgba = new int[w * h];
     int t = 0;
     int p = 0;
+    int[] alpha = (glyph.image.getSamples() != null) ?
+      glyph.image.expandSamples() : glyph.image.pixels;
     if (PGL.BIG_ENDIAN)  {
       java.util.Arrays.fill(rgba, 0, w, 0xFFFFFF00); // Set the first row to blank pixels.
       t = w;
       for (int y = 0; y < glyph.height; y++) {
         rgba[t++] = 0xFFFFFF00; // Set the leftmost pixel in this row as blank
         for (int x = 0; x < glyph.width; x++) {
-          rgba[t++] = 0xFFFFFF00 | glyph.image.pixels[p++];
+          rgba[t++] = 0xFFFFFF00 | alpha[p++];
         }
         rgba[t++] = 0xFFFFFF00; // Set the rightmost pixel in this row as blank
       }
@@ -288,7 +290,7 @@ class FontTexture implements PConstants {
       for (int y = 0; y < glyph.height; y++) {
         rgba[t++] = 0x00FFFFFF; // Set the leftmost pixel in this row as blank
         for (int x = 0; x < glyph.width; x++) {
-          rgba[t++] = (glyph.image.pixels[p++] << 24) | 0x00FFFFFF;
+          rgba[t++] = (alpha[p++] << 24) | 0x00FFFFFF;
         }
         rgba[t++] = 0x00FFFFFF; // Set the rightmost pixel in this row as blank
       }
@@ -5827,12 +5827,17 @@ public class PGraphicsOpenGL extends PGraphics {
         PImage target = asyncImageSaver.getAvailableTarget(widths[tail],
                                                            heights[tail],
                                                            format);
-        if (target == null) return;
-        readBuffer.rewind();
-        readBuffer.asIntBuffer().get(target.pixels);
+        if (target != null) {
+          readBuffer.rewind();
+          readBuffer.asIntBuffer().get(target.pixels);
+        }
         pgl.unmapBuffer(PGL.PIXEL_PACK_BUFFER);
-        asyncImageSaver.saveTargetAsync(PGraphicsOpenGL.this, target,
-                                        files[tail]);
+        // a null target means the frame was dropped, the transfer is
+        // still done with, so the buffer goes back to the ring either way
+        if (target != null) {
+          asyncImageSaver.saveTargetAsync(PGraphicsOpenGL.this, target,
+                                          files[tail]);
+        }
       }
 
       pgl.bindBuffer(PGL.PIXEL_PACK_BUFFER, 0);
@@ -6428,7 +6433,11 @@ public class PGraphicsOpenGL extends PGraphics {
     Texture tex = (Texture)getCache(img);
     if (tex == null || tex.contextIsOutdated()) {
       tex = addTexture(img);
-      if (tex != null) {
+      if (tex != null && img.getSamples() != null) {
+        // compact 8-bit image, upload an int copy and leave it compact
+        tex.set(img.expandSamples(), img.format);
+        img.setModified();
+      } else if (tex != null) {
         boolean dispose = img.pixels == null;
         img.loadPixels();
         tex.set(img.pixels, img.format);
@@ -6535,7 +6544,8 @@ public class PGraphicsOpenGL extends PGraphics {
         int y = img.getModifiedY1();
         int w = img.getModifiedX2() - x;
         int h = img.getModifiedY2() - y;
-        tex.set(img.pixels, x, y, w, h, img.format);
+        int[] data = (img.getSamples() != null) ? img.expandSamples() : img.pixels;
+        tex.set(data, x, y, w, h, img.format);
       }
     }
     img.setModified(false);
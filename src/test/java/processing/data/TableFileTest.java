@@ -0,0 +1,108 @@
+package processing.data;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Test;
+
+
+public class TableFileTest {
+
+  /** One column of each type, with a missing value every few rows. */
+  static Table sample(int rows) {
+    Table table = new Table();
+    table.addColumn("s", Table.STRING);
+    table.addColumn("i", Table.INT);
+    table.addColumn("l", Table.LONG);
+    table.addColumn("f", Table.FLOAT);
+    table.addColumn("d", Table.DOUBLE);
+    table.addColumn("c", Table.CATEGORY);
+    for (int row = 0; row < rows; row++) {
+      table.addRow(new Object[] {
+        "name" + (row % 7), row, (1L << 40) + row, row / 4f, row / 3.0, "cat" + (row % 3)
+      });
+    }
+    for (int row = 0; row < rows; row += 5) {
+      table.setNull(row, row % table.getColumnCount());
+    }
+    if (rows > 1) {
+      table.setString(1, 0, null);
+    }
+    return table;
+  }
+
+
+  static void assertSameTable(Table expected, Table actual) {
+    assertEquals(expected.getRowCount(), actual.getRowCount());
+    assertEquals(expected.getColumnCount(), actual.getColumnCount());
+    for (int col = 0; col < expected.getColumnCount(); col++) {
+      assertEquals(expected.getColumnTitle(col), actual.getColumnTitle(col));
+      assertEquals(expected.getColumnType(col), actual.getColumnType(col));
+      for (int row = 0; row < expected.getRowCount(); row++) {
+        String where = "row " + row + " column " + col;
+        assertEquals(where, expected.isNull(row, col), actual.isNull(row, col));
+        assertEquals(where, expected.getString(row, col), actual.getString(row, col));
+      }
+    }
+  }
+
+
+  @Test
+  public void fileRoundTrip() throws IOException {
+    Table table = sample(1000);
+    File file = File.createTempFile("table", ".bin");
+    try {
+      assertTrue(table.save(file, "bin"));
+      assertTrue(TableFile.isTableFile(file));
+      assertSameTable(table, new Table(file, "bin"));
+      assertSameTable(table, new TableFile(file).getTable());
+    } finally {
+      file.delete();
+    }
+  }
+
+
+  @Test
+  public void streamRoundTrip() throws IOException {
+    Table table = sample(1000);
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    assertTrue(table.save(output, "bin"));
+    byte[] bytes = output.toByteArray();
+    assertSameTable(table, new Table(new ByteArrayInputStream(bytes), "bin"));
+  }
+
+
+  @Test
+  public void emptyTable() throws IOException {
+    Table table = sample(0);
+    File file = File.createTempFile("table", ".bin");
+    try {
+      assertTrue(table.save(file, "bin"));
+      assertSameTable(table, new Table(file, "bin"));
+    } finally {
+      file.delete();
+    }
+  }
+
+
+  @Test
+  public void mappedNulls() throws IOException {
+    Table table = sample(100);
+    File file = File.createTempFile("table", ".bin");
+    try {
+      table.save(file, "bin");
+      TableFile tableFile = new TableFile(file);
+      for (int row = 0; row < 100; row++) {
+        for (int col = 0; col < table.getColumnCount(); col++) {
+          assertEquals(table.isNull(row, col), tableFile.isNull(row, col));
+        }
+      }
+    } finally {
+      file.delete();
+    }
+  }
+}
@@ -0,0 +1,112 @@
+package processing.data;
+
+import static org.junit.Assert.*;
+
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+
+public class TableIndexTest {
+
+  /** The rows findRowIndices() should return, found without an index. */
+  static int[] expected(Table table, String value, int column) {
+    IntList outgoing = new IntList();
+    for (int row = 0; row < table.getRowCount(); row++) {
+      String s = table.getString(row, column);
+      if (value == null ? s == null : value.equals(s)) {
+        outgoing.append(row);
+      }
+    }
+    return outgoing.array();
+  }
+
+
+  static void check(Table table, int keys) {
+    for (int column = 0; column < table.getColumnCount(); column++) {
+      for (int key = 0; key < keys; key++) {
+        String value = String.valueOf(key);
+        int[] rows = expected(table, value, column);
+        assertArrayEquals(rows, table.findRowIndices(value, column));
+        assertEquals(rows.length == 0 ? -1 : rows[0], table.findRowIndex(value, column));
+      }
+    }
+  }
+
+
+  @Test
+  public void updatesKeepRowOrder() {
+    Random random = new Random(7);
+    int keys = 5;
+    Table table = new Table();
+    table.addColumn("s", Table.STRING);
+    table.addColumn("i", Table.INT);
+    for (int row = 0; row < 200; row++) {
+      int key = random.nextInt(keys);
+      table.addRow(new Object[] { String.valueOf(key), key });
+    }
+    table.createIndex(0);
+    table.createIndex(1);
+
+    for (int step = 0; step < 2000; step++) {
+      int row = random.nextInt(table.getRowCount());
+      int key = random.nextInt(keys);
+      switch (random.nextInt(5)) {
+      case 0:
+        table.setString(row, 0, String.valueOf(key));
+        break;
+      case 1:
+        table.setInt(row, 1, key);
+        break;
+      case 2:
+        table.insertRow(row, new Object[] { String.valueOf(key), key });
+        break;
+      case 3:
+        table.removeRow(row);
+        break;
+      default:
+        table.addRow(new Object[] { String.valueOf(key), key });
+      }
+      if (step % 50 == 0) {
+        check(table, keys);
+      }
+    }
+    check(table, keys);
+  }
+
+
+  @Test
+  public void nullsKeepRowOrder() {
+    Table table = new Table();
+    table.addColumn("s", Table.STRING);
+    for (int row = 0; row < 10; row++) {
+      table.addRow(new Object[] { "a" });
+    }
+    table.createIndex(0);
+    table.setString(7, 0, null);
+    table.setString(2, 0, null);
+    table.setString(5, 0, null);
+    assertArrayEquals(new int[] { 2, 5, 7 }, table.findRowIndices((String) null, 0));
+    table.setString(2, 0, "a");
+    assertArrayEquals(new int[] { 5, 7 }, table.findRowIndices((String) null, 0));
+    assertArrayEquals(new int[] { 0, 1, 2, 3, 4, 6, 8, 9 }, table.findRowIndices("a", 0));
+  }
+
+
+  @Test
+  public void rowMapHasTheLastRow() {
+    Table table = new Table();
+    table.addColumn("s", Table.STRING);
+    table.addColumn("row", Table.INT);
+    for (int row = 0; row < 10; row++) {
+      table.addRow(new Object[] { row < 5 ? "a" : "b", row });
+    }
+    table.createIndex(0);
+    table.setString(9, 0, "a");
+    table.setString(1, 0, "b");
+    Map<String, TableRow> map = table.getRowMap(0);
+    assertEquals(9, map.get("a").getInt("row"));
+    assertEquals(8, map.get("b").getInt("row"));
+  }
+}
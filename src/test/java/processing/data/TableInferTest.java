@@ -0,0 +1,123 @@
+package processing.data;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+
+public class TableInferTest {
+
+  static Table load(String csv, String options) throws IOException {
+    byte[] bytes = csv.getBytes(StandardCharsets.UTF_8);
+    return new Table(new ByteArrayInputStream(bytes), options);
+  }
+
+
+  /** Numbers written a few different ways in column a, then "last" at the end. */
+  static String column(int rows, String last) {
+    StringBuilder sb = new StringBuilder("a,b\n");
+    String[] values = { "1.50", "+5", "1e3", "", "21", "-0" };
+    for (int i = 0; i < rows; i++) {
+      sb.append(values[i % values.length]).append(',').append(i).append('\n');
+    }
+    sb.append(last).append(',').append(rows).append('\n');
+    return sb.toString();
+  }
+
+
+  @Test
+  public void integersAreInt() throws IOException {
+    Table table = load("a\n1\n-2\n+3\n", "csv,header,infer");
+    assertEquals(Table.INT, table.getColumnType(0));
+    assertEquals(3, table.getInt(2, 0));
+  }
+
+
+  @Test
+  public void bigIntegersAreLong() throws IOException {
+    Table table = load("a\n1\n3000000000\n", "csv,header,infer");
+    assertEquals(Table.LONG, table.getColumnType(0));
+    assertEquals(3000000000L, table.getLong(1, 0));
+  }
+
+
+  @Test
+  public void intsAndDecimalsAreFloat() throws IOException {
+    Table table = load("a,b\n21,1.50\n21.5,2.25\n", "csv,header,infer");
+    assertEquals(Table.FLOAT, table.getColumnType(0));
+    assertEquals(Table.FLOAT, table.getColumnType(1));
+    assertEquals(21f, table.getFloat(0, 0), 0);
+    assertEquals(1.5f, table.getFloat(0, 1), 0);
+  }
+
+
+  @Test
+  public void longDecimalsAreDouble() throws IOException {
+    Table table = load("a\n0.123456789012\n1\n", "csv,header,infer");
+    assertEquals(Table.DOUBLE, table.getColumnType(0));
+    assertEquals(0.123456789012, table.getDouble(0, 0), 0);
+  }
+
+
+  @Test
+  public void leadingZerosStayText() throws IOException {
+    Table table = load("zip\n02134\n10001\n", "csv,header,infer");
+    assertEquals(Table.STRING, table.getColumnType(0));
+    assertEquals("02134", table.getString(0, 0));
+  }
+
+
+  @Test
+  public void emptyCellsAreNull() throws IOException {
+    Table table = load("a,b\n1,2\n,3\n4\n", "csv,header,infer");
+    assertEquals(Table.INT, table.getColumnType(0));
+    assertEquals(Table.INT, table.getColumnType(1));
+    assertFalse(table.isNull(0, 0));
+    assertTrue(table.isNull(1, 0));
+    assertTrue(table.isNull(2, 1));
+  }
+
+
+  @Test
+  public void repeatedTextIsCategory() throws IOException {
+    StringBuilder sb = new StringBuilder("a\n");
+    for (int i = 0; i < 100; i++) {
+      sb.append(i % 2 == 0 ? "yes" : "no").append('\n');
+    }
+    Table table = load(sb.toString(), "csv,header,infer");
+    assertEquals(Table.CATEGORY, table.getColumnType(0));
+    assertEquals("no", table.getString(99, 0));
+  }
+
+
+  @Test
+  public void textAfterTheSampleKeepsEveryValue() throws IOException {
+    // enough rows that the text comes in a later block than the sample
+    String csv = column(300000, "n/a");
+    assertTrue(csv.length() > 2 * Table.PARSE_CHUNK);
+    Table inferred = load(csv, "csv,header,infer");
+    Table plain = load(csv, "csv,header");
+    assertEquals(Table.STRING, inferred.getColumnType(0));
+    assertEquals(Table.INT, inferred.getColumnType(1));
+    assertEquals(plain.getRowCount(), inferred.getRowCount());
+    for (int row = 0; row < plain.getRowCount(); row++) {
+      assertEquals("row " + row, plain.getString(row, 0), inferred.getString(row, 0));
+    }
+  }
+
+
+  @Test
+  public void textInTheFirstBlockKeepsEveryValue() throws IOException {
+    String csv = column(Table.INFER_SAMPLE + 10, "n/a");
+    Table inferred = load(csv, "csv,header,infer");
+    Table plain = load(csv, "csv,header");
+    assertEquals(Table.STRING, inferred.getColumnType(0));
+    for (int row = 0; row < plain.getRowCount(); row++) {
+      assertEquals("row " + row, plain.getString(row, 0), inferred.getString(row, 0));
+    }
+  }
+}
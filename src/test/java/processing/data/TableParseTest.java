@@ -0,0 +1,100 @@
+package processing.data;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import processing.core.PApplet;
+
+
+public class TableParseTest {
+
+  /**
+   * Records with quoted commas, doubled quotes, newlines inside quotes and
+   * short rows, enough of them to be cut into several blocks.
+   */
+  static String records(Random random, boolean tsv) {
+    String[] fields = tsv ?
+      new String[] { "plain", "", "two words", "12.5", "x" } :
+      new String[] { "plain", "", "\"a, b\"", "\"say \"\"hi\"\" now\"",
+                     "\"line one\nline two\"", "\"\r\n\"", "12.5", "\"\"" };
+    char separator = tsv ? '\t' : ',';
+    StringBuilder sb = new StringBuilder();
+    while (sb.length() < 3 * Table.PARSE_CHUNK) {
+      int count = 1 + random.nextInt(6);
+      for (int i = 0; i < count; i++) {
+        if (i != 0) {
+          sb.append(separator);
+        }
+        sb.append(fields[random.nextInt(fields.length)]);
+      }
+      sb.append(random.nextInt(10) == 0 ? "\r\n" : "\n");
+    }
+    return sb.toString();
+  }
+
+
+  /** The rows as read one line at a time, the way tables were read before. */
+  static List<String[]> serial(String text, boolean tsv) throws IOException {
+    Table table = new Table();
+    BufferedReader reader = new BufferedReader(new StringReader(text));
+    List<String[]> outgoing = new ArrayList<>();
+    String line;
+    while ((line = reader.readLine()) != null) {
+      outgoing.add(tsv ? PApplet.split(line, '\t') : table.splitLineCSV(line, reader));
+    }
+    return outgoing;
+  }
+
+
+  static void assertParity(String text, boolean tsv) throws IOException {
+    byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+    Table table = new Table(new ByteArrayInputStream(bytes), tsv ? "tsv" : "csv");
+    List<String[]> expected = serial(text, tsv);
+    assertEquals(expected.size(), table.getRowCount());
+    for (int row = 0; row < expected.size(); row++) {
+      String[] pieces = expected.get(row);
+      for (int col = 0; col < table.getColumnCount(); col++) {
+        String value = (col < pieces.length) ? pieces[col] : null;
+        assertEquals("row " + row + " column " + col, value, table.getString(row, col));
+      }
+    }
+  }
+
+
+  @Test
+  public void csvBlocksMatchSerial() throws IOException {
+    Random random = new Random(39);
+    for (int i = 0; i < 3; i++) {
+      assertParity(records(random, false), false);
+    }
+  }
+
+
+  @Test
+  public void tsvBlocksMatchSerial() throws IOException {
+    assertParity(records(new Random(39), true), true);
+  }
+
+
+  @Test
+  public void quoteAcrossBlockBoundary() throws IOException {
+    // a quoted field with newlines that starts just before the end of a block
+    StringBuilder sb = new StringBuilder();
+    while (sb.length() < Table.PARSE_CHUNK - 10) {
+      sb.append("a,b\n");
+    }
+    sb.append("\"one\ntwo\nthree, four\",five\n");
+    sb.append("last,row\n");
+    assertParity(sb.toString(), false);
+  }
+}